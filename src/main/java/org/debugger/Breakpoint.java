@@ -73,4 +73,30 @@ public interface Breakpoint {
      * @return 
      */
     public boolean hasCountFilter();
+    
+    /**
+     * This method returns true if hitting the breakpoint should only suspend
+     * the thread that hit it. The rest of the program keeps running, which is
+     * useful for programs, like servers, that have many threads of execution.
+     * 
+     * @return 
+     */
+    public boolean isSuspendingThreadOnly();
+    
+    /**
+     * This method returns the condition of the breakpoint, written as a 
+     * Quorum expression, for example "i = 5 and not done". The debugger only
+     * stops at the breakpoint when the condition is true. Breakpoints without
+     * a condition return an empty string.
+     * 
+     * @return 
+     */
+    public String getCondition();
+    
+    /**
+     * This method returns whether or not the breakpoint has a condition.
+     * 
+     * @return 
+     */
+    public boolean hasCondition();
 }
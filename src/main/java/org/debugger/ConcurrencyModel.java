@@ -0,0 +1,77 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger;
+
+/**
+ * The ConcurrencyModel interface represents how the threads of a program 
+ * interact through locks. It can record how long threads spend waiting for
+ * monitors, and can look for deadlocks, where threads each wait for a 
+ * monitor held by the next, in a cycle, so that none of them can continue.
+ *
+ * @author Andreas Stefik
+ */
+public interface ConcurrencyModel {
+
+    /**
+     * This method starts or stops recording the time threads spend waiting
+     * for monitors.
+     *
+     * @param recording
+     */
+    public void setRecording(boolean recording);
+
+    /**
+     * This method returns true if waiting for monitors is being recorded.
+     *
+     * @return
+     */
+    public boolean isRecording();
+
+    /**
+     * This method returns the time threads spent waiting for monitors, added
+     * up for each class of monitor and place in the program where the wait 
+     * happened, with the longest total first.
+     *
+     * @return
+     */
+    public MonitorContention[] getContention();
+
+    /**
+     * This method looks for deadlocks in the program as it is right now.
+     * The program is suspended while it is examined.
+     *
+     * @return every deadlock found, or an empty array if there are none.
+     */
+    public Deadlock[] findDeadlocks();
+
+    /**
+     * This method removes all recorded contention.
+     */
+    public void clear();
+}
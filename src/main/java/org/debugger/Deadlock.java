@@ -0,0 +1,63 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger;
+
+/**
+ * This interface represents a deadlock: a cycle of threads, each waiting to
+ * enter a monitor held by the next thread in the cycle.
+ *
+ * @author Andreas Stefik
+ */
+public interface Deadlock {
+
+    /**
+     * This method returns the names of the threads in the cycle.
+     *
+     * @return
+     */
+    public String[] getThreadNames();
+
+    /**
+     * This method returns a description of each monitor in the cycle. The
+     * thread at a position waits for the monitor at the same position, which
+     * is held by the thread at the next position, wrapping around at the end.
+     *
+     * @return
+     */
+    public String[] getMonitors();
+
+    /**
+     * This method returns the call stack of a thread in the cycle at the 
+     * time the deadlock was found.
+     *
+     * @param thread the position of the thread in the cycle.
+     * @return
+     */
+    public StackFrame[] getFrames(int thread);
+}
@@ -30,6 +30,7 @@ package org.debugger;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collection;
 import java.util.Iterator;
 
 /**
@@ -183,6 +184,22 @@ public interface Debugger {
      */
     public Breakpoint remove(Breakpoint breakpoint);
     
+    /**
+     * This method adds many breakpoints to the debugger at once. This is
+     * faster than adding them one at a time, as implementations can group
+     * the work they need to do with the program being debugged.
+     * 
+     * @param breakpoints 
+     */
+    public void addAll(Collection<? extends Breakpoint> breakpoints);
+    
+    /**
+     * This method removes many breakpoints from the debugger at once.
+     * 
+     * @param breakpoints 
+     */
+    public void removeAll(Collection<? extends Breakpoint> breakpoints);
+    
     /**
      * This method clears all breakpoints out of the debugger.
      * 
@@ -190,8 +207,9 @@ public interface Debugger {
     public void clearBreakpoints();
     
     /**
-     * This method returns a copy of all breakpoints currently loaded in the 
-     * debugger.
+     * This method returns all breakpoints currently loaded in the debugger.
+     * The iterator does not fail if breakpoints are added or removed while it
+     * is in use, but it may or may not see those changes.
      * 
      * @return 
      */
@@ -228,7 +246,31 @@ public interface Debugger {
      * @return 
      */
     public CallStackModel getCallStackModel();
-    
+
+    /**
+     * This method returns a representation of the threads on the system,
+     * which can be used to pause, resume, and inspect threads individually.
+     *
+     * @return
+     */
+    public ThreadsModel getThreadsModel();
+
+    /**
+     * This method returns a representation of how the threads on the system
+     * contend for locks, which can be used to find slow locks and deadlocks.
+     *
+     * @return
+     */
+    public ConcurrencyModel getConcurrencyModel();
+
+    /**
+     * This method returns a representation of the objects alive in the 
+     * process being debugged, which can be used to find leaks.
+     *
+     * @return
+     */
+    public HeapModel getHeapModel();
+
     /**
      * This method returns the input stream for the process being debugged. If 
      * no process is being debugged, this returns null.
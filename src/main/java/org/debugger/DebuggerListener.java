@@ -30,6 +30,7 @@ package org.debugger;
 
 import org.debugger.events.DebuggerBreakpointEvent;
 import org.debugger.events.DebuggerExceptionEvent;
+import org.debugger.events.DebuggerLoopEvent;
 import org.debugger.events.DebuggerStartEvent;
 import org.debugger.events.DebuggerStepEvent;
 import org.debugger.events.DebuggerStopEvent;
@@ -78,6 +79,13 @@ public interface DebuggerListener {
      */
     public void accept(DebuggerBreakpointEvent event);
     
+    /**
+     * This event signifies that a thread appears to be stuck in a loop.
+     * 
+     * @param event 
+     */
+    public void accept(DebuggerLoopEvent event);
+    
     /**
      * Provides a unique name for the event listener on the system. Listeners 
      * that are submitted to the debugger may override others if their name
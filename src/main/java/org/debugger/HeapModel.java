@@ -0,0 +1,75 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger;
+
+/**
+ * The HeapModel interface represents the objects alive in a program. It 
+ * counts the objects of each class, so that a class whose objects keep 
+ * growing, as in a leak, stands out. The objects of a class can then be 
+ * browsed a page at a time, along with the objects that refer to them and 
+ * keep them alive.
+ * 
+ * Results are kept until a thread is suspended or resumed, so browsing a 
+ * program that is held does not ask it for the same objects again.
+ * @author Andreas Stefik
+ */
+public interface HeapModel {
+
+    /**
+     * This method returns the number of objects alive for each class in 
+     * the program, with the most objects first. Classes that belong to the
+     * platform, rather than the program, are left out.
+     * @return
+     */
+    public ClassInstances[] getInstanceCounts();
+
+    /**
+     * This method returns one page of the objects of a class.
+     * @param instances a class from getInstanceCounts.
+     * @param first the position of the first object on the page.
+     * @param count the most objects to return.
+     * @return
+     */
+    public Variable[] getInstances(ClassInstances instances, int first, int count);
+
+    /**
+     * This method returns the objects that refer to an object.
+     * @param variable an object from getInstances, getReferrers, or a
+     * variables model.
+     * @param maximum the most objects to return, or 0 for all of them.
+     * @return
+     */
+    public Variable[] getReferrers(Variable variable, int maximum);
+
+    /**
+     * This method forgets any results being kept, so that they are read
+     * from the program again.
+     */
+    public void clear();
+}
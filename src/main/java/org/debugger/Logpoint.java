@@ -0,0 +1,52 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger;
+
+/**
+ * A Logpoint is a breakpoint that never stops the program. Each time it is
+ * hit, the debugger evaluates its expressions and writes their values to a
+ * log, then lets the thread continue. Listeners are not told about these 
+ * hits.
+ * 
+ * Like any breakpoint, a logpoint can have a condition, in which case it 
+ * only writes to the log when the condition is true.
+ * 
+ * @author Andreas Stefik
+ */
+public interface Logpoint extends Breakpoint {
+    
+    /**
+     * This method returns the expressions whose values are written to the log
+     * each time the logpoint is hit. Each is a Quorum expression, for example
+     * a local variable, a field like "me:count", or a calculation.
+     * 
+     * @return 
+     */
+    public String[] getExpressions();
+}
@@ -0,0 +1,89 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger;
+
+/**
+ * This interface represents the time threads spent waiting for one class of
+ * monitor at one place in a program.
+ *
+ * @author Andreas Stefik
+ */
+public interface MonitorContention {
+
+    /**
+     * This method returns the name of the class of the monitor.
+     *
+     * @return
+     */
+    public String getMonitorClassName();
+
+    /**
+     * This method returns the fully qualified name of the class where the 
+     * threads waited.
+     *
+     * @return
+     */
+    public String getClassName();
+
+    /**
+     * This method returns the line where the threads waited.
+     *
+     * @return
+     */
+    public int getLine();
+
+    /**
+     * This method returns true if the threads were waiting to be notified,
+     * rather than waiting to enter the monitor.
+     *
+     * @return
+     */
+    public boolean isWait();
+
+    /**
+     * This method returns the number of times a thread waited.
+     *
+     * @return
+     */
+    public long getCount();
+
+    /**
+     * This method returns the total time spent waiting, in nanoseconds.
+     *
+     * @return
+     */
+    public long getTotalTime();
+
+    /**
+     * This method returns the longest single wait, in nanoseconds.
+     *
+     * @return
+     */
+    public long getMaximumTime();
+}
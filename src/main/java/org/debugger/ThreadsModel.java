@@ -0,0 +1,79 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger;
+
+/**
+ * The ThreadsModel interface represents the threads in a running program.
+ * Threads can be paused and resumed individually, which allows the rest of
+ * a program to keep running while one thread is being inspected.
+ *
+ * @author Andreas Stefik
+ */
+public interface ThreadsModel {
+
+    /**
+     * This method returns all threads currently alive in the program.
+     *
+     * @return
+     */
+    public ThreadInformation[] getThreads();
+
+    /**
+     * This method returns the thread the debugger is currently showing
+     * information about, or null if there is none.
+     *
+     * @return
+     */
+    public ThreadInformation getCurrentThread();
+
+    /**
+     * This method changes which thread the debugger shows information
+     * about. The variables and call stack models follow this thread.
+     *
+     * @param thread
+     */
+    public void setCurrentThread(ThreadInformation thread);
+
+    /**
+     * This method resumes an individual thread. If the thread was stopped
+     * by an event that suspended the entire program, the entire program is
+     * resumed.
+     *
+     * @param thread
+     */
+    public void resume(ThreadInformation thread);
+
+    /**
+     * This method suspends an individual thread, leaving the rest of the
+     * program running.
+     *
+     * @param thread
+     */
+    public void suspend(ThreadInformation thread);
+}
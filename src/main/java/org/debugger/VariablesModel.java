@@ -117,4 +117,14 @@ public interface VariablesModel {
      * @return 
      */
     public Variable getWatchResult(Watch watch);
+    
+    /**
+     * This method returns the result of every watch at once, which lets a
+     * debugger implementation evaluate them together, rather than one at a
+     * time.
+     * @param watches
+     * @return the result of each watch, or null where getWatchResult would
+     * return null.
+     */
+    public Variable[] getWatchResults(Watch[] watches);
 }
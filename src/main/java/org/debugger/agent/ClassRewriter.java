@@ -0,0 +1,816 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.agent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class adds trace probes to the bytecode of a class. It reads the 
+ * class file directly, so the agent needs no library in the program being 
+ * debugged, and changes only the code of methods:
+ * 
+ * At the start of a method, a call to TraceProbe.enter. 
+ * At the start of each line, a call to TraceProbe.line.
+ * Before each return, a call to TraceProbe.exit.
+ * After each store to a named local variable, the variable is loaded again
+ * and passed to one of the TraceProbe.store methods.
+ * 
+ * The probes leave the stack and the local variables as they found them, so
+ * the types the verifier sees do not change and the stack map frames stay 
+ * valid once their offsets are moved. Inserting code shifts everything after
+ * it, so every offset in the method is mapped to its new place: branches, 
+ * switches, exception handlers, stack map frames, and the line and local 
+ * variable tables. A branch to the start of a line lands on the line's 
+ * probe, so that a loop records every pass. Lines in the line table start 
+ * at their probe too, so the probe's code belongs to its own line and not 
+ * to the line before it, which stepping and stack traces would otherwise 
+ * report. A breakpoint on a line then stops just before the line is 
+ * recorded, which the debugger makes up for by reading the trace whenever
+ * the program stops.
+ * 
+ * A method the rewriter cannot handle, for example one that would grow past
+ * the limits of the class file format, makes the whole class fail, and the 
+ * agent then leaves it as it was.
+ * 
+ * @author Andreas Stefik
+ */
+final class ClassRewriter {
+    private static final String PROBE = "org/debugger/agent/TraceProbe";
+    private static final int[] LENGTHS = new int[256];
+    
+    /**
+     * The probes storing each type of local variable, in the order of the 
+     * load and store instructions: int, long, float, double and object.
+     */
+    private static final String[] STORES = {"store", "storeLong", "storeFloat", "storeDouble", "storeObject"};
+    private static final String[] STORE_DESCRIPTORS = {"(II)V", "(JI)V", "(FI)V", "(DI)V", "(Ljava/lang/Object;I)V"};
+    
+    static {
+        Arrays.fill(LENGTHS, 1);
+        int[] two = {0x10, 0x12, 0x15, 0x16, 0x17, 0x18, 0x19, 0x36, 0x37, 0x38, 0x39, 0x3a, 0xa9, 0xbc};
+        for(int i = 0; i < two.length; i++) {
+            LENGTHS[two[i]] = 2;
+        }
+        int[] three = {0x11, 0x13, 0x14, 0x84, 0xbb, 0xbd, 0xc0, 0xc1, 0xc6, 0xc7};
+        for(int i = 0; i < three.length; i++) {
+            LENGTHS[three[i]] = 3;
+        }
+        for(int i = 0x99; i <= 0xa8; i++) {
+            LENGTHS[i] = 3;
+        }
+        for(int i = 0xb2; i <= 0xb8; i++) {
+            LENGTHS[i] = 3;
+        }
+        LENGTHS[0xc5] = 4;
+        LENGTHS[0xb9] = 5;
+        LENGTHS[0xba] = 5;
+        LENGTHS[0xc8] = 5;
+        LENGTHS[0xc9] = 5;
+    }
+    
+    private final TraceAgent agent;
+    private ConstantPool pool;
+    private String className;
+    
+    ClassRewriter(TraceAgent agent) {
+        this.agent = agent;
+    }
+    
+    /**
+     * This method returns the class with probes added.
+     * 
+     * @param bytes the class file.
+     * @return the new class file.
+     * @throws IOException if the class cannot be rewritten.
+     */
+    byte[] rewrite(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream body = new ByteArrayOutputStream(bytes.length + bytes.length / 4);
+        DataOutputStream out = new DataOutputStream(body);
+        
+        int magic = in.readInt();
+        int minor = in.readUnsignedShort();
+        int major = in.readUnsignedShort();
+        pool = new ConstantPool(in);
+        
+        int access = in.readUnsignedShort();
+        int thisClass = in.readUnsignedShort();
+        className = pool.getClassName(thisClass).replace('/', '.');
+        out.writeShort(access);
+        out.writeShort(thisClass);
+        out.writeShort(in.readUnsignedShort());
+        int interfaces = in.readUnsignedShort();
+        out.writeShort(interfaces);
+        copy(in, out, interfaces * 2);
+        
+        int fields = in.readUnsignedShort();
+        out.writeShort(fields);
+        for(int i = 0; i < fields; i++) {
+            copy(in, out, 6);
+            copyAttributes(in, out);
+        }
+        
+        int methods = in.readUnsignedShort();
+        out.writeShort(methods);
+        for(int i = 0; i < methods; i++) {
+            out.writeShort(in.readUnsignedShort());
+            int name = in.readUnsignedShort();
+            int descriptor = in.readUnsignedShort();
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            int attributes = in.readUnsignedShort();
+            out.writeShort(attributes);
+            for(int j = 0; j < attributes; j++) {
+                int attributeName = in.readUnsignedShort();
+                byte[] attribute = new byte[in.readInt()];
+                in.readFully(attribute);
+                if("Code".equals(pool.getUtf8(attributeName))) {
+                    attribute = rewriteCode(pool.getUtf8(name), attribute);
+                }
+                out.writeShort(attributeName);
+                out.writeInt(attribute.length);
+                out.write(attribute);
+            }
+        }
+        copyAttributes(in, out);
+        
+        ByteArrayOutputStream result = new ByteArrayOutputStream(body.size() + pool.getByteSize() + 16);
+        DataOutputStream header = new DataOutputStream(result);
+        header.writeInt(magic);
+        header.writeShort(minor);
+        header.writeShort(major);
+        pool.write(header);
+        body.writeTo(result);
+        return result.toByteArray();
+    }
+    
+    /**
+     * This method adds probes to the Code attribute of a method.
+     * 
+     * @param methodName
+     * @param attribute
+     * @return 
+     */
+    private byte[] rewriteCode(String methodName, byte[] attribute) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(attribute));
+        int maxStack = in.readUnsignedShort();
+        int maxLocals = in.readUnsignedShort();
+        byte[] code = new byte[in.readInt()];
+        in.readFully(code);
+        int[][] handlers = new int[in.readUnsignedShort()][4];
+        for(int i = 0; i < handlers.length; i++) {
+            for(int j = 0; j < 4; j++) {
+                handlers[i][j] = in.readUnsignedShort();
+            }
+        }
+        int attributeCount = in.readUnsignedShort();
+        int[] attributeNames = new int[attributeCount];
+        byte[][] attributes = new byte[attributeCount][];
+        for(int i = 0; i < attributeCount; i++) {
+            attributeNames[i] = in.readUnsignedShort();
+            attributes[i] = new byte[in.readInt()];
+            in.readFully(attributes[i]);
+        }
+        
+        //find the instructions, the lines, and the named variables
+        boolean[] starts = new boolean[code.length + 1];
+        int pc = 0;
+        while(pc < code.length) {
+            starts[pc] = true;
+            pc += length(code, pc, pc);
+        }
+        starts[code.length] = true;
+        
+        int method = agent.defineMethod(className, methodName);
+        int[] lines = new int[code.length];
+        Arrays.fill(lines, -1);
+        int[][] variables = new int[0][];
+        for(int i = 0; i < attributeCount; i++) {
+            String name = pool.getUtf8(attributeNames[i]);
+            if("LineNumberTable".equals(name)) {
+                DataInputStream table = new DataInputStream(new ByteArrayInputStream(attributes[i]));
+                int count = table.readUnsignedShort();
+                for(int j = 0; j < count; j++) {
+                    int start = table.readUnsignedShort();
+                    int line = table.readUnsignedShort();
+                    if(start < code.length) {
+                        lines[start] = line;
+                    }
+                }
+            } else if("LocalVariableTable".equals(name)) {
+                DataInputStream table = new DataInputStream(new ByteArrayInputStream(attributes[i]));
+                variables = new int[table.readUnsignedShort()][5];
+                for(int j = 0; j < variables.length; j++) {
+                    for(int k = 0; k < 5; k++) {
+                        variables[j][k] = table.readUnsignedShort();
+                    }
+                }
+            }
+        }
+        
+        //build the probes
+        byte[] prefix = prefix(method, methodName, variables);
+        byte[][] before = new byte[code.length][];
+        byte[][] after = new byte[code.length][];
+        HashMap<Integer, Integer> locations = new HashMap<>();
+        pc = 0;
+        while(pc < code.length) {
+            int op = code[pc] & 0xFF;
+            ByteArrayOutputStream inserted = new ByteArrayOutputStream();
+            if(lines[pc] >= 0) {
+                Integer location = locations.get(lines[pc]);
+                if(location == null) {
+                    location = agent.defineLocation(method, lines[pc]);
+                    locations.put(lines[pc], location);
+                }
+                inserted.write(probe(location, "line", "(I)V", -1, 0));
+            }
+            if(op >= 0xac && op <= 0xb1) {
+                inserted.write(probe(method, "exit", "(I)V", -1, 0));
+            }
+            if(inserted.size() > 0) {
+                before[pc] = inserted.toByteArray();
+            }
+            after[pc] = storeProbe(code, pc, method, methodName, variables);
+            pc += length(code, pc, pc);
+        }
+        
+        //lay out the new code, until the padding of switches settles
+        int[] targets = new int[code.length + 1];
+        int[] positions = new int[code.length + 1];
+        for(pc = 0; pc < code.length; pc++) {
+            positions[pc] = pc;
+        }
+        boolean changed = true;
+        while(changed) {
+            changed = false;
+            int cursor = prefix.length;
+            pc = 0;
+            while(pc < code.length) {
+                targets[pc] = cursor;
+                cursor += before[pc] == null ? 0 : before[pc].length;
+                if(positions[pc] != cursor) {
+                    positions[pc] = cursor;
+                    changed = true;
+                }
+                cursor += length(code, pc, positions[pc]);
+                cursor += after[pc] == null ? 0 : after[pc].length;
+                pc += length(code, pc, pc);
+            }
+            targets[code.length] = cursor;
+            positions[code.length] = cursor;
+        }
+        if(targets[code.length] > 65535) {
+            throw new IOException("The code of " + methodName + " would be too long.");
+        }
+        
+        //write the new code
+        ByteArrayOutputStream newCode = new ByteArrayOutputStream(targets[code.length]);
+        DataOutputStream out = new DataOutputStream(newCode);
+        out.write(prefix);
+        pc = 0;
+        while(pc < code.length) {
+            if(before[pc] != null) {
+                out.write(before[pc]);
+            }
+            writeInstruction(code, pc, targets, positions, out);
+            if(after[pc] != null) {
+                out.write(after[pc]);
+            }
+            pc += length(code, pc, pc);
+        }
+        
+        ByteArrayOutputStream result = new ByteArrayOutputStream(attribute.length + newCode.size() - code.length + 64);
+        out = new DataOutputStream(result);
+        out.writeShort(Math.min(65535, maxStack + 4));
+        out.writeShort(maxLocals);
+        out.writeInt(newCode.size());
+        newCode.writeTo(result);
+        out.writeShort(handlers.length);
+        for(int i = 0; i < handlers.length; i++) {
+            out.writeShort(map(targets, starts, handlers[i][0]));
+            out.writeShort(map(targets, starts, handlers[i][1]));
+            out.writeShort(map(targets, starts, handlers[i][2]));
+            out.writeShort(handlers[i][3]);
+        }
+        ArrayList<byte[]> kept = new ArrayList<>();
+        ArrayList<Integer> keptNames = new ArrayList<>();
+        for(int i = 0; i < attributeCount; i++) {
+            String name = pool.getUtf8(attributeNames[i]);
+            byte[] mapped;
+            if("LineNumberTable".equals(name)) {
+                mapped = mapLines(attributes[i], targets, starts);
+            } else if("LocalVariableTable".equals(name) || "LocalVariableTypeTable".equals(name)) {
+                mapped = mapVariables(attributes[i], targets, starts);
+            } else if("StackMapTable".equals(name)) {
+                mapped = mapFrames(attributes[i], targets, positions, starts);
+            } else if(name.endsWith("TypeAnnotations")) {
+                continue; //these hold offsets into the code we do not map
+            } else {
+                mapped = attributes[i];
+            }
+            kept.add(mapped);
+            keptNames.add(attributeNames[i]);
+        }
+        out.writeShort(kept.size());
+        for(int i = 0; i < kept.size(); i++) {
+            out.writeShort(keptNames.get(i));
+            out.writeInt(kept.get(i).length);
+            out.write(kept.get(i));
+        }
+        return result.toByteArray();
+    }
+    
+    /**
+     * This method returns the probes at the start of a method: entering it,
+     * then the value of each named parameter, as parameters are never 
+     * stored by the method's own code.
+     */
+    private byte[] prefix(int method, String methodName, int[][] variables) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(probe(method, "enter", "(I)V", -1, 0));
+        for(int i = 0; i < variables.length; i++) {
+            int[] variable = variables[i];
+            String name = pool.getUtf8(variable[2]);
+            if(variable[0] != 0 || "this".equals(name)) {
+                continue;
+            }
+            char descriptor = pool.getUtf8(variable[3]).charAt(0);
+            int type = "IJFDA".indexOf(descriptor);
+            if(descriptor == 'Z' || descriptor == 'B' || descriptor == 'C' || descriptor == 'S') {
+                type = 0;
+            } else if(descriptor == 'L' || descriptor == '[') {
+                type = 4;
+            }
+            if(type < 0) {
+                continue;
+            }
+            int slot = agent.defineSlot(method, name, descriptor);
+            bytes.write(probe(slot, STORES[type], STORE_DESCRIPTORS[type], 0x15 + type, variable[4]));
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * This method returns the probe to place after an instruction, if it 
+     * stores to a named local variable.
+     */
+    private byte[] storeProbe(byte[] code, int pc, int method, String methodName, 
+            int[][] variables) throws IOException {
+        int op = code[pc] & 0xFF;
+        int index;
+        int type;
+        if(op >= 0x36 && op <= 0x3a) {
+            index = code[pc + 1] & 0xFF;
+            type = op - 0x36;
+        } else if(op >= 0x3b && op <= 0x4e) {
+            index = (op - 0x3b) % 4;
+            type = (op - 0x3b) / 4;
+        } else if(op == 0x84) {
+            index = code[pc + 1] & 0xFF;
+            type = 0;
+        } else if(op == 0xc4) {
+            int wide = code[pc + 1] & 0xFF;
+            index = ((code[pc + 2] & 0xFF) << 8) | (code[pc + 3] & 0xFF);
+            if(wide >= 0x36 && wide <= 0x3a) {
+                type = wide - 0x36;
+            } else if(wide == 0x84) {
+                type = 0;
+            } else {
+                return null;
+            }
+        } else {
+            return null;
+        }
+        //objects are not passed on in a constructor, as they may not yet 
+        //be initialized
+        if(type == 4 && "<init>".equals(methodName)) {
+            return null;
+        }
+        
+        int next = pc + length(code, pc, pc);
+        for(int i = 0; i < variables.length; i++) {
+            int[] variable = variables[i];
+            if(variable[4] == index && variable[0] <= next && next <= variable[0] + variable[1]) {
+                String name = pool.getUtf8(variable[2]);
+                char descriptor = pool.getUtf8(variable[3]).charAt(0);
+                int slot = agent.defineSlot(method, name, descriptor);
+                return probe(slot, STORES[type], STORE_DESCRIPTORS[type], 0x15 + type, index);
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * This method returns the bytecode calling a probe: optionally loading a
+     * local variable, then pushing a number and invoking the probe.
+     * 
+     * @param id the number passed to the probe.
+     * @param name the name of the probe method.
+     * @param descriptor the descriptor of the probe method.
+     * @param load the opcode loading the variable, or -1 for none.
+     * @param index the index of the variable loaded.
+     * @return 
+     */
+    private byte[] probe(int id, String name, String descriptor, int load, int index) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(12);
+        DataOutputStream out = new DataOutputStream(bytes);
+        if(load >= 0) {
+            if(index > 255) {
+                out.writeByte(0xc4);
+                out.writeByte(load);
+                out.writeShort(index);
+            } else {
+                out.writeByte(load);
+                out.writeByte(index);
+            }
+        }
+        if(id <= Short.MAX_VALUE) {
+            out.writeByte(0x11); //sipush
+            out.writeShort(id);
+        } else {
+            out.writeByte(0x13); //ldc_w
+            out.writeShort(pool.addInteger(id));
+        }
+        out.writeByte(0xb8); //invokestatic
+        out.writeShort(pool.addMethod(PROBE, name, descriptor));
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * This method writes an instruction at its new position, moving the 
+     * offsets of branches and switches.
+     */
+    private void writeInstruction(byte[] code, int pc, int[] targets, int[] positions, 
+            DataOutputStream out) throws IOException {
+        int op = code[pc] & 0xFF;
+        int position = positions[pc];
+        if(op == 0xaa || op == 0xab) {
+            int base = pc + 1 + (4 - (pc + 1) % 4) % 4;
+            out.writeByte(op);
+            int padding = (4 - (position + 1) % 4) % 4;
+            for(int i = 0; i < padding; i++) {
+                out.writeByte(0);
+            }
+            out.writeInt(targets[pc + readInt(code, base)] - position);
+            if(op == 0xaa) {
+                int low = readInt(code, base + 4);
+                int high = readInt(code, base + 8);
+                out.writeInt(low);
+                out.writeInt(high);
+                for(int i = 0; i <= high - low; i++) {
+                    out.writeInt(targets[pc + readInt(code, base + 12 + i * 4)] - position);
+                }
+            } else {
+                int pairs = readInt(code, base + 4);
+                out.writeInt(pairs);
+                for(int i = 0; i < pairs; i++) {
+                    out.writeInt(readInt(code, base + 8 + i * 8));
+                    out.writeInt(targets[pc + readInt(code, base + 12 + i * 8)] - position);
+                }
+            }
+        } else if((op >= 0x99 && op <= 0xa8) || op == 0xc6 || op == 0xc7) {
+            short offset = (short) (((code[pc + 1] & 0xFF) << 8) | (code[pc + 2] & 0xFF));
+            int moved = targets[pc + offset] - position;
+            if(moved < Short.MIN_VALUE || moved > Short.MAX_VALUE) {
+                throw new IOException("A branch would be too long.");
+            }
+            out.writeByte(op);
+            out.writeShort(moved);
+        } else if(op == 0xc8 || op == 0xc9) {
+            out.writeByte(op);
+            out.writeInt(targets[pc + readInt(code, pc + 1)] - position);
+        } else {
+            out.write(code, pc, length(code, pc, pc));
+        }
+    }
+    
+    private byte[] mapLines(byte[] attribute, int[] targets, boolean[] starts) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(attribute));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(attribute.length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        int count = in.readUnsignedShort();
+        out.writeShort(count);
+        for(int i = 0; i < count; i++) {
+            out.writeShort(map(targets, starts, in.readUnsignedShort()));
+            out.writeShort(in.readUnsignedShort());
+        }
+        return bytes.toByteArray();
+    }
+    
+    private byte[] mapVariables(byte[] attribute, int[] targets, boolean[] starts) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(attribute));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(attribute.length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        int count = in.readUnsignedShort();
+        out.writeShort(count);
+        for(int i = 0; i < count; i++) {
+            int start = in.readUnsignedShort();
+            int length = in.readUnsignedShort();
+            int newStart = map(targets, starts, start);
+            out.writeShort(newStart);
+            out.writeShort(map(targets, starts, start + length) - newStart);
+            copy(in, out, 6);
+        }
+        return bytes.toByteArray();
+    }
+    
+    private byte[] mapFrames(byte[] attribute, int[] targets, int[] positions, boolean[] starts) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(attribute));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(attribute.length + 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        int count = in.readUnsignedShort();
+        out.writeShort(count);
+        int offset = -1;
+        int newOffset = -1;
+        for(int i = 0; i < count; i++) {
+            int type = in.readUnsignedByte();
+            int delta;
+            if(type < 64) {
+                delta = type;
+            } else if(type < 128) {
+                delta = type - 64;
+            } else if(type >= 247) {
+                delta = in.readUnsignedShort();
+            } else {
+                throw new IOException("Unknown stack map frame " + type);
+            }
+            offset += delta + 1;
+            int moved = map(targets, starts, offset);
+            int newDelta = moved - newOffset - 1;
+            newOffset = moved;
+            
+            if(type < 64 || type == 251) {
+                if(newDelta < 64) {
+                    out.writeByte(newDelta);
+                } else {
+                    out.writeByte(251);
+                    out.writeShort(newDelta);
+                }
+            } else if(type < 128 || type == 247) {
+                if(newDelta < 64) {
+                    out.writeByte(64 + newDelta);
+                } else {
+                    out.writeByte(247);
+                    out.writeShort(newDelta);
+                }
+                copyType(in, out, positions, starts);
+            } else if(type < 251) {
+                out.writeByte(type);
+                out.writeShort(newDelta);
+            } else if(type < 255) {
+                out.writeByte(type);
+                out.writeShort(newDelta);
+                for(int j = 0; j < type - 251; j++) {
+                    copyType(in, out, positions, starts);
+                }
+            } else {
+                out.writeByte(type);
+                out.writeShort(newDelta);
+                int locals = in.readUnsignedShort();
+                out.writeShort(locals);
+                for(int j = 0; j < locals; j++) {
+                    copyType(in, out, positions, starts);
+                }
+                int stack = in.readUnsignedShort();
+                out.writeShort(stack);
+                for(int j = 0; j < stack; j++) {
+                    copyType(in, out, positions, starts);
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * This method copies a verification type of a stack map frame. The type
+     * of an object not yet initialized holds the offset of the instruction 
+     * that created it, which is moved.
+     */
+    private void copyType(DataInputStream in, DataOutputStream out, int[] positions, 
+            boolean[] starts) throws IOException {
+        int tag = in.readUnsignedByte();
+        out.writeByte(tag);
+        if(tag == 7) {
+            out.writeShort(in.readUnsignedShort());
+        } else if(tag == 8) {
+            out.writeShort(map(positions, starts, in.readUnsignedShort()));
+        }
+    }
+    
+    private static int map(int[] offsets, boolean[] starts, int offset) throws IOException {
+        if(offset < 0 || offset >= starts.length || !starts[offset]) {
+            throw new IOException("Offset " + offset + " is not an instruction.");
+        }
+        return offsets[offset];
+    }
+    
+    /**
+     * This method returns the length of an instruction, as if it were placed
+     * at a given position, which changes the padding of switches.
+     */
+    private static int length(byte[] code, int pc, int position) {
+        int op = code[pc] & 0xFF;
+        if(op == 0xaa || op == 0xab) {
+            int base = pc + 1 + (4 - (pc + 1) % 4) % 4;
+            int padding = (4 - (position + 1) % 4) % 4;
+            if(op == 0xaa) {
+                int low = readInt(code, base + 4);
+                int high = readInt(code, base + 8);
+                return 1 + padding + 12 + 4 * (high - low + 1);
+            }
+            return 1 + padding + 8 + 8 * readInt(code, base + 4);
+        } else if(op == 0xc4) {
+            return (code[pc + 1] & 0xFF) == 0x84 ? 6 : 4;
+        }
+        return LENGTHS[op];
+    }
+    
+    private static int readInt(byte[] code, int at) {
+        return ((code[at] & 0xFF) << 24) | ((code[at + 1] & 0xFF) << 16) 
+                | ((code[at + 2] & 0xFF) << 8) | (code[at + 3] & 0xFF);
+    }
+    
+    private static void copy(DataInputStream in, DataOutputStream out, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        out.write(bytes);
+    }
+    
+    private static void copyAttributes(DataInputStream in, DataOutputStream out) throws IOException {
+        int count = in.readUnsignedShort();
+        out.writeShort(count);
+        for(int i = 0; i < count; i++) {
+            out.writeShort(in.readUnsignedShort());
+            int length = in.readInt();
+            out.writeInt(length);
+            copy(in, out, length);
+        }
+    }
+    
+    /**
+     * This class holds the constant pool of a class, as it was read, along
+     * with any constants the probes need.
+     */
+    private static class ConstantPool {
+        private final ArrayList<byte[]> entries = new ArrayList<>();
+        private final HashMap<Integer, String> utf8 = new HashMap<>();
+        private final HashMap<String, Integer> added = new HashMap<>();
+        private int byteSize = 0;
+        
+        ConstantPool(DataInputStream in) throws IOException {
+            int count = in.readUnsignedShort();
+            entries.add(null);
+            for(int i = 1; i < count; i++) {
+                int tag = in.readUnsignedByte();
+                int length;
+                switch(tag) {
+                    case 1:
+                        String value = in.readUTF();
+                        utf8.put(i, value);
+                        add(encodeUtf8(value));
+                        continue;
+                    case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+                        length = 4;
+                        break;
+                    case 5: case 6:
+                        length = 8;
+                        break;
+                    case 7: case 8: case 16: case 19: case 20:
+                        length = 2;
+                        break;
+                    case 15:
+                        length = 3;
+                        break;
+                    default:
+                        throw new IOException("Unknown constant " + tag);
+                }
+                byte[] entry = new byte[length + 1];
+                entry[0] = (byte) tag;
+                in.readFully(entry, 1, length);
+                add(entry);
+                if(tag == 5 || tag == 6) {
+                    entries.add(null); //these take two entries
+                    i++;
+                }
+            }
+        }
+        
+        private int add(byte[] entry) {
+            entries.add(entry);
+            byteSize += entry.length;
+            return entries.size() - 1;
+        }
+        
+        private static byte[] encodeUtf8(String value) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length() + 3);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(1);
+            out.writeUTF(value);
+            return bytes.toByteArray();
+        }
+        
+        String getUtf8(int index) {
+            return utf8.get(index);
+        }
+        
+        String getClassName(int index) {
+            byte[] entry = entries.get(index);
+            return getUtf8(((entry[1] & 0xFF) << 8) | (entry[2] & 0xFF));
+        }
+        
+        int addUtf8(String value) throws IOException {
+            Integer index = added.get("u" + value);
+            if(index == null) {
+                index = add(encodeUtf8(value));
+                utf8.put(index, value);
+                added.put("u" + value, index);
+            }
+            return index;
+        }
+        
+        int addInteger(int value) throws IOException {
+            Integer index = added.get("i" + value);
+            if(index == null) {
+                index = add(new byte[] {3, (byte) (value >>> 24), (byte) (value >>> 16), 
+                    (byte) (value >>> 8), (byte) value});
+                added.put("i" + value, index);
+            }
+            return index;
+        }
+        
+        int addMethod(String owner, String name, String descriptor) throws IOException {
+            String key = "m" + owner + "." + name + descriptor;
+            Integer index = added.get(key);
+            if(index == null) {
+                int ownerName = addUtf8(owner);
+                Integer ownerClass = added.get("c" + owner);
+                if(ownerClass == null) {
+                    ownerClass = add(pair(7, ownerName, -1));
+                    added.put("c" + owner, ownerClass);
+                }
+                int nameAndType = add(pair(12, addUtf8(name), addUtf8(descriptor)));
+                index = add(pair(10, ownerClass, nameAndType));
+                added.put(key, index);
+            }
+            return index;
+        }
+        
+        private static byte[] pair(int tag, int first, int second) {
+            if(second < 0) {
+                return new byte[] {(byte) tag, (byte) (first >>> 8), (byte) first};
+            }
+            return new byte[] {(byte) tag, (byte) (first >>> 8), (byte) first, 
+                (byte) (second >>> 8), (byte) second};
+        }
+        
+        int getByteSize() {
+            return byteSize;
+        }
+        
+        void write(DataOutputStream out) throws IOException {
+            if(entries.size() > 65535) {
+                throw new IOException("The constant pool would be too large.");
+            }
+            out.writeShort(entries.size());
+            for(int i = 1; i < entries.size(); i++) {
+                if(entries.get(i) != null) {
+                    out.write(entries.get(i));
+                }
+            }
+        }
+    }
+}
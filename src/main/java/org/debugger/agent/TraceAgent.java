@@ -0,0 +1,191 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.agent;
+
+import java.io.File;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * This class is a Java agent, loaded into the program being debugged with 
+ * the -javaagent option, which records the program's execution far faster
+ * than the debugger can through breakpoints. As each class loads, the agent
+ * adds probes to its methods, which write what the program does into a 
+ * ring buffer in a file the debugger reads from. The agent takes options
+ * separated by commas:
+ * 
+ * ring=path, the file holding the ring, which the debugger has created.
+ * include=prefix, a prefix of the internal names of classes to trace, for 
+ * example quorum/. This may be given more than once. If it is not given, 
+ * all classes are traced.
+ * exclude=prefix, a prefix of classes not to trace, which may also be given
+ * more than once.
+ * 
+ * Classes of the Java platform and of the agent itself are never traced.
+ * 
+ * @author Andreas Stefik
+ */
+public class TraceAgent implements ClassFileTransformer {
+    private static final String[] NEVER = {"java/", "javax/", "sun/", "com/sun/", "jdk/", "org/debugger/agent/"};
+    
+    private final ArrayList<String> includes = new ArrayList<>();
+    private final ArrayList<String> excludes = new ArrayList<>();
+    private final HashMap<String, Integer> slots = new HashMap<>();
+    private int methods = 0;
+    private int locations = 0;
+    
+    /**
+     * This method is called by the virtual machine before the program's 
+     * main method.
+     * 
+     * @param arguments the options of the agent.
+     * @param instrumentation 
+     */
+    public static void premain(String arguments, Instrumentation instrumentation) {
+        TraceAgent agent = new TraceAgent();
+        String ring = null;
+        if(arguments != null) {
+            String[] options = arguments.split(",");
+            for(int i = 0; i < options.length; i++) {
+                String option = options[i];
+                if(option.startsWith("ring=")) {
+                    ring = option.substring("ring=".length());
+                } else if(option.startsWith("include=")) {
+                    agent.includes.add(option.substring("include=".length()));
+                } else if(option.startsWith("exclude=")) {
+                    agent.excludes.add(option.substring("exclude=".length()));
+                }
+            }
+        }
+        if(ring == null) {
+            System.err.println("The trace agent needs a ring= option and will not trace.");
+            return;
+        }
+        try {
+            TraceProbe.setRing(TraceRing.open(new File(ring)));
+        } catch (Exception ex) {
+            System.err.println("The trace agent could not open " + ring + ": " + ex);
+            return;
+        }
+        instrumentation.addTransformer(agent);
+    }
+    
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined, 
+            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        if(className == null || classBeingRedefined != null || !isTraced(className)) {
+            return null;
+        }
+        try {
+            return new ClassRewriter(this).rewrite(classfileBuffer);
+        } catch (Throwable ex) {
+            System.err.println("The trace agent could not trace " + className + ": " + ex);
+            return null;
+        }
+    }
+    
+    /**
+     * This method returns true if a class should have probes added.
+     * 
+     * @param className the internal name of the class, for example quorum/Main.
+     * @return 
+     */
+    boolean isTraced(String className) {
+        for(int i = 0; i < NEVER.length; i++) {
+            if(className.startsWith(NEVER[i])) {
+                return false;
+            }
+        }
+        for(int i = 0; i < excludes.size(); i++) {
+            if(className.startsWith(excludes.get(i))) {
+                return false;
+            }
+        }
+        if(includes.isEmpty()) {
+            return true;
+        }
+        for(int i = 0; i < includes.size(); i++) {
+            if(className.startsWith(includes.get(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * This method numbers a method and tells the debugger about it.
+     * 
+     * @param className the dot name of the class.
+     * @param name the name of the method.
+     * @return 
+     */
+    synchronized int defineMethod(String className, String name) {
+        int id = methods;
+        methods++;
+        TraceProbe.defineMethod(id, className, name);
+        return id;
+    }
+    
+    /**
+     * This method numbers a line of a method and tells the debugger about it.
+     * 
+     * @param method
+     * @param line
+     * @return 
+     */
+    synchronized int defineLocation(int method, int line) {
+        int id = locations;
+        locations++;
+        TraceProbe.defineLocation(id, method, line);
+        return id;
+    }
+    
+    /**
+     * This method numbers a named local variable of a method, the first time
+     * it is seen, and tells the debugger about it.
+     * 
+     * @param method
+     * @param name
+     * @param type the first character of the variable's type descriptor.
+     * @return 
+     */
+    synchronized int defineSlot(int method, String name, char type) {
+        String key = method + " " + name;
+        Integer id = slots.get(key);
+        if(id == null) {
+            id = slots.size();
+            slots.put(key, id);
+            TraceProbe.defineSlot(id, method, name, type);
+        }
+        return id;
+    }
+}
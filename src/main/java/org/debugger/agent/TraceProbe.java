@@ -0,0 +1,234 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.agent;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class holds the probes that instrumented classes call as they run.
+ * Each probe writes a small record into the trace ring, naming the thread 
+ * and the method, location or variable by the number the agent gave it when
+ * the class was loaded. The first record from each thread is preceded by 
+ * one giving its name.
+ * 
+ * Objects other than strings are recorded by their identity hash code, as 
+ * the program cannot see the identifiers the debugger uses, and strings by 
+ * their first characters.
+ * 
+ * @author Andreas Stefik
+ */
+public final class TraceProbe {
+    private static final int MAXIMUM_STRING = 200;
+    
+    private static volatile TraceRing ring = null;
+    
+    private static final ThreadLocal<Boolean> named = new ThreadLocal<>();
+    
+    /**
+     * The record being written, guarded by the ring.
+     */
+    private static final byte[] record = new byte[1024];
+    private static int size = 0;
+    
+    private TraceProbe() {
+    }
+    
+    static void setRing(TraceRing traceRing) {
+        ring = traceRing;
+    }
+    
+    public static void enter(int method) {
+        event(TraceRing.ENTER, method);
+    }
+    
+    public static void exit(int method) {
+        event(TraceRing.EXIT, method);
+    }
+    
+    public static void line(int location) {
+        event(TraceRing.LINE, location);
+    }
+    
+    public static void store(int value, int slot) {
+        store(slot, 'v', value);
+    }
+    
+    public static void storeLong(long value, int slot) {
+        store(slot, 'v', value);
+    }
+    
+    public static void storeFloat(float value, int slot) {
+        store(slot, 'v', Float.floatToRawIntBits(value));
+    }
+    
+    public static void storeDouble(double value, int slot) {
+        store(slot, 'v', Double.doubleToRawLongBits(value));
+    }
+    
+    public static void storeObject(Object value, int slot) {
+        TraceRing current = ring;
+        if(current == null) {
+            return;
+        }
+        if(value instanceof String) {
+            String text = (String) value;
+            if(text.length() > MAXIMUM_STRING) {
+                text = text.substring(0, MAXIMUM_STRING);
+            }
+            synchronized(current) {
+                begin(current, TraceRing.STORE);
+                putInt(slot);
+                put('s');
+                putString(text);
+                current.write(record, size);
+            }
+        } else if(value == null) {
+            store(slot, 'n', 0);
+        } else {
+            store(slot, 'o', System.identityHashCode(value));
+        }
+    }
+    
+    private static void store(int slot, char kind, long value) {
+        TraceRing current = ring;
+        if(current == null) {
+            return;
+        }
+        synchronized(current) {
+            begin(current, TraceRing.STORE);
+            putInt(slot);
+            put(kind);
+            putLong(value);
+            current.write(record, size);
+        }
+    }
+    
+    private static void event(byte type, int id) {
+        TraceRing current = ring;
+        if(current == null) {
+            return;
+        }
+        synchronized(current) {
+            begin(current, type);
+            putInt(id);
+            current.write(record, size);
+        }
+    }
+    
+    /**
+     * This method starts a record from the current thread, first writing 
+     * the thread's name if it has not been written.
+     */
+    private static void begin(TraceRing current, byte type) {
+        Thread thread = Thread.currentThread();
+        if(named.get() == null) {
+            named.set(Boolean.TRUE);
+            size = 0;
+            put(TraceRing.THREAD);
+            putLong(thread.getId());
+            putString(thread.getName());
+            current.write(record, size);
+        }
+        size = 0;
+        put(type);
+        putLong(thread.getId());
+    }
+    
+    static void defineMethod(int id, String className, String name) {
+        TraceRing current = ring;
+        if(current == null) {
+            return;
+        }
+        synchronized(current) {
+            size = 0;
+            put(TraceRing.METHOD);
+            putInt(id);
+            putString(className);
+            putString(name);
+            current.write(record, size);
+        }
+    }
+    
+    static void defineLocation(int id, int method, int line) {
+        TraceRing current = ring;
+        if(current == null) {
+            return;
+        }
+        synchronized(current) {
+            size = 0;
+            put(TraceRing.LOCATION);
+            putInt(id);
+            putInt(method);
+            putInt(line);
+            current.write(record, size);
+        }
+    }
+    
+    static void defineSlot(int id, int method, String name, char type) {
+        TraceRing current = ring;
+        if(current == null) {
+            return;
+        }
+        synchronized(current) {
+            size = 0;
+            put(TraceRing.SLOT);
+            putInt(id);
+            putInt(method);
+            put(type);
+            putString(name);
+            current.write(record, size);
+        }
+    }
+    
+    private static void put(int value) {
+        record[size] = (byte) value;
+        size++;
+    }
+    
+    private static void putInt(int value) {
+        put(value >>> 24);
+        put(value >>> 16);
+        put(value >>> 8);
+        put(value);
+    }
+    
+    private static void putLong(long value) {
+        putInt((int) (value >>> 32));
+        putInt((int) value);
+    }
+    
+    private static void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, record.length - size - 2);
+        put(length >>> 8);
+        put(length);
+        System.arraycopy(bytes, 0, record, size, length);
+        size += length;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.agent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class is a ring buffer in a memory-mapped file, shared by the program
+ * being debugged, which writes trace records into it, and the debugger, 
+ * which reads them out. Mapping the same file into both processes lets 
+ * records pass between them without a system call or a copy through a 
+ * socket.
+ * 
+ * The file starts with a header holding the total number of bytes ever 
+ * written, the total ever read, and the size of the ring. Each record is 
+ * its length followed by its bytes, and never wraps around the end of the 
+ * ring: if it does not fit, the rest of the ring is skipped, marked with a
+ * length of -1 when there is room for one. The writer publishes a record by
+ * moving its position only after the record is written, and the reader 
+ * frees the space by moving its position only after it has read the record.
+ * When the ring is full, the writer waits, which slows the program down 
+ * rather than losing records.
+ * 
+ * Reads and writes of a mapped buffer are plain memory accesses, which the
+ * compiler and processor may reorder, so each side fences around the 
+ * positions it publishes and reads. The writer fences stores before it 
+ * publishes a record, so the reader never sees a record whose position has
+ * moved before its bytes are written, and the reader fences loads after it
+ * reads the writer's position, and before it frees the space, so it never
+ * reads bytes older than the position or frees space it is still reading.
+ * As the debugger runs on Java 8, which has no fences of its own outside 
+ * of internal classes, the fences are reads and writes of a volatile 
+ * field, which the virtual machine surrounds with the same barriers.
+ * 
+ * There may be any number of writing threads, which take turns, but only 
+ * one reader.
+ * 
+ * @author Andreas Stefik
+ */
+public class TraceRing {
+    public static final byte METHOD = 1;
+    public static final byte LOCATION = 2;
+    public static final byte SLOT = 3;
+    public static final byte ENTER = 4;
+    public static final byte EXIT = 5;
+    public static final byte LINE = 6;
+    public static final byte STORE = 7;
+    public static final byte THREAD = 8;
+    
+    private static final int WRITTEN = 0;
+    private static final int READ = 8;
+    private static final int CAPACITY = 16;
+    private static final int HEADER = 64;
+    private static final int SKIP = -1;
+    
+    /**
+     * This field is read and written only for the barriers the virtual 
+     * machine places around volatile accesses.
+     */
+    private static volatile int fence = 0;
+    
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    
+    private TraceRing(MappedByteBuffer buffer, int capacity) {
+        this.buffer = buffer;
+        this.capacity = capacity;
+    }
+    
+    /**
+     * This method keeps the loads after it from moving before it.
+     */
+    private static void loadFence() {
+        if(fence != 0) {
+            fence = 0;
+        }
+    }
+    
+    /**
+     * This method keeps the stores before it from moving after it.
+     */
+    private static void storeFence() {
+        fence = 0;
+    }
+    
+    /**
+     * This method keeps the loads and stores before it from moving after it,
+     * and those after it from moving before it.
+     */
+    private static void fullFence() {
+        fence = 0;
+        loadFence();
+    }
+    
+    /**
+     * This method creates a new, empty ring in a file.
+     * 
+     * @param file
+     * @param capacity the number of bytes in the ring.
+     * @return
+     * @throws IOException 
+     */
+    public static TraceRing create(File file, int capacity) throws IOException {
+        try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+            access.setLength(HEADER + capacity);
+            MappedByteBuffer buffer = access.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER + capacity);
+            buffer.putLong(WRITTEN, 0);
+            buffer.putLong(READ, 0);
+            buffer.putInt(CAPACITY, capacity);
+            return new TraceRing(buffer, capacity);
+        }
+    }
+    
+    /**
+     * This method opens a ring created by another process.
+     * 
+     * @param file
+     * @return
+     * @throws IOException 
+     */
+    public static TraceRing open(File file) throws IOException {
+        try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+            MappedByteBuffer buffer = access.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, access.length());
+            return new TraceRing(buffer, buffer.getInt(CAPACITY));
+        }
+    }
+    
+    /**
+     * This method writes a record, waiting for the reader if the ring is 
+     * full.
+     * 
+     * @param record
+     * @param length the number of bytes of the record to write.
+     */
+    public synchronized void write(byte[] record, int length) {
+        long written = buffer.getLong(WRITTEN);
+        int index = (int) (written % capacity);
+        int skip = 0;
+        if(capacity - index < length + 4) {
+            skip = capacity - index;
+        }
+        long needed = skip + length + 4;
+        while(written + needed - buffer.getLong(READ) > capacity) {
+            Thread.yield();
+        }
+        //the reader is done with the space before it is overwritten
+        loadFence();
+        if(skip > 0) {
+            if(skip >= 4) {
+                buffer.putInt(HEADER + index, SKIP);
+            }
+            written += skip;
+            index = 0;
+        }
+        buffer.putInt(HEADER + index, length);
+        for(int i = 0; i < length; i++) {
+            buffer.put(HEADER + index + 4 + i, record[i]);
+        }
+        //the record is written before it is published
+        storeFence();
+        buffer.putLong(WRITTEN, written + length + 4);
+    }
+    
+    /**
+     * This method reads the next record, if there is one.
+     * 
+     * @param record where the record is copied, which must be large enough.
+     * @return the length of the record, or -1 if there is none.
+     */
+    public int read(byte[] record) {
+        long read = buffer.getLong(READ);
+        while(read < buffer.getLong(WRITTEN)) {
+            //the record is read no earlier than the position that published it
+            loadFence();
+            int index = (int) (read % capacity);
+            if(capacity - index < 4 || buffer.getInt(HEADER + index) == SKIP) {
+                read += capacity - index;
+                buffer.putLong(READ, read);
+                continue;
+            }
+            int length = buffer.getInt(HEADER + index);
+            for(int i = 0; i < length; i++) {
+                record[i] = buffer.get(HEADER + index + 4 + i);
+            }
+            //the record is read before its space is freed
+            fullFence();
+            buffer.putLong(READ, read + length + 4);
+            return length;
+        }
+        return -1;
+    }
+    
+    /**
+     * @return the number of bytes in the ring
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * @return the number of bytes written but not yet read
+     */
+    public long getPending() {
+        return buffer.getLong(WRITTEN) - buffer.getLong(READ);
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.debugger.DebuggerListener;
+import org.debugger.events.DebuggerBreakpointEvent;
+import org.debugger.events.DebuggerExceptionEvent;
+import org.debugger.events.DebuggerLoopEvent;
+import org.debugger.events.DebuggerStartEvent;
+import org.debugger.events.DebuggerStepEvent;
+import org.debugger.events.DebuggerStopEvent;
+import org.debugger.jdi.CoverageRecorder;
+import org.debugger.jdi.JDIDebugger;
+
+/**
+ * This class measures the cost of recording line coverage. It runs a jar,
+ * beginning to end, three ways: on its own, in the debugger, and in the
+ * debugger with coverage enabled, and prints the average running time of 
+ * each.
+ * 
+ * It takes the full path of the jar and, optionally, the number of times to
+ * run each way, which is 5 by default.
+ * 
+ * @author Andreas Stefik
+ */
+public class CoverageBenchmark {
+    
+    /**
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        if(args.length < 1) {
+            System.out.println("Usage: CoverageBenchmark <jar> [runs]");
+            return;
+        }
+        String jar = args[0];
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        
+        //the first run of each warms up the disk cache and is not counted
+        runAlone(jar);
+        runDebugger(jar, false);
+        long alone = 0;
+        long debugger = 0;
+        long coverage = 0;
+        for(int i = 0; i < runs; i++) {
+            alone += runAlone(jar);
+            debugger += runDebugger(jar, false);
+            coverage += runDebugger(jar, true);
+        }
+        
+        System.out.println("Uninstrumented: " + format(alone / runs));
+        System.out.println("Debugger: " + format(debugger / runs));
+        System.out.println("Debugger with coverage: " + format(coverage / runs) 
+                + " (" + String.format("%.2f", (double) coverage / debugger) + "x the debugger, " 
+                + String.format("%.2f", (double) coverage / alone) + "x uninstrumented)");
+    }
+    
+    private static String format(long nanoseconds) {
+        return String.format("%.3f seconds", nanoseconds / 1000000000.0);
+    }
+    
+    private static long runAlone(String jar) {
+        String java = System.getProperty("java.home") + "/bin/java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-jar", jar);
+        builder.redirectErrorStream(true);
+        long start = System.nanoTime();
+        try {
+            Process process = builder.start();
+            drain(process.getInputStream());
+            process.waitFor();
+        } catch (IOException ex) {
+            Logger.getLogger(CoverageBenchmark.class.getName()).log(Level.SEVERE, null, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return System.nanoTime() - start;
+    }
+    
+    private static long runDebugger(String jar, boolean coverage) {
+        JDIDebugger debugger = new JDIDebugger();
+        debugger.setExecutable(jar);
+        debugger.getCoverage().setEnabled(coverage);
+        StopListener listener = new StopListener();
+        debugger.add(listener);
+        
+        long start = System.nanoTime();
+        debugger.launch();
+        drain(debugger.getInputStream());
+        drain(debugger.getErrorStream());
+        debugger.forward();
+        try {
+            listener.stopped.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        long time = System.nanoTime() - start;
+        
+        if(coverage) {
+            int lines = 0;
+            int covered = 0;
+            Iterator<CoverageRecorder.ClassCoverage> classes = 
+                    debugger.getCoverage().getClasses().iterator();
+            while(classes.hasNext()) {
+                CoverageRecorder.ClassCoverage next = classes.next();
+                lines += next.getLineCount();
+                covered += next.getCoveredLineCount();
+            }
+            System.out.println("Covered " + covered + " of " + lines + " lines.");
+        }
+        debugger.stop();
+        return time;
+    }
+    
+    private static void drain(final InputStream stream) {
+        if(stream == null) {
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[8192];
+                try {
+                    while(stream.read(buffer) >= 0) {
+                    }
+                } catch (IOException ex) {
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * This listener waits for the program to finish.
+     */
+    private static class StopListener implements DebuggerListener {
+        private final CountDownLatch stopped = new CountDownLatch(1);
+        
+        @Override
+        public String getName() {
+            return "Stop Listener";
+        }
+
+        @Override
+        public void accept(DebuggerStartEvent event) {
+        }
+
+        @Override
+        public void accept(DebuggerStopEvent event) {
+            stopped.countDown();
+        }
+
+        @Override
+        public void accept(DebuggerStepEvent event) {
+        }
+
+        @Override
+        public void accept(DebuggerExceptionEvent event) {
+        }
+
+        @Override
+        public void accept(DebuggerBreakpointEvent event) {
+        }
+
+        @Override
+        public void accept(DebuggerLoopEvent event) {
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.benchmarks;
+
+import java.util.Random;
+import org.debugger.jdi.trace.TraceBuffer;
+import org.debugger.jdi.trace.TraceChunk;
+import org.debugger.jdi.trace.TraceValues;
+import org.debugger.jdi.trace.TraceWriteIndex;
+
+/**
+ * This class measures the last write index of recorded traces. It builds a 
+ * synthetic trace, as a program with a few threads and a few hundred 
+ * variables would record it, and prints how fast the trace and the index 
+ * are built, and how long finding the last write to a variable takes with 
+ * the index and by scanning the trace backward.
+ * 
+ * It takes, optionally, the number of steps to record, which is 5000000 by
+ * default.
+ * 
+ * @author Andreas Stefik
+ */
+public class TraceIndexBenchmark {
+    private static final int THREADS = 4;
+    private static final int SLOTS = 400;
+    private static final int QUERIES = 100000;
+    private static final int SCANS = 200;
+    
+    /**
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        int steps = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+        
+        //the same steps are fed to the buffer and the index
+        Random random = new Random(42);
+        int[] threads = new int[steps];
+        int[] counts = new int[steps];
+        int[][] slots = new int[steps][];
+        long[][] values = new long[steps][];
+        byte[] tags = new byte[4];
+        for(int i = 0; i < 4; i++) {
+            tags[i] = TraceValues.INTEGER;
+        }
+        long writes = 0;
+        for(int i = 0; i < steps; i++) {
+            threads[i] = random.nextInt(THREADS);
+            counts[i] = random.nextInt(3);
+            slots[i] = new int[counts[i]];
+            values[i] = new long[counts[i]];
+            for(int j = 0; j < counts[i]; j++) {
+                //a few variables, like loop counters, are written far more often
+                slots[i][j] = random.nextInt(4) == 0 ? random.nextInt(SLOTS) : random.nextInt(10);
+                values[i][j] = random.nextInt(1000);
+            }
+            writes += counts[i];
+        }
+        
+        TraceBuffer buffer = new TraceBuffer();
+        long start = System.nanoTime();
+        for(int i = 0; i < steps; i++) {
+            buffer.append(threads[i], i % 50, 1, counts[i], slots[i], tags, values[i]);
+        }
+        long bufferTime = System.nanoTime() - start;
+        
+        TraceWriteIndex index = new TraceWriteIndex();
+        start = System.nanoTime();
+        for(int i = 0; i < steps; i++) {
+            index.add(i, threads[i], counts[i], slots[i], tags, values[i]);
+        }
+        long indexTime = System.nanoTime() - start;
+        
+        System.out.println("Recorded " + steps + " steps with " + writes + " writes.");
+        System.out.println("Trace: " + rate(steps, bufferTime) + " steps per second");
+        System.out.println("Index: " + rate(writes, indexTime) + " writes per second, " 
+                + String.format("%.1f", indexTime * 100.0 / bufferTime) + "% of the time to build the trace");
+        
+        start = System.nanoTime();
+        int found = 0;
+        for(int i = 0; i < QUERIES; i++) {
+            if(index.lastWriteBefore(random.nextInt(SLOTS), random.nextInt(steps)) >= 0) {
+                found++;
+            }
+        }
+        long indexQuery = (System.nanoTime() - start) / QUERIES;
+        
+        start = System.nanoTime();
+        for(int i = 0; i < SCANS; i++) {
+            scan(buffer, random.nextInt(SLOTS), random.nextInt(steps));
+        }
+        long scanQuery = (System.nanoTime() - start) / SCANS;
+        System.out.println("Last write with the index: " + format(indexQuery) 
+                + " (" + found + " of " + QUERIES + " found a write)");
+        System.out.println("Last write by scanning: " + format(scanQuery) + " ("
+                + String.format("%.0f", (double) scanQuery / Math.max(1, indexQuery)) + "x slower)");
+    }
+    
+    /**
+     * This method finds the last write to a slot by scanning the trace 
+     * backward, as it would be found without the index.
+     */
+    private static long scan(TraceBuffer buffer, int slot, long step) {
+        while(step >= 0) {
+            TraceChunk chunk = buffer.getChunk(step);
+            for(int i = (int) (step - chunk.getFirstStep()); i >= 0; i--) {
+                for(int c = chunk.getChangeStart(i); c < chunk.getChangeStart(i + 1); c++) {
+                    if(chunk.getSlot(c) == slot) {
+                        return chunk.getFirstStep() + i;
+                    }
+                }
+            }
+            step = chunk.getFirstStep() - 1;
+        }
+        return -1;
+    }
+    
+    private static String rate(long count, long nanoseconds) {
+        return String.format("%,.0f", count * 1000000000.0 / nanoseconds);
+    }
+    
+    private static String format(long nanoseconds) {
+        return String.format("%.2f microseconds", nanoseconds / 1000.0);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.benchmarks;
+
+import java.util.Random;
+import org.debugger.jdi.trace.TraceBuffer;
+import org.debugger.jdi.trace.TraceLocationIndex;
+import org.debugger.jdi.trace.TraceSealer;
+import org.debugger.jdi.trace.TraceValues;
+import org.debugger.jdi.trace.TraceWriteIndex;
+
+/**
+ * This class measures the sealing of recorded traces. It records a 
+ * synthetic trace twice, once sealing each full chunk on the recording 
+ * thread and once with a TraceSealer sealing and indexing chunks in the 
+ * background, and prints how fast each records, with the sealer's 
+ * throughput and compression ratio.
+ * 
+ * It takes, optionally, the number of steps to record, which is 5000000 by
+ * default.
+ * 
+ * @author Andreas Stefik
+ */
+public class TraceSealBenchmark {
+    private static final int THREADS = 4;
+    private static final int LOCATIONS = 2000;
+    private static final int SLOTS = 400;
+    
+    /**
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        int steps = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+        
+        Random random = new Random(42);
+        int[] threads = new int[steps];
+        int[] locations = new int[steps];
+        int[] counts = new int[steps];
+        int[][] slots = new int[steps][];
+        long[][] values = new long[steps][];
+        byte[] tags = new byte[4];
+        for(int i = 0; i < 4; i++) {
+            tags[i] = TraceValues.INTEGER;
+        }
+        for(int i = 0; i < steps; i++) {
+            threads[i] = random.nextInt(THREADS);
+            //programs spend most of their time in a few loops
+            locations[i] = random.nextInt(8) == 0 ? random.nextInt(LOCATIONS) : random.nextInt(40);
+            counts[i] = random.nextInt(3);
+            slots[i] = new int[counts[i]];
+            values[i] = new long[counts[i]];
+            for(int j = 0; j < counts[i]; j++) {
+                slots[i][j] = random.nextInt(4) == 0 ? random.nextInt(SLOTS) : random.nextInt(10);
+                values[i][j] = random.nextInt(1000);
+            }
+        }
+        
+        TraceBuffer inline = new TraceBuffer();
+        long start = System.nanoTime();
+        for(int i = 0; i < steps; i++) {
+            inline.append(threads[i], locations[i], 1, counts[i], slots[i], tags, values[i]);
+        }
+        long inlineTime = System.nanoTime() - start;
+        
+        TraceBuffer buffer = new TraceBuffer();
+        TraceSealer sealer = new TraceSealer(buffer, new TraceWriteIndex(), new TraceLocationIndex());
+        buffer.setSealer(sealer);
+        start = System.nanoTime();
+        for(int i = 0; i < steps; i++) {
+            buffer.append(threads[i], locations[i], 1, counts[i], slots[i], tags, values[i]);
+            sealer.await();
+        }
+        long recordTime = System.nanoTime() - start;
+        sealer.flush();
+        long sealTime = System.nanoTime() - start;
+        
+        System.out.println("Recorded " + steps + " steps on " + sealer.getParallelism() + " threads.");
+        System.out.println("Sealing while recording: " + rate(steps, inlineTime) + " steps per second");
+        System.out.println("Sealing in the background: " + rate(steps, recordTime) + " steps per second, " 
+                + format(sealTime) + " until every chunk was sealed and indexed");
+        System.out.println("Sealer: " + String.format("%.1f", sealer.getMegabytesPerSecond()) 
+                + " MB per second, " + sealer.getChunkCount() + " chunks, compression ratio " 
+                + String.format("%.2f", sealer.getCompressionRatio()));
+        System.out.println("Recorder waited " + sealer.getWaitCount() + " times, for " 
+                + format(sealer.getWaitTime()));
+    }
+    
+    private static String rate(long count, long nanoseconds) {
+        return String.format("%,.0f", count * 1000000000.0 / nanoseconds);
+    }
+    
+    private static String format(long nanoseconds) {
+        return String.format("%.1f milliseconds", nanoseconds / 1000000.0);
+    }
+}
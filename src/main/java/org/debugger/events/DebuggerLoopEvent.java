@@ -0,0 +1,86 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.events;
+
+/**
+ * This event signifies that a thread appears to be stuck in a loop. It is 
+ * sent when the program has run for a while without stopping, and samples 
+ * of the thread keep landing on the same few lines of one action. The line
+ * and source of the event are the first line of the loop.
+ * 
+ * @author Andreas Stefik
+ */
+public interface DebuggerLoopEvent extends DebuggerLocationEvent {
+    
+    /**
+     * This method returns the name of the thread that is looping.
+     * 
+     * @return 
+     */
+    public String getThreadName();
+    
+    /**
+     * This method returns the name of the method, or action, that contains
+     * the loop.
+     * 
+     * @return 
+     */
+    public String getMethodName();
+    
+    /**
+     * This method returns the first line the thread was seen on.
+     * 
+     * @return 
+     */
+    public int getFirstLine();
+    
+    /**
+     * This method returns the last line the thread was seen on.
+     * 
+     * @return 
+     */
+    public int getLastLine();
+    
+    /**
+     * This method returns the names of the variables that changed while the
+     * thread was sampled, which are likely to control the loop. If none 
+     * changed, all variables in scope are returned.
+     * 
+     * @return 
+     */
+    public String[] getVariableNames();
+    
+    /**
+     * This method returns the values of the variables, parallel to their
+     * names, as of the last sample.
+     * 
+     * @return 
+     */
+    public String[] getVariableValues();
+}
@@ -28,39 +28,139 @@
  */
 package org.debugger.jdi;
 
-import com.sun.jdi.AbsentInformationException;
+import com.sun.jdi.IncompatibleThreadStateException;
 import com.sun.jdi.Location;
 import com.sun.jdi.ReferenceType;
+import com.sun.jdi.StackFrame;
 import com.sun.jdi.VirtualMachine;
+import com.sun.jdi.event.BreakpointEvent;
 import com.sun.jdi.event.ClassPrepareEvent;
 import com.sun.jdi.request.BreakpointRequest;
+import com.sun.jdi.request.ClassPrepareRequest;
+import com.sun.jdi.request.EventRequest;
 import com.sun.jdi.request.EventRequestManager;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.debugger.Breakpoint;
+import org.debugger.Logpoint;
+import org.debugger.jdi.expressions.CompiledExpression;
+import org.debugger.jdi.expressions.ExpressionException;
+import org.debugger.jdi.expressions.ExpressionParser;
 
 /**
  * This class manages breakpoints on the system. Doing so is slightly complex
  * as classes executed through the Java Debugging interface (JDI) cannot
  * cannot be loaded until a class prepare event is received from the system.
  * 
+ * Rather than listening to every class that is loaded, the manager asks the
+ * virtual machine for a class prepare event only for those classes that
+ * have unresolved breakpoints. These requests suspend only the thread loading
+ * the class, which is held until the breakpoints are in place, and are
+ * deleted as soon as the class is resolved.
+ * 
+ * Breakpoints are stored per class, sorted by line, in ClassBreakpoints 
+ * objects that are replaced rather than changed. Changes are synchronized, 
+ * as the manager is called both from the event dispatching thread and from 
+ * whatever thread is driving the debugger, but reading the breakpoints 
+ * needs neither a lock nor a copy.
+ * 
+ * The manager can also count how often lines run, in counting mode. Counting
+ * breakpoints never suspend the program, so they give a cheap profile of
+ * which lines are executed most.
+ * 
  * @author Andreas Stefik
  */
 public class BreakpointManager {
-    private HashMap<String, HashMap<Integer, Breakpoint>> unresolved = new HashMap<String, HashMap<Integer, Breakpoint>>();
-    private HashMap<String, HashMap<Integer, Breakpoint>> resolved = new HashMap<String, HashMap<Integer, Breakpoint>>();
-    private HashMap<String, ReferenceType> loadedTypes = new HashMap<String, ReferenceType>();
-    private HashMap<String, BreakpointRequest> breakpointRequests = new HashMap<String, BreakpointRequest>();
+    /**
+     * This is the key under which each BreakpointRequest stores the
+     * breakpoint it was created for.
+     */
+    public static final String BREAKPOINT_PROPERTY = "breakpoint";
+    
+    /**
+     * This is the key under which each BreakpointRequest stores all of the
+     * requests made for the same breakpoint.
+     */
+    private static final String REQUESTS_PROPERTY = "requests";
+    
+    /**
+     * This is the key under which each BreakpointRequest stores the compiled
+     * condition of its breakpoint, if it has one.
+     */
+    private static final String CONDITION_PROPERTY = "condition";
+    
+    /**
+     * This is the key under which the BreakpointRequests of a logpoint store
+     * its compiled expressions.
+     */
+    private static final String LOG_PROPERTY = "log";
+    
+    /**
+     * This is the key under which each counting BreakpointRequest stores the
+     * index of its counter.
+     */
+    private static final String COUNTER_PROPERTY = "counter";
+    
+    /**
+     * When more than this many classes need to be looked up at once, the
+     * manager asks for all loaded classes in one call instead of asking for
+     * each class by name.
+     */
+    private static final int BULK_LOOKUP_THRESHOLD = 8;
+    
+    /**
+     * The breakpoints of each class, keyed by the interned dot name of the
+     * class. Resolved classes stay in the table when their last breakpoint is
+     * removed, so that the class does not need to be looked up again.
+     */
+    private final ConcurrentHashMap<String, ClassBreakpoints> classes = new ConcurrentHashMap<>();
+    private final HashMap<String, ClassPrepareRequest> prepareRequests = new HashMap<>();
+    
+    /**
+     * The classes being counted, mapped to the lines counted in each, or to
+     * null if every line of the class is counted.
+     */
+    private final HashMap<String, int[]> counted = new HashMap<>();
+    
+    /**
+     * The counting requests of each counted class that has been loaded.
+     */
+    private final HashMap<String, ArrayList<BreakpointRequest>> countRequests = new HashMap<>();
+    
+    /**
+     * The number of times each counted location has been hit.
+     */
+    private final LineHitCounts hitCounts = new LineHitCounts();
     
     /**
      * This is the virtual machine object we are working with.
      */
     private VirtualMachine virtualMachine = null;
     
+    /**
+     * This is a cache of line tables, shared with the rest of the debugger.
+     */
+    private LineTableCache lineTables = new LineTableCache();
+    
+    /**
+     * This is where logpoints write the values they capture.
+     */
+    private LogpointLog logpointLog = new LogpointLog();
+    
     /**
      * This method adds a breakpoint to the system. If a class is already loaded
      * then this method loads it into the virtual machine. If no class is loaded
@@ -69,25 +169,36 @@ public class BreakpointManager {
      * @param breakpoint 
      */
     public void add(Breakpoint breakpoint) {
-        String name = breakpoint.getClassInformation().getDotName();
-        if(resolved.containsKey(name)) { //this class has been resolved already
-            //therefore we add it to the resolved list and to the virtual machine
-            HashMap<Integer, Breakpoint> lines = resolved.get(name);
-            if(!lines.containsKey(breakpoint.getLine())) {
-                lines.put(breakpoint.getLine(), breakpoint);
-                //now add it to the virtual machine
-                addToVirtualMachine(breakpoint);
+        addAll(Collections.singletonList(breakpoint));
+    }
+    
+    /**
+     * This method adds many breakpoints at once. The breakpoints are grouped
+     * by class, so that each class is updated, looked up, and has its line 
+     * table read only once, however many breakpoints it has.
+     * 
+     * @param breakpoints 
+     */
+    public synchronized void addAll(Collection<? extends Breakpoint> breakpoints) {
+        HashMap<String, ArrayList<Breakpoint>> groups = group(breakpoints);
+        ArrayList<String> waiting = new ArrayList<>();
+        Iterator<Map.Entry<String, ArrayList<Breakpoint>>> iterator = groups.entrySet().iterator();
+        while(iterator.hasNext()) {
+            Map.Entry<String, ArrayList<Breakpoint>> next = iterator.next();
+            String name = next.getKey();
+            ClassBreakpoints current = classes.get(name);
+            if(current == null) {
+                current = new ClassBreakpoints(name);
             }
-        } else {
-            if(unresolved.containsKey(name)) {
-                HashMap<Integer, Breakpoint> un = unresolved.get(name);
-                un.put(breakpoint.getLine(), breakpoint);
+            ClassBreakpoints updated = current.addAll(next.getValue());
+            if(updated.isResolved()) {
+                updated = arm(updated);
             } else {
-                HashMap<Integer, Breakpoint> un = new HashMap<>();
-                un.put(breakpoint.getLine(), breakpoint);
-                unresolved.put(name, un);
+                waiting.add(name);
             }
+            classes.put(name, updated);
         }
+        watchForClasses(waiting);
     }
     
     /**
@@ -98,171 +209,743 @@ public class BreakpointManager {
      * @param breakpoint
      * @return 
      */
-    public Breakpoint remove(Breakpoint breakpoint) {
+    public synchronized Breakpoint remove(Breakpoint breakpoint) {
         String name = breakpoint.getClassInformation().getDotName();
-        if(resolved.containsKey(name)) { //this class has been resolved already
-            //therefore we add it to the resolved list and to the virtual machine
-            HashMap<Integer, Breakpoint> lines = resolved.get(name);
-            if(lines.containsKey(breakpoint.getLine())) {
-                Breakpoint point = lines.remove(breakpoint.getLine());
-                //now add it to the virtual machine
-                removeFromVirtualmachine(breakpoint);
+        ClassBreakpoints current = classes.get(name);
+        if(current != null) {
+            int index = current.indexOf(breakpoint.getLine());
+            if(index >= 0) {
+                Breakpoint point = current.breakpoints[index];
+                removeAll(Collections.singletonList(breakpoint));
                 return point;
             }
-        } else {
-            if(unresolved.containsKey(name)) {
-                HashMap<Integer, Breakpoint> lines = unresolved.get(name);
-                if(lines.containsKey(breakpoint.getLine())) {
-                    Breakpoint point = lines.remove(breakpoint.getLine());
-                    return point;
+        }
+        return null;
+    }
+    
+    /**
+     * This method removes many breakpoints at once. Requests for all of them 
+     * are deleted from the virtual machine together.
+     * 
+     * @param breakpoints 
+     */
+    public synchronized void removeAll(Collection<? extends Breakpoint> breakpoints) {
+        ArrayList<EventRequest> deleted = new ArrayList<>();
+        HashMap<String, ArrayList<Breakpoint>> groups = group(breakpoints);
+        Iterator<Map.Entry<String, ArrayList<Breakpoint>>> iterator = groups.entrySet().iterator();
+        while(iterator.hasNext()) {
+            Map.Entry<String, ArrayList<Breakpoint>> next = iterator.next();
+            String name = next.getKey();
+            ClassBreakpoints current = classes.get(name);
+            if(current == null) {
+                continue;
+            }
+            boolean[] removed = new boolean[current.size()];
+            int count = 0;
+            Iterator<Breakpoint> points = next.getValue().iterator();
+            while(points.hasNext()) {
+                int index = current.indexOf(points.next().getLine());
+                if(index >= 0 && !removed[index]) {
+                    removed[index] = true;
+                    count++;
+                    BreakpointRequest[] requests = current.requests[index];
+                    if(requests != null) {
+                        Collections.addAll(deleted, requests);
+                    }
                 }
             }
+            if(count == 0) {
+                continue;
+            }
+            ClassBreakpoints updated = current.removeAll(removed, count);
+            if(updated.size() == 0 && !updated.isResolved()) {
+                classes.remove(name);
+                if(!counted.containsKey(name)) {
+                    stopWatchingForClass(name);
+                }
+            } else {
+                classes.put(name, updated);
+            }
+        }
+        if(!deleted.isEmpty() && virtualMachine != null) {
+            virtualMachine.eventRequestManager().deleteEventRequests(deleted);
         }
-        return null;
     }
     
-    private void removeFromVirtualmachine(Breakpoint breakpoint) {
-        EventRequestManager manager = virtualMachine.eventRequestManager();
-        BreakpointRequest bp = breakpointRequests.remove(breakpoint.getStaticKey());
-        if(bp != null) {
-            bp.disable();
+    /**
+     * This method groups breakpoints by class. Class names are interned, so 
+     * the table holds one copy of each name however many breakpoints name it.
+     * 
+     * @param breakpoints
+     * @return 
+     */
+    private HashMap<String, ArrayList<Breakpoint>> group(Collection<? extends Breakpoint> breakpoints) {
+        HashMap<String, ArrayList<Breakpoint>> groups = new HashMap<>();
+        Iterator<? extends Breakpoint> iterator = breakpoints.iterator();
+        while(iterator.hasNext()) {
+            Breakpoint next = iterator.next();
+            String name = next.getClassInformation().getDotName().intern();
+            ArrayList<Breakpoint> group = groups.get(name);
+            if(group == null) {
+                group = new ArrayList<>();
+                groups.put(name, group);
+            }
+            group.add(next);
         }
+        return groups;
     }
     
     /**
      * This method removes all breakpoints from the virtual machine.
      */
-    public void clear() {
-        unresolved.clear();
-        resolved.clear();
-        Iterator<BreakpointRequest> iterator = breakpointRequests.values().iterator();
+    public synchronized void clear() {
+        ArrayList<EventRequest> deleted = new ArrayList<>();
+        Iterator<ClassBreakpoints> iterator = classes.values().iterator();
         while(iterator.hasNext()) {
-            BreakpointRequest bp = iterator.next();
-            bp.disable();
+            ClassBreakpoints next = iterator.next();
+            if(next.isResolved()) {
+                for(int i = 0; i < next.size(); i++) {
+                    if(next.requests[i] != null) {
+                        Collections.addAll(deleted, next.requests[i]);
+                    }
+                }
+                classes.put(next.name, next.empty());
+            } else {
+                iterator.remove();
+                if(!counted.containsKey(next.name)) {
+                    stopWatchingForClass(next.name);
+                }
+            }
+        }
+        if(!deleted.isEmpty() && virtualMachine != null) {
+            virtualMachine.eventRequestManager().deleteEventRequests(deleted);
         }
-        breakpointRequests.clear();
     }
     
     /**
      * This method removes all breakpoints from the virtual machine. Once they
      * are removed, it also clears the types that have been loaded.
      */
-    public void reset() {
-        unresolved.clear();
-        resolved.clear();
-        breakpointRequests.clear();
-        loadedTypes.clear();
+    public synchronized void reset() {
+        classes.clear();
+        counted.clear();
+        countRequests.clear();
+        prepareRequests.clear();
         virtualMachine = null;
     }
     
     /**
-     * This method returns a list of all breakpoints currently on the system.
+     * This method returns all breakpoints currently on the system.
      * Breakpoints are known, but may or may not be actually loaded onto the 
      * virtual machine, depending upon its current state.
      * 
+     * The iterator walks the breakpoints in place. It never fails if 
+     * breakpoints are added or removed while it is in use, but it may or may
+     * not see those changes.
+     * 
      * @return 
      */
     public Iterator<Breakpoint> getBreakpoints() {
-        ArrayList<Breakpoint> array = getBreakpointArray();
-        return array.iterator();
+        return new BreakpointIterator(classes.values().iterator());
     }
     
     /**
-     * This method returns a list of all breakpoints currently on the system.
-     * Breakpoints are known, but may or may not be actually loaded onto the 
-     * virtual machine, depending upon its current state.
+     * This method returns the breakpoint on a line of a class, or null if
+     * there is none.
      * 
+     * @param className the fully qualified name of the class.
+     * @param line
      * @return 
      */
-    private ArrayList<Breakpoint> getBreakpointArray() {
-        ArrayList<Breakpoint> points = new ArrayList<>();
-        Iterator<HashMap<Integer, Breakpoint>> iterator = resolved.values().iterator();
-        while(iterator.hasNext()) {
-            HashMap<Integer, Breakpoint> next = iterator.next();
-            Iterator<Breakpoint> it = next.values().iterator();
-            while(it.hasNext()) {
-                Breakpoint bp = it.next();
-                points.add(bp);
+    public Breakpoint getBreakpoint(String className, int line) {
+        ClassBreakpoints current = classes.get(className);
+        if(current == null) {
+            return null;
+        }
+        int index = current.indexOf(line);
+        return index < 0 ? null : current.breakpoints[index];
+    }
+    
+    /**
+     * This method places every breakpoint of a loaded class that is not yet
+     * armed into the virtual machine. A line may compile to several 
+     * locations, in which case a request is made for each of them and they
+     * are tracked together as one breakpoint.
+     * 
+     * A conditional breakpoint is parsed once, here, and its requests only
+     * suspend the thread that hit them, so that the rest of the program keeps
+     * running while the condition is checked. The same is true of logpoints,
+     * which never stop the program at all.
+     * 
+     * @param current
+     * @return the breakpoints, with their requests.
+     */
+    private ClassBreakpoints arm(ClassBreakpoints current) {
+        if(virtualMachine == null) {
+            return current;
+        }
+        EventRequestManager manager = virtualMachine.eventRequestManager();
+        LineTable table = lineTables.get(current.type);
+        BreakpointRequest[][] armed = current.requests.clone();
+        for(int index = 0; index < armed.length; index++) {
+            if(armed[index] != null) {
+                continue;
             }
+            Breakpoint breakpoint = current.breakpoints[index];
+            Location[] locations = table.getLocations(breakpoint.getLine());
+            if(locations.length > 0) {
+                CompiledExpression condition = compile(breakpoint);
+                CompiledExpression log = compileLog(breakpoint);
+                BreakpointRequest[] requests = new BreakpointRequest[locations.length];
+                for(int i = 0; i < locations.length; i++) {
+                    BreakpointRequest vmBreakpoint = manager.createBreakpointRequest(locations[i]);
+                    if(breakpoint.hasCountFilter()) {
+                        vmBreakpoint.addCountFilter(breakpoint.getCountFilter());
+                    }
+                    if(breakpoint.isSuspendingThreadOnly() || condition != null || log != null) {
+                        vmBreakpoint.setSuspendPolicy(EventRequest.SUSPEND_EVENT_THREAD);
+                    } else {
+                        vmBreakpoint.setSuspendPolicy(EventRequest.SUSPEND_ALL);
+                    }
+                    if(condition != null) {
+                        vmBreakpoint.putProperty(CONDITION_PROPERTY, condition);
+                    }
+                    if(log != null) {
+                        vmBreakpoint.putProperty(LOG_PROPERTY, log);
+                    }
+                    vmBreakpoint.putProperty(BREAKPOINT_PROPERTY, breakpoint);
+                    vmBreakpoint.putProperty(REQUESTS_PROPERTY, requests);
+                    vmBreakpoint.enable();
+                    requests[i] = vmBreakpoint;
+                }
+                armed[index] = requests;
+            }
+        }
+        return current.withRequests(armed);
+    }
+    
+    /**
+     * This method parses the condition of a breakpoint. A condition that
+     * cannot be parsed is logged and ignored, so the breakpoint always stops.
+     * 
+     * @param breakpoint
+     * @return the condition, or null if the breakpoint has none.
+     */
+    private CompiledExpression compile(Breakpoint breakpoint) {
+        if(!breakpoint.hasCondition()) {
+            return null;
+        }
+        try {
+            return ExpressionParser.compile(breakpoint.getCondition(), false);
+        } catch (ExpressionException ex) {
+            Logger.getLogger(BreakpointManager.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return null;
+    }
+    
+    /**
+     * This method parses the expressions of a logpoint together, so that the
+     * variables they use are read only once per hit. Expressions that cannot
+     * be parsed are logged and left out.
+     * 
+     * @param breakpoint
+     * @return the expressions, or null if the breakpoint is not a logpoint.
+     */
+    private CompiledExpression compileLog(Breakpoint breakpoint) {
+        if(!(breakpoint instanceof Logpoint)) {
+            return null;
+        }
+        String[] expressions = ((Logpoint) breakpoint).getExpressions();
+        ArrayList<String> valid = new ArrayList<>();
+        for(int i = 0; i < expressions.length; i++) {
+            try {
+                ExpressionParser.compile(expressions[i], false);
+                valid.add(expressions[i]);
+            } catch (ExpressionException ex) {
+                Logger.getLogger(BreakpointManager.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        try {
+            return ExpressionParser.compileAll(valid.toArray(new String[valid.size()]), false);
+        } catch (ExpressionException ex) {
+            Logger.getLogger(BreakpointManager.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return null;
+    }
+    
+    /**
+     * This method checks the condition of the breakpoint that was hit. It
+     * returns false if the condition is false, in which case the thread
+     * should be resumed without telling anyone it stopped. If the condition
+     * cannot be evaluated, the breakpoint stops, so that the user can see 
+     * why. Logpoints write their values to the log here and never stop, and
+     * counting breakpoints are counted and never stop.
+     * 
+     * When the condition is true and the breakpoint suspends the whole 
+     * program, the rest of the program is suspended here, as only the thread
+     * that hit the breakpoint was stopped to check the condition.
+     * 
+     * @param event
+     * @return 
+     */
+    public boolean shouldStop(BreakpointEvent event) {
+        Object counter = event.request().getProperty(COUNTER_PROPERTY);
+        if(counter instanceof Integer) {
+            hitCounts.increment((Integer) counter);
+            return false;
         }
         
-        iterator = unresolved.values().iterator();
-        while(iterator.hasNext()) {
-            HashMap<Integer, Breakpoint> next = iterator.next();
-            Iterator<Breakpoint> it = next.values().iterator();
-            while(it.hasNext()) {
-                Breakpoint bp = it.next();
-                points.add(bp);
+        Object property = event.request().getProperty(CONDITION_PROPERTY);
+        Object log = event.request().getProperty(LOG_PROPERTY);
+        if(!(property instanceof CompiledExpression) && !(log instanceof CompiledExpression)) {
+            return true;
+        }
+        
+        boolean stop = true;
+        try {
+            StackFrame frame = event.thread().frame(0);
+            if(property instanceof CompiledExpression) {
+                stop = ((CompiledExpression) property).isTrue(frame);
+            }
+            if(stop && log instanceof CompiledExpression) {
+                CompiledExpression expressions = (CompiledExpression) log;
+                logpointLog.write(event.thread(), event.location(), 
+                        expressions.getSources(), expressions.evaluateAll(frame));
+                return false;
+            }
+        } catch (ExpressionException | IncompatibleThreadStateException ex) {
+            Logger.getLogger(BreakpointManager.class.getName()).log(Level.INFO, null, ex);
+            if(log instanceof CompiledExpression) {
+                return false;
             }
         }
         
-        return points;
+        if(stop && getSuspendPolicy(event) == EventRequest.SUSPEND_ALL) {
+            event.virtualMachine().suspend();
+            event.thread().resume();
+        }
+        return stop;
     }
     
     /**
-     * This method takes a breakpoint object and places it into the virtual
-     * machine for processing.
+     * This method returns true if the breakpoint that was hit is a logpoint.
      * 
-     * @param breakpoint 
+     * @param event
+     * @return 
      */
-    private void addToVirtualMachine(Breakpoint breakpoint) {
-        EventRequestManager manager = virtualMachine.eventRequestManager();
-        ReferenceType type = loadedTypes.get(breakpoint.getClassInformation().getDotName());
-        if(type != null) {
-            try {
-                List<Location> locations = type.locationsOfLine(breakpoint.getLine());
-                if(locations != null && !locations.isEmpty()) {
-                    Location line = locations.get(0);
-                    BreakpointRequest vmBreakpoint = manager.createBreakpointRequest(line);
-                    if(breakpoint.hasCountFilter()) {
-                        vmBreakpoint.addCountFilter(breakpoint.getCountFilter());
+    public boolean isLogpoint(BreakpointEvent event) {
+        return event.request().getProperty(LOG_PROPERTY) != null;
+    }
+    
+    /**
+     * This method returns the suspend policy the breakpoint that was hit 
+     * asked for, which can differ from the policy of its request, as 
+     * conditional breakpoints only suspend their thread while the condition
+     * is checked.
+     * 
+     * @param event
+     * @return 
+     */
+    public int getSuspendPolicy(BreakpointEvent event) {
+        Object property = event.request().getProperty(BREAKPOINT_PROPERTY);
+        if(property instanceof Breakpoint && !((Breakpoint) property).isSuspendingThreadOnly()) {
+            return EventRequest.SUSPEND_ALL;
+        }
+        return event.request().suspendPolicy();
+    }
+    
+    /**
+     * This method is called when the virtual machine hits a breakpoint. A
+     * breakpoint with a count filter is meant to stop the program once, so
+     * when one of its locations fires, the others are disabled.
+     * 
+     * @param event 
+     */
+    public void hit(BreakpointEvent event) {
+        Object property = event.request().getProperty(BREAKPOINT_PROPERTY);
+        if(property instanceof Breakpoint && ((Breakpoint) property).hasCountFilter()) {
+            Object siblings = event.request().getProperty(REQUESTS_PROPERTY);
+            if(siblings instanceof BreakpointRequest[]) {
+                BreakpointRequest[] requests = (BreakpointRequest[]) siblings;
+                for(int i = 0; i < requests.length; i++) {
+                    if(requests[i] != event.request()) {
+                        requests[i].disable();
                     }
-                    vmBreakpoint.enable();
-                    breakpointRequests.put(breakpoint.getStaticKey(), vmBreakpoint);
                 }
-            } catch (AbsentInformationException ex) {
-                Logger.getLogger(BreakpointManager.class.getName()).log(Level.INFO, null, ex);
             }
         }
     }
     
-    public void action(ClassPrepareEvent event) {
-        virtualMachine.suspend();
-        ReferenceType type = event.referenceType();
+    /**
+     * This method is called when a class with unresolved breakpoints is
+     * prepared by the virtual machine. The thread loading the class is held
+     * by the class prepare request until this method returns, so the 
+     * breakpoints are in place before any code in the class runs.
+     * 
+     * @param event 
+     */
+    public synchronized void action(ClassPrepareEvent event) {
+        resolve(event.referenceType());
+    }
+    
+    /**
+     * This method records that a class has been loaded and moves any
+     * unresolved breakpoints for it into the virtual machine.
+     * 
+     * @param type 
+     */
+    private void resolve(ReferenceType type) {
         String name = type.name();
+        boolean resolved = false;
+        ClassBreakpoints current = classes.get(name);
+        if(current != null && !current.isResolved()) {
+            classes.put(current.name, arm(current.resolve(type)));
+            resolved = true;
+        }
+        if(counted.containsKey(name) && !countRequests.containsKey(name)) {
+            armCounting(name, type);
+            resolved = true;
+        }
+        if(resolved) {
+            stopWatchingForClass(name);
+        }
+    }
+    
+    /**
+     * This method counts hits of some lines of a class, without ever 
+     * stopping the program. Calling this again for the same class replaces
+     * the lines being counted. The counts are kept in the table returned by
+     * getHitCounts.
+     * 
+     * @param className the fully qualified name of the class, for example
+     * quorum.Main.
+     * @param lines the lines to count, or null to count every line.
+     */
+    public synchronized void count(String className, int[] lines) {
+        String name = className.intern();
+        stopCounting(name);
+        counted.put(name, lines == null ? null : lines.clone());
+        watchForClasses(Collections.singletonList(name));
+    }
+    
+    /**
+     * This method counts hits of every line of several classes. Classes that
+     * are already loaded are looked up together.
+     * 
+     * @param classNames 
+     */
+    public synchronized void countAll(Collection<String> classNames) {
+        ArrayList<String> names = new ArrayList<>(classNames.size());
+        Iterator<String> iterator = classNames.iterator();
+        while(iterator.hasNext()) {
+            String name = iterator.next().intern();
+            stopCounting(name);
+            counted.put(name, null);
+            names.add(name);
+        }
+        watchForClasses(names);
+    }
+    
+    /**
+     * This method stops counting hits in a class. The counts already taken 
+     * are kept.
+     * 
+     * @param className 
+     */
+    public synchronized void stopCounting(String className) {
+        if(!counted.containsKey(className)) {
+            return;
+        }
+        counted.remove(className);
+        ArrayList<BreakpointRequest> requests = countRequests.remove(className);
+        if(requests != null && virtualMachine != null) {
+            virtualMachine.eventRequestManager().deleteEventRequests(requests);
+        }
+        ClassBreakpoints current = classes.get(className);
+        if(current == null || current.isResolved()) {
+            stopWatchingForClass(className);
+        }
+    }
+    
+    /**
+     * This method places counting breakpoints on a loaded class. They never
+     * suspend the program, and each location gets its own counter.
+     * 
+     * @param name
+     * @param type 
+     */
+    private void armCounting(String name, ReferenceType type) {
+        if(virtualMachine == null) {
+            return;
+        }
+        EventRequestManager manager = virtualMachine.eventRequestManager();
+        LineTable table = lineTables.get(type);
+        int[] lines = counted.get(name);
+        ArrayList<Location> locations = new ArrayList<>();
+        if(lines == null) {
+            for(int i = 0; i < table.getLineCount(); i++) {
+                Collections.addAll(locations, table.getLocationsAt(i));
+            }
+        } else {
+            for(int i = 0; i < lines.length; i++) {
+                Collections.addAll(locations, table.getLocations(lines[i]));
+            }
+        }
         
-        //if this class has not yet been resolved, do so now by moving all
-        //breakpoints to the resolved list and setting them up in the virtual machine
-        if(!loadedTypes.containsKey(name)) {
-            loadedTypes.put(name, type);
+        ArrayList<BreakpointRequest> requests = new ArrayList<>(locations.size());
+        Iterator<Location> iterator = locations.iterator();
+        while(iterator.hasNext()) {
+            Location location = iterator.next();
+            BreakpointRequest request = manager.createBreakpointRequest(location);
+            request.setSuspendPolicy(EventRequest.SUSPEND_NONE);
+            request.putProperty(COUNTER_PROPERTY, hitCounts.register(location));
+            request.enable();
+            requests.add(request);
+        }
+        countRequests.put(name, requests);
+    }
+    
+    /**
+     * @return the number of times each counted location has been hit
+     */
+    public LineHitCounts getHitCounts() {
+        return hitCounts;
+    }
+    
+    /**
+     * This method asks the virtual machine to tell us when each of a set of
+     * classes is prepared. Classes that have already been loaded, for example
+     * because breakpoints were added while the program was running, are 
+     * resolved immediately instead. The requests are created before looking
+     * for the classes, so a class loaded in between is not missed.
+     * 
+     * @param names 
+     */
+    private void watchForClasses(List<String> names) {
+        if(virtualMachine == null || names.isEmpty()) {
+            return;
+        }
+        Iterator<String> iterator = names.iterator();
+        while(iterator.hasNext()) {
+            String name = iterator.next();
+            if(!prepareRequests.containsKey(name)) {
+                createPrepareRequest(name);
+            }
         }
         
-        //if there are any unresolved breakpoints, handle that now
-        if(unresolved.containsKey(name)) {
-            HashMap<Integer, Breakpoint> un = unresolved.remove(name);
-            resolved.put(name, un);
-            
-            //now throw them all in the virtual machine, if they are valid
-            Iterator<Breakpoint> it = un.values().iterator();
-            while(it.hasNext()) {
-                Breakpoint next = it.next();
-                addToVirtualMachine(next);
+        if(names.size() > BULK_LOOKUP_THRESHOLD) {
+            resolveLoadedClasses();
+        } else {
+            iterator = names.iterator();
+            while(iterator.hasNext()) {
+                List<ReferenceType> types = virtualMachine.classesByName(iterator.next());
+                Iterator<ReferenceType> loaded = types.iterator();
+                while(loaded.hasNext()) {
+                    ReferenceType next = loaded.next();
+                    if(next.isPrepared()) {
+                        resolve(next);
+                        break;
+                    }
+                }
             }
         }
-        virtualMachine.resume();
+    }
+    
+    /**
+     * This method creates a class prepare request that fires only for the
+     * class of the given name.
+     * 
+     * @param name 
+     */
+    private void createPrepareRequest(String name) {
+        EventRequestManager manager = virtualMachine.eventRequestManager();
+        ClassPrepareRequest request = manager.createClassPrepareRequest();
+        request.addClassFilter(name);
+        request.setSuspendPolicy(EventRequest.SUSPEND_EVENT_THREAD);
+        request.enable();
+        prepareRequests.put(name, request);
+    }
+    
+    /**
+     * This method resolves pending breakpoints against classes the virtual
+     * machine has already loaded. This matters when attaching to a program
+     * that is already running, like a web server, where many classes were
+     * prepared before the debugger was there to hear about it.
+     * 
+     * The list of loaded classes is fetched once and only classes with
+     * pending breakpoints are kept from it. Reading line tables is a round 
+     * trip per method, so they are built in parallel across classes, after
+     * which the breakpoints are armed from the line table cache.
+     */
+    private void resolveLoadedClasses() {
+        HashMap<String, ReferenceType> pending = new HashMap<>(prepareRequests.size() * 2);
+        Iterator<ReferenceType> loaded = virtualMachine.allClasses().iterator();
+        while(loaded.hasNext()) {
+            ReferenceType next = loaded.next();
+            String name = next.name();
+            if(prepareRequests.containsKey(name) && !pending.containsKey(name) && next.isPrepared()) {
+                pending.put(name, next);
+            }
+        }
+        if(pending.isEmpty()) {
+            return;
+        }
+        
+        int size = Math.min(pending.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(size);
+        try {
+            ArrayList<Future<LineTable>> results = new ArrayList<>(pending.size());
+            Iterator<ReferenceType> types = pending.values().iterator();
+            while(types.hasNext()) {
+                final ReferenceType type = types.next();
+                results.add(executor.submit(new Callable<LineTable>() {
+                    @Override
+                    public LineTable call() throws Exception {
+                        return lineTables.get(type);
+                    }
+                }));
+            }
+            Iterator<Future<LineTable>> iterator = results.iterator();
+            while(iterator.hasNext()) {
+                try {
+                    iterator.next().get();
+                } catch (ExecutionException ex) {
+                    Logger.getLogger(BreakpointManager.class.getName()).log(Level.INFO, null, ex);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        
+        loaded = pending.values().iterator();
+        while(loaded.hasNext()) {
+            resolve(loaded.next());
+        }
+    }
+    
+    /**
+     * This method removes the class prepare request for a class, if there
+     * is one.
+     * 
+     * @param name 
+     */
+    private void stopWatchingForClass(String name) {
+        ClassPrepareRequest request = prepareRequests.remove(name);
+        if(request != null && virtualMachine != null) {
+            virtualMachine.eventRequestManager().deleteEventRequest(request);
+        }
     }
 
     /**
      * @return the virtualMachine
      */
-    public VirtualMachine getVirtualMachine() {
+    public synchronized VirtualMachine getVirtualMachine() {
         return virtualMachine;
     }
 
+    /**
+     * @return the line table cache
+     */
+    public LineTableCache getLineTables() {
+        return lineTables;
+    }
+
+    /**
+     * @return the log logpoints write to
+     */
+    public LogpointLog getLogpointLog() {
+        return logpointLog;
+    }
+    
+    /**
+     * @param logpointLog the log logpoints write to
+     */
+    public synchronized void setLogpointLog(LogpointLog logpointLog) {
+        this.logpointLog = logpointLog;
+    }
+    
+    /**
+     * @param lineTables the line table cache to set
+     */
+    public synchronized void setLineTables(LineTableCache lineTables) {
+        this.lineTables = lineTables;
+    }
+
     /**
      * @param virtualMachine the virtualMachine to set
      */
-    public void setVirtualMachine(VirtualMachine virtualMachine) {
+    public synchronized void setVirtualMachine(VirtualMachine virtualMachine) {
         this.virtualMachine = virtualMachine;
+        if(virtualMachine == null) {
+            return;
+        }
+        
+        //breakpoints may have been added before the virtual machine existed,
+        //or, if we attached to a running program, their classes may already
+        //be loaded.
+        boolean waiting = false;
+        Iterator<ClassBreakpoints> iterator = classes.values().iterator();
+        while(iterator.hasNext()) {
+            ClassBreakpoints next = iterator.next();
+            if(!next.isResolved() && !prepareRequests.containsKey(next.name)) {
+                createPrepareRequest(next.name);
+                waiting = true;
+            }
+        }
+        Iterator<String> names = counted.keySet().iterator();
+        while(names.hasNext()) {
+            String next = names.next();
+            if(!countRequests.containsKey(next) && !prepareRequests.containsKey(next)) {
+                createPrepareRequest(next);
+                waiting = true;
+            }
+        }
+        if(waiting) {
+            resolveLoadedClasses();
+        }
+    }
+    
+    /**
+     * This class walks the breakpoints of every class without copying them.
+     * Each class is read once, when the iterator reaches it, so the iterator
+     * sees that class as it was at that moment.
+     */
+    private static class BreakpointIterator implements Iterator<Breakpoint> {
+        private final Iterator<ClassBreakpoints> classes;
+        private Breakpoint[] current = new Breakpoint[0];
+        private int index = 0;
+        
+        BreakpointIterator(Iterator<ClassBreakpoints> classes) {
+            this.classes = classes;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            while(index >= current.length) {
+                if(!classes.hasNext()) {
+                    return false;
+                }
+                current = classes.next().breakpoints;
+                index = 0;
+            }
+            return true;
+        }
+        
+        @Override
+        public Breakpoint next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Breakpoint next = current[index];
+            index++;
+            return next;
+        }
+        
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
     }
 }
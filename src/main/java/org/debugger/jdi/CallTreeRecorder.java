@@ -0,0 +1,492 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi;
+
+import com.sun.jdi.BooleanValue;
+import com.sun.jdi.DoubleValue;
+import com.sun.jdi.FloatValue;
+import com.sun.jdi.Method;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.PrimitiveValue;
+import com.sun.jdi.ThreadReference;
+import com.sun.jdi.Value;
+import com.sun.jdi.VirtualMachine;
+import com.sun.jdi.VoidValue;
+import com.sun.jdi.event.MethodEntryEvent;
+import com.sun.jdi.event.MethodExitEvent;
+import com.sun.jdi.request.EventRequest;
+import com.sun.jdi.request.EventRequestManager;
+import com.sun.jdi.request.MethodEntryRequest;
+import com.sun.jdi.request.MethodExitRequest;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class records a call tree for each thread of a program, using method
+ * entry and exit events that never suspend the program. This gives a 
+ * timeline of the program's execution without changing its code.
+ * 
+ * Only classes matching one of the class filters are recorded, by default 
+ * the classes of Quorum programs but not the Quorum libraries. As the 
+ * virtual machine requires a class to match every filter of a request, 
+ * each filter gets its own pair of requests, which also leaves out the 
+ * classes of the filters before it, so no call is recorded twice. 
+ * 
+ * Methods are interned, so each call is a small record of numbers. 
+ * Completed calls are kept in a ring of fixed size, so memory is bounded 
+ * however long the program runs. If an output is set, calls are also 
+ * streamed to it in the Trace Event format read by Chrome's trace viewer 
+ * and similar tools, so nothing is lost when the ring wraps.
+ * 
+ * Times are taken when the debugger receives each event, in nanoseconds.
+ * 
+ * @author Andreas Stefik
+ */
+public class CallTreeRecorder {
+    private static final int ID = 0;
+    private static final int PARENT = 1;
+    private static final int THREAD = 2;
+    private static final int METHOD = 3;
+    private static final int START = 4;
+    private static final int END = 5;
+    private static final int RETURN = 6;
+    private static final int RECORD_SIZE = 7;
+    
+    private static final int VOID = 0;
+    private static final int INTEGER = 1;
+    private static final int NUMBER = 2;
+    private static final int BOOLEAN = 3;
+    private static final int OBJECT = 4;
+    private static final int NULL = 5;
+    
+    private boolean enabled = false;
+    private final ArrayList<String> classFilters = new ArrayList<>();
+    private final ArrayList<String> classExclusions = new ArrayList<>();
+    private boolean defaultFilters = true;
+    private final ArrayList<MethodEntryRequest> entries = new ArrayList<>();
+    private final ArrayList<MethodExitRequest> exits = new ArrayList<>();
+    
+    private final HashMap<Method, Integer> methodIndices = new HashMap<>();
+    private final ArrayList<String> methodNames = new ArrayList<>();
+    private final HashMap<Long, ThreadCalls> threads = new HashMap<>();
+    private long nextID = 0;
+    
+    private long[] ring = new long[65536 * RECORD_SIZE];
+    private long recorded = 0;
+    private Writer output = null;
+    private boolean wroteFirst = false;
+    
+    public CallTreeRecorder() {
+        classFilters.add("quorum.*");
+        classExclusions.add("quorum.Libraries.*");
+    }
+    
+    /**
+     * This method begins recording calls in a virtual machine.
+     * 
+     * @param virtualMachine 
+     */
+    public synchronized void start(VirtualMachine virtualMachine) {
+        EventRequestManager manager = virtualMachine.eventRequestManager();
+        entries.clear();
+        exits.clear();
+        if(classFilters.isEmpty()) {
+            createRequests(manager, null, 0);
+        }
+        for(int i = 0; i < classFilters.size(); i++) {
+            createRequests(manager, classFilters.get(i), i);
+        }
+    }
+    
+    /**
+     * This method creates the entry and exit requests for one class filter.
+     * 
+     * @param manager
+     * @param filter the classes to record, or null for every class.
+     * @param index the position of the filter, as the classes of the 
+     * filters before it are left out.
+     */
+    private void createRequests(EventRequestManager manager, String filter, int index) {
+        MethodEntryRequest entry = manager.createMethodEntryRequest();
+        MethodExitRequest exit = manager.createMethodExitRequest();
+        if(filter != null) {
+            entry.addClassFilter(filter);
+            exit.addClassFilter(filter);
+        }
+        for(int i = 0; i < index; i++) {
+            entry.addClassExclusionFilter(classFilters.get(i));
+            exit.addClassExclusionFilter(classFilters.get(i));
+        }
+        for(int i = 0; i < classExclusions.size(); i++) {
+            entry.addClassExclusionFilter(classExclusions.get(i));
+            exit.addClassExclusionFilter(classExclusions.get(i));
+        }
+        entry.setSuspendPolicy(EventRequest.SUSPEND_NONE);
+        exit.setSuspendPolicy(EventRequest.SUSPEND_NONE);
+        entry.enable();
+        exit.enable();
+        entries.add(entry);
+        exits.add(exit);
+    }
+    
+    /**
+     * This method stops recording. Calls that have not returned are dropped,
+     * and anything waiting to be streamed is written.
+     */
+    public synchronized void stop() {
+        entries.clear();
+        exits.clear();
+        threads.clear();
+        flush();
+    }
+    
+    /**
+     * This method records that a method was entered.
+     * 
+     * @param event
+     * @return true if the event came from the recorder.
+     */
+    public synchronized boolean entered(MethodEntryEvent event) {
+        if(!entries.contains(event.request())) {
+            return false;
+        }
+        long time = System.nanoTime();
+        ThreadCalls calls = getCalls(event.thread());
+        calls.push(getMethod(event.method()), nextID++, time);
+        return true;
+    }
+    
+    /**
+     * This method records that a method returned. The call is completed and
+     * moved from its thread's stack to the ring.
+     * 
+     * @param event
+     * @return true if the event came from the recorder.
+     */
+    public synchronized boolean exited(MethodExitEvent event) {
+        if(!exits.contains(event.request())) {
+            return false;
+        }
+        long time = System.nanoTime();
+        ThreadCalls calls = getCalls(event.thread());
+        int method = getMethod(event.method());
+        //calls entered before recording started have no entry to match
+        int top = calls.find(method);
+        if(top < 0) {
+            return true;
+        }
+        Value value = null;
+        boolean hasValue = event.virtualMachine().canGetMethodReturnValues();
+        if(hasValue) {
+            value = event.returnValue();
+        }
+        //calls above the one returning ended with an exception
+        while(calls.size > top + 1) {
+            complete(calls, time, VOID, 0);
+        }
+        if(!hasValue || value instanceof VoidValue) {
+            complete(calls, time, VOID, 0);
+        } else if(value == null) {
+            complete(calls, time, NULL, 0);
+        } else if(value instanceof BooleanValue) {
+            complete(calls, time, BOOLEAN, ((BooleanValue) value).value() ? 1 : 0);
+        } else if(value instanceof DoubleValue || value instanceof FloatValue) {
+            complete(calls, time, NUMBER, Double.doubleToRawLongBits(((PrimitiveValue) value).doubleValue()));
+        } else if(value instanceof PrimitiveValue) {
+            complete(calls, time, INTEGER, ((PrimitiveValue) value).longValue());
+        } else {
+            complete(calls, time, OBJECT, ((ObjectReference) value).uniqueID());
+        }
+        return true;
+    }
+    
+    private void complete(ThreadCalls calls, long time, int kind, long value) {
+        int index = calls.size - 1;
+        int offset = (int) (recorded % (ring.length / RECORD_SIZE)) * RECORD_SIZE;
+        ring[offset + ID] = calls.ids[index];
+        ring[offset + PARENT] = index > 0 ? calls.ids[index - 1] : -1;
+        ring[offset + THREAD] = calls.thread;
+        ring[offset + METHOD] = ((long) kind << 48) | ((long) (index & 0xFFFF) << 32) | calls.methods[index];
+        ring[offset + START] = calls.starts[index];
+        ring[offset + END] = time;
+        ring[offset + RETURN] = value;
+        calls.size--;
+        recorded++;
+        if(output != null) {
+            write(offset);
+        }
+    }
+    
+    private ThreadCalls getCalls(ThreadReference thread) {
+        long id = thread.uniqueID();
+        ThreadCalls calls = threads.get(id);
+        if(calls == null) {
+            calls = new ThreadCalls(id);
+            threads.put(id, calls);
+        }
+        return calls;
+    }
+    
+    private int getMethod(Method method) {
+        Integer index = methodIndices.get(method);
+        if(index == null) {
+            index = methodNames.size();
+            methodNames.add(method.declaringType().name() + "." + method.name());
+            methodIndices.put(method, index);
+        }
+        return index;
+    }
+    
+    /**
+     * This method removes the stack of a thread that has died.
+     * 
+     * @param thread 
+     */
+    public synchronized void removed(ThreadReference thread) {
+        threads.remove(thread.uniqueID());
+    }
+    
+    private RecordedCall toCall(int offset) {
+        long packed = ring[offset + METHOD];
+        int kind = (int) (packed >>> 48);
+        int depth = (int) ((packed >>> 32) & 0xFFFF);
+        int method = (int) packed;
+        return new RecordedCall(ring[offset + ID], ring[offset + PARENT], ring[offset + THREAD],
+                methodNames.get(method), depth, ring[offset + START], ring[offset + END], 
+                format(kind, ring[offset + RETURN]));
+    }
+    
+    private String format(int kind, long value) {
+        switch(kind) {
+            case INTEGER:
+                return Long.toString(value);
+            case NUMBER:
+                return Double.toString(Double.longBitsToDouble(value));
+            case BOOLEAN:
+                return value != 0 ? "true" : "false";
+            case OBJECT:
+                return "#" + value;
+            case NULL:
+                return "null";
+        }
+        return null;
+    }
+    
+    /**
+     * This method returns the calls still held in the ring, oldest first.
+     * 
+     * @return 
+     */
+    public synchronized List<RecordedCall> getCalls() {
+        int capacity = ring.length / RECORD_SIZE;
+        long first = Math.max(0, recorded - capacity);
+        ArrayList<RecordedCall> calls = new ArrayList<>((int) (recorded - first));
+        for(long i = first; i < recorded; i++) {
+            calls.add(toCall((int) (i % capacity) * RECORD_SIZE));
+        }
+        return calls;
+    }
+    
+    /**
+     * This method returns the number of calls completed since recording 
+     * began, including those no longer held in the ring.
+     * 
+     * @return 
+     */
+    public synchronized long getRecordedCount() {
+        return recorded;
+    }
+    
+    private void write(int offset) {
+        RecordedCall call = toCall(offset);
+        StringBuilder builder = new StringBuilder();
+        builder.append(wroteFirst ? ",\n" : "[\n");
+        wroteFirst = true;
+        builder.append("{\"name\":\"").append(call.getMethodName().replace("\"", "\\\"")).append('"');
+        builder.append(",\"ph\":\"X\",\"pid\":1");
+        builder.append(",\"tid\":").append(call.getThreadID());
+        builder.append(",\"ts\":").append(call.getStart() / 1000);
+        builder.append(",\"dur\":").append((call.getEnd() - call.getStart()) / 1000);
+        builder.append(",\"args\":{\"id\":").append(call.getID());
+        builder.append(",\"parent\":").append(call.getParent());
+        if(call.getReturnValue() != null) {
+            builder.append(",\"return\":\"").append(call.getReturnValue()).append('"');
+        }
+        builder.append("}}");
+        try {
+            output.write(builder.toString());
+        } catch (IOException ex) {
+            Logger.getLogger(CallTreeRecorder.class.getName()).log(Level.SEVERE, null, ex);
+            output = null;
+        }
+    }
+    
+    /**
+     * This method writes anything buffered to the output.
+     */
+    public synchronized void flush() {
+        if(output != null) {
+            try {
+                output.flush();
+            } catch (IOException ex) {
+                Logger.getLogger(CallTreeRecorder.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+    
+    /**
+     * This method finishes the output, closing the list of calls written to
+     * it, and stops streaming. The writer itself is not closed.
+     */
+    public synchronized void finish() {
+        if(output != null) {
+            try {
+                output.write(wroteFirst ? "\n]\n" : "[]\n");
+                output.flush();
+            } catch (IOException ex) {
+                Logger.getLogger(CallTreeRecorder.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            output = null;
+            wroteFirst = false;
+        }
+    }
+    
+    /**
+     * This method sets where completed calls are streamed. Writers should be
+     * buffered, as each call is written as it completes.
+     * 
+     * @param output the writer, or null to stop streaming.
+     */
+    public synchronized void setOutput(Writer output) {
+        finish();
+        this.output = output;
+    }
+    
+    /**
+     * This method sets the number of completed calls held in memory. Calls 
+     * already recorded are discarded.
+     * 
+     * @param calls 
+     */
+    public synchronized void setMaximumCalls(int calls) {
+        ring = new long[calls * RECORD_SIZE];
+        recorded = 0;
+    }
+    
+    /**
+     * This method records classes matching a pattern, like quorum.*. Once a
+     * filter is added, only classes matching one of the filters added are 
+     * recorded, in place of the default. The filters take effect the next 
+     * time recording starts.
+     * 
+     * @param filter 
+     */
+    public synchronized void addClassFilter(String filter) {
+        if(defaultFilters) {
+            classFilters.clear();
+            defaultFilters = false;
+        }
+        classFilters.add(filter);
+    }
+    
+    /**
+     * This method does not record classes matching a pattern.
+     * 
+     * @param filter 
+     */
+    public synchronized void addClassExclusionFilter(String filter) {
+        classExclusions.add(filter);
+    }
+    
+    /**
+     * This method removes all class filters, so every class is recorded.
+     */
+    public synchronized void clearClassFilters() {
+        classFilters.clear();
+        classExclusions.clear();
+        defaultFilters = false;
+    }
+    
+    /**
+     * @return whether calls are recorded when the program is launched
+     */
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * @param enabled whether calls are recorded when the program is launched
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+    
+    /**
+     * This class is the stack of calls a thread has entered but not yet 
+     * returned from.
+     */
+    private static class ThreadCalls {
+        private final long thread;
+        private int[] methods = new int[16];
+        private long[] ids = new long[16];
+        private long[] starts = new long[16];
+        private int size = 0;
+        
+        private ThreadCalls(long thread) {
+            this.thread = thread;
+        }
+        
+        private void push(int method, long id, long start) {
+            if(size == methods.length) {
+                methods = Arrays.copyOf(methods, size * 2);
+                ids = Arrays.copyOf(ids, size * 2);
+                starts = Arrays.copyOf(starts, size * 2);
+            }
+            methods[size] = method;
+            ids[size] = id;
+            starts[size] = start;
+            size++;
+        }
+        
+        private int find(int method) {
+            for(int i = size - 1; i >= 0; i--) {
+                if(methods[i] == method) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi;
+
+import com.sun.jdi.ReferenceType;
+import com.sun.jdi.request.BreakpointRequest;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import org.debugger.Breakpoint;
+
+/**
+ * This class holds the breakpoints of a single class, sorted by line, along
+ * with the requests that arm them in the virtual machine. Objects of this 
+ * class are never changed once created. Adding or removing breakpoints 
+ * builds a new object, which lets readers walk the breakpoints without
+ * locking or copying while the BreakpointManager replaces them.
+ * 
+ * @author Andreas Stefik
+ */
+class ClassBreakpoints {
+    private static final Comparator<Breakpoint> BY_LINE = new Comparator<Breakpoint>() {
+        @Override
+        public int compare(Breakpoint a, Breakpoint b) {
+            return Integer.compare(a.getLine(), b.getLine());
+        }
+    };
+    
+    /**
+     * The dot name of the class, for example quorum.Main.
+     */
+    final String name;
+    
+    /**
+     * The loaded class, or null if the class has not been resolved.
+     */
+    final ReferenceType type;
+    
+    /**
+     * The line numbers of the breakpoints, in ascending order.
+     */
+    final int[] lines;
+    
+    /**
+     * The breakpoints, parallel to the lines array.
+     */
+    final Breakpoint[] breakpoints;
+    
+    /**
+     * The requests arming each breakpoint, parallel to the lines array. An
+     * entry is null if its breakpoint has not been placed in the virtual 
+     * machine.
+     */
+    final BreakpointRequest[][] requests;
+    
+    /**
+     * This constructor creates an empty, unresolved set of breakpoints.
+     * 
+     * @param name 
+     */
+    ClassBreakpoints(String name) {
+        this(name, null, new int[0], new Breakpoint[0], new BreakpointRequest[0][]);
+    }
+    
+    private ClassBreakpoints(String name, ReferenceType type, int[] lines, 
+            Breakpoint[] breakpoints, BreakpointRequest[][] requests) {
+        this.name = name;
+        this.type = type;
+        this.lines = lines;
+        this.breakpoints = breakpoints;
+        this.requests = requests;
+    }
+    
+    /**
+     * This method returns true if the class has been loaded by the virtual
+     * machine.
+     * 
+     * @return 
+     */
+    boolean isResolved() {
+        return type != null;
+    }
+    
+    /**
+     * This method returns the number of breakpoints in the class.
+     * 
+     * @return 
+     */
+    int size() {
+        return lines.length;
+    }
+    
+    /**
+     * This method returns the position of a line, or a negative number if
+     * there is no breakpoint on it.
+     * 
+     * @param line
+     * @return 
+     */
+    int indexOf(int line) {
+        return Arrays.binarySearch(lines, line);
+    }
+    
+    /**
+     * This method returns a copy of these breakpoints bound to a loaded class.
+     * 
+     * @param loaded
+     * @return 
+     */
+    ClassBreakpoints resolve(ReferenceType loaded) {
+        return new ClassBreakpoints(name, loaded, lines, breakpoints, requests);
+    }
+    
+    /**
+     * This method returns a copy of these breakpoints with a new set of
+     * requests.
+     * 
+     * @param armed
+     * @return 
+     */
+    ClassBreakpoints withRequests(BreakpointRequest[][] armed) {
+        return new ClassBreakpoints(name, type, lines, breakpoints, armed);
+    }
+    
+    /**
+     * This method returns a copy of these breakpoints with others merged in.
+     * If a line already has a breakpoint, a resolved class keeps the one it
+     * has, as it is already armed, while an unresolved class takes the new one.
+     * New breakpoints have no requests.
+     * 
+     * @param added
+     * @return 
+     */
+    ClassBreakpoints addAll(Collection<Breakpoint> added) {
+        Breakpoint[] sorted = added.toArray(new Breakpoint[added.size()]);
+        Arrays.sort(sorted, BY_LINE);
+        
+        int[] newLines = new int[lines.length + sorted.length];
+        Breakpoint[] newBreakpoints = new Breakpoint[newLines.length];
+        BreakpointRequest[][] newRequests = new BreakpointRequest[newLines.length][];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while(i < lines.length || j < sorted.length) {
+            if(j < sorted.length && j + 1 < sorted.length && sorted[j].getLine() == sorted[j + 1].getLine()) {
+                j++; //the last of several breakpoints on a line wins
+            } else if(j >= sorted.length || (i < lines.length && lines[i] < sorted[j].getLine())) {
+                newLines[k] = lines[i];
+                newBreakpoints[k] = breakpoints[i];
+                newRequests[k] = requests[i];
+                i++;
+                k++;
+            } else if(i >= lines.length || sorted[j].getLine() < lines[i]) {
+                newLines[k] = sorted[j].getLine();
+                newBreakpoints[k] = sorted[j];
+                j++;
+                k++;
+            } else { //the same line
+                newLines[k] = lines[i];
+                if(isResolved()) {
+                    newBreakpoints[k] = breakpoints[i];
+                    newRequests[k] = requests[i];
+                } else {
+                    newBreakpoints[k] = sorted[j];
+                }
+                i++;
+                j++;
+                k++;
+            }
+        }
+        return new ClassBreakpoints(name, type, Arrays.copyOf(newLines, k),
+                Arrays.copyOf(newBreakpoints, k), Arrays.copyOf(newRequests, k));
+    }
+    
+    /**
+     * This method returns a copy of these breakpoints without those at the
+     * given positions.
+     * 
+     * @param removed the positions to remove, flagged true.
+     * @param count the number of positions flagged.
+     * @return 
+     */
+    ClassBreakpoints removeAll(boolean[] removed, int count) {
+        int size = lines.length - count;
+        int[] newLines = new int[size];
+        Breakpoint[] newBreakpoints = new Breakpoint[size];
+        BreakpointRequest[][] newRequests = new BreakpointRequest[size][];
+        int k = 0;
+        for(int i = 0; i < lines.length; i++) {
+            if(!removed[i]) {
+                newLines[k] = lines[i];
+                newBreakpoints[k] = breakpoints[i];
+                newRequests[k] = requests[i];
+                k++;
+            }
+        }
+        return new ClassBreakpoints(name, type, newLines, newBreakpoints, newRequests);
+    }
+    
+    /**
+     * This method returns an empty copy of this class, which remembers 
+     * whether the class is loaded.
+     * 
+     * @return 
+     */
+    ClassBreakpoints empty() {
+        return new ClassBreakpoints(name, type, new int[0], new Breakpoint[0], new BreakpointRequest[0][]);
+    }
+}
@@ -0,0 +1,395 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi;
+
+import com.sun.jdi.AbsentInformationException;
+import com.sun.jdi.Location;
+import com.sun.jdi.ReferenceType;
+import com.sun.jdi.VirtualMachine;
+import com.sun.jdi.event.BreakpointEvent;
+import com.sun.jdi.event.ClassPrepareEvent;
+import com.sun.jdi.request.BreakpointRequest;
+import com.sun.jdi.request.ClassPrepareRequest;
+import com.sun.jdi.request.EventRequest;
+import com.sun.jdi.request.EventRequestManager;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class records which lines of a program were executed, for grading and
+ * validating programs. When coverage is enabled, every class that is prepared
+ * has a breakpoint placed on each of its line locations. The breakpoints 
+ * never suspend the program, and each is deleted the first time it is hit, so
+ * once a line has been covered it costs nothing more and the program 
+ * converges to full speed.
+ * 
+ * The lines covered in each class are kept as a bit set, indexed by the 
+ * position of the line in the class's line table, and can be written out in
+ * the LCOV format read by most coverage tools.
+ * 
+ * A class is covered if it matches any of the class filters. As the virtual
+ * machine requires a class to match every filter of a request, each filter
+ * is given its own class prepare request.
+ * 
+ * @author Andreas Stefik
+ */
+public class CoverageRecorder {
+    /**
+     * This is the key under which each coverage BreakpointRequest stores the
+     * line it covers.
+     */
+    private static final String PROBE_PROPERTY = "coverage";
+    
+    private boolean enabled = false;
+    private final ArrayList<String> classFilters = new ArrayList<>();
+    private final HashMap<String, ClassCoverage> classes = new HashMap<>();
+    private VirtualMachine virtualMachine = null;
+    private final ArrayList<ClassPrepareRequest> prepareRequests = new ArrayList<>();
+    private LineTableCache lineTables = new LineTableCache();
+    
+    /**
+     * This method begins recording coverage in a virtual machine. Only 
+     * classes prepared from now on are covered. The classes excluded are 
+     * typically those of the Java libraries.
+     * 
+     * @param virtualMachine
+     * @param lineTables
+     * @param exclusions class patterns, like java.*, that are not covered.
+     */
+    public synchronized void start(VirtualMachine virtualMachine, LineTableCache lineTables, 
+            Collection<String> exclusions) {
+        this.virtualMachine = virtualMachine;
+        this.lineTables = lineTables;
+        EventRequestManager manager = virtualMachine.eventRequestManager();
+        prepareRequests.clear();
+        if(classFilters.isEmpty()) {
+            createPrepareRequest(manager, null, exclusions);
+        }
+        Iterator<String> iterator = classFilters.iterator();
+        while(iterator.hasNext()) {
+            createPrepareRequest(manager, iterator.next(), exclusions);
+        }
+    }
+    
+    /**
+     * This method asks to hear of the classes matching one filter as they
+     * are prepared.
+     * 
+     * @param manager
+     * @param filter the classes to cover, or null for every class.
+     * @param exclusions 
+     */
+    private void createPrepareRequest(EventRequestManager manager, String filter, 
+            Collection<String> exclusions) {
+        ClassPrepareRequest request = manager.createClassPrepareRequest();
+        if(filter != null) {
+            request.addClassFilter(filter);
+        }
+        Iterator<String> iterator = exclusions.iterator();
+        while(iterator.hasNext()) {
+            request.addClassExclusionFilter(iterator.next());
+        }
+        //the loading thread is held until the class is covered
+        request.setSuspendPolicy(EventRequest.SUSPEND_EVENT_THREAD);
+        request.enable();
+        prepareRequests.add(request);
+    }
+    
+    /**
+     * This method stops recording coverage. The coverage recorded so far is
+     * kept.
+     */
+    public synchronized void stop() {
+        virtualMachine = null;
+        prepareRequests.clear();
+    }
+    
+    /**
+     * This method is called when a class is prepared. If coverage asked for
+     * the event, a breakpoint is placed on every line location of the class.
+     * All of the locations on one line share a probe, so that the first of 
+     * them to be hit covers the line and removes all of them.
+     * 
+     * @param event 
+     */
+    public synchronized void action(ClassPrepareEvent event) {
+        if(!prepareRequests.contains(event.request())) {
+            return;
+        }
+        ReferenceType type = event.referenceType();
+        if(classes.containsKey(type.name())) {
+            return;
+        }
+        LineTable table = lineTables.get(type);
+        ClassCoverage coverage = new ClassCoverage(type, table);
+        classes.put(type.name(), coverage);
+        
+        EventRequestManager manager = virtualMachine.eventRequestManager();
+        for(int i = 0; i < table.getLineCount(); i++) {
+            Location[] locations = table.getLocationsAt(i);
+            Probe probe = new Probe(coverage, i, new BreakpointRequest[locations.length]);
+            for(int j = 0; j < locations.length; j++) {
+                BreakpointRequest request = manager.createBreakpointRequest(locations[j]);
+                request.setSuspendPolicy(EventRequest.SUSPEND_NONE);
+                request.putProperty(PROBE_PROPERTY, probe);
+                request.enable();
+                probe.requests[j] = request;
+            }
+        }
+    }
+    
+    /**
+     * This method is called when a breakpoint is hit. If the breakpoint 
+     * belongs to coverage, its line is marked as covered and its requests 
+     * are deleted.
+     * 
+     * @param event
+     * @return true if the breakpoint belonged to coverage.
+     */
+    public boolean covered(BreakpointEvent event) {
+        Object property = event.request().getProperty(PROBE_PROPERTY);
+        if(!(property instanceof Probe)) {
+            return false;
+        }
+        Probe probe = (Probe) property;
+        BitSet covered = probe.coverage.covered;
+        synchronized(covered) {
+            if(covered.get(probe.index)) {
+                return true;
+            }
+            covered.set(probe.index);
+        }
+        VirtualMachine machine;
+        synchronized(this) {
+            machine = virtualMachine;
+        }
+        if(machine != null) {
+            machine.eventRequestManager().deleteEventRequests(Arrays.asList(probe.requests));
+        }
+        return true;
+    }
+    
+    /**
+     * This method writes the coverage in the LCOV tracefile format. Classes
+     * compiled from the same source file are written as one record.
+     * 
+     * @param writer
+     * @throws IOException 
+     */
+    public void writeLCOV(Writer writer) throws IOException {
+        TreeMap<String, TreeMap<Integer, Boolean>> files = new TreeMap<>();
+        synchronized(this) {
+            Iterator<ClassCoverage> iterator = classes.values().iterator();
+            while(iterator.hasNext()) {
+                ClassCoverage next = iterator.next();
+                TreeMap<Integer, Boolean> lines = files.get(next.sourcePath);
+                if(lines == null) {
+                    lines = new TreeMap<>();
+                    files.put(next.sourcePath, lines);
+                }
+                synchronized(next.covered) {
+                    for(int i = 0; i < next.lines.length; i++) {
+                        Boolean hit = lines.get(next.lines[i]);
+                        lines.put(next.lines[i], next.covered.get(i) || (hit != null && hit));
+                    }
+                }
+            }
+        }
+        
+        Iterator<Map.Entry<String, TreeMap<Integer, Boolean>>> iterator = files.entrySet().iterator();
+        while(iterator.hasNext()) {
+            Map.Entry<String, TreeMap<Integer, Boolean>> next = iterator.next();
+            writer.write("TN:\n");
+            writer.write("SF:" + next.getKey() + "\n");
+            int hit = 0;
+            Iterator<Map.Entry<Integer, Boolean>> lines = next.getValue().entrySet().iterator();
+            while(lines.hasNext()) {
+                Map.Entry<Integer, Boolean> line = lines.next();
+                writer.write("DA:" + line.getKey() + "," + (line.getValue() ? 1 : 0) + "\n");
+                if(line.getValue()) {
+                    hit++;
+                }
+            }
+            writer.write("LF:" + next.getValue().size() + "\n");
+            writer.write("LH:" + hit + "\n");
+            writer.write("end_of_record\n");
+        }
+        writer.flush();
+    }
+    
+    /**
+     * This method returns the coverage of every class that has been prepared.
+     * 
+     * @return 
+     */
+    public synchronized List<ClassCoverage> getClasses() {
+        return new ArrayList<>(classes.values());
+    }
+    
+    /**
+     * This method returns the coverage of a class, or null if the class has
+     * not been prepared.
+     * 
+     * @param className the fully qualified name of the class.
+     * @return 
+     */
+    public synchronized ClassCoverage getClass(String className) {
+        return classes.get(className);
+    }
+    
+    /**
+     * This method removes all recorded coverage.
+     */
+    public synchronized void clear() {
+        classes.clear();
+    }
+    
+    /**
+     * This method limits coverage to classes matching a pattern, like 
+     * quorum.*. Classes matching any of the filters added are covered, and
+     * if no filters are added, every class that is not excluded is covered.
+     * Filters take effect the next time coverage starts.
+     * 
+     * @param filter 
+     */
+    public synchronized void addClassFilter(String filter) {
+        classFilters.add(filter);
+    }
+    
+    /**
+     * @return whether coverage is recorded when the program is launched
+     */
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * @param enabled whether coverage is recorded when the program is launched
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+    
+    /**
+     * This class holds the lines of a class and which of them were covered.
+     */
+    public static class ClassCoverage {
+        private final String name;
+        private final String sourcePath;
+        private final int[] lines;
+        private final BitSet covered;
+        
+        private ClassCoverage(ReferenceType type, LineTable table) {
+            name = type.name();
+            String path;
+            try {
+                path = type.sourcePaths(null).get(0);
+            } catch (AbsentInformationException | IndexOutOfBoundsException ex) {
+                path = name.replace('.', '/');
+            }
+            sourcePath = path;
+            lines = new int[table.getLineCount()];
+            for(int i = 0; i < lines.length; i++) {
+                lines[i] = table.getLineAt(i);
+            }
+            covered = new BitSet(lines.length);
+        }
+        
+        /**
+         * @return the fully qualified name of the class
+         */
+        public String getName() {
+            return name;
+        }
+        
+        /**
+         * @return the path of the source file the class was compiled from
+         */
+        public String getSourcePath() {
+            return sourcePath;
+        }
+        
+        /**
+         * @return the number of lines in the class
+         */
+        public int getLineCount() {
+            return lines.length;
+        }
+        
+        /**
+         * @return the number of lines in the class that were covered
+         */
+        public int getCoveredLineCount() {
+            synchronized(covered) {
+                return covered.cardinality();
+            }
+        }
+        
+        /**
+         * This method returns whether or not a line was covered.
+         * 
+         * @param line
+         * @return 
+         */
+        public boolean isCovered(int line) {
+            int index = Arrays.binarySearch(lines, line);
+            if(index < 0) {
+                return false;
+            }
+            synchronized(covered) {
+                return covered.get(index);
+            }
+        }
+    }
+    
+    /**
+     * This class is attached to each coverage request, recording which line 
+     * of which class it covers, along with the other requests on that line.
+     */
+    private static class Probe {
+        private final ClassCoverage coverage;
+        private final int index;
+        private final BreakpointRequest[] requests;
+        
+        private Probe(ClassCoverage coverage, int index, BreakpointRequest[] requests) {
+            this.coverage = coverage;
+            this.index = index;
+            this.requests = requests;
+        }
+    }
+}
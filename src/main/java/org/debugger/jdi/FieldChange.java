@@ -0,0 +1,136 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi;
+
+/**
+ * This class describes one change to a field, as recorded by the field
+ * history: when it happened, on which thread, where in the program, and 
+ * what the value was before and after.
+ * 
+ * @author Andreas Stefik
+ */
+public class FieldChange {
+    private final long time;
+    private final String threadName;
+    private final long objectID;
+    private final String fieldName;
+    private final String className;
+    private final String methodName;
+    private final int line;
+    private final String oldValue;
+    private final String newValue;
+    
+    FieldChange(long time, String threadName, long objectID, String fieldName, 
+            String className, String methodName, int line, String oldValue, String newValue) {
+        this.time = time;
+        this.threadName = threadName;
+        this.objectID = objectID;
+        this.fieldName = fieldName;
+        this.className = className;
+        this.methodName = methodName;
+        this.line = line;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+    }
+    
+    /**
+     * @return the time of the change, in milliseconds since the epoch
+     */
+    public long getTime() {
+        return time;
+    }
+    
+    /**
+     * @return the name of the thread that made the change, or # and its
+     * unique ID if the history had too many threads to name it.
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+    
+    /**
+     * @return the unique ID of the object whose field changed, or 0 for a
+     * shared field.
+     */
+    public long getObjectID() {
+        return objectID;
+    }
+    
+    /**
+     * @return the name of the field that changed
+     */
+    public String getFieldName() {
+        return fieldName;
+    }
+    
+    /**
+     * @return the name of the class where the change was made, or an empty
+     * string if the history had too many locations to record it.
+     */
+    public String getClassName() {
+        return className;
+    }
+    
+    /**
+     * @return the name of the method where the change was made, or an 
+     * empty string if the location was not recorded.
+     */
+    public String getMethodName() {
+        return methodName;
+    }
+    
+    /**
+     * @return the line where the change was made, or -1 if the location 
+     * was not recorded.
+     */
+    public int getLine() {
+        return line;
+    }
+    
+    /**
+     * @return the value before the change, or null if the field had not
+     * changed before while it was being watched.
+     */
+    public String getOldValue() {
+        return oldValue;
+    }
+    
+    /**
+     * @return the value after the change
+     */
+    public String getNewValue() {
+        return newValue;
+    }
+    
+    @Override
+    public String toString() {
+        return className + "." + methodName + ":" + line + " (" + threadName + ") " 
+                + fieldName + ": " + oldValue + " -> " + newValue;
+    }
+}
@@ -0,0 +1,575 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi;
+
+import com.sun.jdi.BooleanValue;
+import com.sun.jdi.DoubleValue;
+import com.sun.jdi.Field;
+import com.sun.jdi.FloatValue;
+import com.sun.jdi.Location;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.PrimitiveValue;
+import com.sun.jdi.ReferenceType;
+import com.sun.jdi.StringReference;
+import com.sun.jdi.ThreadReference;
+import com.sun.jdi.Value;
+import com.sun.jdi.VirtualMachine;
+import com.sun.jdi.event.ClassPrepareEvent;
+import com.sun.jdi.event.ModificationWatchpointEvent;
+import com.sun.jdi.request.ClassPrepareRequest;
+import com.sun.jdi.request.EventRequest;
+import com.sun.jdi.request.EventRequestManager;
+import com.sun.jdi.request.ModificationWatchpointRequest;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class records the history of selected fields: every time one of them
+ * is changed, it records when, on which thread, where in the program, and
+ * the value before and after. This makes it possible to find the write that
+ * corrupted a field from one run of the program, without stepping through it
+ * again and again.
+ * 
+ * Fields are watched with modification watchpoints that never suspend the
+ * program. Each change is packed into a record of longs, with threads, 
+ * locations, fields, and text values stored once in tables and referred to 
+ * by number. The value before a change is the value recorded by the last 
+ * change to the same field of the same object, so it costs no extra request
+ * to the virtual machine, and is unknown for the first change seen. Only the
+ * most recently changed fields of objects are remembered this way, so for a
+ * field that has not changed in a long time the value before may also be
+ * unknown.
+ * 
+ * The tables describing text, threads and locations hold a bounded number 
+ * of entries, so that a field written with ever new text does not grow the
+ * heap without end. Once the table of text is full, new text is recorded 
+ * by the unique ID of its object, and once the tables of threads or 
+ * locations are full, new threads and locations are recorded unnamed.
+ * 
+ * @author Andreas Stefik
+ */
+public class FieldHistory {
+    /**
+     * This is the key under which each watchpoint stores the number of the
+     * field it watches.
+     */
+    private static final String FIELD_PROPERTY = "fieldHistory";
+    
+    /**
+     * This is the number of fields of objects whose last value is kept.
+     */
+    private static final int MAXIMUM_VALUES = 65536;
+    
+    /**
+     * This is the number of texts, threads and locations described in each
+     * table.
+     */
+    private static final int MAXIMUM_TABLE = 65536;
+    
+    /**
+     * This is the location of changes made once the table of locations is 
+     * full.
+     */
+    private static final int UNKNOWN_LOCATION = -1;
+    
+    private static final int TIME = 0;
+    private static final int THREAD = 1;
+    private static final int WHERE = 2;
+    private static final int OBJECT = 3;
+    private static final int OLD = 4;
+    private static final int NEW = 5;
+    private static final int FLAGS = 6;
+    
+    private static final long OLD_KNOWN = 1;
+    private static final long OLD_NULL = 2;
+    private static final long NEW_NULL = 4;
+    private static final long OLD_OBJECT = 8;
+    private static final long NEW_OBJECT = 16;
+    
+    private static final int INTEGER = 0;
+    private static final int NUMBER = 1;
+    private static final int BOOLEAN = 2;
+    private static final int TEXT = 3;
+    private static final int OBJECT_KIND = 4;
+    
+    /**
+     * The fields waiting to be watched, by class. A null list means every 
+     * field of the class.
+     */
+    private final HashMap<String, ArrayList<String>> watched = new HashMap<>();
+    private final HashMap<String, ClassPrepareRequest> prepareRequests = new HashMap<>();
+    private final ArrayList<ModificationWatchpointRequest> requests = new ArrayList<>();
+    
+    private final ArrayList<Field> fields = new ArrayList<>();
+    private final ArrayList<Integer> kinds = new ArrayList<>();
+    private final HashMap<Location, Integer> locationIndices = new HashMap<>();
+    private final ArrayList<String> locationClasses = new ArrayList<>();
+    private final ArrayList<String> locationMethods = new ArrayList<>();
+    private final ArrayList<Integer> locationLines = new ArrayList<>();
+    private final HashMap<Long, String> threadNames = new HashMap<>();
+    private final HashMap<String, Integer> stringIndices = new HashMap<>();
+    private final ArrayList<String> strings = new ArrayList<>();
+    private final LinkedHashMap<ValueKey, long[]> lastValues = new LinkedHashMap<ValueKey, long[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ValueKey, long[]> eldest) {
+            return size() > MAXIMUM_VALUES;
+        }
+    };
+    
+    private final FieldHistoryBuffer buffer = new FieldHistoryBuffer(16384, 64);
+    private final long[] record = new long[FieldHistoryBuffer.RECORD_SIZE];
+    private VirtualMachine virtualMachine = null;
+    
+    /**
+     * This method watches a field of a class. If the class has not been 
+     * loaded, the field is watched as soon as it is.
+     * 
+     * @param className the fully qualified name of the class.
+     * @param fieldName the name of the field.
+     */
+    public synchronized void watch(String className, String fieldName) {
+        ArrayList<String> names;
+        if(watched.containsKey(className)) {
+            names = watched.get(className);
+            if(names == null) {
+                return;
+            }
+        } else {
+            names = new ArrayList<>();
+            watched.put(className, names);
+        }
+        names.add(fieldName);
+        ArrayList<String> added = new ArrayList<>();
+        added.add(fieldName);
+        resolve(className, added);
+    }
+    
+    /**
+     * This method watches every field declared in a class.
+     * 
+     * @param className the fully qualified name of the class.
+     */
+    public synchronized void watchAll(String className) {
+        watched.put(className, null);
+        resolve(className, null);
+    }
+    
+    private void resolve(String className, List<String> names) {
+        if(virtualMachine == null) {
+            return;
+        }
+        boolean armed = false;
+        Iterator<ReferenceType> types = virtualMachine.classesByName(className).iterator();
+        while(types.hasNext()) {
+            ReferenceType next = types.next();
+            if(next.isPrepared()) {
+                arm(next, names);
+                armed = true;
+            }
+        }
+        if(armed) {
+            deletePrepareRequest(className);
+        } else if(!prepareRequests.containsKey(className)) {
+            createPrepareRequest(className);
+        }
+    }
+    
+    private void createPrepareRequest(String className) {
+        EventRequestManager manager = virtualMachine.eventRequestManager();
+        ClassPrepareRequest request = manager.createClassPrepareRequest();
+        request.addClassFilter(className);
+        request.setSuspendPolicy(EventRequest.SUSPEND_EVENT_THREAD);
+        request.enable();
+        prepareRequests.put(className, request);
+    }
+    
+    /**
+     * This method removes the request waiting for a class to load, once 
+     * its fields are watched.
+     * 
+     * @param className 
+     */
+    private void deletePrepareRequest(String className) {
+        ClassPrepareRequest request = prepareRequests.remove(className);
+        if(request != null) {
+            virtualMachine.eventRequestManager().deleteEventRequest(request);
+        }
+    }
+    
+    /**
+     * This method places watchpoints on fields of a loaded class.
+     * 
+     * @param type
+     * @param names the fields to watch, or null to watch every field.
+     */
+    private void arm(ReferenceType type, List<String> names) {
+        ArrayList<Field> armed = new ArrayList<>();
+        if(names == null) {
+            Iterator<Field> iterator = type.fields().iterator();
+            while(iterator.hasNext()) {
+                Field next = iterator.next();
+                if(!next.isSynthetic()) {
+                    armed.add(next);
+                }
+            }
+        } else {
+            Iterator<String> iterator = names.iterator();
+            while(iterator.hasNext()) {
+                Field next = type.fieldByName(iterator.next());
+                if(next != null) {
+                    armed.add(next);
+                }
+            }
+        }
+        
+        EventRequestManager manager = virtualMachine.eventRequestManager();
+        Iterator<Field> iterator = armed.iterator();
+        while(iterator.hasNext()) {
+            Field field = iterator.next();
+            if(fields.contains(field)) {
+                continue;
+            }
+            fields.add(field);
+            kinds.add(getKind(field.typeName()));
+            ModificationWatchpointRequest request = manager.createModificationWatchpointRequest(field);
+            request.setSuspendPolicy(EventRequest.SUSPEND_NONE);
+            request.putProperty(FIELD_PROPERTY, fields.size() - 1);
+            request.enable();
+            requests.add(request);
+        }
+    }
+    
+    private int getKind(String typeName) {
+        if(typeName.equals("int") || typeName.equals("long") || typeName.equals("short")
+                || typeName.equals("byte") || typeName.equals("char")) {
+            return INTEGER;
+        } else if(typeName.equals("double") || typeName.equals("float")) {
+            return NUMBER;
+        } else if(typeName.equals("boolean")) {
+            return BOOLEAN;
+        } else if(typeName.equals("java.lang.String")) {
+            return TEXT;
+        }
+        return OBJECT_KIND;
+    }
+    
+    /**
+     * This method is called when a class is prepared, and watches any of its
+     * fields that were asked for.
+     * 
+     * @param event 
+     */
+    public synchronized void action(ClassPrepareEvent event) {
+        ReferenceType type = event.referenceType();
+        if(virtualMachine != null && watched.containsKey(type.name())) {
+            arm(type, watched.get(type.name()));
+            deletePrepareRequest(type.name());
+        }
+    }
+    
+    /**
+     * This method records a change to a watched field.
+     * 
+     * @param event
+     * @return true if the field is one the history is watching.
+     */
+    public synchronized boolean record(ModificationWatchpointEvent event) {
+        Object property = event.request().getProperty(FIELD_PROPERTY);
+        if(!(property instanceof Integer)) {
+            return false;
+        }
+        int field = (Integer) property;
+        int kind = kinds.get(field);
+        
+        ThreadReference thread = event.thread();
+        long threadID = thread.uniqueID();
+        if(!threadNames.containsKey(threadID) && threadNames.size() < MAXIMUM_TABLE) {
+            threadNames.put(threadID, thread.name());
+        }
+        Location location = event.location();
+        Integer where = locationIndices.get(location);
+        if(where == null && locationLines.size() >= MAXIMUM_TABLE) {
+            where = UNKNOWN_LOCATION;
+        } else if(where == null) {
+            //locations are described once, so the history can still be
+            //read after the virtual machine is gone
+            where = locationLines.size();
+            locationClasses.add(location.declaringType().name());
+            locationMethods.add(location.method().name());
+            locationLines.add(location.lineNumber());
+            locationIndices.put(location, where);
+        }
+        ObjectReference object = event.object();
+        long objectID = object == null ? 0 : object.uniqueID();
+        
+        Value value = event.valueToBe();
+        long flags = 0;
+        long newValue = 0;
+        if(value == null) {
+            flags |= NEW_NULL;
+        } else {
+            newValue = encode(value, kind);
+            if(kind == TEXT && newValue < 0) {
+                //the table of text is full
+                newValue = ((ObjectReference) value).uniqueID();
+                flags |= NEW_OBJECT;
+            }
+        }
+        ValueKey key = new ValueKey(objectID, field);
+        long[] last = lastValues.get(key);
+        long oldValue = 0;
+        if(last != null) {
+            flags |= OLD_KNOWN;
+            oldValue = last[0];
+            if((last[1] & NEW_NULL) != 0) {
+                flags |= OLD_NULL;
+            }
+            if((last[1] & NEW_OBJECT) != 0) {
+                flags |= OLD_OBJECT;
+            }
+        }
+        lastValues.put(key, new long[] {newValue, flags & (NEW_NULL | NEW_OBJECT)});
+        
+        record[TIME] = System.currentTimeMillis();
+        record[THREAD] = threadID;
+        record[WHERE] = ((long) where << 32) | field;
+        record[OBJECT] = objectID;
+        record[OLD] = oldValue;
+        record[NEW] = newValue;
+        record[FLAGS] = flags;
+        try {
+            buffer.append(record);
+        } catch (IOException ex) {
+            Logger.getLogger(FieldHistory.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return true;
+    }
+    
+    private long encode(Value value, int kind) {
+        if(kind == NUMBER) {
+            if(value instanceof FloatValue) {
+                return Double.doubleToRawLongBits(((FloatValue) value).value());
+            }
+            return Double.doubleToRawLongBits(((DoubleValue) value).value());
+        } else if(kind == BOOLEAN) {
+            return ((BooleanValue) value).value() ? 1 : 0;
+        } else if(kind == INTEGER) {
+            return ((PrimitiveValue) value).longValue();
+        } else if(kind == TEXT) {
+            String text = ((StringReference) value).value();
+            Integer index = stringIndices.get(text);
+            if(index == null) {
+                if(strings.size() >= MAXIMUM_TABLE) {
+                    return -1;
+                }
+                index = strings.size();
+                strings.add(text);
+                stringIndices.put(text, index);
+            }
+            return index;
+        }
+        return ((ObjectReference) value).uniqueID();
+    }
+    
+    private String decode(long value, int kind) {
+        if(kind == NUMBER) {
+            return Double.toString(Double.longBitsToDouble(value));
+        } else if(kind == BOOLEAN) {
+            return value != 0 ? "true" : "false";
+        } else if(kind == INTEGER) {
+            return Long.toString(value);
+        } else if(kind == TEXT) {
+            return strings.get((int) value);
+        }
+        return "#" + value;
+    }
+    
+    /**
+     * This method returns every recorded change to a field, oldest first.
+     * 
+     * @param className the fully qualified name of the class declaring the
+     * field.
+     * @param fieldName the name of the field.
+     * @return 
+     */
+    public List<FieldChange> getChanges(String className, String fieldName) {
+        return getChanges(className, fieldName, -1);
+    }
+    
+    /**
+     * This method returns every recorded change to a field of one object,
+     * oldest first.
+     * 
+     * @param className the fully qualified name of the class declaring the
+     * field.
+     * @param fieldName the name of the field.
+     * @param objectID the unique ID of the object, 0 for a shared field, or
+     * -1 for every object.
+     * @return 
+     */
+    public synchronized List<FieldChange> getChanges(String className, String fieldName, final long objectID) {
+        final boolean[] matches = new boolean[fields.size()];
+        boolean any = false;
+        for(int i = 0; i < fields.size(); i++) {
+            Field field = fields.get(i);
+            if(field.name().equals(fieldName) && field.declaringType().name().equals(className)) {
+                matches[i] = true;
+                any = true;
+            }
+        }
+        final ArrayList<FieldChange> changes = new ArrayList<>();
+        if(!any) {
+            return changes;
+        }
+        
+        try {
+            buffer.scan(new FieldHistoryBuffer.RecordVisitor() {
+                @Override
+                public void visit(long[] records, int offset) {
+                    int field = (int) records[offset + WHERE];
+                    if(!matches[field]) {
+                        return;
+                    }
+                    if(objectID >= 0 && records[offset + OBJECT] != objectID) {
+                        return;
+                    }
+                    changes.add(toChange(records, offset));
+                }
+            });
+        } catch (IOException ex) {
+            Logger.getLogger(FieldHistory.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return changes;
+    }
+    
+    private FieldChange toChange(long[] records, int offset) {
+        int field = (int) records[offset + WHERE];
+        int where = (int) (records[offset + WHERE] >>> 32);
+        int kind = kinds.get(field);
+        long flags = records[offset + FLAGS];
+        
+        String oldValue = null;
+        if((flags & OLD_KNOWN) != 0) {
+            oldValue = (flags & OLD_NULL) != 0 ? "null" 
+                    : decode(records[offset + OLD], (flags & OLD_OBJECT) != 0 ? OBJECT_KIND : kind);
+        }
+        String newValue = (flags & NEW_NULL) != 0 ? "null" 
+                : decode(records[offset + NEW], (flags & NEW_OBJECT) != 0 ? OBJECT_KIND : kind);
+        String threadName = threadNames.get(records[offset + THREAD]);
+        if(threadName == null) {
+            threadName = "#" + records[offset + THREAD];
+        }
+        if(where == UNKNOWN_LOCATION) {
+            return new FieldChange(records[offset + TIME], threadName, records[offset + OBJECT], 
+                    fields.get(field).name(), "", "", -1, oldValue, newValue);
+        }
+        return new FieldChange(records[offset + TIME], threadName,
+                records[offset + OBJECT], fields.get(field).name(), 
+                locationClasses.get(where), locationMethods.get(where), 
+                locationLines.get(where), oldValue, newValue);
+    }
+    
+    /**
+     * This method returns the number of changes recorded.
+     * 
+     * @return 
+     */
+    public synchronized long size() {
+        return buffer.size();
+    }
+    
+    /**
+     * This method begins watching fields in a virtual machine, including any
+     * asked for before it started.
+     * 
+     * @param virtualMachine 
+     */
+    public synchronized void start(VirtualMachine virtualMachine) {
+        this.virtualMachine = virtualMachine;
+        Iterator<Map.Entry<String, ArrayList<String>>> iterator = watched.entrySet().iterator();
+        while(iterator.hasNext()) {
+            Map.Entry<String, ArrayList<String>> next = iterator.next();
+            resolve(next.getKey(), next.getValue());
+        }
+    }
+    
+    /**
+     * This method stops watching fields. The history recorded so far can 
+     * still be queried, and the fields to watch are kept for the next run.
+     */
+    public synchronized void stop() {
+        virtualMachine = null;
+        prepareRequests.clear();
+        requests.clear();
+        lastValues.clear();
+    }
+    
+    /**
+     * This method removes all recorded history, including anything written
+     * to disk. Fields being watched stay watched.
+     */
+    public synchronized void clear() {
+        buffer.clear();
+        lastValues.clear();
+    }
+    
+    /**
+     * This class identifies a field of a particular object.
+     */
+    private static class ValueKey {
+        private final long object;
+        private final int field;
+        
+        private ValueKey(long object, int field) {
+            this.object = object;
+            this.field = field;
+        }
+        
+        @Override
+        public int hashCode() {
+            return (int) (object ^ (object >>> 32)) * 31 + field;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if(obj instanceof ValueKey) {
+                ValueKey key = (ValueKey) obj;
+                return key.object == object && key.field == field;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * This class is an append-only store of fixed size records, each made of 
+ * RECORD_SIZE longs, packed into long arrays. Records are kept in memory in
+ * chunks. Once more than a set number of chunks are in memory, the oldest
+ * is written to a temporary file, so recording can go on much longer than
+ * memory alone would allow.
+ * 
+ * @author Andreas Stefik
+ */
+class FieldHistoryBuffer {
+    /**
+     * The number of longs in each record.
+     */
+    static final int RECORD_SIZE = 7;
+    
+    private final int chunkRecords;
+    private final int maximumChunks;
+    private final ArrayList<long[]> chunks = new ArrayList<>();
+    private int lastCount = 0;
+    
+    private File file = null;
+    private FileChannel channel = null;
+    private long spilled = 0;
+    
+    /**
+     * @param chunkRecords the number of records in a chunk.
+     * @param maximumChunks the number of chunks kept in memory.
+     */
+    FieldHistoryBuffer(int chunkRecords, int maximumChunks) {
+        this.chunkRecords = chunkRecords;
+        this.maximumChunks = maximumChunks;
+    }
+    
+    /**
+     * This method adds a record to the end of the buffer.
+     * 
+     * @param record RECORD_SIZE longs.
+     * @throws IOException if a chunk could not be written to disk.
+     */
+    void append(long[] record) throws IOException {
+        if(chunks.isEmpty() || lastCount == chunkRecords) {
+            if(chunks.size() == maximumChunks) {
+                spill(chunks.remove(0));
+            }
+            chunks.add(new long[chunkRecords * RECORD_SIZE]);
+            lastCount = 0;
+        }
+        long[] chunk = chunks.get(chunks.size() - 1);
+        System.arraycopy(record, 0, chunk, lastCount * RECORD_SIZE, RECORD_SIZE);
+        lastCount++;
+    }
+    
+    private void spill(long[] chunk) throws IOException {
+        if(channel == null) {
+            file = File.createTempFile("field-history", ".bin");
+            file.deleteOnExit();
+            channel = new RandomAccessFile(file, "rw").getChannel();
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(chunk.length * 8);
+        bytes.asLongBuffer().put(chunk);
+        long position = spilled * RECORD_SIZE * 8;
+        while(bytes.hasRemaining()) {
+            position += channel.write(bytes, position);
+        }
+        spilled += chunkRecords;
+    }
+    
+    /**
+     * This method returns the number of records in the buffer.
+     * 
+     * @return 
+     */
+    long size() {
+        if(chunks.isEmpty()) {
+            return spilled;
+        }
+        return spilled + (long) (chunks.size() - 1) * chunkRecords + lastCount;
+    }
+    
+    /**
+     * This method visits every record, oldest first. Records on disk are
+     * read back a chunk at a time.
+     * 
+     * @param visitor
+     * @throws IOException 
+     */
+    void scan(RecordVisitor visitor) throws IOException {
+        if(spilled > 0) {
+            ByteBuffer bytes = ByteBuffer.allocate(chunkRecords * RECORD_SIZE * 8);
+            long[] chunk = new long[chunkRecords * RECORD_SIZE];
+            long end = spilled * RECORD_SIZE * 8;
+            for(long position = 0; position < end; position += bytes.capacity()) {
+                bytes.clear();
+                while(bytes.hasRemaining()) {
+                    if(channel.read(bytes, position + bytes.position()) < 0) {
+                        break;
+                    }
+                }
+                bytes.flip();
+                LongBuffer longs = bytes.asLongBuffer();
+                longs.get(chunk);
+                for(int i = 0; i < chunkRecords; i++) {
+                    visitor.visit(chunk, i * RECORD_SIZE);
+                }
+            }
+        }
+        
+        Iterator<long[]> iterator = chunks.iterator();
+        while(iterator.hasNext()) {
+            long[] chunk = iterator.next();
+            int count = iterator.hasNext() ? chunkRecords : lastCount;
+            for(int i = 0; i < count; i++) {
+                visitor.visit(chunk, i * RECORD_SIZE);
+            }
+        }
+    }
+    
+    /**
+     * This method removes every record and deletes the file on disk.
+     */
+    void clear() {
+        chunks.clear();
+        lastCount = 0;
+        spilled = 0;
+        if(channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+            }
+            file.delete();
+            channel = null;
+            file = null;
+        }
+    }
+    
+    /**
+     * This interface is called for each record in a scan.
+     */
+    interface RecordVisitor {
+        
+        /**
+         * @param records the array holding the record.
+         * @param offset the index of the first long of the record.
+         */
+        void visit(long[] records, int offset);
+    }
+}
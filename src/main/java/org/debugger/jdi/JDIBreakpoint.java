@@ -42,6 +42,8 @@ public class JDIBreakpoint implements Breakpoint {
     private ClassInformation classInformation;
     private int countFilter = -1;
     private boolean hasCountFilter = false;
+    private boolean suspendThreadOnly = false;
+    private String condition = "";
     
     @Override
     public int getLine() {
@@ -113,4 +115,37 @@ public class JDIBreakpoint implements Breakpoint {
     public void setHasCountFilter(boolean hasCountFilter) {
         this.hasCountFilter = hasCountFilter;
     }
+
+    @Override
+    public boolean isSuspendingThreadOnly() {
+        return suspendThreadOnly;
+    }
+
+    /**
+     * @param suspendThreadOnly whether hitting the breakpoint should suspend
+     * only the thread that hit it.
+     */
+    public void setSuspendThreadOnly(boolean suspendThreadOnly) {
+        this.suspendThreadOnly = suspendThreadOnly;
+    }
+
+    @Override
+    public String getCondition() {
+        return condition;
+    }
+
+    @Override
+    public boolean hasCondition() {
+        return !condition.trim().isEmpty();
+    }
+
+    /**
+     * @param condition the condition to set, or null for no condition
+     */
+    public void setCondition(String condition) {
+        if(condition == null) {
+            condition = "";
+        }
+        this.condition = condition;
+    }
 }
@@ -77,7 +77,7 @@ public class JDICallStackModel implements CallStackModel {
      * @param frames
      * @return 
      */
-    private List<JDIStackFrame> convert(List<com.sun.jdi.StackFrame> frames) {
+    List<JDIStackFrame> convert(List<com.sun.jdi.StackFrame> frames) {
         List<JDIStackFrame> list = new LinkedList<>();
         Iterator<com.sun.jdi.StackFrame> iterator = frames.iterator();
         while(iterator.hasNext()) {
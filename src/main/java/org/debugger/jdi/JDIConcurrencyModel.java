@@ -0,0 +1,323 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi;
+
+import com.sun.jdi.IncompatibleThreadStateException;
+import com.sun.jdi.Location;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.ObjectCollectedException;
+import com.sun.jdi.ThreadReference;
+import com.sun.jdi.VirtualMachine;
+import com.sun.jdi.event.Event;
+import com.sun.jdi.event.MonitorContendedEnterEvent;
+import com.sun.jdi.event.MonitorContendedEnteredEvent;
+import com.sun.jdi.event.MonitorWaitEvent;
+import com.sun.jdi.event.MonitorWaitedEvent;
+import com.sun.jdi.request.EventRequest;
+import com.sun.jdi.request.EventRequestManager;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.debugger.ConcurrencyModel;
+import org.debugger.Deadlock;
+import org.debugger.MonitorContention;
+import org.debugger.StackFrame;
+
+/**
+ * This is an implementation of the concurrency model, tied to the Java 
+ * Debugging Interface (JDI).
+ * 
+ * Contention is recorded with monitor events that never suspend the 
+ * program. When a thread blocks on a monitor, or calls wait on one, the 
+ * time is noted, and when it gets the monitor, the time it waited is added 
+ * to the class of the monitor and the line where it blocked. Times are 
+ * taken when the debugger receives each event, in nanoseconds.
+ * 
+ * Deadlocks are found by suspending the program and building a graph of
+ * which thread is waiting for which. As a thread can only wait for one 
+ * monitor, and each monitor has only one owner, every thread has at most 
+ * one edge out, and a deadlock is a cycle found by following them.
+ * 
+ * @author Andreas Stefik
+ */
+public class JDIConcurrencyModel implements ConcurrencyModel {
+    private static final Comparator<MonitorContention> BY_TOTAL = new Comparator<MonitorContention>() {
+        @Override
+        public int compare(MonitorContention a, MonitorContention b) {
+            return Long.compare(b.getTotalTime(), a.getTotalTime());
+        }
+    };
+    
+    private JDIDebugger debugger;
+    private final List<EventRequest> requests = new ArrayList<>();
+    private final HashMap<String, JDIMonitorContention> contention = new HashMap<>();
+    
+    /**
+     * The monitor each thread is waiting on and when it began, if any.
+     */
+    private final HashMap<ThreadReference, Pending> pending = new HashMap<>();
+    
+    @Override
+    public synchronized void setRecording(boolean recording) {
+        if(recording == isRecording()) {
+            return;
+        }
+        
+        VirtualMachine vm = debugger == null ? null : debugger.getVirtualMachine();
+        if(vm == null) {
+            return;
+        }
+        EventRequestManager manager = vm.eventRequestManager();
+        if(recording) {
+            if(!vm.canRequestMonitorEvents()) {
+                Logger.getLogger(JDIConcurrencyModel.class.getName()).log(Level.INFO, 
+                        "The virtual machine cannot report monitor events.");
+                return;
+            }
+            requests.add(manager.createMonitorContendedEnterRequest());
+            requests.add(manager.createMonitorContendedEnteredRequest());
+            requests.add(manager.createMonitorWaitRequest());
+            requests.add(manager.createMonitorWaitedRequest());
+            Iterator<EventRequest> iterator = requests.iterator();
+            while(iterator.hasNext()) {
+                EventRequest request = iterator.next();
+                request.setSuspendPolicy(EventRequest.SUSPEND_NONE);
+                request.enable();
+            }
+        } else {
+            manager.deleteEventRequests(requests);
+            requests.clear();
+            pending.clear();
+        }
+    }
+
+    @Override
+    public synchronized boolean isRecording() {
+        return !requests.isEmpty();
+    }
+    
+    /**
+     * This method records a monitor event. None of these events suspend the
+     * program, so the caller does not need to resume it.
+     * 
+     * @param event
+     * @return true if the event was one of this model's.
+     */
+    public synchronized boolean record(Event event) {
+        if(!requests.contains(event.request())) {
+            return false;
+        }
+        
+        long now = System.nanoTime();
+        try {
+            if(event instanceof MonitorContendedEnterEvent) {
+                MonitorContendedEnterEvent enter = (MonitorContendedEnterEvent) event;
+                pending.put(enter.thread(), new Pending(now, enter.monitor(), enter.location(), false));
+            } else if(event instanceof MonitorWaitEvent) {
+                MonitorWaitEvent wait = (MonitorWaitEvent) event;
+                pending.put(wait.thread(), new Pending(now, wait.monitor(), wait.location(), true));
+            } else if(event instanceof MonitorContendedEnteredEvent) {
+                finish(((MonitorContendedEnteredEvent) event).thread(), now);
+            } else if(event instanceof MonitorWaitedEvent) {
+                finish(((MonitorWaitedEvent) event).thread(), now);
+            }
+        } catch(ObjectCollectedException exception) {
+            //the monitor was collected before we could look at its class
+        }
+        return true;
+    }
+    
+    /**
+     * This method adds the wait a thread has just finished to the contention
+     * for its monitor and line.
+     * 
+     * @param thread
+     * @param now 
+     */
+    private void finish(ThreadReference thread, long now) {
+        Pending wait = pending.remove(thread);
+        if(wait == null) {
+            return; //recording began while the thread was waiting
+        }
+        
+        String monitorClass = wait.monitor.referenceType().name();
+        String className = wait.location.declaringType().name();
+        int line = wait.location.lineNumber();
+        String key = (wait.wait ? "wait " : "") + monitorClass + " " + className + ":" + line;
+        JDIMonitorContention site = contention.get(key);
+        if(site == null) {
+            site = new JDIMonitorContention(monitorClass, className, line, wait.wait);
+            contention.put(key, site);
+        }
+        site.add(now - wait.start);
+    }
+    
+    /**
+     * This method forgets a thread that has died.
+     * 
+     * @param thread 
+     */
+    public synchronized void removed(ThreadReference thread) {
+        pending.remove(thread);
+    }
+
+    @Override
+    public synchronized MonitorContention[] getContention() {
+        MonitorContention[] result = contention.values().toArray(new MonitorContention[contention.size()]);
+        Arrays.sort(result, BY_TOTAL);
+        return result;
+    }
+
+    @Override
+    public Deadlock[] findDeadlocks() {
+        VirtualMachine vm = debugger == null ? null : debugger.getVirtualMachine();
+        if(vm == null || !vm.canGetCurrentContendedMonitor() || !vm.canGetOwnedMonitorInfo()) {
+            return new Deadlock[0];
+        }
+        
+        List<Deadlock> deadlocks = new ArrayList<>();
+        vm.suspend();
+        try {
+            List<ThreadReference> threads = vm.allThreads();
+            HashMap<ObjectReference, ThreadReference> owners = new HashMap<>();
+            HashMap<ThreadReference, ObjectReference> contended = new HashMap<>();
+            Iterator<ThreadReference> iterator = threads.iterator();
+            while(iterator.hasNext()) {
+                ThreadReference thread = iterator.next();
+                try {
+                    Iterator<ObjectReference> owned = thread.ownedMonitors().iterator();
+                    while(owned.hasNext()) {
+                        owners.put(owned.next(), thread);
+                    }
+                    ObjectReference monitor = thread.currentContendedMonitor();
+                    if(monitor != null) {
+                        contended.put(thread, monitor);
+                    }
+                } catch(IncompatibleThreadStateException | ObjectCollectedException exception) {
+                    //the thread is not running Java code, so it holds nothing
+                }
+            }
+            
+            //follow each thread's single edge until we reach a thread we have
+            //seen, which either closes a new cycle or leads to an old path
+            HashMap<ThreadReference, Integer> visited = new HashMap<>();
+            int walk = 0;
+            iterator = threads.iterator();
+            while(iterator.hasNext()) {
+                ThreadReference thread = iterator.next();
+                List<ThreadReference> path = new ArrayList<>();
+                walk++;
+                while(thread != null && !visited.containsKey(thread)) {
+                    visited.put(thread, walk);
+                    path.add(thread);
+                    ObjectReference monitor = contended.get(thread);
+                    thread = monitor == null ? null : owners.get(monitor);
+                }
+                if(thread != null && visited.get(thread) == walk) {
+                    List<ThreadReference> cycle = path.subList(path.indexOf(thread), path.size());
+                    deadlocks.add(convert(cycle, contended));
+                }
+            }
+        } finally {
+            vm.resume();
+        }
+        return deadlocks.toArray(new Deadlock[deadlocks.size()]);
+    }
+    
+    /**
+     * This method converts a cycle of waiting threads into a deadlock, with
+     * the stack of each thread.
+     * 
+     * @param cycle
+     * @param contended
+     * @return 
+     */
+    private Deadlock convert(List<ThreadReference> cycle, HashMap<ThreadReference, ObjectReference> contended) {
+        JDICallStackModel stacks = new JDICallStackModel();
+        stacks.setFilter(debugger.getFilter());
+        String[] names = new String[cycle.size()];
+        String[] monitors = new String[cycle.size()];
+        StackFrame[][] frames = new StackFrame[cycle.size()][];
+        for(int i = 0; i < cycle.size(); i++) {
+            ThreadReference thread = cycle.get(i);
+            ObjectReference monitor = contended.get(thread);
+            names[i] = thread.name();
+            monitors[i] = monitor.referenceType().name() + " (id=" + monitor.uniqueID() + ")";
+            try {
+                List<JDIStackFrame> converted = stacks.convert(thread.frames());
+                frames[i] = converted.toArray(new StackFrame[converted.size()]);
+            } catch(IncompatibleThreadStateException exception) {
+                frames[i] = new StackFrame[0];
+            }
+        }
+        return new JDIDeadlock(names, monitors, frames);
+    }
+
+    @Override
+    public synchronized void clear() {
+        contention.clear();
+        pending.clear();
+    }
+
+    /**
+     * @return the debugger
+     */
+    public JDIDebugger getDebugger() {
+        return debugger;
+    }
+
+    /**
+     * @param debugger the debugger to set
+     */
+    public void setDebugger(JDIDebugger debugger) {
+        this.debugger = debugger;
+    }
+    
+    /**
+     * This class holds a wait that has not yet finished.
+     */
+    private static class Pending {
+        final long start;
+        final ObjectReference monitor;
+        final Location location;
+        final boolean wait;
+        
+        Pending(long start, ObjectReference monitor, Location location, boolean wait) {
+            this.start = start;
+            this.monitor = monitor;
+            this.location = location;
+            this.wait = wait;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi;
+
+import org.debugger.Deadlock;
+import org.debugger.StackFrame;
+
+/**
+ * This is an implementation of the deadlock interface, tied to the Java 
+ * Debugging Interface (JDI).
+ * 
+ * @author Andreas Stefik
+ */
+public class JDIDeadlock implements Deadlock {
+    private final String[] threadNames;
+    private final String[] monitors;
+    private final StackFrame[][] frames;
+    
+    JDIDeadlock(String[] threadNames, String[] monitors, StackFrame[][] frames) {
+        this.threadNames = threadNames;
+        this.monitors = monitors;
+        this.frames = frames;
+    }
+
+    @Override
+    public String[] getThreadNames() {
+        return threadNames.clone();
+    }
+
+    @Override
+    public String[] getMonitors() {
+        return monitors.clone();
+    }
+
+    @Override
+    public StackFrame[] getFrames(int thread) {
+        return frames[thread].clone();
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("Deadlock:");
+        for(int i = 0; i < threadNames.length; i++) {
+            builder.append("\n  ").append(threadNames[i]);
+            builder.append(" waits for ").append(monitors[i]);
+            builder.append(", held by ").append(threadNames[(i + 1) % threadNames.length]);
+            for(int j = 0; j < frames[i].length; j++) {
+                StackFrame frame = frames[i][j];
+                builder.append("\n    at ").append(frame.getClassInformation().getDotName());
+                builder.append(".").append(frame.getMethodName()).append(":").append(frame.getLine());
+            }
+        }
+        return builder.toString();
+    }
+}
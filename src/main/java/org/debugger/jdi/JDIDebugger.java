@@ -29,7 +29,6 @@
 package org.debugger.jdi;
 
 import com.sun.jdi.Bootstrap;
-import com.sun.jdi.Field;
 import com.sun.jdi.ReferenceType;
 import com.sun.jdi.ThreadReference;
 import com.sun.jdi.VirtualMachine;
@@ -40,19 +39,21 @@ import org.debugger.Debugger;
 import com.sun.jdi.connect.LaunchingConnector;
 import com.sun.jdi.connect.VMStartException;
 import com.sun.jdi.event.ClassPrepareEvent;
-import com.sun.jdi.request.ClassPrepareRequest;
 import com.sun.jdi.request.EventRequest;
 import com.sun.jdi.request.EventRequestManager;
 import com.sun.jdi.request.ExceptionRequest;
-import com.sun.jdi.request.ModificationWatchpointRequest;
 import com.sun.jdi.request.StepRequest;
+import com.sun.jdi.request.ThreadDeathRequest;
 import com.sun.tools.jdi.RawCommandLineLauncher;
 import com.sun.tools.jdi.SocketAttachingConnector;
 import com.sun.tools.jdi.SunCommandLineLauncher;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -63,11 +64,19 @@ import java.util.logging.Logger;
 import org.debugger.Breakpoint;
 import org.debugger.CallStackModel;
 import org.debugger.DebuggerListener;
+import org.debugger.ThreadState;
 import org.debugger.VariablesModel;
 import org.debugger.filters.LanguageFilter;
 import org.debugger.filters.QuorumFilter;
 import org.debugger.jdi.events.JDIDebuggerStartEvent;
+import org.debugger.jdi.events.JDIDebuggerStepEvent;
 import org.debugger.jdi.views.JDIVariableView;
+import org.debugger.jdi.snapshot.SnapshotWriter;
+import org.debugger.jdi.trace.TraceCallStackModel;
+import org.debugger.jdi.trace.TraceDictionary;
+import org.debugger.jdi.trace.TraceHistory;
+import org.debugger.jdi.trace.TraceRecorder;
+import org.debugger.jdi.trace.TraceVariablesModel;
 import org.debugger.jdi.views.QuorumView;
 
 /**
@@ -132,6 +141,62 @@ public class JDIDebugger implements Debugger {
      */
     private BreakpointManager breakpoints = new BreakpointManager();
     
+    /**
+     * This is a cache of the line tables of loaded classes, so that the
+     * locations on a line only need to be requested once per class.
+     */
+    private LineTableCache lineTables = new LineTableCache();
+    
+    /**
+     * This records which lines of the program were executed, if coverage 
+     * is enabled.
+     */
+    private CoverageRecorder coverage = new CoverageRecorder();
+    
+    /**
+     * This records changes to any fields being watched.
+     */
+    private FieldHistory fieldHistory = new FieldHistory();
+    
+    /**
+     * This records the calls made by the program, if it is enabled.
+     */
+    private CallTreeRecorder callTree = new CallTreeRecorder();
+    
+    /**
+     * This samples the call stacks of the program while profiling.
+     */
+    private SamplingProfiler profiler = new SamplingProfiler();
+    
+    /**
+     * This watches for threads stuck in a loop.
+     */
+    private LoopWatchdog loopWatchdog = new LoopWatchdog();
+    
+    /**
+     * This records the execution of the program, if enabled, so that it can
+     * be stepped through backward.
+     */
+    private TraceRecorder trace = new TraceRecorder();
+    
+    /**
+     * This is the position in the recorded past the debugger is showing, if
+     * it has stepped backward.
+     */
+    private TraceHistory history = new TraceHistory(trace);
+    
+    /**
+     * This value shows the variables of the recorded past, when the debugger
+     * is browsing it.
+     */
+    private TraceVariablesModel traceVariables = new TraceVariablesModel(trace);
+    
+    /**
+     * This value shows the call stack of the recorded past, when the 
+     * debugger is browsing it.
+     */
+    private TraceCallStackModel traceCallStack = new TraceCallStackModel(trace);
+    
     /**
      * This is a reference to the currently executing thread in the virtual
      * machine.
@@ -164,6 +229,22 @@ public class JDIDebugger implements Debugger {
      */
     private JDICallStackModel callStack;
     
+    /**
+     * This variable tracks the state of each thread on the system, so that
+     * threads can be suspended and resumed individually.
+     */
+    private JDIThreadsModel threads;
+    
+    /**
+     * This model records contention for locks and finds deadlocks.
+     */
+    private JDIConcurrencyModel concurrency;
+    
+    /**
+     * This model counts and browses the objects alive in the program.
+     */
+    private JDIHeapModel heap;
+    
     /**
      * This object is the monitor for this debugger's step operations.
      * 
@@ -197,6 +278,75 @@ public class JDIDebugger implements Debugger {
     
     @Override
     public void stepBackOver() {
+        synchronized(monitor) {
+            if(enterHistory()) {
+                history.stepBackOver();
+                showHistory();
+            }
+        }
+    }
+    
+    /**
+     * This method begins browsing the past of the current thread, if it is
+     * not already being browsed.
+     * 
+     * @return false if the current thread has not been recorded.
+     */
+    private boolean enterHistory() {
+        if(!history.isLive()) {
+            return true;
+        }
+        if(threadReference == null || !trace.isRecording()) {
+            return false;
+        }
+        trace.sync();
+        int thread = trace.getThread(threadReference);
+        long present = trace.getLastStep(thread);
+        if(thread < 0 || present < 0) {
+            return false;
+        }
+        history.begin(thread, present);
+        return true;
+    }
+    
+    /**
+     * This method tells listeners where the debugger is in the recorded 
+     * past. If it has reached the present, the history ends.
+     */
+    private void showHistory() {
+        TraceDictionary dictionary = trace.getDictionary();
+        int location = history.getLocation();
+        JDIDebuggerStepEvent event = new JDIDebuggerStepEvent();
+        event.setLine(dictionary.getLine(location));
+        event.setSource(dictionary.getClassName(location));
+        if(history.isAtPresent()) {
+            history.end();
+        }
+        if(requestManager != null) {
+            requestManager.fireEvent(event);
+        }
+    }
+    
+    /**
+     * This method returns the locations in the trace that have a breakpoint.
+     * 
+     * @return 
+     */
+    private int[] getBreakpointLocations() {
+        TraceDictionary dictionary = trace.getDictionary();
+        int[] result = new int[0];
+        Iterator<Breakpoint> iterator = breakpoints.getBreakpoints();
+        while(iterator.hasNext()) {
+            Breakpoint next = iterator.next();
+            int[] locations = dictionary.getLocations(
+                    next.getClassInformation().getDotName(), next.getLine());
+            if(locations.length > 0) {
+                int length = result.length;
+                result = Arrays.copyOf(result, length + locations.length);
+                System.arraycopy(locations, 0, result, length, locations.length);
+            }
+        }
+        return result;
     }
 
     /**
@@ -219,6 +369,11 @@ public class JDIDebugger implements Debugger {
     @Override
     public void stepOut() {
         synchronized(monitor) {
+            if(!history.isLive()) {
+                history.stepOut();
+                showHistory();
+                return;
+            }
             EventRequestManager manager = virtualMachine.eventRequestManager();
             if(threadReference != null) {
                 clearStepRequests(threadReference);
@@ -233,7 +388,7 @@ public class JDIDebugger implements Debugger {
                 request.addCountFilter(1);
                 request.setSuspendPolicy(EventRequest.SUSPEND_EVENT_THREAD);
                 request.enable();
-                virtualMachine.resume();
+                resumeThread(threadReference, true);
             }
         }
     }
@@ -241,6 +396,11 @@ public class JDIDebugger implements Debugger {
     @Override
     public void stepOver() {
         synchronized(monitor) {
+            if(!history.isLive()) {
+                history.stepOver();
+                showHistory();
+                return;
+            }
             EventRequestManager manager = virtualMachine.eventRequestManager();
             if(threadReference != null) {
                 clearStepRequests(threadReference);
@@ -255,7 +415,7 @@ public class JDIDebugger implements Debugger {
                 request.addCountFilter(1);
                 request.setSuspendPolicy(EventRequest.SUSPEND_EVENT_THREAD);
                 request.enable();
-                virtualMachine.resume();
+                resumeThread(threadReference, true);
             }
         }
     }
@@ -263,6 +423,11 @@ public class JDIDebugger implements Debugger {
     @Override
     public void stepInto() {
         synchronized(monitor) {
+            if(!history.isLive()) {
+                history.stepInto();
+                showHistory();
+                return;
+            }
             EventRequestManager manager = virtualMachine.eventRequestManager();
             if(threadReference != null) {
                 clearStepRequests(threadReference);
@@ -277,13 +442,19 @@ public class JDIDebugger implements Debugger {
                 request.addCountFilter(1);
                 request.setSuspendPolicy(EventRequest.SUSPEND_EVENT_THREAD);
                 request.enable();
-                virtualMachine.resume();
+                resumeThread(threadReference, true);
             }
         }
     }
 
     @Override
     public void stepBackInto() {
+        synchronized(monitor) {
+            if(enterHistory()) {
+                history.stepBackInto();
+                showHistory();
+            }
+        }
     }
 
     @Override
@@ -302,24 +473,41 @@ public class JDIDebugger implements Debugger {
 
 
             if(virtualMachine != null) {
-                virtualMachine.resume();
+                resumeThread(threadReference);
             }
         }
     }
 
     @Override
     public void runBackToLine(String fullyQualifiedClassName, int line) {
+        synchronized(monitor) {
+            if(enterHistory()) {
+                history.runBackTo(trace.getDictionary().getLocations(fullyQualifiedClassName, line));
+                showHistory();
+            }
+        }
     }
 
     @Override
     public void backward() {
+        synchronized(monitor) {
+            if(enterHistory()) {
+                history.backward(getBreakpointLocations());
+                showHistory();
+            }
+        }
     }
 
     @Override
     public void forward() {
         synchronized(monitor) {
+            if(!history.isLive()) {
+                history.forward(getBreakpointLocations());
+                showHistory();
+                return;
+            }
             if(virtualMachine != null) {
-                virtualMachine.resume();
+                resumeThread(threadReference);
             }
         }
     }
@@ -366,10 +554,20 @@ public class JDIDebugger implements Debugger {
                 
                 //this will need to change if other languages are supported
                 view = new QuorumView();
+                traceVariables.setView(view);
                 filter = new QuorumFilter();
     
                 // Set up the event dispatcher.
+                breakpoints.getLogpointLog().setView(view);
+                breakpoints.setLineTables(lineTables);
                 breakpoints.setVirtualMachine(virtualMachine);
+                fieldHistory.start(virtualMachine);
+                if(coverage.isEnabled()) {
+                    coverage.start(virtualMachine, lineTables, getExclusionList());
+                }
+                if(trace.isEnabled()) {
+                    trace.start(virtualMachine, lineTables, getExclusionList());
+                }
                 variables = new JDIVariablesModel();
                 variables.setDebugger(this);
 
@@ -377,6 +575,17 @@ public class JDIDebugger implements Debugger {
                 callStack = new JDICallStackModel();
                 callStack.setDebugger(this);
                 callStack.setFilter(filter);
+                traceCallStack.setFilter(filter);
+
+                threads = new JDIThreadsModel();
+                threads.setDebugger(this);
+
+                concurrency = new JDIConcurrencyModel();
+                concurrency.setDebugger(this);
+
+                heap = new JDIHeapModel();
+                heap.setDebugger(this);
+                heap.setExclusions(getExclusionList());
 
                 requestManager = new VirtualMachineRequestManager();
                 requestManager.setDebugger(this);
@@ -437,6 +646,10 @@ public class JDIDebugger implements Debugger {
         if(os.equals("Mac OS X")) {
             optionsString += " -XstartOnFirstThread";
         }
+        String agentOption = trace.getAgentOption(getExclusionList());
+        if(agentOption != null) {
+            optionsString += " " + agentOption;
+        }
         optionsArg.setValue(optionsString);
         try {
             virtualMachine = connector.launch(map);
@@ -509,6 +722,10 @@ public class JDIDebugger implements Debugger {
                 firstThreadArgument = " -XstartOnFirstThread";
             
             String primaryCommand = "-Duser.dir=\"" + workingDirectory + "\" -Xdebug" + firstThreadArgument + " -Xrunjdwp:transport=dt_socket,address=" + host + ",suspend=y";
+            String agentOption = trace.getAgentOption(getExclusionList());
+            if(agentOption != null) {
+                primaryCommand += " " + agentOption;
+            }
             String jarCommand = "-jar \"" + executable + "\"";
             
             connectionString += " " + primaryCommand + " " + jarCommand;
@@ -533,11 +750,13 @@ public class JDIDebugger implements Debugger {
     private void setupEventRequests() {
         EventRequestManager manager = virtualMachine.eventRequestManager();
         
-        //these extra methods were left in as comments, in case
-        //they end up being useful when we turn the debugger omniscient.
-        //MethodEntryRequest entry = manager.createMethodEntryRequest();
-        //MethodExitRequest exit = manager.createMethodExitRequest();
-        ClassPrepareRequest classPrepare = manager.createClassPrepareRequest();
+        //method entry and exit requests are made by the call tree recorder,
+        //only when it is enabled.
+        if(callTree.isEnabled()) {
+            callTree.start(virtualMachine);
+        }
+        //class prepare requests are made by the breakpoint manager, only
+        //for those classes that have breakpoints waiting on them.
         List<ReferenceType> classes = virtualMachine.classesByName("java.lang.Throwable");
         ExceptionRequest except = null;
         if(!classes.isEmpty()) {
@@ -548,9 +767,6 @@ public class JDIDebugger implements Debugger {
         Iterator<String> it = list.iterator();
         while(it.hasNext()) {
             String next = it.next();
-            //entry.addClassExclusionFilter(next);
-            //exit.addClassExclusionFilter(next);
-            classPrepare.addClassExclusionFilter(next);
             if(except != null) {
                 except.addClassExclusionFilter(next);
             }
@@ -560,12 +776,11 @@ public class JDIDebugger implements Debugger {
             except.enable();
         }
         
-        //entry.setSuspendPolicy(EventRequest.SUSPEND_NONE);
-        //entry.enable();
-        //exit.setSuspendPolicy(EventRequest.SUSPEND_NONE);
-        //exit.enable();
-        classPrepare.setSuspendPolicy(EventRequest.SUSPEND_NONE);
-        classPrepare.enable();
+        //threads are only tracked once the debugger has stopped them, so
+        //we only need to know when they go away.
+        ThreadDeathRequest death = manager.createThreadDeathRequest();
+        death.setSuspendPolicy(EventRequest.SUSPEND_NONE);
+        death.enable();
     }
     
     private List<String> getExclusionList() {
@@ -581,6 +796,7 @@ public class JDIDebugger implements Debugger {
         final String APACHE_EXCLUDE = "org.apache.*";
         final String QUORUM_SERVLET = "web.servlet.*";
         final String ANTLR_SERVLET = "antlr.*";
+        final String AGENT_EXCLUDE = "org.debugger.agent.*";
         
         LinkedList<String> list = new LinkedList<>();
         list.add(JAVA_EXCLUDE);
@@ -596,18 +812,39 @@ public class JDIDebugger implements Debugger {
         list.add(QUORUM_SERVLET);
         list.add(ANTLR_SERVLET);
         
+        //the trace agent's probes run inside the program, but are not part 
+        //of it, so they are never stepped into or shown
+        if(trace.isUsingAgent()) {
+            list.add(AGENT_EXCLUDE);
+        }
+        
         return list;
     }
 
     @Override
     public void stop() {
         if(virtualMachine != null) {
+            profiler.stop();
+            loopWatchdog.stop();
             breakpoints.reset();
+            breakpoints.getLogpointLog().close();
+            coverage.stop();
+            fieldHistory.stop();
+            callTree.stop();
+            trace.stop();
+            history.end();
+            lineTables.clear();
             inputStream = null;
             outputStream = null;
             errorStream = null;
             variables = null;
             callStack = null;
+            if(threads != null) {
+                threads.clear();
+            }
+            threads = null;
+            concurrency = null;
+            heap = null;
             view = null;
             filter = null;
             threadReference = null;
@@ -627,8 +864,9 @@ public class JDIDebugger implements Debugger {
     @Override
     public void resume() {
         synchronized(getResumeMonitor()) {
+            history.end();
             if(virtualMachine != null) {
-                virtualMachine.resume();
+                resumeThread(threadReference);
             }
         }
     }
@@ -638,7 +876,108 @@ public class JDIDebugger implements Debugger {
         synchronized(getResumeMonitor()) {
             if(virtualMachine != null) {
                 virtualMachine.suspend();
+                threads.pausedAll();
+            }
+        }
+    }
+    
+    /**
+     * This method writes the state of the paused program, every thread's 
+     * call stack, their variables and the objects they refer to, to a 
+     * snapshot file that can be browsed after the program is gone, through
+     * a Snapshot. Every thread is held while the file is written, so that 
+     * the other threads cannot change the objects being recorded.
+     * 
+     * @param file
+     * @param stop whether to stop the program once the snapshot is written.
+     * @return false if there is no paused program to write.
+     */
+    public boolean saveSnapshot(File file, boolean stop) {
+        synchronized(getResumeMonitor()) {
+            if(virtualMachine == null || view == null || threadReference == null 
+                    || !threadReference.isSuspended()) {
+                return false;
             }
+            virtualMachine.suspend();
+            try {
+                new SnapshotWriter(view, filter).write(virtualMachine, threadReference, file);
+            } catch (IOException ex) {
+                Logger.getLogger(JDIDebugger.class.getName()).log(Level.SEVERE, null, ex);
+                return false;
+            } finally {
+                virtualMachine.resume();
+            }
+        }
+        if(stop) {
+            stop();
+        }
+        return true;
+    }
+    
+    /**
+     * This method resumes an individual thread. If the thread was stopped
+     * by an event that suspended the entire virtual machine, or the virtual
+     * machine was paused, everything is resumed.
+     * 
+     * @param thread 
+     */
+    public void resume(ThreadReference thread) {
+        synchronized(getResumeMonitor()) {
+            if(virtualMachine != null) {
+                resumeThread(thread);
+            }
+        }
+    }
+    
+    /**
+     * This method suspends an individual thread, leaving the rest of the
+     * virtual machine running.
+     * 
+     * @param thread 
+     */
+    public void suspend(ThreadReference thread) {
+        synchronized(getResumeMonitor()) {
+            if(virtualMachine != null && thread != null) {
+                thread.suspend();
+                threads.suspended(thread, ThreadState.SUSPENDED, EventRequest.SUSPEND_EVENT_THREAD);
+            }
+        }
+    }
+    
+    /**
+     * Resumes a thread according to how it was suspended. Threads stopped by
+     * an event with a SUSPEND_EVENT_THREAD policy are resumed on their own,
+     * so that the rest of the program is not disturbed.
+     * 
+     * @param thread 
+     */
+    private void resumeThread(ThreadReference thread) {
+        resumeThread(thread, false);
+    }
+    
+    /**
+     * Resumes a thread according to how it was suspended, recording first 
+     * whether it is stepping. The threads model is always updated before 
+     * the thread runs, as a short step can finish, and its event be 
+     * recorded, before this method returns.
+     * 
+     * @param thread
+     * @param stepping whether the thread has a pending step request.
+     */
+    private void resumeThread(ThreadReference thread, boolean stepping) {
+        boolean alone = thread != null && !threads.isPaused() && threads.isSuspendedAlone(thread);
+        if(alone) {
+            threads.resumed(thread);
+        } else {
+            threads.resumedAll();
+        }
+        if(stepping && thread != null) {
+            threads.stepping(thread);
+        }
+        if(alone) {
+            thread.resume();
+        } else {
+            virtualMachine.resume();
         }
     }
 
@@ -687,6 +1026,16 @@ public class JDIDebugger implements Debugger {
     public void add(Breakpoint breakpoint) {
         this.breakpoints.add(breakpoint);
     }
+
+    @Override
+    public void addAll(Collection<? extends Breakpoint> breakpoints) {
+        this.breakpoints.addAll(breakpoints);
+    }
+
+    @Override
+    public void removeAll(Collection<? extends Breakpoint> breakpoints) {
+        this.breakpoints.removeAll(breakpoints);
+    }
     
     /**
      * When a ClassPrepareEvent is fired, this method is executed. Its purpose
@@ -696,19 +1045,148 @@ public class JDIDebugger implements Debugger {
      */
     public void action(ClassPrepareEvent event) {
         breakpoints.action(event);
+        coverage.action(event);
+        fieldHistory.action(event);
+        trace.action(event);
     }
 
-    private void addFieldWatches(ReferenceType type) {
-        EventRequestManager manager = virtualMachine.eventRequestManager();
-        List<Field> allFields = type.allFields();
-        Iterator<Field> fields = allFields.iterator();
-        while(fields.hasNext()) {
-            Field field = fields.next();
-            ModificationWatchpointRequest request = manager.createModificationWatchpointRequest(field);
-            request.enable();
+    /**
+     * This method begins sampling the call stacks of the running program, 
+     * to find where it spends its time.
+     */
+    public void startProfiling() {
+        if(virtualMachine != null) {
+            profiler.start(this);
+        }
+    }
+    
+    /**
+     * This method stops sampling the call stacks of the program. The profile
+     * is kept until it is cleared.
+     */
+    public void stopProfiling() {
+        profiler.stop();
+    }
+    
+    /**
+     * This method returns the sampling profiler, which holds the profile 
+     * taken by startProfiling.
+     * 
+     * @return 
+     */
+    public SamplingProfiler getProfiler() {
+        return profiler;
+    }
+    
+    /**
+     * This method begins watching for threads stuck in a loop. If the 
+     * program runs for longer than the threshold without stopping at a 
+     * breakpoint or step, its threads are sampled, and any that are looping
+     * are reported to listeners with a loop event.
+     * 
+     * @param threshold the time the program may run without stopping, in 
+     * milliseconds
+     */
+    public void startLoopWatchdog(long threshold) {
+        loopWatchdog.setThreshold(threshold);
+        if(virtualMachine != null) {
+            loopWatchdog.start(this);
         }
     }
     
+    /**
+     * This method stops watching for threads stuck in a loop.
+     */
+    public void stopLoopWatchdog() {
+        loopWatchdog.stop();
+    }
+    
+    /**
+     * This method returns the recorder of the program's execution. Enabling
+     * it before launch makes the debugger omniscient, able to step backward.
+     * 
+     * @return 
+     */
+    public TraceRecorder getTrace() {
+        return trace;
+    }
+    
+    /**
+     * This method returns the position in the recorded past the debugger is
+     * showing.
+     * 
+     * @return 
+     */
+    public TraceHistory getHistory() {
+        return history;
+    }
+    
+    /**
+     * @return the watchdog for threads stuck in a loop
+     */
+    public LoopWatchdog getLoopWatchdog() {
+        return loopWatchdog;
+    }
+    
+    /**
+     * @return the manager that dispatches events to listeners, or null if
+     * the debugger is not running
+     */
+    VirtualMachineRequestManager getRequestManager() {
+        return requestManager;
+    }
+    
+    /**
+     * @return the filter for the language being debugged
+     */
+    public LanguageFilter getFilter() {
+        return filter;
+    }
+    
+    /**
+     * This method returns the call tree recorder. It must be enabled before
+     * the program is launched.
+     * 
+     * @return 
+     */
+    public CallTreeRecorder getCallTree() {
+        return callTree;
+    }
+    
+    /**
+     * This method returns the history of watched fields. Fields can be 
+     * watched before or while the program runs.
+     * 
+     * @return 
+     */
+    public FieldHistory getFieldHistory() {
+        return fieldHistory;
+    }
+    
+    /**
+     * This method returns the coverage recorder. Coverage must be enabled
+     * before the program is launched.
+     * 
+     * @return 
+     */
+    public CoverageRecorder getCoverage() {
+        return coverage;
+    }
+    
+    /**
+     * @return the cache of line tables for loaded classes
+     */
+    public LineTableCache getLineTables() {
+        return lineTables;
+    }
+    
+    /**
+     * @return the breakpoint manager
+     */
+    public BreakpointManager getBreakpointManager() {
+        return breakpoints;
+    }
+    
     @Override
     public Breakpoint remove(Breakpoint breakpoint) {
         Breakpoint bp = breakpoints.remove(breakpoint);
@@ -727,7 +1205,7 @@ public class JDIDebugger implements Debugger {
 
     @Override
     public boolean isOmniscient() {
-        return false;
+        return trace.isEnabled();
     }
 
     @Override
@@ -760,6 +1238,10 @@ public class JDIDebugger implements Debugger {
     
     @Override
     public VariablesModel getVariablesModel() {
+        if(!history.isLive()) {
+            traceVariables.setStep(history.getStep());
+            return traceVariables;
+        }
         return variables;
     }
 
@@ -786,9 +1268,28 @@ public class JDIDebugger implements Debugger {
 
     @Override
     public CallStackModel getCallStackModel() {
+        if(!history.isLive()) {
+            traceCallStack.setStep(history.getStep());
+            return traceCallStack;
+        }
         return callStack;
     }
 
+    @Override
+    public JDIThreadsModel getThreadsModel() {
+        return threads;
+    }
+
+    @Override
+    public JDIConcurrencyModel getConcurrencyModel() {
+        return concurrency;
+    }
+
+    @Override
+    public JDIHeapModel getHeapModel() {
+        return heap;
+    }
+
     @Override
     public InputStream getInputStream() {
         return inputStream;
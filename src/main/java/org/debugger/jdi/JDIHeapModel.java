@@ -0,0 +1,370 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi;
+
+import com.sun.jdi.ArrayReference;
+import com.sun.jdi.ClassType;
+import com.sun.jdi.Field;
+import com.sun.jdi.ObjectCollectedException;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.ReferenceType;
+import com.sun.jdi.VMDisconnectedException;
+import com.sun.jdi.Value;
+import com.sun.jdi.VirtualMachine;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.debugger.ClassInstances;
+import org.debugger.HeapModel;
+import org.debugger.Variable;
+import org.debugger.jdi.views.JDIVariableView;
+
+/**
+ * This is an implementation of the heap model, tied to the Java Debugging
+ * Interface (JDI).
+ * 
+ * The objects of every class in the program are counted with a single call
+ * to the virtual machine, rather than one for each class. The objects of a
+ * class are fetched only as far as the page being browsed, and each fetch
+ * at least doubles the last, so paging through a large class asks the 
+ * virtual machine for its objects only a few times.
+ * 
+ * While every thread is held, everything read is kept until the threads 
+ * model reports that a thread was suspended or resumed, as until then the 
+ * program cannot have changed. Otherwise, nothing is kept, and every call 
+ * asks the virtual machine again.
+ * 
+ * @author Andreas Stefik
+ */
+public class JDIHeapModel implements HeapModel {
+    private static final Comparator<JDIClassInstances> BY_COUNT = new Comparator<JDIClassInstances>() {
+        @Override
+        public int compare(JDIClassInstances a, JDIClassInstances b) {
+            int order = Long.compare(b.getInstanceCount(), a.getInstanceCount());
+            if(order != 0) {
+                return order;
+            }
+            return a.getClassName().compareTo(b.getClassName());
+        }
+    };
+    
+    private JDIDebugger debugger;
+    private final List<String> exclusions = new ArrayList<>();
+    
+    /**
+     * The generation of the threads model the results below were read in.
+     */
+    private long generation = -1;
+    private JDIClassInstances[] counts = null;
+    private final HashMap<ReferenceType, Fetched> instances = new HashMap<>();
+    private final HashMap<ObjectReference, Fetched> referrers = new HashMap<>();
+
+    @Override
+    public synchronized ClassInstances[] getInstanceCounts() {
+        VirtualMachine vm = getMachine();
+        if(vm == null) {
+            return new ClassInstances[0];
+        }
+        if(counts != null) {
+            return counts.clone();
+        }
+        
+        try {
+            List<ReferenceType> types = new ArrayList<>();
+            Iterator<ReferenceType> iterator = vm.allClasses().iterator();
+            while(iterator.hasNext()) {
+                ReferenceType next = iterator.next();
+                if(next instanceof ClassType && next.isPrepared() && !isExcluded(next.name())) {
+                    types.add(next);
+                }
+            }
+            
+            long[] found = vm.instanceCounts(types);
+            List<JDIClassInstances> result = new ArrayList<>();
+            for(int i = 0; i < found.length; i++) {
+                if(found[i] > 0) {
+                    result.add(new JDIClassInstances(types.get(i), found[i]));
+                }
+            }
+            counts = result.toArray(new JDIClassInstances[result.size()]);
+            Arrays.sort(counts, BY_COUNT);
+        } catch(VMDisconnectedException exception) {
+            return new ClassInstances[0];
+        }
+        return counts.clone();
+    }
+
+    @Override
+    public synchronized Variable[] getInstances(ClassInstances instances, int first, int count) {
+        VirtualMachine vm = getMachine();
+        if(vm == null || !(instances instanceof JDIClassInstances) || first < 0 || count <= 0) {
+            return new Variable[0];
+        }
+        ReferenceType type = ((JDIClassInstances) instances).getType();
+        long end = (long) first + count;
+        
+        Fetched objects = this.instances.get(type);
+        try {
+            if(objects == null || !objects.covers(end)) {
+                long maximum = end;
+                if(objects != null) {
+                    maximum = Math.max(maximum, 2L * objects.list.size());
+                }
+                maximum = Math.min(maximum, Integer.MAX_VALUE);
+                objects = new Fetched(type.instances(maximum), maximum);
+                this.instances.put(type, objects);
+            }
+        } catch(ObjectCollectedException | VMDisconnectedException exception) {
+            return new Variable[0]; //the class was unloaded, or the program ended
+        }
+        
+        int last = (int) Math.min(end, objects.list.size());
+        if(first >= last) {
+            return new Variable[0];
+        }
+        JDIVariableView view = getView(vm);
+        Variable[] result = new Variable[last - first];
+        for(int i = first; i < last; i++) {
+            result[i - first] = convert("" + i, objects.list.get(i), view);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized Variable[] getReferrers(Variable variable, int maximum) {
+        VirtualMachine vm = getMachine();
+        if(vm == null || variable == null || !(variable.getReference() instanceof ObjectReference)
+                || maximum < 0) {
+            return new Variable[0];
+        }
+        ObjectReference reference = (ObjectReference) variable.getReference();
+        
+        Fetched objects = referrers.get(reference);
+        try {
+            if(objects == null || !objects.covers(maximum == 0 ? Long.MAX_VALUE : maximum)) {
+                objects = new Fetched(reference.referringObjects(maximum), maximum);
+                referrers.put(reference, objects);
+            }
+            
+            int size = maximum == 0 ? objects.list.size() : Math.min(maximum, objects.list.size());
+            JDIVariableView view = getView(vm);
+            Variable[] result = new Variable[size];
+            for(int i = 0; i < size; i++) {
+                ObjectReference referrer = objects.list.get(i);
+                result[i] = convert(getReferringName(referrer, reference), referrer, view);
+            }
+            return result;
+        } catch(ObjectCollectedException | VMDisconnectedException exception) {
+            return new Variable[0];
+        }
+    }
+    
+    /**
+     * This method returns the name of the field, or the position in an 
+     * array, through which one object refers to another.
+     * 
+     * @param referrer
+     * @param reference
+     * @return the name, or an empty string if the reference is not held in
+     * a field, such as a reference held by the virtual machine.
+     */
+    private String getReferringName(ObjectReference referrer, ObjectReference reference) {
+        if(referrer instanceof ArrayReference) {
+            List<Value> values = ((ArrayReference) referrer).getValues();
+            int index = values.indexOf(reference);
+            return index < 0 ? "" : "" + index;
+        }
+        
+        List<Field> fields = referrer.referenceType().allFields();
+        Map<Field, Value> values = referrer.getValues(fields);
+        Iterator<Field> iterator = fields.iterator();
+        while(iterator.hasNext()) {
+            Field field = iterator.next();
+            if(reference.equals(values.get(field))) {
+                return field.name();
+            }
+        }
+        return "";
+    }
+    
+    /**
+     * This method converts an object into a variable, as it would appear in
+     * the variables model.
+     * 
+     * @param name
+     * @param reference
+     * @param view
+     * @return 
+     */
+    private JDIVariable convert(String name, ObjectReference reference, JDIVariableView view) {
+        JDIVariable var = new JDIVariable();
+        var.setName(name);
+        try {
+            var.setTypeName(reference.referenceType().name());
+            var.setValue(view.getValue(reference));
+        } catch(Exception exception) {
+            var.setValue(view.getNull()); //the object may have been collected
+        }
+        var.setObjectReference(reference);
+        view.convertTypeName(var);
+        return var;
+    }
+    
+    /**
+     * This method returns the debugger's view, set to show objects in the 
+     * current thread.
+     * 
+     * @param vm
+     * @return 
+     */
+    private JDIVariableView getView(VirtualMachine vm) {
+        JDIVariableView view = debugger.getView();
+        view.setThread(debugger.getThreadReference());
+        view.setMachine(vm);
+        return view;
+    }
+    
+    /**
+     * This method returns the virtual machine, if it can count objects, 
+     * and forgets the results being kept if a thread has been suspended or
+     * resumed since they were read, or if the program is not held at all.
+     * 
+     * @return the virtual machine, or null if there is nothing to browse.
+     */
+    private VirtualMachine getMachine() {
+        VirtualMachine vm = debugger == null ? null : debugger.getVirtualMachine();
+        JDIThreadsModel threads = debugger == null ? null : debugger.getThreadsModel();
+        if(vm == null || threads == null) {
+            clear();
+            return null;
+        }
+        if(!vm.canGetInstanceInfo()) {
+            Logger.getLogger(JDIHeapModel.class.getName()).log(Level.INFO, 
+                    "The virtual machine cannot count the objects of a class.");
+            return null;
+        }
+        
+        long now = threads.getGeneration();
+        if(!threads.isHoldingAll()) {
+            clear(); //running threads may change the heap between calls
+        } else if(now != generation) {
+            clear();
+            generation = now;
+        }
+        return vm;
+    }
+    
+    /**
+     * This method returns true if a class matches one of the exclusions.
+     * 
+     * @param name
+     * @return 
+     */
+    private boolean isExcluded(String name) {
+        Iterator<String> iterator = exclusions.iterator();
+        while(iterator.hasNext()) {
+            String next = iterator.next();
+            if(next.endsWith("*")) {
+                if(name.startsWith(next.substring(0, next.length() - 1))) {
+                    return true;
+                }
+            } else if(name.equals(next)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void clear() {
+        counts = null;
+        instances.clear();
+        referrers.clear();
+        generation = -1;
+    }
+    
+    /**
+     * This method sets the classes left out of the counts, as patterns like
+     * java.*.
+     * 
+     * @param exclusions 
+     */
+    public synchronized void setExclusions(Collection<String> exclusions) {
+        this.exclusions.clear();
+        this.exclusions.addAll(exclusions);
+        counts = null;
+    }
+
+    /**
+     * @return the debugger
+     */
+    public JDIDebugger getDebugger() {
+        return debugger;
+    }
+
+    /**
+     * @param debugger the debugger to set
+     */
+    public void setDebugger(JDIDebugger debugger) {
+        this.debugger = debugger;
+    }
+    
+    /**
+     * This class holds the objects read for one request, and the most that
+     * were asked for.
+     */
+    private static class Fetched {
+        private final List<ObjectReference> list;
+        private final long maximum;
+        
+        private Fetched(List<ObjectReference> list, long maximum) {
+            this.list = list;
+            this.maximum = maximum;
+        }
+        
+        /**
+         * This method returns true if these objects hold at least the first
+         * count objects there are, either because that many were asked 
+         * for, or because fewer were found than were asked for.
+         * 
+         * @param count
+         * @return 
+         */
+        private boolean covers(long count) {
+            return maximum == 0 || list.size() < maximum || count <= maximum;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi;
+
+import org.debugger.MonitorContention;
+
+/**
+ * This is an implementation of the monitor contention interface, tied to 
+ * the Java Debugging Interface (JDI).
+ * 
+ * @author Andreas Stefik
+ */
+public class JDIMonitorContention implements MonitorContention {
+    private final String monitorClassName;
+    private final String className;
+    private final int line;
+    private final boolean wait;
+    private long count = 0;
+    private long totalTime = 0;
+    private long maximumTime = 0;
+    
+    JDIMonitorContention(String monitorClassName, String className, int line, boolean wait) {
+        this.monitorClassName = monitorClassName;
+        this.className = className;
+        this.line = line;
+        this.wait = wait;
+    }
+    
+    /**
+     * This method adds one wait.
+     * 
+     * @param time the length of the wait, in nanoseconds.
+     */
+    synchronized void add(long time) {
+        count++;
+        totalTime += time;
+        if(time > maximumTime) {
+            maximumTime = time;
+        }
+    }
+
+    @Override
+    public String getMonitorClassName() {
+        return monitorClassName;
+    }
+
+    @Override
+    public String getClassName() {
+        return className;
+    }
+
+    @Override
+    public int getLine() {
+        return line;
+    }
+
+    @Override
+    public boolean isWait() {
+        return wait;
+    }
+
+    @Override
+    public synchronized long getCount() {
+        return count;
+    }
+
+    @Override
+    public synchronized long getTotalTime() {
+        return totalTime;
+    }
+
+    @Override
+    public synchronized long getMaximumTime() {
+        return maximumTime;
+    }
+}
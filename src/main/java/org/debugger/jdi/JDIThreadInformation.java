@@ -0,0 +1,122 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi;
+
+import com.sun.jdi.ThreadReference;
+import com.sun.jdi.request.EventRequest;
+import org.debugger.ThreadInformation;
+import org.debugger.ThreadState;
+
+/**
+ * This class provides an implementation of ThreadInformation using the Java
+ * Debugging Interface (JDI). Alongside the state of the thread, it remembers
+ * the suspend policy of the event that stopped it, which determines whether
+ * resuming the thread must also resume the rest of the virtual machine.
+ *
+ * @author Andreas Stefik
+ */
+public class JDIThreadInformation implements ThreadInformation {
+    private ThreadReference thread;
+    private String name = "";
+    private ThreadState state = ThreadState.RUNNING;
+    private int suspendPolicy = EventRequest.SUSPEND_NONE;
+    private boolean current = false;
+
+    @Override
+    public long getID() {
+        return thread.uniqueID();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param name the name to set
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public ThreadState getState() {
+        return state;
+    }
+
+    /**
+     * @param state the state to set
+     */
+    public void setState(ThreadState state) {
+        this.state = state;
+    }
+
+    @Override
+    public boolean isCurrent() {
+        return current;
+    }
+
+    /**
+     * @param current the current to set
+     */
+    public void setCurrent(boolean current) {
+        this.current = current;
+    }
+
+    /**
+     * @return the thread
+     */
+    public ThreadReference getThread() {
+        return thread;
+    }
+
+    /**
+     * @param thread the thread to set
+     */
+    public void setThread(ThreadReference thread) {
+        this.thread = thread;
+    }
+
+    /**
+     * This method returns the JDI suspend policy of the event that stopped
+     * this thread, for example EventRequest.SUSPEND_EVENT_THREAD.
+     *
+     * @return the suspendPolicy
+     */
+    public int getSuspendPolicy() {
+        return suspendPolicy;
+    }
+
+    /**
+     * @param suspendPolicy the suspendPolicy to set
+     */
+    public void setSuspendPolicy(int suspendPolicy) {
+        this.suspendPolicy = suspendPolicy;
+    }
+}
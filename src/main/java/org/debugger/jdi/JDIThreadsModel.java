@@ -0,0 +1,314 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi;
+
+import com.sun.jdi.ObjectCollectedException;
+import com.sun.jdi.ThreadReference;
+import com.sun.jdi.VMDisconnectedException;
+import com.sun.jdi.VirtualMachine;
+import com.sun.jdi.request.EventRequest;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import org.debugger.ThreadInformation;
+import org.debugger.ThreadState;
+import org.debugger.ThreadsModel;
+
+/**
+ * This class tracks the state of every thread the debugger has stopped or
+ * is stepping. Threads the debugger has never touched are assumed to be
+ * running, unless the entire virtual machine has been paused.
+ *
+ * The model is updated both from the event dispatching thread and from
+ * whatever thread is driving the debugger, so all access is synchronized.
+ *
+ * @author Andreas Stefik
+ */
+public class JDIThreadsModel implements ThreadsModel {
+    private JDIDebugger debugger;
+    private final HashMap<ThreadReference, JDIThreadInformation> threads = new HashMap<>();
+    private boolean paused = false;
+    private long generation = 0;
+
+    @Override
+    public ThreadInformation[] getThreads() {
+        VirtualMachine machine = debugger.getVirtualMachine();
+        if(machine == null) {
+            return new ThreadInformation[0];
+        }
+        try {
+            List<ThreadReference> all = machine.allThreads();
+            ThreadInformation[] result = new ThreadInformation[all.size()];
+            ThreadReference current = debugger.getThreadReference();
+            Iterator<ThreadReference> iterator = all.iterator();
+            int i = 0;
+            while(iterator.hasNext()) {
+                ThreadReference next = iterator.next();
+                JDIThreadInformation info = new JDIThreadInformation();
+                info.setThread(next);
+                info.setName(next.name());
+                info.setCurrent(next.equals(current));
+                synchronized(this) {
+                    JDIThreadInformation known = threads.get(next);
+                    if(known != null) {
+                        info.setState(known.getState());
+                        info.setSuspendPolicy(known.getSuspendPolicy());
+                    } else if(paused) {
+                        info.setState(ThreadState.SUSPENDED);
+                        info.setSuspendPolicy(EventRequest.SUSPEND_ALL);
+                    }
+                }
+                result[i] = info;
+                i++;
+            }
+            return result;
+        } catch(VMDisconnectedException exception) {
+            return new ThreadInformation[0];
+        }
+    }
+
+    @Override
+    public ThreadInformation getCurrentThread() {
+        ThreadReference current = debugger.getThreadReference();
+        if(current == null) {
+            return null;
+        }
+        JDIThreadInformation info = new JDIThreadInformation();
+        info.setThread(current);
+        info.setName(current.name());
+        info.setState(getState(current));
+        info.setCurrent(true);
+        return info;
+    }
+
+    @Override
+    public void setCurrentThread(ThreadInformation thread) {
+        if(thread instanceof JDIThreadInformation) {
+            debugger.setThreadReference(((JDIThreadInformation) thread).getThread());
+        }
+    }
+
+    @Override
+    public void resume(ThreadInformation thread) {
+        if(thread instanceof JDIThreadInformation) {
+            debugger.resume(((JDIThreadInformation) thread).getThread());
+        }
+    }
+
+    @Override
+    public void suspend(ThreadInformation thread) {
+        if(thread instanceof JDIThreadInformation) {
+            debugger.suspend(((JDIThreadInformation) thread).getThread());
+        }
+    }
+
+    /**
+     * This method returns the state of a thread as known by the debugger.
+     *
+     * @param thread
+     * @return
+     */
+    public synchronized ThreadState getState(ThreadReference thread) {
+        JDIThreadInformation known = threads.get(thread);
+        if(known != null) {
+            return known.getState();
+        } else if(paused) {
+            return ThreadState.SUSPENDED;
+        }
+        return ThreadState.RUNNING;
+    }
+
+    /**
+     * This method records that a thread was stopped by the debugger.
+     *
+     * @param thread
+     * @param state
+     * @param suspendPolicy the JDI suspend policy of the event that stopped
+     * the thread.
+     */
+    public synchronized void suspended(ThreadReference thread, ThreadState state, int suspendPolicy) {
+        JDIThreadInformation info = threads.get(thread);
+        if(info == null) {
+            info = new JDIThreadInformation();
+            info.setThread(thread);
+            threads.put(thread, info);
+        }
+        info.setState(state);
+        info.setSuspendPolicy(suspendPolicy);
+        generation++;
+    }
+
+    /**
+     * This method records that a thread has been resumed with a pending step
+     * request.
+     *
+     * @param thread
+     */
+    public synchronized void stepping(ThreadReference thread) {
+        suspended(thread, ThreadState.STEPPING, EventRequest.SUSPEND_NONE);
+    }
+
+    /**
+     * This method records that a single thread was resumed.
+     *
+     * @param thread
+     */
+    public synchronized void resumed(ThreadReference thread) {
+        threads.remove(thread);
+        generation++;
+    }
+
+    /**
+     * This method records that the entire virtual machine is about to be 
+     * resumed, and must be called before it is. Resuming the virtual 
+     * machine resumes every thread once, so threads stopped by an event 
+     * that suspended only that thread run again as well, unless they were
+     * suspended more than once.
+     */
+    public synchronized void resumedAll() {
+        paused = false;
+        generation++;
+        Iterator<JDIThreadInformation> iterator = threads.values().iterator();
+        while(iterator.hasNext()) {
+            JDIThreadInformation next = iterator.next();
+            if(next.getState().isSuspended() && !isHeldAfterResume(next.getThread())) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * This method returns true if a thread will still be suspended after 
+     * the virtual machine is resumed once.
+     *
+     * @param thread
+     * @return
+     */
+    private boolean isHeldAfterResume(ThreadReference thread) {
+        try {
+            return thread.suspendCount() > 1;
+        } catch(ObjectCollectedException | VMDisconnectedException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * This method records that the entire virtual machine was paused.
+     */
+    public synchronized void pausedAll() {
+        paused = true;
+        generation++;
+    }
+
+    /**
+     * This method returns a number that changes whenever a thread is 
+     * suspended or resumed. Anything read from the program while it is 
+     * held can be kept for as long as this number stays the same.
+     *
+     * @return
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * This method returns true if the entire virtual machine was paused.
+     *
+     * @return
+     */
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * This method returns true if the debugger is holding every thread, 
+     * either because the virtual machine was paused or because an event 
+     * suspended the entire virtual machine.
+     *
+     * @return
+     */
+    public synchronized boolean isHoldingAll() {
+        if(paused) {
+            return true;
+        }
+        Iterator<JDIThreadInformation> iterator = threads.values().iterator();
+        while(iterator.hasNext()) {
+            JDIThreadInformation next = iterator.next();
+            if(next.getState().isSuspended() && next.getSuspendPolicy() == EventRequest.SUSPEND_ALL) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * This method returns true if the thread was stopped by an event that
+     * suspended only that thread, in which case it can be resumed without
+     * resuming anything else.
+     *
+     * @param thread
+     * @return
+     */
+    public synchronized boolean isSuspendedAlone(ThreadReference thread) {
+        JDIThreadInformation known = threads.get(thread);
+        return known != null && known.getState().isSuspended()
+                && known.getSuspendPolicy() == EventRequest.SUSPEND_EVENT_THREAD;
+    }
+
+    /**
+     * This method forgets a thread, for example because it has finished.
+     *
+     * @param thread
+     */
+    public synchronized void removed(ThreadReference thread) {
+        threads.remove(thread);
+    }
+
+    /**
+     * This method forgets all threads.
+     */
+    public synchronized void clear() {
+        threads.clear();
+        paused = false;
+    }
+
+    /**
+     * @return the debugger
+     */
+    public JDIDebugger getDebugger() {
+        return debugger;
+    }
+
+    /**
+     * @param debugger the debugger to set
+     */
+    public void setDebugger(JDIDebugger debugger) {
+        this.debugger = debugger;
+    }
+}
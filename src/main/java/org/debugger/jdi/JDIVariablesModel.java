@@ -37,6 +37,7 @@ import com.sun.jdi.ReferenceType;
 import com.sun.jdi.StackFrame;
 import com.sun.jdi.ThreadReference;
 import com.sun.jdi.Value;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Level;
@@ -47,6 +48,7 @@ import org.debugger.VariablesModel;
 import org.debugger.Watch;
 import org.debugger.filters.LanguageFilter;
 import org.debugger.filters.QuorumFilter;
+import org.debugger.jdi.expressions.ExpressionException;
 import org.debugger.jdi.views.JDIVariableView;
 
 /**
@@ -77,6 +79,11 @@ public class JDIVariablesModel implements VariablesModel {
      * A filter for finding out whether certain variables should be shown.
      */
     private LanguageFilter filter = new QuorumFilter();
+    
+    /**
+     * This evaluates the watch expressions, and keeps them parsed.
+     */
+    private final WatchEvaluator watches = new WatchEvaluator();
 
     @Override
     public Variable[] getChildren(Variable node, int from, int to) {
@@ -164,24 +171,73 @@ public class JDIVariablesModel implements VariablesModel {
      */
     @Override
     public Variable getWatchResult(Watch watch) {
-        synchronized(debugger.getResumeMonitor()) {
-            try {
-                String e = watch.getExpression();
-                if(e.isEmpty()) {
-                    return null;
-                }
-                StackFrame frame = thread.frame(0);
-                LocalVariable local = frame.visibleVariableByName(e);
-                if (local != null) {
-                    JDIVariable var = convert(local, frame);
-                    var.setWatchExpression(true);
-                    return var;
-                }
-            } catch (IncompatibleThreadStateException | AbsentInformationException ex) {
-                Logger.getLogger(JDIVariablesModel.class.getName()).log(Level.SEVERE, null, ex);
+        return getWatchResults(new Watch[] {watch})[0];
+    }
+    
+    /**
+     * This method evaluates every watch in the current stack frame in a 
+     * single pass, so the variables they share are read only once. A watch
+     * is an expression in Quorum syntax, like me:list:size, values[i], or
+     * count > 10 and not done.
+     * 
+     * @param watches
+     * @return the result of each watch, or null if it is empty or could not
+     * be evaluated here.
+     */
+    @Override
+    public Variable[] getWatchResults(Watch[] watches) {
+        Variable[] results = new Variable[watches.length];
+        List<String> sources = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        for(int i = 0; i < watches.length; i++) {
+            String expression = watches[i].getExpression();
+            if(!expression.isEmpty()) {
+                sources.add(expression);
+                positions.add(i);
             }
         }
-        return null;
+        if(sources.isEmpty()) {
+            return results;
+        }
+        
+        Object[] values;
+        if(this.watches.isCalling(sources)) {
+            if(Thread.currentThread() == debugger.getRequestManager()) {
+                return results; //the action's events could never be handled
+            }
+            //an action may hit a breakpoint, which can only be resumed if
+            //the resume monitor is free
+            values = evaluateWatches(sources);
+        } else {
+            synchronized(debugger.getResumeMonitor()) {
+                values = evaluateWatches(sources);
+            }
+        }
+        if(values == null) {
+            return results;
+        }
+        for(int i = 0; i < values.length; i++) {
+            if(!(values[i] instanceof ExpressionException)) {
+                results[positions.get(i)] = convertWatch(sources.get(i), values[i]);
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * This method evaluates watches in the current stack frame.
+     * 
+     * @param sources
+     * @return the values of the watches, or null if the thread is not 
+     * stopped.
+     */
+    private Object[] evaluateWatches(List<String> sources) {
+        if(!canReturnValues()) {
+            return null;
+        }
+        JDIThreadsModel threads = debugger.getThreadsModel();
+        long generation = threads == null ? -1 : threads.getGeneration();
+        return watches.evaluate(sources, thread, generation);
     }
     
     private boolean canReturnValues() {
@@ -231,6 +287,51 @@ public class JDIVariablesModel implements VariablesModel {
         return var;
     }
     
+    /**
+     * This method converts the result of a watch to a JDIVariable. Objects
+     * keep their reference, so that their fields can be shown beneath the
+     * watch.
+     * 
+     * @param expression
+     * @param value the plain Java value the watch evaluated to.
+     * @return 
+     */
+    private JDIVariable convertWatch(String expression, Object value) {
+        JDIVariable var = new JDIVariable();
+        var.setName(expression);
+        if(value instanceof ObjectReference) {
+            ObjectReference reference = (ObjectReference) value;
+            var.setObjectReference(reference);
+            try {
+                var.setTypeName(reference.referenceType().name());
+                view.setThread(thread);
+                var.setValue(view.getValue(reference));
+            } catch(Exception exception) {
+                var.setValue(view.getNull()); //the object may have been collected
+            }
+        } else if(value instanceof Boolean) {
+            var.setTypeName("boolean");
+            var.setValue(value.toString());
+        } else if(value instanceof Long) {
+            var.setTypeName("long");
+            var.setValue(value.toString());
+        } else if(value instanceof Double) {
+            var.setTypeName("double");
+            var.setValue(value.toString());
+        } else if(value instanceof String) {
+            var.setTypeName("java.lang.String");
+            var.setValue("\"" + value + "\"");
+        } else {
+            var.setValue(view.getNull());
+        }
+        if(!var.getTypeName().isEmpty()) {
+            view.convertTypeName(var);
+            var.setName(expression); //the view may rename the variable
+        }
+        var.setWatchExpression(true);
+        return var;
+    }
+    
     
 
     /**
@@ -0,0 +1,206 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi;
+
+import com.sun.jdi.AbsentInformationException;
+import com.sun.jdi.Location;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class counts how many times each location in a program was executed,
+ * for breakpoints armed in counting mode. Each location is given an index
+ * when its breakpoint is armed, and counting a hit is a single atomic 
+ * increment, without locks, so the counts can be read or exported while the
+ * program is still running.
+ * 
+ * The counts can be exported as a heat map of each source file, with one 
+ * entry for each line that was counted, in either CSV or JSON format.
+ * 
+ * @author Andreas Stefik
+ */
+public class LineHitCounts {
+    private static final int SEGMENT_SIZE = 1024;
+    
+    private volatile AtomicLongArray[] segments = new AtomicLongArray[0];
+    private String[] files = new String[SEGMENT_SIZE];
+    private int[] lines = new int[SEGMENT_SIZE];
+    private volatile int size = 0;
+    
+    /**
+     * This method gives a location a counter.
+     * 
+     * @param location
+     * @return the index of the counter.
+     */
+    public synchronized int register(Location location) {
+        String file;
+        try {
+            file = location.sourcePath();
+        } catch (AbsentInformationException ex) {
+            file = location.declaringType().name();
+        }
+        
+        int index = size;
+        if(index == files.length) {
+            String[] newFiles = new String[files.length * 2];
+            System.arraycopy(files, 0, newFiles, 0, files.length);
+            files = newFiles;
+            int[] newLines = new int[lines.length * 2];
+            System.arraycopy(lines, 0, newLines, 0, lines.length);
+            lines = newLines;
+        }
+        if(index / SEGMENT_SIZE == segments.length) {
+            AtomicLongArray[] grown = new AtomicLongArray[segments.length + 1];
+            System.arraycopy(segments, 0, grown, 0, segments.length);
+            grown[segments.length] = new AtomicLongArray(SEGMENT_SIZE);
+            segments = grown;
+        }
+        files[index] = file.intern();
+        lines[index] = location.lineNumber();
+        size = index + 1;
+        return index;
+    }
+    
+    /**
+     * This method counts one hit of a location.
+     * 
+     * @param index the index returned when the location was registered.
+     */
+    public void increment(int index) {
+        segments[index / SEGMENT_SIZE].incrementAndGet(index % SEGMENT_SIZE);
+    }
+    
+    /**
+     * This method returns the number of hits of a location.
+     * 
+     * @param index
+     * @return 
+     */
+    public long getCount(int index) {
+        return segments[index / SEGMENT_SIZE].get(index % SEGMENT_SIZE);
+    }
+    
+    /**
+     * This method returns the number of locations being counted.
+     * 
+     * @return 
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * This method removes all counters.
+     */
+    public synchronized void clear() {
+        segments = new AtomicLongArray[0];
+        files = new String[SEGMENT_SIZE];
+        lines = new int[SEGMENT_SIZE];
+        size = 0;
+    }
+    
+    /**
+     * This method adds the counts of each location on the same line 
+     * together, and sorts them by file and by line.
+     * 
+     * @return 
+     */
+    public synchronized TreeMap<String, TreeMap<Integer, Long>> getHeatMap() {
+        TreeMap<String, TreeMap<Integer, Long>> map = new TreeMap<>();
+        for(int i = 0; i < size; i++) {
+            TreeMap<Integer, Long> file = map.get(files[i]);
+            if(file == null) {
+                file = new TreeMap<>();
+                map.put(files[i], file);
+            }
+            Long count = file.get(lines[i]);
+            long total = getCount(i) + (count == null ? 0 : count);
+            file.put(lines[i], total);
+        }
+        return map;
+    }
+    
+    /**
+     * This method writes the heat map as CSV, with the columns file, line,
+     * and hits.
+     * 
+     * @param writer
+     * @throws IOException 
+     */
+    public void writeCSV(Writer writer) throws IOException {
+        writer.write("file,line,hits\n");
+        Iterator<Map.Entry<String, TreeMap<Integer, Long>>> files = getHeatMap().entrySet().iterator();
+        while(files.hasNext()) {
+            Map.Entry<String, TreeMap<Integer, Long>> file = files.next();
+            String name = file.getKey();
+            if(name.indexOf(',') >= 0 || name.indexOf('"') >= 0) {
+                name = "\"" + name.replace("\"", "\"\"") + "\"";
+            }
+            Iterator<Map.Entry<Integer, Long>> lines = file.getValue().entrySet().iterator();
+            while(lines.hasNext()) {
+                Map.Entry<Integer, Long> line = lines.next();
+                writer.write(name + "," + line.getKey() + "," + line.getValue() + "\n");
+            }
+        }
+        writer.flush();
+    }
+    
+    /**
+     * This method writes the heat map as JSON. The result is an object with
+     * a member for each file, each of which maps line numbers to hits.
+     * 
+     * @param writer
+     * @throws IOException 
+     */
+    public void writeJSON(Writer writer) throws IOException {
+        writer.write("{");
+        Iterator<Map.Entry<String, TreeMap<Integer, Long>>> files = getHeatMap().entrySet().iterator();
+        while(files.hasNext()) {
+            Map.Entry<String, TreeMap<Integer, Long>> file = files.next();
+            String name = file.getKey().replace("\\", "\\\\").replace("\"", "\\\"");
+            writer.write("\n  \"" + name + "\": {");
+            Iterator<Map.Entry<Integer, Long>> lines = file.getValue().entrySet().iterator();
+            while(lines.hasNext()) {
+                Map.Entry<Integer, Long> line = lines.next();
+                writer.write("\"" + line.getKey() + "\": " + line.getValue());
+                if(lines.hasNext()) {
+                    writer.write(", ");
+                }
+            }
+            writer.write(files.hasNext() ? "}," : "}");
+        }
+        writer.write("\n}\n");
+        writer.flush();
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi;
+
+import com.sun.jdi.AbsentInformationException;
+import com.sun.jdi.Location;
+import com.sun.jdi.ReferenceType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * This class indexes the executable locations in a class by line number.
+ * A single line may compile to several locations, for example the condition
+ * and the increment of a loop, or the same line copied into several 
+ * generated methods, so each line maps to an array of locations.
+ * 
+ * The table is built from a single call to allLineLocations and is then
+ * read only, which means it can be shared between threads without locking.
+ * 
+ * @author Andreas Stefik
+ */
+public class LineTable {
+    private static final Location[] NO_LOCATIONS = new Location[0];
+    
+    /**
+     * The line numbers in the class, in ascending order.
+     */
+    private final int[] lines;
+    
+    /**
+     * The locations for each line, parallel to the lines array.
+     */
+    private final Location[][] locations;
+    
+    /**
+     * This constructor creates an empty line table, for classes that have 
+     * no line information.
+     */
+    public LineTable() {
+        lines = new int[0];
+        locations = new Location[0][];
+    }
+    
+    /**
+     * This constructor builds the line table for a class.
+     * 
+     * @param type
+     * @throws AbsentInformationException if the class was compiled without
+     * line information.
+     */
+    public LineTable(ReferenceType type) throws AbsentInformationException {
+        ArrayList<Location> sorted = new ArrayList<>();
+        Iterator<Location> iterator = type.allLineLocations().iterator();
+        while(iterator.hasNext()) {
+            Location next = iterator.next();
+            if(next.lineNumber() >= 0) {
+                sorted.add(next);
+            }
+        }
+        Collections.sort(sorted, new Comparator<Location>() {
+            @Override
+            public int compare(Location a, Location b) {
+                return Integer.compare(a.lineNumber(), b.lineNumber());
+            }
+        });
+        
+        int count = 0;
+        for(int i = 0; i < sorted.size(); i++) {
+            if(i == 0 || sorted.get(i).lineNumber() != sorted.get(i - 1).lineNumber()) {
+                count++;
+            }
+        }
+        
+        lines = new int[count];
+        locations = new Location[count][];
+        int index = 0;
+        int start = 0;
+        for(int i = 1; i <= sorted.size(); i++) {
+            int line = sorted.get(start).lineNumber();
+            if(i == sorted.size() || sorted.get(i).lineNumber() != line) {
+                List<Location> group = sorted.subList(start, i);
+                lines[index] = line;
+                locations[index] = group.toArray(new Location[group.size()]);
+                index++;
+                start = i;
+            }
+        }
+    }
+    
+    /**
+     * This method returns all locations on a given line. If the line has no
+     * executable code, the array is empty.
+     * 
+     * @param line
+     * @return 
+     */
+    public Location[] getLocations(int line) {
+        int index = indexOf(line);
+        if(index < 0) {
+            return NO_LOCATIONS;
+        }
+        return locations[index];
+    }
+    
+    /**
+     * This method returns true if the given line has executable code.
+     * 
+     * @param line
+     * @return 
+     */
+    public boolean hasLine(int line) {
+        return indexOf(line) >= 0;
+    }
+    
+    /**
+     * This method returns the number of distinct lines in the table.
+     * 
+     * @return 
+     */
+    public int getLineCount() {
+        return lines.length;
+    }
+    
+    /**
+     * This method returns the line number at a position in the table. Lines 
+     * are sorted in ascending order.
+     * 
+     * @param index
+     * @return 
+     */
+    public int getLineAt(int index) {
+        return lines[index];
+    }
+    
+    /**
+     * This method returns the locations at a position in the table.
+     * 
+     * @param index
+     * @return 
+     */
+    public Location[] getLocationsAt(int index) {
+        return locations[index];
+    }
+    
+    /**
+     * This method returns the position of a line in the table, or a negative
+     * number if the line has no executable code.
+     * 
+     * @param line
+     * @return 
+     */
+    public int indexOf(int line) {
+        int low = 0;
+        int high = lines.length - 1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            int value = lines[middle];
+            if(value < line) {
+                low = middle + 1;
+            } else if(value > line) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+}
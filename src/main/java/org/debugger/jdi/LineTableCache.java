@@ -0,0 +1,77 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi;
+
+import com.sun.jdi.AbsentInformationException;
+import com.sun.jdi.ReferenceType;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class keeps one LineTable for every class the debugger has asked 
+ * about, so that the line information for a class is only requested from
+ * the virtual machine once. It is shared by breakpoints, run to line, and
+ * anything else that needs to map lines to locations.
+ * 
+ * @author Andreas Stefik
+ */
+public class LineTableCache {
+    private final ConcurrentHashMap<ReferenceType, LineTable> tables = new ConcurrentHashMap<>();
+    
+    /**
+     * This method returns the line table for a class, building it if this is
+     * the first time the class has been asked for. Classes without line 
+     * information get an empty table. This method can safely be called from 
+     * several threads at once.
+     * 
+     * @param type
+     * @return 
+     */
+    public LineTable get(ReferenceType type) {
+        LineTable table = tables.get(type);
+        if(table == null) {
+            try {
+                table = new LineTable(type);
+            } catch (AbsentInformationException ex) {
+                table = new LineTable();
+            }
+            LineTable existing = tables.putIfAbsent(type, table);
+            if(existing != null) {
+                table = existing;
+            }
+        }
+        return table;
+    }
+    
+    /**
+     * This method removes all line tables from the cache.
+     */
+    public void clear() {
+        tables.clear();
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi;
+
+import com.sun.jdi.Location;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.ThreadReference;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.debugger.jdi.expressions.ExpressionException;
+import org.debugger.jdi.views.JDIVariableView;
+
+/**
+ * This class writes the values captured by logpoints to a file. Writes are
+ * buffered, and once the file reaches its maximum size it is rotated: 
+ * log.txt becomes log.txt.1, log.txt.1 becomes log.txt.2, and so on, with 
+ * the oldest file deleted.
+ * 
+ * The log also keeps track of how long the program was paused for each hit,
+ * from the time the event was received to the time the thread was resumed,
+ * which is written at the end of the log when it is closed.
+ * 
+ * @author Andreas Stefik
+ */
+public class LogpointLog {
+    private File file = new File("logpoints.log");
+    private long maximumSize = 10 * 1024 * 1024;
+    private int maximumFiles = 5;
+    private JDIVariableView view;
+    
+    private BufferedWriter writer = null;
+    private long size = 0;
+    
+    private long hits = 0;
+    private long totalPause = 0;
+    private long maximumPause = 0;
+    
+    /**
+     * This method writes one line to the log for a logpoint that was hit.
+     * Values that are objects are written as the view summarizes them, by
+     * type and unique ID, as this runs while the thread is stopped for an 
+     * event, where running code in the program could deadlock it.
+     * 
+     * @param thread the thread that hit the logpoint.
+     * @param location where the logpoint was hit.
+     * @param expressions the text of each expression.
+     * @param values the value of each expression.
+     */
+    public synchronized void write(ThreadReference thread, Location location, 
+            String[] expressions, Object[] values) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(System.currentTimeMillis()).append(' ');
+        builder.append(thread.name()).append(' ');
+        builder.append(location.declaringType().name()).append(':');
+        builder.append(location.lineNumber());
+        for(int i = 0; i < expressions.length; i++) {
+            builder.append(i == 0 ? " " : ", ");
+            builder.append(expressions[i]).append(" = ");
+            builder.append(format(values[i]));
+        }
+        write(builder.toString());
+    }
+    
+    private String format(Object value) {
+        if(value instanceof ExpressionException) {
+            return "<" + ((ExpressionException) value).getMessage() + ">";
+        } else if(value instanceof ObjectReference) {
+            ObjectReference reference = (ObjectReference) value;
+            return view == null ? "#" + reference.uniqueID() : view.getSummary(reference);
+        } else if(value == null) {
+            return view == null ? "null" : view.getNull();
+        } else if(value instanceof String) {
+            return "\"" + value + "\"";
+        }
+        return value.toString();
+    }
+    
+    private void write(String line) {
+        try {
+            if(writer == null) {
+                open();
+            } else if(size >= maximumSize) {
+                rotate();
+            }
+            writer.write(line);
+            writer.newLine();
+            size += line.length() + 1;
+        } catch (IOException ex) {
+            Logger.getLogger(LogpointLog.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+    
+    private void open() throws IOException {
+        size = file.exists() ? file.length() : 0;
+        writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file, true), StandardCharsets.UTF_8), 64 * 1024);
+    }
+    
+    private void rotate() throws IOException {
+        writer.close();
+        writer = null;
+        File oldest = new File(file.getPath() + "." + (maximumFiles - 1));
+        if(oldest.exists()) {
+            oldest.delete();
+        }
+        for(int i = maximumFiles - 2; i >= 1; i--) {
+            File from = new File(file.getPath() + "." + i);
+            if(from.exists()) {
+                from.renameTo(new File(file.getPath() + "." + (i + 1)));
+            }
+        }
+        if(maximumFiles > 1) {
+            file.renameTo(new File(file.getPath() + ".1"));
+        } else {
+            file.delete();
+        }
+        open();
+    }
+    
+    /**
+     * This method records how long a thread was paused for a logpoint.
+     * 
+     * @param nanoseconds 
+     */
+    public synchronized void paused(long nanoseconds) {
+        hits++;
+        totalPause += nanoseconds;
+        if(nanoseconds > maximumPause) {
+            maximumPause = nanoseconds;
+        }
+    }
+    
+    /**
+     * This method writes anything buffered to the file.
+     */
+    public synchronized void flush() {
+        if(writer != null) {
+            try {
+                writer.flush();
+            } catch (IOException ex) {
+                Logger.getLogger(LogpointLog.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+    
+    /**
+     * This method writes the pause statistics to the end of the log, if 
+     * there were any hits, and closes the file. The statistics are reset.
+     */
+    public synchronized void close() {
+        if(hits > 0) {
+            String report = getPauseReport();
+            write(report);
+            Logger.getLogger(LogpointLog.class.getName()).log(Level.INFO, report);
+        }
+        if(writer != null) {
+            try {
+                writer.close();
+            } catch (IOException ex) {
+                Logger.getLogger(LogpointLog.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            writer = null;
+        }
+        hits = 0;
+        totalPause = 0;
+        maximumPause = 0;
+    }
+    
+    /**
+     * This method returns a summary of how long the program was paused by
+     * logpoints.
+     * 
+     * @return 
+     */
+    public synchronized String getPauseReport() {
+        return "Logpoint hits: " + hits + ", average pause: " + getAveragePause() / 1000 
+                + " microseconds, maximum pause: " + maximumPause / 1000 
+                + " microseconds, total pause: " + totalPause / 1000000 + " milliseconds";
+    }
+    
+    /**
+     * @return the number of times a logpoint was hit
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+    
+    /**
+     * @return the average pause for a hit, in nanoseconds
+     */
+    public synchronized long getAveragePause() {
+        return hits == 0 ? 0 : totalPause / hits;
+    }
+    
+    /**
+     * @return the longest pause for a hit, in nanoseconds
+     */
+    public synchronized long getMaximumPause() {
+        return maximumPause;
+    }
+    
+    /**
+     * @return the total time paused for all hits, in nanoseconds
+     */
+    public synchronized long getTotalPause() {
+        return totalPause;
+    }
+    
+    /**
+     * @return the file being written to
+     */
+    public synchronized File getFile() {
+        return file;
+    }
+    
+    /**
+     * This method changes the file being written to. Any file already open
+     * is closed first.
+     * 
+     * @param file the file to set
+     */
+    public synchronized void setFile(File file) {
+        if(writer != null) {
+            close();
+        }
+        this.file = file;
+    }
+    
+    /**
+     * @return the size, in bytes, at which the file is rotated
+     */
+    public synchronized long getMaximumSize() {
+        return maximumSize;
+    }
+    
+    /**
+     * @param maximumSize the size, in bytes, at which the file is rotated
+     */
+    public synchronized void setMaximumSize(long maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+    
+    /**
+     * @return the number of files kept, including the current one
+     */
+    public synchronized int getMaximumFiles() {
+        return maximumFiles;
+    }
+    
+    /**
+     * @param maximumFiles the number of files kept, including the current one
+     */
+    public synchronized void setMaximumFiles(int maximumFiles) {
+        this.maximumFiles = maximumFiles;
+    }
+    
+    /**
+     * @param view the view used to write objects
+     */
+    public synchronized void setView(JDIVariableView view) {
+        this.view = view;
+    }
+}
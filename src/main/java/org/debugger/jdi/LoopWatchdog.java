@@ -0,0 +1,386 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi;
+
+import com.sun.jdi.AbsentInformationException;
+import com.sun.jdi.IncompatibleThreadStateException;
+import com.sun.jdi.LocalVariable;
+import com.sun.jdi.Location;
+import com.sun.jdi.Method;
+import com.sun.jdi.ObjectCollectedException;
+import com.sun.jdi.ThreadReference;
+import com.sun.jdi.VMDisconnectedException;
+import com.sun.jdi.Value;
+import com.sun.jdi.VirtualMachine;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import org.debugger.filters.LanguageFilter;
+import org.debugger.jdi.events.JDIDebuggerLoopEvent;
+import org.debugger.jdi.views.JDIVariableView;
+
+/**
+ * This class watches for threads stuck in a loop. If the program runs for 
+ * longer than a threshold without stopping at a breakpoint or step, each 
+ * running thread is sampled several times. Threads that are waiting, 
+ * sleeping, or blocked on a monitor are not sampled. A thread whose samples
+ * all land in the same action, at the same depth, on a few lines that 
+ * repeat, at more than one place in the code, is reported to listeners 
+ * with a loop event, along with the variables that changed between 
+ * samples, as these are likely to control the loop.
+ * 
+ * Only the top frame the language filter allows is sampled, so a Quorum 
+ * loop that calls into the libraries is still found in the Quorum code. 
+ * Each thread is suspended on its own, briefly, to take a sample, and its
+ * variables are read as the view summarizes them, as no code can be run on
+ * a thread that was not stopped by an event. While the debugger holds the
+ * program, for example at a breakpoint, the program is not running, so the
+ * clock does not advance.
+ * 
+ * @author Andreas Stefik
+ */
+public class LoopWatchdog implements Runnable {
+    private JDIDebugger debugger;
+    private VirtualMachine virtualMachine;
+    private long threshold = 5000;
+    private int samples = 8;
+    private long sampleInterval = 50;
+    private volatile long lastActivity = System.nanoTime();
+    private volatile boolean running = false;
+    private Thread thread = null;
+    
+    /**
+     * This method begins watching the program in the debugger.
+     * 
+     * @param debugger 
+     */
+    public synchronized void start(JDIDebugger debugger) {
+        if(running) {
+            return;
+        }
+        this.debugger = debugger;
+        this.virtualMachine = debugger.getVirtualMachine();
+        lastActivity = System.nanoTime();
+        running = true;
+        thread = new Thread(this, "Loop Watchdog");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * This method stops watching.
+     */
+    public void stop() {
+        Thread copy;
+        synchronized(this) {
+            running = false;
+            copy = thread;
+            thread = null;
+        }
+        if(copy != null && copy != Thread.currentThread()) {
+            copy.interrupt();
+            try {
+                copy.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /**
+     * This method tells the watchdog the program has stopped at a 
+     * breakpoint or step, which restarts the clock.
+     */
+    public void activity() {
+        lastActivity = System.nanoTime();
+    }
+    
+    @Override
+    public void run() {
+        while(running) {
+            try {
+                Thread.sleep(Math.min(getThreshold(), 250));
+                JDIThreadsModel threads = debugger.getThreadsModel();
+                if(threads != null && threads.isHoldingAll()) {
+                    activity();
+                } else if(System.nanoTime() - lastActivity >= getThreshold() * 1000000) {
+                    check(threads);
+                    activity();
+                }
+            } catch (InterruptedException ex) {
+                return;
+            } catch (VMDisconnectedException ex) {
+                running = false;
+            }
+        }
+    }
+    
+    /**
+     * This method samples every running thread and reports those that are
+     * looping.
+     * 
+     * @param threads
+     * @throws InterruptedException 
+     */
+    private void check(JDIThreadsModel threads) throws InterruptedException {
+        List<ThreadReference> all = virtualMachine.allThreads();
+        int count = getSamples();
+        Sample[][] taken = new Sample[all.size()][count];
+        for(int i = 0; i < count; i++) {
+            if(i > 0) {
+                Thread.sleep(getSampleInterval());
+            }
+            for(int j = 0; j < all.size(); j++) {
+                ThreadReference next = all.get(j);
+                if(threads != null && threads.getState(next).isSuspended()) {
+                    continue;
+                }
+                if(!isRunning(next)) {
+                    continue; //an idle thread is not looping
+                }
+                taken[j][i] = sample(next);
+            }
+        }
+        
+        VirtualMachineRequestManager manager = debugger.getRequestManager();
+        for(int j = 0; j < all.size(); j++) {
+            JDIDebuggerLoopEvent event = findLoop(all.get(j), taken[j]);
+            if(event != null && manager != null) {
+                manager.fireEvent(event);
+            }
+        }
+    }
+    
+    /**
+     * This method returns true if a thread is running code, rather than 
+     * waiting, sleeping, or blocked on a monitor.
+     * 
+     * @param thread
+     * @return 
+     */
+    private boolean isRunning(ThreadReference thread) {
+        try {
+            return thread.status() == ThreadReference.THREAD_STATUS_RUNNING;
+        } catch (ObjectCollectedException ex) {
+            return false;
+        }
+    }
+    
+    /**
+     * This method suspends a thread and records its top frame, or returns 
+     * null if it has none the filter allows.
+     * 
+     * @param thread
+     * @return 
+     */
+    private Sample sample(ThreadReference thread) {
+        thread.suspend();
+        try {
+            List<com.sun.jdi.StackFrame> frames = thread.frames();
+            LanguageFilter filter = debugger.getFilter();
+            for(int i = 0; i < frames.size(); i++) {
+                com.sun.jdi.StackFrame frame = frames.get(i);
+                Location location = frame.location();
+                if(filter != null) {
+                    JDIStackFrame converted = new JDIStackFrame();
+                    converted.setMethodName(location.method().name());
+                    converted.setLine(location.lineNumber());
+                    if(!filter.isValidStackFrame(converted)) {
+                        continue;
+                    }
+                }
+                Sample sample = new Sample(location, frames.size() - i);
+                readVariables(frame, sample);
+                return sample;
+            }
+        } catch (IncompatibleThreadStateException | ObjectCollectedException ex) {
+            //the thread is not running Java code
+        } finally {
+            thread.resume();
+        }
+        return null;
+    }
+    
+    private void readVariables(com.sun.jdi.StackFrame frame, Sample sample) {
+        List<LocalVariable> visible;
+        try {
+            visible = frame.visibleVariables();
+        } catch (AbsentInformationException ex) {
+            return;
+        }
+        JDIVariableView view = debugger.getView();
+        Iterator<Map.Entry<LocalVariable, Value>> iterator = frame.getValues(visible).entrySet().iterator();
+        while(iterator.hasNext()) {
+            Map.Entry<LocalVariable, Value> next = iterator.next();
+            Value value = next.getValue();
+            String name = next.getKey().name();
+            String text;
+            if(view == null) {
+                text = String.valueOf(value);
+            } else {
+                name = view.getVariableName(name);
+                text = view.getSummary(value);
+            }
+            sample.names.add(name);
+            sample.values.add(text);
+        }
+    }
+    
+    /**
+     * This method decides whether the samples of a thread show a loop. They
+     * must all be in the same method at the same depth, at least one line
+     * must have been seen more than once, and they must not all be at the
+     * same place in the code, as a thread blocked in native code, for 
+     * example reading from a socket, is reported as running but never 
+     * moves.
+     * 
+     * @param thread
+     * @param taken
+     * @return the event to report, or null if the thread is not looping.
+     */
+    private JDIDebuggerLoopEvent findLoop(ThreadReference thread, Sample[] taken) {
+        Sample first = taken[0];
+        if(first == null) {
+            return null;
+        }
+        Method method = first.location.method();
+        TreeSet<Integer> lines = new TreeSet<>();
+        boolean moved = false;
+        for(int i = 0; i < taken.length; i++) {
+            if(taken[i] == null || taken[i].depth != first.depth 
+                    || !taken[i].location.method().equals(method)) {
+                return null;
+            }
+            lines.add(taken[i].location.lineNumber());
+            moved = moved || taken[i].location.codeIndex() != first.location.codeIndex();
+        }
+        if(lines.size() >= taken.length || !moved) {
+            return null;
+        }
+        
+        //the variables that changed are likely to control the loop
+        Sample last = taken[taken.length - 1];
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<String> values = new ArrayList<>();
+        for(int i = 0; i < last.names.size(); i++) {
+            String name = last.names.get(i);
+            String value = last.values.get(i);
+            for(int j = 0; j < taken.length - 1; j++) {
+                int index = taken[j].names.indexOf(name);
+                if(index >= 0 && !taken[j].values.get(index).equals(value)) {
+                    names.add(name);
+                    values.add(value);
+                    break;
+                }
+            }
+        }
+        if(names.isEmpty()) {
+            names.addAll(last.names);
+            values.addAll(last.values);
+        }
+        
+        JDIDebuggerLoopEvent event = new JDIDebuggerLoopEvent();
+        event.setSource(method.declaringType().name());
+        event.setMethodName(method.name());
+        event.setLine(lines.first());
+        event.setLastLine(lines.last());
+        event.setThreadName(thread.name());
+        event.setVariables(names.toArray(new String[names.size()]), 
+                values.toArray(new String[values.size()]));
+        return event;
+    }
+    
+    /**
+     * @return the time the program must run without stopping before it is
+     * sampled, in milliseconds
+     */
+    public synchronized long getThreshold() {
+        return threshold;
+    }
+    
+    /**
+     * @param threshold the time the program must run without stopping 
+     * before it is sampled, in milliseconds
+     */
+    public synchronized void setThreshold(long threshold) {
+        this.threshold = threshold;
+    }
+    
+    /**
+     * @return the number of samples taken of each thread
+     */
+    public synchronized int getSamples() {
+        return samples;
+    }
+    
+    /**
+     * @param samples the number of samples taken of each thread, at least two
+     */
+    public synchronized void setSamples(int samples) {
+        this.samples = Math.max(2, samples);
+    }
+    
+    /**
+     * @return the time between samples, in milliseconds
+     */
+    public synchronized long getSampleInterval() {
+        return sampleInterval;
+    }
+    
+    /**
+     * @param sampleInterval the time between samples, in milliseconds
+     */
+    public synchronized void setSampleInterval(long sampleInterval) {
+        this.sampleInterval = sampleInterval;
+    }
+    
+    /**
+     * @return whether the watchdog is running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+    
+    /**
+     * This class holds one sample of a thread.
+     */
+    private static class Sample {
+        private final Location location;
+        private final int depth;
+        private final ArrayList<String> names = new ArrayList<>();
+        private final ArrayList<String> values = new ArrayList<>();
+        
+        Sample(Location location, int depth) {
+            this.location = location;
+            this.depth = depth;
+        }
+    }
+}
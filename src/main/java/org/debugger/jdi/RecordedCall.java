@@ -0,0 +1,117 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi;
+
+/**
+ * This class describes one completed call recorded by the call tree 
+ * recorder: which method was called, on which thread, by which call, and
+ * when it started and ended.
+ * 
+ * @author Andreas Stefik
+ */
+public class RecordedCall {
+    private final long id;
+    private final long parent;
+    private final long threadID;
+    private final String methodName;
+    private final int depth;
+    private final long start;
+    private final long end;
+    private final String returnValue;
+    
+    RecordedCall(long id, long parent, long threadID, String methodName, int depth, 
+            long start, long end, String returnValue) {
+        this.id = id;
+        this.parent = parent;
+        this.threadID = threadID;
+        this.methodName = methodName;
+        this.depth = depth;
+        this.start = start;
+        this.end = end;
+        this.returnValue = returnValue;
+    }
+    
+    /**
+     * @return the number of the call, unique within a recording
+     */
+    public long getID() {
+        return id;
+    }
+    
+    /**
+     * @return the number of the call that made this one, or -1 if it was 
+     * the first call recorded on its thread.
+     */
+    public long getParent() {
+        return parent;
+    }
+    
+    /**
+     * @return the unique ID of the thread the call was made on
+     */
+    public long getThreadID() {
+        return threadID;
+    }
+    
+    /**
+     * @return the fully qualified name of the method, for example 
+     * quorum.Main.Main
+     */
+    public String getMethodName() {
+        return methodName;
+    }
+    
+    /**
+     * @return the number of recorded calls below this one on its thread
+     */
+    public int getDepth() {
+        return depth;
+    }
+    
+    /**
+     * @return the time the call started, in nanoseconds
+     */
+    public long getStart() {
+        return start;
+    }
+    
+    /**
+     * @return the time the call ended, in nanoseconds
+     */
+    public long getEnd() {
+        return end;
+    }
+    
+    /**
+     * @return the value the call returned, or null if it returned nothing
+     */
+    public String getReturnValue() {
+        return returnValue;
+    }
+}
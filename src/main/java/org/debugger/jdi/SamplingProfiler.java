@@ -0,0 +1,383 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi;
+
+import com.sun.jdi.IncompatibleThreadStateException;
+import com.sun.jdi.Location;
+import com.sun.jdi.Method;
+import com.sun.jdi.ObjectCollectedException;
+import com.sun.jdi.ThreadReference;
+import com.sun.jdi.VMDisconnectedException;
+import com.sun.jdi.VirtualMachine;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.debugger.filters.LanguageFilter;
+import org.debugger.jdi.views.JDIVariableView;
+
+/**
+ * This class is a sampling profiler. At a fixed rate, it suspends the 
+ * program, records the call stack of every thread, and resumes it. The 
+ * stacks are added to a trie, where each path from the root is a stack and
+ * each node counts the samples that ended there, which can be written out as
+ * collapsed stacks, one per line, ready for flame graph tools.
+ * 
+ * Frames are filtered with the language filter and named in the style of 
+ * the language, so a Quorum program is profiled in terms of its own classes
+ * and actions. Threads the debugger is holding, for example at a breakpoint,
+ * are not sampled, as they are not running.
+ * 
+ * Sampling has a cost, so the time the program is suspended for each sample
+ * is measured and can be reported alongside the profile.
+ * 
+ * @author Andreas Stefik
+ */
+public class SamplingProfiler implements Runnable {
+    private JDIDebugger debugger;
+    private VirtualMachine virtualMachine;
+    private long interval = 10;
+    private boolean suspendingThreads = false;
+    private volatile boolean running = false;
+    private Thread thread = null;
+    
+    private final HashMap<Method, Integer> frameIndices = new HashMap<>();
+    private final ArrayList<String> frameNames = new ArrayList<>();
+    private final Node root = new Node();
+    
+    private long samples = 0;
+    private long totalPause = 0;
+    private long maximumPause = 0;
+    
+    /**
+     * This method begins sampling the program in the debugger.
+     * 
+     * @param debugger 
+     */
+    public synchronized void start(JDIDebugger debugger) {
+        if(running) {
+            return;
+        }
+        this.debugger = debugger;
+        this.virtualMachine = debugger.getVirtualMachine();
+        running = true;
+        thread = new Thread(this, "Sampling Profiler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * This method stops sampling. The profile taken so far is kept.
+     */
+    public void stop() {
+        Thread copy;
+        synchronized(this) {
+            running = false;
+            copy = thread;
+            thread = null;
+        }
+        if(copy != null && copy != Thread.currentThread()) {
+            copy.interrupt();
+            try {
+                copy.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    @Override
+    public void run() {
+        while(running) {
+            try {
+                Thread.sleep(interval);
+                sample();
+            } catch (InterruptedException ex) {
+                return;
+            } catch (VMDisconnectedException ex) {
+                running = false;
+            }
+        }
+    }
+    
+    /**
+     * This method takes one sample of every running thread.
+     */
+    private void sample() {
+        JDIThreadsModel threads = debugger.getThreadsModel();
+        if(threads != null && threads.isHoldingAll()) {
+            return;
+        }
+        
+        ArrayList<int[]> stacks = new ArrayList<>();
+        long start = System.nanoTime();
+        if(suspendingThreads) {
+            Iterator<ThreadReference> iterator = virtualMachine.allThreads().iterator();
+            while(iterator.hasNext()) {
+                ThreadReference next = iterator.next();
+                if(isHeld(threads, next)) {
+                    continue;
+                }
+                next.suspend();
+                try {
+                    addStack(stacks, next);
+                } finally {
+                    next.resume();
+                }
+            }
+        } else {
+            virtualMachine.suspend();
+            try {
+                Iterator<ThreadReference> iterator = virtualMachine.allThreads().iterator();
+                while(iterator.hasNext()) {
+                    ThreadReference next = iterator.next();
+                    if(!isHeld(threads, next)) {
+                        addStack(stacks, next);
+                    }
+                }
+            } finally {
+                virtualMachine.resume();
+            }
+        }
+        long pause = System.nanoTime() - start;
+        
+        synchronized(this) {
+            samples++;
+            totalPause += pause;
+            if(pause > maximumPause) {
+                maximumPause = pause;
+            }
+            Iterator<int[]> iterator = stacks.iterator();
+            while(iterator.hasNext()) {
+                add(iterator.next());
+            }
+        }
+    }
+    
+    private boolean isHeld(JDIThreadsModel threads, ThreadReference thread) {
+        return threads != null && threads.getState(thread).isSuspended();
+    }
+    
+    /**
+     * This method reads the stack of a suspended thread, keeping only the
+     * frames the language filter allows, outermost first.
+     * 
+     * @param stacks
+     * @param thread 
+     */
+    private void addStack(List<int[]> stacks, ThreadReference thread) {
+        List<com.sun.jdi.StackFrame> frames;
+        try {
+            frames = thread.frames();
+        } catch (IncompatibleThreadStateException | ObjectCollectedException ex) {
+            return;
+        }
+        LanguageFilter filter = debugger.getFilter();
+        int[] stack = new int[frames.size()];
+        int size = 0;
+        for(int i = frames.size() - 1; i >= 0; i--) {
+            Location location = frames.get(i).location();
+            if(filter != null) {
+                JDIStackFrame frame = new JDIStackFrame();
+                frame.setMethodName(location.method().name());
+                frame.setLine(location.lineNumber());
+                if(!filter.isValidStackFrame(frame)) {
+                    continue;
+                }
+            }
+            stack[size] = getFrame(location.method());
+            size++;
+        }
+        if(size > 0) {
+            int[] trimmed = new int[size];
+            System.arraycopy(stack, 0, trimmed, 0, size);
+            stacks.add(trimmed);
+        }
+    }
+    
+    private synchronized int getFrame(Method method) {
+        Integer index = frameIndices.get(method);
+        if(index == null) {
+            index = frameNames.size();
+            String type = method.declaringType().name();
+            JDIVariableView view = debugger.getView();
+            if(view != null) {
+                type = view.getObjectName(type);
+            }
+            //semicolons separate frames in the collapsed format
+            frameNames.add((type + ":" + method.name()).replace(';', '_'));
+            frameIndices.put(method, index);
+        }
+        return index;
+    }
+    
+    private void add(int[] stack) {
+        Node node = root;
+        for(int i = 0; i < stack.length; i++) {
+            Node child = node.children.get(stack[i]);
+            if(child == null) {
+                child = new Node();
+                node.children.put(stack[i], child);
+            }
+            node = child;
+        }
+        node.count++;
+    }
+    
+    /**
+     * This method writes the profile as collapsed stacks: one line for each
+     * distinct stack, with its frames separated by semicolons, outermost 
+     * first, followed by a space and the number of samples.
+     * 
+     * @param writer
+     * @throws IOException 
+     */
+    public synchronized void writeCollapsed(Writer writer) throws IOException {
+        write(writer, root, new StringBuilder());
+        writer.flush();
+    }
+    
+    private void write(Writer writer, Node node, StringBuilder path) throws IOException {
+        if(node.count > 0) {
+            writer.write(path.toString());
+            writer.write(" " + node.count + "\n");
+        }
+        Iterator<Map.Entry<Integer, Node>> iterator = node.children.entrySet().iterator();
+        while(iterator.hasNext()) {
+            Map.Entry<Integer, Node> next = iterator.next();
+            int length = path.length();
+            if(length > 0) {
+                path.append(';');
+            }
+            path.append(frameNames.get(next.getKey()));
+            write(writer, next.getValue(), path);
+            path.setLength(length);
+        }
+    }
+    
+    /**
+     * This method returns a summary of how long the program was suspended
+     * to take samples.
+     * 
+     * @return 
+     */
+    public synchronized String getPauseReport() {
+        long average = samples == 0 ? 0 : totalPause / samples;
+        return "Samples: " + samples + ", average pause: " + average / 1000 
+                + " microseconds, maximum pause: " + maximumPause / 1000 
+                + " microseconds, total pause: " + totalPause / 1000000 + " milliseconds";
+    }
+    
+    /**
+     * @return the number of samples taken
+     */
+    public synchronized long getSamples() {
+        return samples;
+    }
+    
+    /**
+     * @return the average time the program was suspended per sample, in 
+     * nanoseconds
+     */
+    public synchronized long getAveragePause() {
+        return samples == 0 ? 0 : totalPause / samples;
+    }
+    
+    /**
+     * @return the longest time the program was suspended for a sample, in
+     * nanoseconds
+     */
+    public synchronized long getMaximumPause() {
+        return maximumPause;
+    }
+    
+    /**
+     * This method removes the profile taken so far.
+     */
+    public synchronized void clear() {
+        root.children.clear();
+        root.count = 0;
+        samples = 0;
+        totalPause = 0;
+        maximumPause = 0;
+    }
+    
+    /**
+     * @return the time between samples, in milliseconds
+     */
+    public synchronized long getInterval() {
+        return interval;
+    }
+    
+    /**
+     * @param interval the time between samples, in milliseconds
+     */
+    public synchronized void setInterval(long interval) {
+        this.interval = interval;
+    }
+    
+    /**
+     * @return whether each thread is suspended on its own to be sampled,
+     * rather than suspending the entire virtual machine
+     */
+    public synchronized boolean isSuspendingThreads() {
+        return suspendingThreads;
+    }
+    
+    /**
+     * Suspending threads one at a time keeps each pause short, as the rest 
+     * of the program keeps running, but takes more requests per sample and 
+     * the stacks are not all from the same moment.
+     * 
+     * @param suspendingThreads whether each thread is suspended on its own
+     */
+    public synchronized void setSuspendingThreads(boolean suspendingThreads) {
+        this.suspendingThreads = suspendingThreads;
+    }
+    
+    /**
+     * @return whether the profiler is sampling
+     */
+    public boolean isRunning() {
+        return running;
+    }
+    
+    /**
+     * This class is a node in the trie of stacks.
+     */
+    private static class Node {
+        private final HashMap<Integer, Node> children = new HashMap<>();
+        private long count = 0;
+    }
+}
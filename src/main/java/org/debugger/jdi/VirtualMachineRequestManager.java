@@ -46,8 +46,15 @@ import com.sun.jdi.event.EventIterator;
 import com.sun.jdi.event.EventSet;
 import com.sun.jdi.event.LocatableEvent;
 import com.sun.jdi.event.ExceptionEvent;
+import com.sun.jdi.event.MethodEntryEvent;
+import com.sun.jdi.event.MethodExitEvent;
 import com.sun.jdi.event.ModificationWatchpointEvent;
+import com.sun.jdi.event.MonitorContendedEnterEvent;
+import com.sun.jdi.event.MonitorContendedEnteredEvent;
+import com.sun.jdi.event.MonitorWaitEvent;
+import com.sun.jdi.event.MonitorWaitedEvent;
 import com.sun.jdi.event.StepEvent;
+import com.sun.jdi.event.ThreadDeathEvent;
 import com.sun.jdi.event.ThreadStartEvent;
 import com.sun.jdi.event.VMDeathEvent;
 import com.sun.jdi.event.VMStartEvent;
@@ -57,9 +64,11 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.debugger.DebuggerListener;
 import org.debugger.StackFrame;
+import org.debugger.ThreadState;
 import org.debugger.jdi.events.JDIDebuggerBreakpointEvent;
 import org.debugger.jdi.events.JDIDebuggerExceptionEvent;
 import org.debugger.jdi.events.JDIDebuggerLocationEvent;
+import org.debugger.jdi.events.JDIDebuggerLoopEvent;
 import org.debugger.jdi.events.JDIDebuggerStartEvent;
 import org.debugger.jdi.events.JDIDebuggerStepEvent;
 import org.debugger.jdi.events.JDIDebuggerStopEvent;
@@ -90,12 +99,68 @@ public class VirtualMachineRequestManager extends Thread {
         while (connected) {
             try {
                 EventSet set = virtualMachine.eventQueue().remove();
+                long received = System.nanoTime();
                 EventIterator eventIterator = set.eventIterator();
+                boolean skipped = false;
+                boolean logged = false;
+                boolean stopped = false;
                 while (eventIterator.hasNext()) {
                     Event next = eventIterator.next();
+                    if(next instanceof BreakpointEvent) {
+                        BreakpointEvent hit = (BreakpointEvent) next;
+                        BreakpointManager manager = debugger.getBreakpointManager();
+                        //tracing, coverage, logpoints, and breakpoints whose
+                        //condition is false, are never reported
+                        if(debugger.getTrace().record(hit)) {
+                            skipped = true;
+                            continue;
+                        } else if(debugger.getCoverage().covered(hit)) {
+                            skipped = true;
+                            continue;
+                        } else if(!manager.shouldStop(hit)) {
+                            skipped = true;
+                            logged = logged || manager.isLogpoint(hit);
+                            continue;
+                        }
+                        stopped = true;
+                        debugger.getLoopWatchdog().activity();
+                    } else if(next instanceof StepEvent || next instanceof ExceptionEvent) {
+                        stopped = true;
+                        debugger.getLoopWatchdog().activity();
+                    } else if(next instanceof MethodEntryEvent) {
+                        if(debugger.getCallTree().entered((MethodEntryEvent) next)) {
+                            continue;
+                        }
+                    } else if(next instanceof MethodExitEvent) {
+                        if(debugger.getCallTree().exited((MethodExitEvent) next)) {
+                            continue;
+                        }
+                    } else if(next instanceof ModificationWatchpointEvent) {
+                        //field history never suspends, nor is it reported
+                        if(debugger.getFieldHistory().record((ModificationWatchpointEvent) next)) {
+                            continue;
+                        }
+                        skipped = true;
+                    } else if(next instanceof MonitorContendedEnterEvent || next instanceof MonitorContendedEnteredEvent
+                            || next instanceof MonitorWaitEvent || next instanceof MonitorWaitedEvent) {
+                        JDIConcurrencyModel concurrency = debugger.getConcurrencyModel();
+                        if(concurrency != null && concurrency.record(next)) {
+                            continue;
+                        }
+                    } else if(next instanceof ClassPrepareEvent) {
+                        //the loading thread is held only until the class 
+                        //has been handled
+                        skipped = true;
+                    }
                     JDIDebuggerEvent event = convert(next);
                     fireEvent(event);
                 }
+                if(skipped && !stopped) {
+                    set.resume();
+                    if(logged) {
+                        debugger.getBreakpointManager().getLogpointLog().paused(System.nanoTime() - received);
+                    }
+                }
             } catch (InterruptedException ex) {
             } catch (VMDisconnectedException ex) {
                 connected = false;
@@ -131,23 +196,39 @@ public class VirtualMachineRequestManager extends Thread {
             Value current = mod.valueCurrent();
             Value newValue = mod.valueToBe();
             output = "Field: " + typeName + " " + name + ", Current: " + current + ", new: " + newValue;
-            virtualMachine.resume();
         } else if(event instanceof VMStartEvent) {
         } else if(event instanceof VMDeathEvent) {
             VMDeathEvent eve = (VMDeathEvent) event;
+            debugger.getBreakpointManager().getLogpointLog().flush();
             debug = new JDIDebuggerStopEvent();
         } else if(event instanceof StepEvent) {
             StepEvent eve = (StepEvent) event;
             debug = new JDIDebuggerStepEvent();
             setLIneInformation(eve, (JDIDebuggerStepEvent) debug);
             ThreadReference thread = eve.thread();
+            suspended(thread, ThreadState.SUSPENDED_AT_STEP, eve.request().suspendPolicy());
             debugger.setThreadReference(thread);
         } else if(event instanceof BreakpointEvent) {
             BreakpointEvent eve = (BreakpointEvent) event;
+            debugger.getBreakpointManager().hit(eve);
             debug = new JDIDebuggerBreakpointEvent();
             setLIneInformation(eve, (JDIDebuggerBreakpointEvent) debug);   
             ThreadReference thread = eve.thread();
+            suspended(thread, ThreadState.SUSPENDED_AT_BREAKPOINT, 
+                    debugger.getBreakpointManager().getSuspendPolicy(eve));
             debugger.setThreadReference(thread);
+        } else if(event instanceof ThreadDeathEvent) {
+            ThreadDeathEvent eve = (ThreadDeathEvent) event;
+            JDIThreadsModel threads = debugger.getThreadsModel();
+            if(threads != null) {
+                threads.removed(eve.thread());
+            }
+            debugger.getCallTree().removed(eve.thread());
+            JDIConcurrencyModel concurrency = debugger.getConcurrencyModel();
+            if(concurrency != null) {
+                concurrency.removed(eve.thread());
+            }
+            debugger.getTrace().removed(eve.thread());
         } else if (event instanceof ExceptionEvent) {
             ExceptionEvent eve = (ExceptionEvent) event;
             JDIDebuggerExceptionEvent exceptionEvent = new JDIDebuggerExceptionEvent();
@@ -165,6 +246,7 @@ public class VirtualMachineRequestManager extends Thread {
                     debug = null;
                     exception.virtualMachine().resume(); //just ignore these
                 } else {
+                    suspended(eve.thread(), ThreadState.SUSPENDED_AT_EXCEPTION, eve.request().suspendPolicy());
                     List<Method> methods = exceptionType.methodsByName("getStackTrace");
                     Field messageField = exceptionType.fieldByName("errorMessage");
                     if(exception != null && messageField != null && exception.getValue(messageField) != null) {
@@ -193,6 +275,21 @@ public class VirtualMachineRequestManager extends Thread {
         return debug;
     }
     
+    /**
+     * This method records that a thread was stopped by an event, so that it
+     * can later be resumed according to the event's suspend policy.
+     * 
+     * @param thread
+     * @param state
+     * @param suspendPolicy 
+     */
+    private void suspended(ThreadReference thread, ThreadState state, int suspendPolicy) {
+        JDIThreadsModel threads = debugger.getThreadsModel();
+        if(threads != null) {
+            threads.suspended(thread, state, suspendPolicy);
+        }
+    }
+    
     private void setLIneInformation(LocatableEvent event, JDIDebuggerLocationEvent jdi) {
         Location location = event.location();
         int line = location.lineNumber();
@@ -234,6 +331,9 @@ public class VirtualMachineRequestManager extends Thread {
         } else if(event instanceof JDIDebuggerExceptionEvent) {
             JDIDebuggerExceptionEvent eve = (JDIDebuggerExceptionEvent) event;
             listener.accept(eve);
+        } else if(event instanceof JDIDebuggerLoopEvent) {
+            JDIDebuggerLoopEvent eve = (JDIDebuggerLoopEvent) event;
+            listener.accept(eve);
         }
     }
     /**
@@ -0,0 +1,227 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi;
+
+import com.sun.jdi.IncompatibleThreadStateException;
+import com.sun.jdi.ThreadReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.debugger.jdi.expressions.CompiledExpression;
+import org.debugger.jdi.expressions.ExpressionException;
+import org.debugger.jdi.expressions.ExpressionParser;
+
+/**
+ * This class evaluates the watch expressions shown while the program is 
+ * stopped.
+ * 
+ * The watches are parsed together, once, and kept by their text, so 
+ * evaluating the same watches at every stop never parses them again, and 
+ * the local variables and fields they name are found once for each place
+ * in the program. All of the watches are evaluated in a single pass, which
+ * reads the variables they share once, in a single request.
+ * 
+ * Watches may call actions in the program. This must not be done from the
+ * thread that handles events from the virtual machine, as an action that 
+ * raises an event would wait for it forever.
+ * 
+ * The results of the last pass are kept until a thread is suspended or 
+ * resumed, so asking for the watches one at a time after asking for them 
+ * all does not evaluate them again.
+ * 
+ * @author Andreas Stefik
+ */
+public class WatchEvaluator {
+    /**
+     * The most sets of watches kept parsed at once.
+     */
+    private static final int MAXIMUM_COMPILED = 16;
+    
+    private final LinkedHashMap<List<String>, Compiled> compiled = new LinkedHashMap<List<String>, Compiled>(MAXIMUM_COMPILED, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<String>, Compiled> eldest) {
+            return size() > MAXIMUM_COMPILED;
+        }
+    };
+    
+    private List<String> lastSources = null;
+    private Object[] lastResults = null;
+    private ThreadReference lastThread = null;
+    private long lastGeneration = -1;
+    
+    /**
+     * This method evaluates watches in the top stack frame of a thread, 
+     * which must be suspended.
+     * 
+     * @param sources the text of each watch.
+     * @param thread
+     * @param generation the generation of the threads model, or -1 if the 
+     * results should not be kept.
+     * @return the value of each watch, as a plain Java value, or an 
+     * ExpressionException if the watch could not be parsed or evaluated.
+     */
+    public synchronized Object[] evaluate(List<String> sources, ThreadReference thread, long generation) {
+        Object[] results = find(sources, thread, generation);
+        if(results != null) {
+            return results;
+        }
+        
+        Compiled batch = compile(sources);
+        results = new Object[sources.size()];
+        Object[] values = null;
+        if(batch.expression != null) {
+            try {
+                values = batch.expression.evaluateAll(thread.frame(0));
+            } catch (IncompatibleThreadStateException ex) {
+                Logger.getLogger(WatchEvaluator.class.getName()).log(Level.SEVERE, null, ex);
+                return results;
+            } catch (ExpressionException ex) {
+                values = new Object[batch.valid.size()];
+                for(int i = 0; i < values.length; i++) {
+                    values[i] = ex;
+                }
+            }
+        }
+        
+        int next = 0;
+        for(int i = 0; i < results.length; i++) {
+            if(batch.errors[i] != null) {
+                results[i] = batch.errors[i];
+            } else {
+                results[i] = values[next];
+                next++;
+            }
+        }
+        
+        if(generation >= 0) {
+            lastSources = new ArrayList<>(sources);
+            lastResults = results;
+            lastThread = thread;
+            lastGeneration = generation;
+        }
+        return results;
+    }
+    
+    /**
+     * This method returns true if evaluating a set of watches may call
+     * actions in the program.
+     * 
+     * @param sources
+     * @return 
+     */
+    public synchronized boolean isCalling(List<String> sources) {
+        Compiled batch = compile(sources);
+        return batch.expression != null && batch.expression.isCalling();
+    }
+    
+    /**
+     * This method looks for every watch in the results of the last pass.
+     * 
+     * @param sources
+     * @param thread
+     * @param generation
+     * @return the results, or null if any watch was not in the last pass or
+     * the program has changed since.
+     */
+    private Object[] find(List<String> sources, ThreadReference thread, long generation) {
+        if(lastSources == null || generation < 0 || generation != lastGeneration || thread != lastThread) {
+            return null;
+        }
+        Object[] results = new Object[sources.size()];
+        for(int i = 0; i < results.length; i++) {
+            int index = lastSources.indexOf(sources.get(i));
+            if(index < 0) {
+                return null;
+            }
+            results[i] = lastResults[index];
+        }
+        return results;
+    }
+    
+    /**
+     * This method returns a set of watches parsed together, parsing them if
+     * they have not been parsed recently. A watch that cannot be parsed is 
+     * left out, so that it does not stop the others.
+     * 
+     * @param sources
+     * @return 
+     */
+    private Compiled compile(List<String> sources) {
+        Compiled batch = compiled.get(sources);
+        if(batch != null) {
+            return batch;
+        }
+        
+        batch = new Compiled(sources.size());
+        for(int i = 0; i < sources.size(); i++) {
+            try {
+                ExpressionParser.compile(sources.get(i), true);
+                batch.valid.add(sources.get(i));
+            } catch (ExpressionException ex) {
+                batch.errors[i] = ex;
+            }
+        }
+        if(!batch.valid.isEmpty()) {
+            try {
+                batch.expression = ExpressionParser.compileAll(batch.valid.toArray(new String[batch.valid.size()]), true);
+            } catch (ExpressionException ex) {
+                //each watch was parsed on its own, so this cannot happen
+                Logger.getLogger(WatchEvaluator.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        compiled.put(new ArrayList<>(sources), batch);
+        return batch;
+    }
+    
+    /**
+     * This method forgets the results of the last pass.
+     */
+    public synchronized void clear() {
+        lastSources = null;
+        lastResults = null;
+        lastThread = null;
+        lastGeneration = -1;
+    }
+    
+    /**
+     * This class holds a set of watches parsed together.
+     */
+    private static class Compiled {
+        private final List<String> valid = new ArrayList<>();
+        private final ExpressionException[] errors;
+        private CompiledExpression expression;
+        
+        private Compiled(int size) {
+            errors = new ExpressionException[size];
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.events;
+
+import org.debugger.events.DebuggerLoopEvent;
+
+/**
+ * This class provides an implementation of the loop event.
+ * 
+ * @author Andreas Stefik
+ */
+public class JDIDebuggerLoopEvent extends JDIDebuggerLocationEvent implements DebuggerLoopEvent {
+    private String threadName = "";
+    private String methodName = "";
+    private int lastLine = -1;
+    private String[] variableNames = new String[0];
+    private String[] variableValues = new String[0];
+
+    /**
+     * @return the threadName
+     */
+    @Override
+    public String getThreadName() {
+        return threadName;
+    }
+
+    /**
+     * @param threadName the threadName to set
+     */
+    public void setThreadName(String threadName) {
+        this.threadName = threadName;
+    }
+
+    /**
+     * @return the methodName
+     */
+    @Override
+    public String getMethodName() {
+        return methodName;
+    }
+
+    /**
+     * @param methodName the methodName to set
+     */
+    public void setMethodName(String methodName) {
+        this.methodName = methodName;
+    }
+
+    @Override
+    public int getFirstLine() {
+        return getLine();
+    }
+
+    /**
+     * @return the lastLine
+     */
+    @Override
+    public int getLastLine() {
+        return lastLine;
+    }
+
+    /**
+     * @param lastLine the lastLine to set
+     */
+    public void setLastLine(int lastLine) {
+        this.lastLine = lastLine;
+    }
+
+    /**
+     * @return the variableNames
+     */
+    @Override
+    public String[] getVariableNames() {
+        return variableNames;
+    }
+
+    /**
+     * @return the variableValues
+     */
+    @Override
+    public String[] getVariableValues() {
+        return variableValues;
+    }
+
+    /**
+     * @param names the names of the variables
+     * @param values the values of the variables, parallel to the names
+     */
+    public void setVariables(String[] names, String[] values) {
+        this.variableNames = names;
+        this.variableValues = values;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Loop in ").append(getSource()).append(":").append(methodName);
+        builder.append(", lines ").append(getLine()).append("-").append(lastLine);
+        builder.append(", thread ").append(threadName);
+        for(int i = 0; i < variableNames.length; i++) {
+            builder.append(i == 0 ? ": " : ", ");
+            builder.append(variableNames[i]).append(" = ").append(variableValues[i]);
+        }
+        return builder.toString();
+    }
+}
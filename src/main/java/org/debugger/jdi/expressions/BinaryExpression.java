@@ -0,0 +1,169 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.expressions;
+
+import com.sun.jdi.ObjectReference;
+
+/**
+ * This class represents an operator applied to two values, for example
+ * arithmetic, comparisons, and the boolean operators and and or. The 
+ * boolean operators only evaluate their right side if they need to.
+ * 
+ * @author Andreas Stefik
+ */
+public class BinaryExpression extends Expression {
+    private final Operator operator;
+    private final Expression left;
+    private final Expression right;
+    
+    public BinaryExpression(Operator operator, Expression left, Expression right) {
+        this.operator = operator;
+        this.left = left;
+        this.right = right;
+    }
+    
+    @Override
+    public Object evaluate(EvaluationContext context) throws ExpressionException {
+        Object a = left.evaluate(context);
+        if(operator == Operator.AND || operator == Operator.OR) {
+            boolean first = toBoolean(a);
+            if(operator == Operator.AND && !first) {
+                return false;
+            } else if(operator == Operator.OR && first) {
+                return true;
+            }
+            return toBoolean(right.evaluate(context));
+        }
+        
+        Object b = right.evaluate(context);
+        switch(operator) {
+            case EQUALS:
+                return isEqual(a, b);
+            case NOT_EQUALS:
+                return !isEqual(a, b);
+            case LESS:
+                return compare(a, b) < 0;
+            case GREATER:
+                return compare(a, b) > 0;
+            case LESS_EQUALS:
+                return compare(a, b) <= 0;
+            case GREATER_EQUALS:
+                return compare(a, b) >= 0;
+            case ADD:
+                if(a instanceof String || b instanceof String) {
+                    return toText(a) + toText(b);
+                }
+                return calculate(a, b);
+            default:
+                return calculate(a, b);
+        }
+    }
+    
+    private Object calculate(Object a, Object b) throws ExpressionException {
+        if(!(a instanceof Number) || !(b instanceof Number)) {
+            throw new ExpressionException("The " + operator.getText() + " operator needs two numbers.");
+        }
+        if(a instanceof Long && b instanceof Long) {
+            long x = (Long) a;
+            long y = (Long) b;
+            switch(operator) {
+                case ADD:
+                    return x + y;
+                case SUBTRACT:
+                    return x - y;
+                case MULTIPLY:
+                    return x * y;
+                case DIVIDE:
+                    if(y == 0) {
+                        throw new ExpressionException("Division by zero.");
+                    }
+                    return x / y;
+                case MODULO:
+                    if(y == 0) {
+                        throw new ExpressionException("Division by zero.");
+                    }
+                    return x % y;
+            }
+        }
+        double x = ((Number) a).doubleValue();
+        double y = ((Number) b).doubleValue();
+        switch(operator) {
+            case ADD:
+                return x + y;
+            case SUBTRACT:
+                return x - y;
+            case MULTIPLY:
+                return x * y;
+            case DIVIDE:
+                return x / y;
+            case MODULO:
+                return x % y;
+        }
+        throw new ExpressionException("Unknown operator " + operator.getText() + ".");
+    }
+    
+    private boolean isEqual(Object a, Object b) {
+        if(a == null || b == null) {
+            return a == b;
+        } else if(a instanceof Number && b instanceof Number) {
+            if(a instanceof Long && b instanceof Long) {
+                return ((Long) a).longValue() == ((Long) b).longValue();
+            }
+            return ((Number) a).doubleValue() == ((Number) b).doubleValue();
+        } else if(a instanceof ObjectReference && b instanceof ObjectReference) {
+            return ((ObjectReference) a).uniqueID() == ((ObjectReference) b).uniqueID();
+        }
+        return a.equals(b);
+    }
+    
+    private int compare(Object a, Object b) throws ExpressionException {
+        if(a instanceof Long && b instanceof Long) {
+            return Long.compare((Long) a, (Long) b);
+        } else if(a instanceof Number && b instanceof Number) {
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        } else if(a instanceof String && b instanceof String) {
+            return ((String) a).compareTo((String) b);
+        }
+        throw new ExpressionException("The " + operator.getText() + " operator needs two numbers or two text values.");
+    }
+    
+    private boolean toBoolean(Object value) throws ExpressionException {
+        if(value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        throw new ExpressionException("The " + operator.getText() + " operator needs boolean values.");
+    }
+    
+    private String toText(Object value) {
+        if(value == null) {
+            return "undefined";
+        }
+        return value.toString();
+    }
+}
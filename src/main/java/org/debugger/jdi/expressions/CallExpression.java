@@ -0,0 +1,206 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.expressions;
+
+import com.sun.jdi.ClassNotLoadedException;
+import com.sun.jdi.IncompatibleThreadStateException;
+import com.sun.jdi.InvalidTypeException;
+import com.sun.jdi.InvocationException;
+import com.sun.jdi.Method;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.ReferenceType;
+import com.sun.jdi.ThreadReference;
+import com.sun.jdi.Value;
+import com.sun.jdi.VirtualMachine;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * This class represents calling an action on an object, written in Quorum 
+ * as object:Action(arguments), or Action(arguments) for an action of the
+ * current object. The action runs in the program, on the thread the 
+ * expression is evaluated in, while every other thread stays suspended.
+ * 
+ * The action is looked up once for each type of object it is called on, by
+ * its name and number of arguments.
+ * 
+ * @author Andreas Stefik
+ */
+public class CallExpression extends Expression {
+    private final Expression target;
+    private final String name;
+    private final List<Expression> arguments;
+    private final HashMap<ReferenceType, Method> methods = new HashMap<>();
+    
+    public CallExpression(Expression target, String name, List<Expression> arguments) {
+        this.target = target;
+        this.name = name;
+        this.arguments = arguments;
+    }
+    
+    @Override
+    public Object evaluate(EvaluationContext context) throws ExpressionException {
+        Object value = target.evaluate(context);
+        if(!(value instanceof ObjectReference)) {
+            throw new ExpressionException("Cannot call " + name + " on a value that is not an object.");
+        }
+        Object[] values = new Object[arguments.size()];
+        for(int i = 0; i < values.length; i++) {
+            values[i] = arguments.get(i).evaluate(context);
+        }
+        return invoke(context, (ObjectReference) value, values);
+    }
+    
+    /**
+     * This method calls the action on an object.
+     * 
+     * @param context
+     * @param object
+     * @param values the arguments, as plain Java values.
+     * @return 
+     * @throws ExpressionException if the object has no such action, or the
+     * action failed.
+     */
+    Object invoke(EvaluationContext context, ObjectReference object, Object[] values) throws ExpressionException {
+        Method method;
+        synchronized(methods) {
+            ReferenceType type = object.referenceType();
+            method = methods.get(type);
+            if(method == null) {
+                method = find(type, values.length);
+                methods.put(type, method);
+            }
+        }
+        
+        VirtualMachine vm = object.virtualMachine();
+        List<String> types = method.argumentTypeNames();
+        List<Value> mirrors = new ArrayList<>(values.length);
+        for(int i = 0; i < values.length; i++) {
+            mirrors.add(toValue(vm, values[i], types.get(i)));
+        }
+        
+        ThreadReference thread = context.getThread();
+        try {
+            Value result = object.invokeMethod(thread, method, mirrors, ObjectReference.INVOKE_SINGLE_THREADED);
+            return toObject(result);
+        } catch (InvalidTypeException | ClassNotLoadedException ex) {
+            throw new ExpressionException("The arguments do not match " + name + ".", ex);
+        } catch (IncompatibleThreadStateException ex) {
+            throw new ExpressionException("Actions can only be called when the program is stopped.", ex);
+        } catch (InvocationException ex) {
+            throw new ExpressionException(name + " stopped with " 
+                    + ex.exception().referenceType().name() + ".", ex);
+        } finally {
+            //the action may have changed any object in the program
+            context.forget();
+        }
+    }
+    
+    private Method find(ReferenceType type, int count) throws ExpressionException {
+        Iterator<Method> iterator = type.methodsByName(name).iterator();
+        while(iterator.hasNext()) {
+            Method next = iterator.next();
+            if(!next.isStatic() && !next.isAbstract() && next.argumentTypeNames().size() == count) {
+                return next;
+            }
+        }
+        throw new ExpressionException("There is no action named " + name + " with " + count 
+                + " arguments in " + type.name() + ".");
+    }
+    
+    /**
+     * This method converts a plain Java value into a value in the virtual
+     * machine of the type an argument needs.
+     * 
+     * @param vm
+     * @param value
+     * @param type the name of the type of the argument.
+     * @return 
+     * @throws ExpressionException if the value cannot be converted.
+     */
+    private Value toValue(VirtualMachine vm, Object value, String type) throws ExpressionException {
+        if(value == null || value instanceof Value) {
+            return (Value) value;
+        } else if(value instanceof Boolean) {
+            return vm.mirrorOf((Boolean) value);
+        } else if(value instanceof Long) {
+            long number = (Long) value;
+            switch(type) {
+                case "int":
+                    return vm.mirrorOf((int) number);
+                case "short":
+                    return vm.mirrorOf((short) number);
+                case "byte":
+                    return vm.mirrorOf((byte) number);
+                case "double":
+                    return vm.mirrorOf((double) number);
+                case "float":
+                    return vm.mirrorOf((float) number);
+                default:
+                    return vm.mirrorOf(number);
+            }
+        } else if(value instanceof Double) {
+            double number = (Double) value;
+            if(type.equals("float")) {
+                return vm.mirrorOf((float) number);
+            }
+            return vm.mirrorOf(number);
+        } else if(value instanceof String) {
+            String text = (String) value;
+            if(type.equals("char") && text.length() == 1) {
+                return vm.mirrorOf(text.charAt(0));
+            }
+            return vm.mirrorOf(text);
+        }
+        throw new ExpressionException("Cannot pass " + value + " to " + name + ".");
+    }
+    
+    /**
+     * @return the expression for the object the action is called on
+     */
+    public Expression getTarget() {
+        return target;
+    }
+    
+    /**
+     * @return the name of the action
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * @return the expressions for the arguments
+     */
+    public List<Expression> getArguments() {
+        return arguments;
+    }
+}
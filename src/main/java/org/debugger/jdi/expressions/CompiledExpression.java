@@ -0,0 +1,280 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.expressions;
+
+import com.sun.jdi.AbsentInformationException;
+import com.sun.jdi.Field;
+import com.sun.jdi.LocalVariable;
+import com.sun.jdi.Location;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.ReferenceType;
+import com.sun.jdi.StackFrame;
+import com.sun.jdi.Value;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is an expression that has been parsed and is ready to be
+ * evaluated over and over again, for example every time a conditional
+ * breakpoint is hit.
+ * 
+ * The first time the expression is evaluated at a location, each name in it
+ * is looked up as either a local variable or a field and the result is kept
+ * for that location. Every evaluation then reads all of the locals it needs
+ * in one request to the virtual machine, and all of the fields in one more,
+ * instead of looking up and reading each name separately.
+ * 
+ * @author Andreas Stefik
+ */
+public class CompiledExpression {
+    private final String[] sources;
+    private final Expression[] roots;
+    private final String[] names;
+    private final String[] members;
+    private final boolean calling;
+    private final HashMap<Location, Binding> bindings = new HashMap<>();
+    private final HashMap<ReferenceType, List<Field>> layouts = new HashMap<>();
+    
+    CompiledExpression(String[] sources, Expression[] roots, String[] names, String[] members, 
+            boolean calling) {
+        this.sources = sources;
+        this.roots = roots;
+        this.names = names;
+        this.members = members;
+        this.calling = calling;
+    }
+    
+    /**
+     * This method evaluates the expression in a stack frame. The thread the
+     * frame belongs to must be suspended. If several expressions were 
+     * compiled together, this evaluates the first.
+     * 
+     * @param frame
+     * @return 
+     * @throws ExpressionException 
+     */
+    public Object evaluate(StackFrame frame) throws ExpressionException {
+        EvaluationContext context = read(frame);
+        try {
+            return roots[0].evaluate(context);
+        } catch(RuntimeException ex) {
+            throw new ExpressionException("Could not evaluate " + sources[0] + ".", ex);
+        }
+    }
+    
+    /**
+     * This method evaluates every expression that was compiled together, 
+     * reading their variables only once. An expression that cannot be 
+     * evaluated does not stop the others; its result is the 
+     * ExpressionException describing why.
+     * 
+     * @param frame
+     * @return the value of each expression, in the order they were compiled.
+     * @throws ExpressionException if the variables could not be read.
+     */
+    public Object[] evaluateAll(StackFrame frame) throws ExpressionException {
+        EvaluationContext context = read(frame);
+        Object[] results = new Object[roots.length];
+        for(int i = 0; i < roots.length; i++) {
+            try {
+                results[i] = roots[i].evaluate(context);
+            } catch(ExpressionException ex) {
+                results[i] = ex;
+            } catch(RuntimeException ex) {
+                results[i] = new ExpressionException("Could not evaluate " + sources[i] + ".", ex);
+            }
+        }
+        return results;
+    }
+    
+    private EvaluationContext read(StackFrame frame) throws ExpressionException {
+        try {
+            Binding binding = getBinding(frame);
+            ObjectReference thisObject = frame.thisObject();
+            Value[] slots = binding.read(frame, thisObject);
+            return new EvaluationContext(this, frame, thisObject, slots, names, binding.bound);
+        } catch(RuntimeException ex) {
+            throw new ExpressionException("Could not read the variables of " + getSource() + ".", ex);
+        }
+    }
+    
+    /**
+     * This method evaluates the expression in a stack frame and returns
+     * whether or not it was true.
+     * 
+     * @param frame
+     * @return 
+     * @throws ExpressionException if the expression is not a boolean.
+     */
+    public boolean isTrue(StackFrame frame) throws ExpressionException {
+        Object value = evaluate(frame);
+        if(value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        throw new ExpressionException(sources[0] + " is not a boolean expression.");
+    }
+    
+    /**
+     * This method returns the fields of a type that the expressions read by
+     * name, like count in me:count, so that they can all be read from an 
+     * object at once.
+     * 
+     * @param type
+     * @return 
+     */
+    List<Field> getFields(ReferenceType type) {
+        synchronized(layouts) {
+            List<Field> fields = layouts.get(type);
+            if(fields == null) {
+                fields = new ArrayList<>();
+                for(int i = 0; i < members.length; i++) {
+                    Field field = type.fieldByName(members[i]);
+                    if(field != null && !fields.contains(field)) {
+                        fields.add(field);
+                    }
+                }
+                layouts.put(type, fields);
+            }
+            return fields;
+        }
+    }
+    
+    private Binding getBinding(StackFrame frame) {
+        Location location = frame.location();
+        synchronized(bindings) {
+            Binding binding = bindings.get(location);
+            if(binding == null) {
+                binding = bind(frame, location);
+                bindings.put(location, binding);
+            }
+            return binding;
+        }
+    }
+    
+    private Binding bind(StackFrame frame, Location location) {
+        Binding binding = new Binding(names.length);
+        ReferenceType type = location.declaringType();
+        boolean isStatic = location.method().isStatic();
+        for(int i = 0; i < names.length; i++) {
+            LocalVariable local = null;
+            try {
+                local = frame.visibleVariableByName(names[i]);
+            } catch (AbsentInformationException ex) {
+                //without debug information only fields can be found
+            }
+            if(local != null) {
+                binding.locals.add(local);
+                binding.localSlots.add(i);
+                binding.bound[i] = true;
+                continue;
+            }
+            
+            Field field = type.fieldByName(names[i]);
+            if(field != null && (!isStatic || field.isStatic())) {
+                binding.fields.add(field);
+                binding.fieldSlots.add(i);
+                binding.bound[i] = true;
+            }
+        }
+        binding.type = type;
+        return binding;
+    }
+    
+    /**
+     * @return true if evaluating the expression may call actions in the
+     * program.
+     */
+    public boolean isCalling() {
+        return calling;
+    }
+    
+    /**
+     * @return the text the expression was parsed from. If several 
+     * expressions were compiled together, they are separated by commas.
+     */
+    public String getSource() {
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < sources.length; i++) {
+            if(i > 0) {
+                builder.append(", ");
+            }
+            builder.append(sources[i]);
+        }
+        return builder.toString();
+    }
+    
+    /**
+     * @return the text of each expression that was compiled together
+     */
+    public String[] getSources() {
+        return sources.clone();
+    }
+    
+    /**
+     * This class records, for one location, which local variables and fields
+     * the names in the expression refer to.
+     */
+    private static class Binding {
+        private final List<LocalVariable> locals = new ArrayList<>();
+        private final List<Integer> localSlots = new ArrayList<>();
+        private final List<Field> fields = new ArrayList<>();
+        private final List<Integer> fieldSlots = new ArrayList<>();
+        private final boolean[] bound;
+        private ReferenceType type;
+        
+        private Binding(int size) {
+            bound = new boolean[size];
+        }
+        
+        private Value[] read(StackFrame frame, ObjectReference thisObject) {
+            Value[] slots = new Value[bound.length];
+            if(!locals.isEmpty()) {
+                Map<LocalVariable, Value> values = frame.getValues(locals);
+                for(int i = 0; i < locals.size(); i++) {
+                    slots[localSlots.get(i)] = values.get(locals.get(i));
+                }
+            }
+            
+            if(!fields.isEmpty()) {
+                Map<Field, Value> values;
+                if(thisObject != null) {
+                    values = thisObject.getValues(fields);
+                } else {
+                    values = type.getValues(fields);
+                }
+                for(int i = 0; i < fields.size(); i++) {
+                    slots[fieldSlots.get(i)] = values.get(fields.get(i));
+                }
+            }
+            return slots;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.expressions;
+
+import com.sun.jdi.Field;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.StackFrame;
+import com.sun.jdi.ThreadReference;
+import com.sun.jdi.Value;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class holds what an expression needs while it is being evaluated: 
+ * the stack frame it is evaluated in and the values of every variable it 
+ * names, which are read all at once before evaluation starts.
+ * 
+ * The fields of other objects are read as they are reached. The first time
+ * a field of an object is read, every field the expressions read by name 
+ * is read from it in the same request, and kept until evaluation ends or an
+ * action is called.
+ * 
+ * @author Andreas Stefik
+ */
+public class EvaluationContext {
+    private final CompiledExpression expression;
+    private final StackFrame frame;
+    private final ThreadReference thread;
+    private final ObjectReference thisObject;
+    private final Value[] slots;
+    private final String[] names;
+    private final boolean[] bound;
+    private final HashMap<ObjectReference, Map<Field, Value>> objects = new HashMap<>();
+    
+    EvaluationContext(CompiledExpression expression, StackFrame frame, ObjectReference thisObject, 
+            Value[] slots, String[] names, boolean[] bound) {
+        this.expression = expression;
+        this.frame = frame;
+        this.thread = frame.thread();
+        this.thisObject = thisObject;
+        this.slots = slots;
+        this.names = names;
+        this.bound = bound;
+    }
+    
+    /**
+     * This method returns the value of the variable in a particular slot.
+     * 
+     * @param slot
+     * @return 
+     * @throws ExpressionException if the variable is not visible in the
+     * stack frame.
+     */
+    public Object getSlot(int slot) throws ExpressionException {
+        if(!bound[slot]) {
+            throw new ExpressionException("There is no variable named " + names[slot] + " here.");
+        }
+        return Expression.toObject(slots[slot]);
+    }
+    
+    /**
+     * This method returns the value of a field of an object.
+     * 
+     * @param object
+     * @param field
+     * @return 
+     */
+    public Value getValue(ObjectReference object, Field field) {
+        Map<Field, Value> values = objects.get(object);
+        if(values == null) {
+            List<Field> fields = expression.getFields(object.referenceType());
+            values = fields.isEmpty() ? new HashMap<Field, Value>() : object.getValues(fields);
+            objects.put(object, values);
+        }
+        if(values.containsKey(field)) {
+            return values.get(field);
+        }
+        return object.getValue(field);
+    }
+    
+    /**
+     * This method forgets the fields read so far, as they may have been
+     * changed by an action called in the program.
+     */
+    public void forget() {
+        objects.clear();
+    }
+    
+    /**
+     * @return the stack frame the expression is being evaluated in
+     */
+    public StackFrame getFrame() {
+        return frame;
+    }
+    
+    /**
+     * @return the thread the expression is being evaluated in. Unlike the
+     * stack frame, this remains valid after an action is called.
+     */
+    public ThreadReference getThread() {
+        return thread;
+    }
+    
+    /**
+     * @return the object the current method belongs to, or null in a 
+     * shared action.
+     */
+    public ObjectReference getThisObject() {
+        return thisObject;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.expressions;
+
+import com.sun.jdi.BooleanValue;
+import com.sun.jdi.ByteValue;
+import com.sun.jdi.CharValue;
+import com.sun.jdi.DoubleValue;
+import com.sun.jdi.FloatValue;
+import com.sun.jdi.IntegerValue;
+import com.sun.jdi.LongValue;
+import com.sun.jdi.ShortValue;
+import com.sun.jdi.StringReference;
+import com.sun.jdi.Value;
+
+/**
+ * This class is a node in a parsed expression. Expressions are parsed once 
+ * and can then be evaluated any number of times, in any stack frame.
+ * 
+ * Evaluating an expression produces a plain Java value: a Boolean, a Long 
+ * for integers, a Double for numbers, a String for text, an ObjectReference 
+ * for any other object, or null for undefined.
+ * 
+ * @author Andreas Stefik
+ */
+public abstract class Expression {
+    
+    /**
+     * This method evaluates the expression.
+     * 
+     * @param context the values of the variables the expression names.
+     * @return 
+     * @throws ExpressionException if the expression cannot be evaluated.
+     */
+    public abstract Object evaluate(EvaluationContext context) throws ExpressionException;
+    
+    /**
+     * This method converts a value from the virtual machine into the plain
+     * Java value expressions work with.
+     * 
+     * @param value
+     * @return 
+     */
+    public static Object toObject(Value value) {
+        if(value == null) {
+            return null;
+        } else if(value instanceof BooleanValue) {
+            return ((BooleanValue) value).value();
+        } else if(value instanceof IntegerValue) {
+            return (long) ((IntegerValue) value).value();
+        } else if(value instanceof LongValue) {
+            return ((LongValue) value).value();
+        } else if(value instanceof ShortValue) {
+            return (long) ((ShortValue) value).value();
+        } else if(value instanceof ByteValue) {
+            return (long) ((ByteValue) value).value();
+        } else if(value instanceof DoubleValue) {
+            return ((DoubleValue) value).value();
+        } else if(value instanceof FloatValue) {
+            return (double) ((FloatValue) value).value();
+        } else if(value instanceof CharValue) {
+            return String.valueOf(((CharValue) value).value());
+        } else if(value instanceof StringReference) {
+            return ((StringReference) value).value();
+        }
+        return value;
+    }
+}
@@ -0,0 +1,431 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.expressions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * This class parses expressions written in Quorum syntax, like 
+ * "i = 5 and not done" or "me:count > 10", into a CompiledExpression.
+ * 
+ * The parser understands integers, numbers, text in quotes, true, false,
+ * undefined, names, field access with a colon, like me:list:size, items of
+ * an array, like values[i + 1], calls to actions, like list:Get(0) or 
+ * GetCount(), the arithmetic operators (+, -, *, /, mod), the comparisons 
+ * (=, not=, <, >, <=, >=), and the boolean operators and, or, and not.
+ * 
+ * Calling an action runs code in the program, which can change it or hit a
+ * breakpoint. Actions, and items of objects that are not arrays, which are
+ * read by calling Get, are only allowed when asked for, as they are for 
+ * watches. Breakpoint conditions and logpoints are evaluated by the thread
+ * that handles events from the virtual machine, which would wait forever 
+ * for an event raised by the action, so they never call actions.
+ * 
+ * @author Andreas Stefik
+ */
+public class ExpressionParser {
+    private static final int END = 0;
+    private static final int NAME = 1;
+    private static final int INTEGER = 2;
+    private static final int NUMBER = 3;
+    private static final int TEXT = 4;
+    private static final int SYMBOL = 5;
+    
+    private String source;
+    private int position = 0;
+    private int tokenType;
+    private String token;
+    private final HashMap<String, Integer> slots = new HashMap<>();
+    private final ArrayList<String> names = new ArrayList<>();
+    private final ArrayList<String> members = new ArrayList<>();
+    private final boolean calls;
+    private boolean calling = false;
+    
+    private ExpressionParser(boolean calls) {
+        this.calls = calls;
+    }
+    
+    /**
+     * This method parses an expression that does not call actions.
+     * 
+     * @param source
+     * @return 
+     * @throws ExpressionException if the expression is not valid.
+     */
+    public static CompiledExpression compile(String source) throws ExpressionException {
+        return compile(source, false);
+    }
+    
+    /**
+     * This method parses an expression.
+     * 
+     * @param source
+     * @param calls whether the expression may call actions in the program.
+     * @return 
+     * @throws ExpressionException if the expression is not valid.
+     */
+    public static CompiledExpression compile(String source, boolean calls) throws ExpressionException {
+        return compileAll(new String[] {source}, calls);
+    }
+    
+    /**
+     * This method parses several expressions that are always evaluated 
+     * together, like the values written by a logpoint. The expressions share
+     * their variables, so each variable is read only once however many of 
+     * the expressions use it.
+     * 
+     * @param sources
+     * @return 
+     * @throws ExpressionException if any of the expressions is not valid.
+     */
+    public static CompiledExpression compileAll(String[] sources) throws ExpressionException {
+        return compileAll(sources, false);
+    }
+    
+    /**
+     * This method parses several expressions that are always evaluated 
+     * together, like a set of watches.
+     * 
+     * @param sources
+     * @param calls whether the expressions may call actions in the program.
+     * @return 
+     * @throws ExpressionException if any of the expressions is not valid.
+     */
+    public static CompiledExpression compileAll(String[] sources, boolean calls) throws ExpressionException {
+        ExpressionParser parser = new ExpressionParser(calls);
+        Expression[] roots = new Expression[sources.length];
+        for(int i = 0; i < sources.length; i++) {
+            roots[i] = parser.parse(sources[i]);
+        }
+        String[] names = parser.names.toArray(new String[parser.names.size()]);
+        String[] members = parser.members.toArray(new String[parser.members.size()]);
+        return new CompiledExpression(sources, roots, names, members, parser.calling);
+    }
+    
+    private Expression parse(String source) throws ExpressionException {
+        this.source = source;
+        position = 0;
+        next();
+        Expression root = parseOr();
+        if(tokenType != END) {
+            throw error("Unexpected " + token);
+        }
+        return root;
+    }
+    
+    private Expression parseOr() throws ExpressionException {
+        Expression left = parseAnd();
+        while(isKeyword("or")) {
+            next();
+            left = new BinaryExpression(Operator.OR, left, parseAnd());
+        }
+        return left;
+    }
+    
+    private Expression parseAnd() throws ExpressionException {
+        Expression left = parseNot();
+        while(isKeyword("and")) {
+            next();
+            left = new BinaryExpression(Operator.AND, left, parseNot());
+        }
+        return left;
+    }
+    
+    private Expression parseNot() throws ExpressionException {
+        if(isKeyword("not")) {
+            next();
+            return new UnaryExpression(Operator.NOT, parseNot());
+        }
+        return parseComparison();
+    }
+    
+    private Expression parseComparison() throws ExpressionException {
+        Expression left = parseAdditive();
+        Operator operator = null;
+        if(isSymbol("=")) {
+            operator = Operator.EQUALS;
+        } else if(isSymbol("not=")) {
+            operator = Operator.NOT_EQUALS;
+        } else if(isSymbol("<")) {
+            operator = Operator.LESS;
+        } else if(isSymbol(">")) {
+            operator = Operator.GREATER;
+        } else if(isSymbol("<=")) {
+            operator = Operator.LESS_EQUALS;
+        } else if(isSymbol(">=")) {
+            operator = Operator.GREATER_EQUALS;
+        }
+        if(operator == null) {
+            return left;
+        }
+        next();
+        return new BinaryExpression(operator, left, parseAdditive());
+    }
+    
+    private Expression parseAdditive() throws ExpressionException {
+        Expression left = parseMultiplicative();
+        while(true) {
+            if(isSymbol("+")) {
+                next();
+                left = new BinaryExpression(Operator.ADD, left, parseMultiplicative());
+            } else if(isSymbol("-")) {
+                next();
+                left = new BinaryExpression(Operator.SUBTRACT, left, parseMultiplicative());
+            } else {
+                return left;
+            }
+        }
+    }
+    
+    private Expression parseMultiplicative() throws ExpressionException {
+        Expression left = parseUnary();
+        while(true) {
+            if(isSymbol("*")) {
+                next();
+                left = new BinaryExpression(Operator.MULTIPLY, left, parseUnary());
+            } else if(isSymbol("/")) {
+                next();
+                left = new BinaryExpression(Operator.DIVIDE, left, parseUnary());
+            } else if(isKeyword("mod")) {
+                next();
+                left = new BinaryExpression(Operator.MODULO, left, parseUnary());
+            } else {
+                return left;
+            }
+        }
+    }
+    
+    private Expression parseUnary() throws ExpressionException {
+        if(isSymbol("-")) {
+            next();
+            return new UnaryExpression(Operator.NEGATE, parseUnary());
+        }
+        return parsePostfix();
+    }
+    
+    private Expression parsePostfix() throws ExpressionException {
+        Expression expression = parsePrimary();
+        while(true) {
+            if(isSymbol(":")) {
+                next();
+                if(tokenType != NAME) {
+                    throw error("Expected a field name after :");
+                }
+                String name = token;
+                next();
+                if(isSymbol("(")) {
+                    expression = new CallExpression(expression, name, parseCall(name));
+                } else {
+                    if(!members.contains(name)) {
+                        members.add(name);
+                    }
+                    expression = new FieldExpression(expression, name);
+                }
+            } else if(isSymbol("[")) {
+                next();
+                Expression index = parseOr();
+                if(!isSymbol("]")) {
+                    throw error("Expected ]");
+                }
+                next();
+                expression = new IndexExpression(expression, index, calls);
+                calling = calling || calls;
+            } else {
+                return expression;
+            }
+        }
+    }
+    
+    /**
+     * This method parses the arguments of a call to an action, if actions
+     * may be called.
+     * 
+     * @param name the name of the action.
+     * @return
+     * @throws ExpressionException 
+     */
+    private List<Expression> parseCall(String name) throws ExpressionException {
+        if(!calls) {
+            throw error("The action " + name + " cannot be called here");
+        }
+        calling = true;
+        return parseArguments();
+    }
+    
+    /**
+     * This method parses the arguments of a call, from the opening 
+     * parenthesis to just after the closing one.
+     * 
+     * @return
+     * @throws ExpressionException 
+     */
+    private List<Expression> parseArguments() throws ExpressionException {
+        List<Expression> arguments = new ArrayList<>();
+        next();
+        if(isSymbol(")")) {
+            next();
+            return arguments;
+        }
+        while(true) {
+            arguments.add(parseOr());
+            if(isSymbol(")")) {
+                next();
+                return arguments;
+            } else if(!isSymbol(",")) {
+                throw error("Expected , or )");
+            }
+            next();
+        }
+    }
+    
+    private Expression parsePrimary() throws ExpressionException {
+        Expression expression;
+        if(tokenType == INTEGER) {
+            try {
+                expression = new LiteralExpression(Long.parseLong(token));
+            } catch(NumberFormatException ex) {
+                throw error(token + " is too large to be an integer");
+            }
+        } else if(tokenType == NUMBER) {
+            expression = new LiteralExpression(Double.parseDouble(token));
+        } else if(tokenType == TEXT) {
+            expression = new LiteralExpression(token);
+        } else if(isSymbol("(")) {
+            next();
+            expression = parseOr();
+            if(!isSymbol(")")) {
+                throw error("Expected )");
+            }
+        } else if(isKeyword("true")) {
+            expression = new LiteralExpression(true);
+        } else if(isKeyword("false")) {
+            expression = new LiteralExpression(false);
+        } else if(isKeyword("undefined")) {
+            expression = new LiteralExpression(null);
+        } else if(isKeyword(NameExpression.ME)) {
+            expression = new NameExpression(token, -1);
+        } else if(tokenType == NAME) {
+            String name = token;
+            next();
+            if(isSymbol("(")) {
+                //an action of the current object
+                return new CallExpression(new NameExpression(NameExpression.ME, -1), name, parseCall(name));
+            }
+            return new NameExpression(name, getSlot(name));
+        } else if(tokenType == END) {
+            throw error("Unexpected end of expression");
+        } else {
+            throw error("Unexpected " + token);
+        }
+        next();
+        return expression;
+    }
+    
+    private int getSlot(String name) {
+        Integer slot = slots.get(name);
+        if(slot == null) {
+            slot = names.size();
+            names.add(name);
+            slots.put(name, slot);
+        }
+        return slot;
+    }
+    
+    private boolean isKeyword(String keyword) {
+        return tokenType == NAME && token.equals(keyword);
+    }
+    
+    private boolean isSymbol(String symbol) {
+        return tokenType == SYMBOL && token.equals(symbol);
+    }
+    
+    private ExpressionException error(String message) {
+        return new ExpressionException(message + " at position " + position + " in " + source);
+    }
+    
+    private void next() throws ExpressionException {
+        while(position < source.length() && Character.isWhitespace(source.charAt(position))) {
+            position++;
+        }
+        if(position >= source.length()) {
+            tokenType = END;
+            token = "";
+            return;
+        }
+        
+        int start = position;
+        char c = source.charAt(position);
+        if(Character.isJavaIdentifierStart(c)) {
+            while(position < source.length() && Character.isJavaIdentifierPart(source.charAt(position))) {
+                position++;
+            }
+            token = source.substring(start, position);
+            tokenType = NAME;
+            if(token.equals("not") && position < source.length() && source.charAt(position) == '=') {
+                position++;
+                token = "not=";
+                tokenType = SYMBOL;
+            }
+        } else if(Character.isDigit(c)) {
+            tokenType = INTEGER;
+            while(position < source.length() && Character.isDigit(source.charAt(position))) {
+                position++;
+            }
+            if(position + 1 < source.length() && source.charAt(position) == '.' 
+                    && Character.isDigit(source.charAt(position + 1))) {
+                tokenType = NUMBER;
+                position++;
+                while(position < source.length() && Character.isDigit(source.charAt(position))) {
+                    position++;
+                }
+            }
+            token = source.substring(start, position);
+        } else if(c == '"') {
+            int close = source.indexOf('"', position + 1);
+            if(close < 0) {
+                throw error("Unterminated text");
+            }
+            token = source.substring(position + 1, close);
+            tokenType = TEXT;
+            position = close + 1;
+        } else {
+            tokenType = SYMBOL;
+            position++;
+            if((c == '<' || c == '>') && position < source.length() && source.charAt(position) == '=') {
+                position++;
+            }
+            token = source.substring(start, position);
+            if("=<>+-*/:()[],".indexOf(c) < 0) {
+                throw error("Unexpected " + token);
+            }
+        }
+    }
+}
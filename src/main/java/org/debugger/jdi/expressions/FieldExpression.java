@@ -0,0 +1,88 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.expressions;
+
+import com.sun.jdi.Field;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.ReferenceType;
+import java.util.HashMap;
+
+/**
+ * This class represents reading a field from an object, written in Quorum
+ * as object:field. The field is looked up once for each type of object it
+ * is read from.
+ * 
+ * @author Andreas Stefik
+ */
+public class FieldExpression extends Expression {
+    private final Expression target;
+    private final String name;
+    private final HashMap<ReferenceType, Field> fields = new HashMap<>();
+    
+    public FieldExpression(Expression target, String name) {
+        this.target = target;
+        this.name = name;
+    }
+    
+    @Override
+    public Object evaluate(EvaluationContext context) throws ExpressionException {
+        Object value = target.evaluate(context);
+        if(!(value instanceof ObjectReference)) {
+            throw new ExpressionException("Cannot read " + name + " from a value that is not an object.");
+        }
+        ObjectReference object = (ObjectReference) value;
+        Field field;
+        synchronized(fields) {
+            ReferenceType type = object.referenceType();
+            field = fields.get(type);
+            if(field == null) {
+                field = type.fieldByName(name);
+                if(field == null) {
+                    throw new ExpressionException("There is no field named " + name + " in " + type.name() + ".");
+                }
+                fields.put(type, field);
+            }
+        }
+        return toObject(context.getValue(object, field));
+    }
+    
+    /**
+     * @return the expression for the object the field is read from
+     */
+    public Expression getTarget() {
+        return target;
+    }
+    
+    /**
+     * @return the name of the field
+     */
+    public String getName() {
+        return name;
+    }
+}
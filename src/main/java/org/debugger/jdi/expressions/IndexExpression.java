@@ -0,0 +1,110 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.expressions;
+
+import com.sun.jdi.ArrayReference;
+import com.sun.jdi.ObjectReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class represents reading one item of an array, written as 
+ * array[index]. Java arrays are read directly. Any other object, like a 
+ * Quorum Array or List, is read by calling its Get action with the index,
+ * if the expression may call actions.
+ * 
+ * @author Andreas Stefik
+ */
+public class IndexExpression extends Expression {
+    /**
+     * The action used to read an item from a Quorum container.
+     */
+    public static final String GET = "Get";
+    
+    private final Expression target;
+    private final Expression index;
+    private final CallExpression get;
+    
+    /**
+     * @param target
+     * @param index
+     * @param calls whether items of objects that are not arrays may be read
+     * by calling their Get action.
+     */
+    public IndexExpression(Expression target, Expression index, boolean calls) {
+        this.target = target;
+        this.index = index;
+        if(calls) {
+            List<Expression> arguments = new ArrayList<>();
+            arguments.add(index);
+            get = new CallExpression(target, GET, arguments);
+        } else {
+            get = null;
+        }
+    }
+    
+    @Override
+    public Object evaluate(EvaluationContext context) throws ExpressionException {
+        Object value = target.evaluate(context);
+        if(!(value instanceof ObjectReference)) {
+            throw new ExpressionException("Cannot read an item from a value that is not an object.");
+        }
+        Object position = index.evaluate(context);
+        if(!(position instanceof Long)) {
+            throw new ExpressionException("An index must be an integer.");
+        }
+        long i = (Long) position;
+        if(value instanceof ArrayReference) {
+            ArrayReference array = (ArrayReference) value;
+            if(i < 0 || i >= array.length()) {
+                throw new ExpressionException("The index " + i + " is outside an array of length " 
+                        + array.length() + ".");
+            }
+            return toObject(array.getValue((int) i));
+        }
+        if(get == null) {
+            throw new ExpressionException("Only items of arrays can be read here.");
+        }
+        return get.invoke(context, (ObjectReference) value, new Object[] {position});
+    }
+    
+    /**
+     * @return the expression for the array the item is read from
+     */
+    public Expression getTarget() {
+        return target;
+    }
+    
+    /**
+     * @return the expression for the position of the item
+     */
+    public Expression getIndex() {
+        return index;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.expressions;
+
+/**
+ * This class represents a name in an expression. A name refers to a local
+ * variable if one is in scope, and otherwise to a field of the object the
+ * current method belongs to. The name "me" refers to that object itself.
+ * 
+ * Each distinct name in an expression is given a slot. Which variable or
+ * field a slot refers to is worked out once per location in the program, 
+ * and the values of all slots are read together, before evaluation begins.
+ * 
+ * @author Andreas Stefik
+ */
+public class NameExpression extends Expression {
+    /**
+     * The name of the "this" object in Quorum.
+     */
+    public static final String ME = "me";
+    
+    private final String name;
+    private final int slot;
+    
+    /**
+     * @param name the name of the variable.
+     * @param slot the slot of the variable, or -1 for "me".
+     */
+    public NameExpression(String name, int slot) {
+        this.name = name;
+        this.slot = slot;
+    }
+    
+    @Override
+    public Object evaluate(EvaluationContext context) throws ExpressionException {
+        if(slot < 0) {
+            if(context.getThisObject() == null) {
+                throw new ExpressionException("There is no " + ME + " object in a shared action.");
+            }
+            return context.getThisObject();
+        }
+        return context.getSlot(slot);
+    }
+    
+    /**
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * @return the slot
+     */
+    public int getSlot() {
+        return slot;
+    }
+}
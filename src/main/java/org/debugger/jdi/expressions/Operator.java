@@ -0,0 +1,67 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.expressions;
+
+/**
+ * This is an enumeration of the operators allowed in expressions. Each
+ * operator carries the text used for it in Quorum.
+ * 
+ * @author Andreas Stefik
+ */
+public enum Operator {
+    ADD ("+"),
+    SUBTRACT ("-"),
+    MULTIPLY ("*"),
+    DIVIDE ("/"),
+    MODULO ("mod"),
+    EQUALS ("="),
+    NOT_EQUALS ("not="),
+    LESS ("<"),
+    GREATER (">"),
+    LESS_EQUALS ("<="),
+    GREATER_EQUALS (">="),
+    AND ("and"),
+    OR ("or"),
+    NOT ("not"),
+    NEGATE ("-");
+    
+    private final String text;
+    Operator(String text) {
+        this.text = text;
+    }
+    
+    /**
+     * This method returns the Quorum text for the operator.
+     * 
+     * @return 
+     */
+    public String getText() {
+        return text;
+    }
+}
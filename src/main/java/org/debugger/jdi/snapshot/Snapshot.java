@@ -0,0 +1,303 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import org.debugger.Variable;
+import org.debugger.jdi.JDIClassInformation;
+import org.debugger.jdi.JDIStackFrame;
+import org.debugger.jdi.JDIVariable;
+
+/**
+ * This class reads a snapshot file written by a SnapshotWriter, so that the 
+ * state of a program can be browsed after its virtual machine has gone. The
+ * file is mapped into memory, and opening it reads the threads and notes 
+ * where each object is, while the children of an object are read from the 
+ * file only when they are asked for.
+ * 
+ * Variables read from a snapshot are JDIVariables whose reference is the 
+ * unique identifier of the object they referred to, as a Long, or null. An
+ * object deeper than the snapshot went has no children.
+ * 
+ * @author Andreas Stefik
+ */
+public class Snapshot {
+    private final File file;
+    private final ByteBuffer buffer;
+    private long created = 0;
+    private final ArrayList<String> strings = new ArrayList<>();
+    private final ArrayList<String> threadNames = new ArrayList<>();
+    private final ArrayList<Integer> threadStatuses = new ArrayList<>();
+    private final ArrayList<JDIStackFrame[]> threadFrames = new ArrayList<>();
+    private final ArrayList<Variable[][]> threadVariables = new ArrayList<>();
+    private final HashMap<Long, Integer> objects = new HashMap<>();
+    private int currentThread = -1;
+    
+    private Snapshot(File file, ByteBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+    }
+    
+    /**
+     * This method opens a snapshot file.
+     * 
+     * @param file
+     * @return
+     * @throws IOException if the file is not a snapshot.
+     */
+    public static Snapshot open(File file) throws IOException {
+        ByteBuffer buffer;
+        try (RandomAccessFile access = new RandomAccessFile(file, "r")) {
+            buffer = access.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, access.length());
+        }
+        if(buffer.capacity() < 16 || buffer.getInt(0) != SnapshotWriter.MAGIC) {
+            throw new IOException(file + " is not a snapshot.");
+        }
+        if(buffer.getInt(4) != SnapshotWriter.VERSION) {
+            throw new IOException(file + " was written by another version of the debugger.");
+        }
+        Snapshot snapshot = new Snapshot(file, buffer);
+        snapshot.created = buffer.getLong(8);
+        snapshot.scan();
+        return snapshot;
+    }
+    
+    /**
+     * This method reads the threads and finds the objects.
+     */
+    private void scan() throws IOException {
+        ByteBuffer in = buffer.duplicate();
+        in.position(16);
+        while(in.hasRemaining()) {
+            byte type = in.get();
+            if(type == SnapshotWriter.END) {
+                return;
+            } else if(type == SnapshotWriter.THREAD) {
+                readThread(in);
+            } else if(type == SnapshotWriter.OBJECT) {
+                long id = readLong(in);
+                objects.put(id, in.position());
+                readVariables(in, true);
+            } else {
+                throw new IOException(file + " is damaged at " + (in.position() - 1) + ".");
+            }
+        }
+        throw new IOException(file + " ends early.");
+    }
+    
+    private void readThread(ByteBuffer in) {
+        threadNames.add(readString(in, true));
+        threadStatuses.add(readInt(in));
+        if(in.get() != 0) {
+            currentThread = threadNames.size() - 1;
+        }
+        int count = readInt(in);
+        JDIStackFrame[] frames = new JDIStackFrame[count];
+        Variable[][] variables = new Variable[count][];
+        for(int i = 0; i < count; i++) {
+            JDIStackFrame frame = new JDIStackFrame();
+            JDIClassInformation info = new JDIClassInformation();
+            info.setClassName(readString(in, true).replace('.', '/'));
+            frame.setClassInformation(info);
+            frame.setMethodName(readString(in, true));
+            frame.setLine(readInt(in) - 1);
+            frame.setCurrent(i == 0);
+            frames[i] = frame;
+            variables[i] = readVariables(in, true);
+        }
+        threadFrames.add(frames);
+        threadVariables.add(variables);
+    }
+    
+    private Variable[] readVariables(ByteBuffer in, boolean scanning) {
+        Variable[] variables = new Variable[readInt(in)];
+        for(int i = 0; i < variables.length; i++) {
+            JDIVariable variable = new JDIVariable();
+            variable.setName(readString(in, scanning));
+            variable.setTypeName(readString(in, scanning));
+            variable.setValue(readString(in, scanning));
+            int flags = in.get();
+            variable.setField((flags & SnapshotWriter.FIELD) != 0);
+            variable.setPrimitive((flags & SnapshotWriter.PRIMITIVE) != 0);
+            variable.setParent((flags & SnapshotWriter.PARENT) != 0);
+            long id = readLong(in);
+            variable.setObjectReference(id == 0 ? null : id);
+            variables[i] = variable;
+        }
+        return variables;
+    }
+    
+    /**
+     * This method reads text. Text given a number is numbered only while
+     * the file is first scanned, as reading it again finds it in place.
+     */
+    private String readString(ByteBuffer in, boolean scanning) {
+        int code = readInt(in);
+        if(code >= 2) {
+            return strings.get(code - 2);
+        }
+        byte[] bytes = new byte[readInt(in)];
+        in.get(bytes);
+        String value = new String(bytes, StandardCharsets.UTF_8);
+        if(code == 0 && scanning) {
+            strings.add(value);
+        }
+        return value;
+    }
+    
+    private static int readInt(ByteBuffer in) {
+        return (int) readLong(in);
+    }
+    
+    private static long readLong(ByteBuffer in) {
+        long result = 0;
+        int shift = 0;
+        while(true) {
+            byte next = in.get();
+            result |= (long) (next & 0x7F) << shift;
+            if(next >= 0) {
+                return result;
+            }
+            shift += 7;
+        }
+    }
+    
+    /**
+     * This method returns the children of a variable: the fields of the 
+     * object it referred to, or its elements if it was an array.
+     * 
+     * @param variable
+     * @return the children, which is empty if the object was not written.
+     */
+    public synchronized Variable[] getChildren(Variable variable) {
+        Integer position = getPosition(variable);
+        if(position == null) {
+            return new Variable[0];
+        }
+        ByteBuffer in = buffer.duplicate();
+        in.position(position);
+        return readVariables(in, false);
+    }
+    
+    /**
+     * @param variable
+     * @return the number of children of a variable
+     */
+    public synchronized int getChildrenCount(Variable variable) {
+        Integer position = getPosition(variable);
+        if(position == null) {
+            return 0;
+        }
+        ByteBuffer in = buffer.duplicate();
+        in.position(position);
+        return readInt(in);
+    }
+    
+    private Integer getPosition(Variable variable) {
+        if(variable == null || variable.isPrimitive() || !(variable.getReference() instanceof Long)) {
+            return null;
+        }
+        return objects.get((Long) variable.getReference());
+    }
+    
+    /**
+     * @return the file the snapshot was read from
+     */
+    public File getFile() {
+        return file;
+    }
+    
+    /**
+     * @return the time the snapshot was written, in milliseconds since 1970
+     */
+    public long getCreated() {
+        return created;
+    }
+    
+    /**
+     * @return the number of threads in the snapshot
+     */
+    public int getThreadCount() {
+        return threadNames.size();
+    }
+    
+    /**
+     * @return the thread the debugger was stopped in, or -1
+     */
+    public int getCurrentThread() {
+        return currentThread;
+    }
+    
+    /**
+     * @param thread
+     * @return the name of a thread
+     */
+    public String getThreadName(int thread) {
+        return threadNames.get(thread);
+    }
+    
+    /**
+     * @param thread
+     * @return the status of a thread, one of the ThreadReference statuses
+     */
+    public int getThreadStatus(int thread) {
+        return threadStatuses.get(thread);
+    }
+    
+    /**
+     * @param thread
+     * @return the frames of a thread, the innermost first
+     */
+    public JDIStackFrame[] getFrames(int thread) {
+        return threadFrames.get(thread);
+    }
+    
+    /**
+     * @param thread
+     * @param frame the position of the frame, where 0 is the innermost.
+     * @return the variables of a frame
+     */
+    public Variable[] getVariables(int thread, int frame) {
+        return threadVariables.get(thread)[frame];
+    }
+    
+    /**
+     * @return the number of objects in the snapshot
+     */
+    public int getObjectCount() {
+        return objects.size();
+    }
+}
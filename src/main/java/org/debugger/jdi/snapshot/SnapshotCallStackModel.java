@@ -0,0 +1,129 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.snapshot;
+
+import org.debugger.CallStackModel;
+import org.debugger.StackFrame;
+import org.debugger.VariableColumns;
+
+/**
+ * This class shows the call stack of a thread of a snapshot, as the 
+ * JDICallStackModel showed it when the snapshot was taken.
+ * 
+ * @author Andreas Stefik
+ */
+public class SnapshotCallStackModel implements CallStackModel {
+    private final Snapshot snapshot;
+    private int thread;
+    
+    /**
+     * This constructor shows the call stacks of a snapshot, starting with 
+     * the thread the debugger was stopped in.
+     * 
+     * @param snapshot 
+     */
+    public SnapshotCallStackModel(Snapshot snapshot) {
+        this.snapshot = snapshot;
+        this.thread = Math.max(0, snapshot.getCurrentThread());
+    }
+    
+    private StackFrame[] getFrames() {
+        if(thread >= snapshot.getThreadCount()) {
+            return new StackFrame[0];
+        }
+        return snapshot.getFrames(thread);
+    }
+    
+    @Override
+    public Object[] getChildren(StackFrame node, int from, int to) {
+        if(node != null) {
+            return new StackFrame[0];
+        }
+        return getFrames().clone();
+    }
+    
+    @Override
+    public boolean isLeaf(StackFrame node) {
+        return node != null || getFrames().length == 0;
+    }
+    
+    @Override
+    public int getChildrenCount(StackFrame node) {
+        return node != null ? 0 : getFrames().length;
+    }
+    
+    @Override
+    public String getDisplayName(StackFrame node) {
+        if(node == null) {
+            return "";
+        } else {
+            return node.getMethodName() + ":" + node.getLine();
+        }
+    }
+    
+    @Override
+    public String getShortDescription(StackFrame node) {
+        return "";
+    }
+    
+    @Override
+    public boolean isReadOnly(StackFrame node, VariableColumns column) {
+        return true;
+    }
+    
+    @Override
+    public Object getValueAt(StackFrame node, VariableColumns column) {
+        if(node == null) {
+            return "";
+        } else {
+            return node.getMethodName() + ":" + node.getLine();
+        }
+    }
+    
+    /**
+     * @return the snapshot being shown
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+    
+    /**
+     * @return the thread whose call stack is shown
+     */
+    public int getThread() {
+        return thread;
+    }
+    
+    /**
+     * @param thread the thread whose call stack is shown
+     */
+    public void setThread(int thread) {
+        this.thread = thread;
+    }
+}
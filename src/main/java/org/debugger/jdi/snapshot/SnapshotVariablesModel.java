@@ -0,0 +1,191 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.snapshot;
+
+import org.debugger.Variable;
+import org.debugger.VariableColumns;
+import org.debugger.VariablesModel;
+import org.debugger.Watch;
+import org.debugger.jdi.JDIVariable;
+
+/**
+ * This class shows the variables of a frame of a snapshot, as the 
+ * JDIVariablesModel showed them when the snapshot was taken. Objects can 
+ * be expanded as deep as the snapshot went. Values in a snapshot cannot be
+ * changed.
+ * 
+ * @author Andreas Stefik
+ */
+public class SnapshotVariablesModel implements VariablesModel {
+    private final Snapshot snapshot;
+    private int thread;
+    private int frame = 0;
+    
+    /**
+     * This constructor shows the variables of a snapshot, starting with the
+     * innermost frame of the thread the debugger was stopped in.
+     * 
+     * @param snapshot 
+     */
+    public SnapshotVariablesModel(Snapshot snapshot) {
+        this.snapshot = snapshot;
+        this.thread = Math.max(0, snapshot.getCurrentThread());
+    }
+    
+    private Variable[] getVariables() {
+        if(thread >= snapshot.getThreadCount() || frame >= snapshot.getFrames(thread).length) {
+            return new Variable[0];
+        }
+        return snapshot.getVariables(thread, frame);
+    }
+    
+    @Override
+    public Variable[] getChildren(Variable parent, int from, int to) {
+        if(parent == null) {
+            return getVariables();
+        }
+        return snapshot.getChildren(parent);
+    }
+    
+    @Override
+    public boolean isLeaf(Variable node) {
+        return node != null && (node.isPrimitive() || snapshot.getChildrenCount(node) == 0);
+    }
+    
+    @Override
+    public int getChildrenCount(Variable node) {
+        return node == null ? getVariables().length : snapshot.getChildrenCount(node);
+    }
+    
+    @Override
+    public String getDisplayName(Variable node) {
+        return node == null ? "" : node.getName();
+    }
+    
+    @Override
+    public String getShortDescription(Variable node) {
+        return "";
+    }
+    
+    @Override
+    public Object getValueAt(Variable node, VariableColumns column) {
+        if (node == null) {
+            return "";
+        }
+        switch (column) {
+            case NAME:
+                return node.getName();
+            case TYPE:
+                return node.getTypeName();
+            case VALUE:
+                return node.getValue();
+        }
+        return "";
+    }
+    
+    @Override
+    public boolean isReadOnly(Variable node, VariableColumns column) {
+        return true;
+    }
+    
+    @Override
+    public void setValueAt(Variable node, VariableColumns column, Object value) {
+        //a snapshot cannot be changed
+    }
+    
+    @Override
+    public Variable getWatchResult(Watch watch) {
+        String expression = watch.getExpression();
+        if(expression.isEmpty()) {
+            return null;
+        }
+        Variable[] variables = getVariables();
+        for(int i = 0; i < variables.length; i++) {
+            if(expression.equals(variables[i].getName())) {
+                JDIVariable original = (JDIVariable) variables[i];
+                JDIVariable var = new JDIVariable();
+                var.setName(original.getName());
+                var.setTypeName(original.getTypeName());
+                var.setValue(original.getValue());
+                var.setPrimitive(original.isPrimitive());
+                var.setObjectReference(original.getReference());
+                var.setWatchExpression(true);
+                return var;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Variable[] getWatchResults(Watch[] watches) {
+        Variable[] results = new Variable[watches.length];
+        for(int i = 0; i < watches.length; i++) {
+            results[i] = getWatchResult(watches[i]);
+        }
+        return results;
+    }
+    
+    /**
+     * @return the snapshot being shown
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+    
+    /**
+     * @return the thread whose variables are shown
+     */
+    public int getThread() {
+        return thread;
+    }
+    
+    /**
+     * @param thread the thread whose variables are shown
+     */
+    public void setThread(int thread) {
+        this.thread = thread;
+        this.frame = 0;
+    }
+    
+    /**
+     * @return the position of the frame whose variables are shown, where 0
+     * is the innermost
+     */
+    public int getFrame() {
+        return frame;
+    }
+    
+    /**
+     * @param frame the position of the frame whose variables are shown, 
+     * where 0 is the innermost
+     */
+    public void setFrame(int frame) {
+        this.frame = frame;
+    }
+}
@@ -0,0 +1,450 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.snapshot;
+
+import com.sun.jdi.AbsentInformationException;
+import com.sun.jdi.ArrayReference;
+import com.sun.jdi.Field;
+import com.sun.jdi.IncompatibleThreadStateException;
+import com.sun.jdi.LocalVariable;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.StackFrame;
+import com.sun.jdi.ThreadReference;
+import com.sun.jdi.Value;
+import com.sun.jdi.VirtualMachine;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.debugger.Variable;
+import org.debugger.filters.LanguageFilter;
+import org.debugger.jdi.JDIClassInformation;
+import org.debugger.jdi.JDIStackFrame;
+import org.debugger.jdi.JDIVariable;
+import org.debugger.jdi.views.JDIVariableView;
+
+/**
+ * This class writes the state of a paused virtual machine to a snapshot 
+ * file, which a Snapshot reads back once the virtual machine is gone. The 
+ * snapshot holds every thread's call stack, filtered as the call stack 
+ * window filters it, the variables of each frame, and the objects they 
+ * refer to, as deep as the maximum depth. Names and types are written as 
+ * the view shows them, so the snapshot reads as the program's language 
+ * would, without the view or the virtual machine. Values are written as 
+ * the view summarizes them, and objects by their fields, so that no code
+ * runs in the program while it is written: running code would resume the
+ * threads being recorded, and fails on threads not stopped by an event.
+ * 
+ * The file is written as the state is read. Threads come first, then the 
+ * objects they reach, breadth first, each written once however many 
+ * variables refer to it, as objects are told apart by their unique 
+ * identifiers. Only the identifiers of objects written and those waiting 
+ * to be are kept, so writing a large heap takes memory in proportion to 
+ * the objects written, which is bounded by the maximum objects, not to the
+ * heap. Text that repeats, like type names, is written once and referred 
+ * to by number after that.
+ * 
+ * The file is a header, a magic number, a version and the time it was 
+ * written, followed by records, each a type and its contents, with numbers
+ * written as variable length integers.
+ * 
+ * @author Andreas Stefik
+ */
+public class SnapshotWriter {
+    static final int MAGIC = 0x51534e50;
+    static final int VERSION = 1;
+    static final byte THREAD = 1;
+    static final byte OBJECT = 2;
+    static final byte END = 3;
+    
+    static final int FIELD = 1;
+    static final int PRIMITIVE = 2;
+    static final int PARENT = 4;
+    
+    /**
+     * The number of distinct strings given numbers. Text beyond this is 
+     * written out each time it is used.
+     */
+    private static final int MAXIMUM_STRINGS = 1 << 16;
+    
+    private final JDIVariableView view;
+    private final LanguageFilter filter;
+    private int maximumDepth = 3;
+    private int maximumObjects = 100000;
+    
+    private DataOutputStream out;
+    private final HashMap<String, Integer> strings = new HashMap<>();
+    private final IdSet seen = new IdSet();
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private int objectCount = 0;
+    
+    /**
+     * This constructor writes snapshots as a view and a filter show the 
+     * program.
+     * 
+     * @param view
+     * @param filter 
+     */
+    public SnapshotWriter(JDIVariableView view, LanguageFilter filter) {
+        this.view = view;
+        this.filter = filter;
+    }
+    
+    /**
+     * This method writes the state of a paused virtual machine to a file.
+     * Threads that are not suspended are written without their stacks.
+     * 
+     * @param machine
+     * @param current the thread the debugger is stopped in, or null.
+     * @param file
+     * @throws IOException 
+     */
+    public void write(VirtualMachine machine, ThreadReference current, File file) throws IOException {
+        strings.clear();
+        seen.clear();
+        pending.clear();
+        objectCount = 0;
+        try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out = stream;
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            
+            Iterator<ThreadReference> threads = machine.allThreads().iterator();
+            while(threads.hasNext()) {
+                ThreadReference next = threads.next();
+                writeThread(next, next.equals(current));
+            }
+            while(!pending.isEmpty()) {
+                writeObject(pending.poll());
+            }
+            out.write(END);
+        } finally {
+            out = null;
+            pending.clear();
+        }
+    }
+    
+    private void writeThread(ThreadReference thread, boolean current) throws IOException {
+        List<StackFrame> frames;
+        try {
+            frames = thread.isSuspended() ? thread.frames() : new ArrayList<StackFrame>();
+        } catch (IncompatibleThreadStateException ex) {
+            frames = new ArrayList<>();
+        }
+        
+        //frames are filtered as the call stack window filters them
+        ArrayList<StackFrame> kept = new ArrayList<>();
+        ArrayList<JDIStackFrame> converted = new ArrayList<>();
+        Iterator<StackFrame> iterator = frames.iterator();
+        while(iterator.hasNext()) {
+            StackFrame jdiFrame = iterator.next();
+            JDIStackFrame frame = new JDIStackFrame();
+            frame.setMethodName(jdiFrame.location().method().name());
+            JDIClassInformation info = new JDIClassInformation();
+            info.setClassName(jdiFrame.location().declaringType().name().replace('.', '/'));
+            frame.setClassInformation(info);
+            frame.setLine(jdiFrame.location().lineNumber());
+            if(filter.isValidStackFrame(frame)) {
+                kept.add(jdiFrame);
+                converted.add(frame);
+            }
+        }
+        
+        out.write(THREAD);
+        writeString(thread.name());
+        writeInt(thread.status());
+        out.write(current ? 1 : 0);
+        writeInt(kept.size());
+        for(int i = 0; i < kept.size(); i++) {
+            JDIStackFrame frame = converted.get(i);
+            writeString(kept.get(i).location().declaringType().name());
+            writeString(frame.getMethodName());
+            writeInt(frame.getLine() + 1);
+            writeVariables(getVariables(kept.get(i)), 1);
+        }
+    }
+    
+    /**
+     * This method reads the variables of a frame as the variables window 
+     * shows them: this, if there is one, then the visible locals.
+     */
+    private List<JDIVariable> getVariables(StackFrame frame) {
+        ArrayList<JDIVariable> variables = new ArrayList<>();
+        ObjectReference me = frame.thisObject();
+        if(me != null) {
+            JDIVariable variable = new JDIVariable();
+            variable.setField(true);
+            variable.setName(view.getThis());
+            variable.setTypeName(me.referenceType().name());
+            variable.setValue(view.getSummary(me));
+            variable.setObjectReference(me);
+            view.convertTypeName(variable);
+            variables.add(variable);
+        }
+        try {
+            List<LocalVariable> locals = frame.visibleVariables();
+            Map<LocalVariable, Value> values = frame.getValues(locals);
+            Iterator<LocalVariable> iterator = locals.iterator();
+            while(iterator.hasNext()) {
+                LocalVariable local = iterator.next();
+                Value value = values.get(local);
+                JDIVariable variable = new JDIVariable();
+                variable.setName(local.name());
+                variable.setTypeName(local.typeName());
+                variable.setValue(view.getSummary(value));
+                variable.setObjectReference(value);
+                view.convertTypeName(variable);
+                variables.add(variable);
+            }
+        } catch (AbsentInformationException ex) {
+            //the frame was compiled without local variable information
+        }
+        return variables;
+    }
+    
+    /**
+     * This method writes variables, queueing the objects they refer to.
+     * 
+     * @param variables
+     * @param depth the depth of the objects the variables refer to.
+     */
+    private void writeVariables(List<? extends Variable> variables, int depth) throws IOException {
+        writeInt(variables.size());
+        Iterator<? extends Variable> iterator = variables.iterator();
+        while(iterator.hasNext()) {
+            Variable variable = iterator.next();
+            writeString(variable.getName());
+            writeString(variable.getTypeName());
+            writeString(variable.getValue());
+            int flags = (variable.isField() ? FIELD : 0) | (variable.isPrimitive() ? PRIMITIVE : 0) 
+                    | (variable.isParent() ? PARENT : 0);
+            out.write(flags);
+            long id = 0;
+            if(!variable.isPrimitive() && variable.getReference() instanceof ObjectReference) {
+                ObjectReference reference = (ObjectReference) variable.getReference();
+                id = reference.uniqueID();
+                if(depth <= maximumDepth && objectCount < maximumObjects && seen.add(id)) {
+                    pending.add(new Pending(reference, depth));
+                    objectCount++;
+                }
+            }
+            writeLong(id);
+        }
+    }
+    
+    /**
+     * This method writes the children of an object: the items of an array,
+     * or the visible fields of any other object, including the containers
+     * the variables window shows specially, as reading those would run 
+     * code in the program.
+     */
+    private void writeObject(Pending next) throws IOException {
+        ObjectReference reference = next.reference;
+        ArrayList<Variable> children = new ArrayList<>();
+        if(reference instanceof ArrayReference) {
+            ArrayReference array = (ArrayReference) reference;
+            List<Value> values = array.getValues(0, Math.min(array.length(), maximumObjects));
+            for(int i = 0; i < values.size(); i++) {
+                Value value = values.get(i);
+                JDIVariable variable = new JDIVariable();
+                variable.setName("[" + i + "]");
+                variable.setTypeName(value == null ? "java.lang.Object" : value.type().name());
+                variable.setValue(view.getSummary(value));
+                variable.setField(true);
+                variable.setObjectReference(value);
+                view.convertTypeName(variable);
+                children.add(variable);
+            }
+        } else {
+            List<Field> fields = reference.referenceType().allFields();
+            ArrayList<Field> visible = new ArrayList<>(fields.size());
+            Iterator<Field> iterator = fields.iterator();
+            while(iterator.hasNext()) {
+                Field field = iterator.next();
+                if(filter.isVisibleField(field.name())) {
+                    visible.add(field);
+                }
+            }
+            Map<Field, Value> values = reference.getValues(visible);
+            iterator = visible.iterator();
+            while(iterator.hasNext()) {
+                Field field = iterator.next();
+                Value value = values.get(field);
+                JDIVariable variable = new JDIVariable();
+                variable.setName(field.name());
+                variable.setTypeName(field.typeName());
+                variable.setValue(view.getSummary(value));
+                variable.setField(true);
+                variable.setParent(filter.isParentField(field.name()));
+                variable.setObjectReference(value);
+                view.convertTypeName(variable);
+                children.add(variable);
+            }
+        }
+        out.write(OBJECT);
+        writeLong(reference.uniqueID());
+        writeVariables(children, next.depth + 1);
+    }
+    
+    /**
+     * This method writes text: 0 and the text if it is given a number, 1 
+     * and the text if it is not, or its number plus 2 if it already has 
+     * one.
+     */
+    private void writeString(String value) throws IOException {
+        if(value == null) {
+            value = "";
+        }
+        Integer number = strings.get(value);
+        if(number != null) {
+            writeInt(number + 2);
+            return;
+        }
+        if(strings.size() < MAXIMUM_STRINGS) {
+            strings.put(value, strings.size());
+            writeInt(0);
+        } else {
+            writeInt(1);
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    private void writeInt(int value) throws IOException {
+        writeLong(value & 0xFFFFFFFFL);
+    }
+    
+    private void writeLong(long value) throws IOException {
+        while((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+    
+    /**
+     * @return the depth of the deepest objects written, where the objects 
+     * the variables of a frame refer to have a depth of one
+     */
+    public int getMaximumDepth() {
+        return maximumDepth;
+    }
+    
+    /**
+     * @param maximumDepth the depth of the deepest objects written, where 
+     * the objects the variables of a frame refer to have a depth of one
+     */
+    public void setMaximumDepth(int maximumDepth) {
+        this.maximumDepth = maximumDepth;
+    }
+    
+    /**
+     * @return the number of objects, beyond which no more are written
+     */
+    public int getMaximumObjects() {
+        return maximumObjects;
+    }
+    
+    /**
+     * @param maximumObjects the number of objects, beyond which no more are
+     * written
+     */
+    public void setMaximumObjects(int maximumObjects) {
+        this.maximumObjects = maximumObjects;
+    }
+    
+    /**
+     * @return the number of objects written by the last snapshot
+     */
+    public int getObjectCount() {
+        return objectCount;
+    }
+    
+    /**
+     * This class is an object waiting to be written, with its depth.
+     */
+    private static class Pending {
+        private final ObjectReference reference;
+        private final int depth;
+        
+        private Pending(ObjectReference reference, int depth) {
+            this.reference = reference;
+            this.depth = depth;
+        }
+    }
+    
+    /**
+     * This class is a set of unique identifiers, kept in an open addressed
+     * table of primitives rather than as boxed values. Identifiers are 
+     * never zero.
+     */
+    private static class IdSet {
+        private long[] table = new long[1024];
+        private int size = 0;
+        
+        private boolean add(long id) {
+            if(size * 2 >= table.length) {
+                long[] old = table;
+                table = new long[old.length * 2];
+                size = 0;
+                for(int i = 0; i < old.length; i++) {
+                    if(old[i] != 0) {
+                        add(old[i]);
+                    }
+                }
+            }
+            int mask = table.length - 1;
+            int index = (int) (id * 0x9E3779B97F4A7C15L >>> 40) & mask;
+            while(table[index] != 0) {
+                if(table[index] == id) {
+                    return false;
+                }
+                index = (index + 1) & mask;
+            }
+            table[index] = id;
+            size++;
+            return true;
+        }
+        
+        private void clear() {
+            table = new long[1024];
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.trace;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import org.debugger.agent.TraceRing;
+
+/**
+ * This class reads the records the trace agent writes into its ring and 
+ * adds them to a recorder's trace. The agent numbers methods, lines and 
+ * variables itself, so the reader maps its numbers to those of the 
+ * recorder's dictionary as they are defined.
+ * 
+ * The agent does not record the depth of the stack, so the reader keeps a
+ * stack of methods for each thread from the records of methods being 
+ * entered and exited. A method left by an exception records no exit, so 
+ * when a line is in a method below the top of the stack, the methods above
+ * it are taken to have returned. The variables a frame stored since its 
+ * last line are recorded as changes at its next line, which is when the 
+ * debugger would first have seen them.
+ * 
+ * @author Andreas Stefik
+ */
+class AgentTraceReader implements Runnable {
+    private final TraceRing ring;
+    private final TraceRecorder recorder;
+    private final TraceDictionary dictionary;
+    private volatile boolean running = true;
+    private Thread thread;
+    
+    private int[] methods = new int[64];
+    private int[] locations = new int[256];
+    private int[] slots = new int[64];
+    private byte[] slotTags = new byte[64];
+    private final HashMap<Long, ThreadState> threads = new HashMap<>();
+    private final byte[] record = new byte[2048];
+    private int position = 0;
+    
+    AgentTraceReader(TraceRing ring, TraceRecorder recorder) {
+        this.ring = ring;
+        this.recorder = recorder;
+        this.dictionary = recorder.getDictionary();
+    }
+    
+    /**
+     * This method starts reading on a daemon thread.
+     */
+    void start() {
+        thread = new Thread(this, "Trace Agent Reader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * This method stops reading, once the records already written are read.
+     */
+    void stop() {
+        running = false;
+        if(thread != null) {
+            thread.interrupt();
+        }
+    }
+    
+    @Override
+    public void run() {
+        while(running) {
+            if(!drain()) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException ex) {
+                    //stopping
+                }
+            }
+        }
+        drain();
+    }
+    
+    /**
+     * This method reads every record waiting in the ring.
+     * 
+     * @return true if any record was read.
+     */
+    synchronized boolean drain() {
+        boolean read = false;
+        int length = ring.read(record);
+        while(length >= 0) {
+            read = true;
+            position = 0;
+            accept(length);
+            length = ring.read(record);
+        }
+        return read;
+    }
+    
+    private void accept(int length) {
+        byte type = record[position];
+        position++;
+        switch(type) {
+            case TraceRing.METHOD: {
+                int id = readInt();
+                String className = readString();
+                String name = readString();
+                methods = grow(methods, id);
+                methods[id] = dictionary.internMethod(className, name);
+                break;
+            }
+            case TraceRing.LOCATION: {
+                int id = readInt();
+                int method = readInt();
+                int line = readInt();
+                locations = grow(locations, id);
+                locations[id] = dictionary.internLocation(methods[method], line);
+                break;
+            }
+            case TraceRing.SLOT: {
+                int id = readInt();
+                int method = readInt();
+                char descriptor = (char) record[position];
+                position++;
+                String name = readString();
+                slots = grow(slots, id);
+                if(id >= slotTags.length) {
+                    slotTags = Arrays.copyOf(slotTags, slots.length);
+                }
+                slots[id] = dictionary.internSlot(methods[method], name);
+                slotTags[id] = tag(descriptor);
+                break;
+            }
+            case TraceRing.THREAD: {
+                long id = readLong();
+                String name = readString();
+                threads.put(id, new ThreadState(dictionary.internThread(id, name)));
+                break;
+            }
+            case TraceRing.ENTER: {
+                ThreadState state = threads.get(readLong());
+                state.push(methods[readInt()]);
+                break;
+            }
+            case TraceRing.EXIT: {
+                ThreadState state = threads.get(readLong());
+                state.pop(methods[readInt()]);
+                break;
+            }
+            case TraceRing.LINE: {
+                ThreadState state = threads.get(readLong());
+                int location = locations[readInt()];
+                int depth = state.at(dictionary.getMethod(location));
+                Changes changes = state.changes[depth - 1];
+                recorder.append(state.index, location, depth, changes.count, 
+                        changes.slots, changes.tags, changes.values);
+                changes.count = 0;
+                break;
+            }
+            case TraceRing.STORE: {
+                ThreadState state = threads.get(readLong());
+                int slot = readInt();
+                char kind = (char) record[position];
+                position++;
+                if(kind == 's') {
+                    state.change(slots[slot], TraceValues.STRING, dictionary.internString(readString()));
+                } else if(kind == 'n') {
+                    state.change(slots[slot], TraceValues.NULL, 0);
+                } else if(kind == 'o') {
+                    state.change(slots[slot], TraceValues.OBJECT, readLong());
+                } else {
+                    state.change(slots[slot], slotTags[slot], readLong());
+                }
+                break;
+            }
+            default:
+                break;
+        }
+    }
+    
+    /**
+     * This method returns the tag of the values of a variable with a type 
+     * descriptor starting with a given character.
+     * 
+     * @param descriptor
+     * @return 
+     */
+    private static byte tag(char descriptor) {
+        switch(descriptor) {
+            case 'Z':
+                return TraceValues.BOOLEAN;
+            case 'B':
+                return TraceValues.BYTE;
+            case 'C':
+                return TraceValues.CHAR;
+            case 'S':
+                return TraceValues.SHORT;
+            case 'I':
+                return TraceValues.INTEGER;
+            case 'J':
+                return TraceValues.LONG;
+            case 'F':
+                return TraceValues.FLOAT;
+            case 'D':
+                return TraceValues.DOUBLE;
+            default:
+                return TraceValues.OBJECT;
+        }
+    }
+    
+    private static int[] grow(int[] array, int index) {
+        if(index < array.length) {
+            return array;
+        }
+        return Arrays.copyOf(array, Math.max(array.length * 2, index + 1));
+    }
+    
+    private int readInt() {
+        int value = ((record[position] & 0xFF) << 24) | ((record[position + 1] & 0xFF) << 16) 
+                | ((record[position + 2] & 0xFF) << 8) | (record[position + 3] & 0xFF);
+        position += 4;
+        return value;
+    }
+    
+    private long readLong() {
+        long high = readInt();
+        return (high << 32) | (readInt() & 0xFFFFFFFFL);
+    }
+    
+    private String readString() {
+        int length = ((record[position] & 0xFF) << 8) | (record[position + 1] & 0xFF);
+        String value = new String(record, position + 2, length, StandardCharsets.UTF_8);
+        position += length + 2;
+        return value;
+    }
+    
+    /**
+     * This class holds what the reader knows of a thread: its number in the 
+     * dictionary, its stack of methods, and the variables each frame stored
+     * since its last line.
+     */
+    private static class ThreadState {
+        private final int index;
+        private int[] stack = new int[32];
+        private Changes[] changes = new Changes[32];
+        private int depth = 0;
+        
+        private ThreadState(int index) {
+            this.index = index;
+        }
+        
+        private void push(int method) {
+            if(depth == stack.length) {
+                stack = Arrays.copyOf(stack, depth * 2);
+                changes = Arrays.copyOf(changes, depth * 2);
+            }
+            stack[depth] = method;
+            if(changes[depth] == null) {
+                changes[depth] = new Changes();
+            }
+            changes[depth].count = 0;
+            depth++;
+        }
+        
+        /**
+         * This method leaves a method, along with any above it that were 
+         * left by an exception.
+         */
+        private void pop(int method) {
+            int found = find(method);
+            if(found >= 0) {
+                depth = found;
+            }
+        }
+        
+        /**
+         * This method returns the depth of a line in a method, dropping the
+         * methods above it.
+         */
+        private int at(int method) {
+            int found = find(method);
+            if(found < 0) {
+                push(method);
+            } else {
+                depth = found + 1;
+            }
+            return depth;
+        }
+        
+        private int find(int method) {
+            for(int i = depth - 1; i >= 0; i--) {
+                if(stack[i] == method) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        
+        /**
+         * This method records a store by the method on top of the stack.
+         */
+        private void change(int slot, byte tag, long value) {
+            if(depth > 0) {
+                changes[depth - 1].add(slot, tag, value);
+            }
+        }
+    }
+    
+    /**
+     * This class holds the variables a frame stored since its last line.
+     */
+    private static class Changes {
+        private int count = 0;
+        private int[] slots = new int[8];
+        private byte[] tags = new byte[8];
+        private long[] values = new long[8];
+        
+        /**
+         * This method records a store, replacing any earlier store to the 
+         * same variable.
+         */
+        private void add(int slot, byte tag, long value) {
+            for(int i = 0; i < count; i++) {
+                if(slots[i] == slot) {
+                    tags[i] = tag;
+                    values[i] = value;
+                    return;
+                }
+            }
+            if(count == slots.length) {
+                slots = Arrays.copyOf(slots, count * 2);
+                tags = Arrays.copyOf(tags, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            slots[count] = slot;
+            tags[count] = tag;
+            values[count] = value;
+            count++;
+        }
+    }
+}
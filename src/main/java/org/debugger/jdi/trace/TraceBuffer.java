@@ -0,0 +1,307 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.trace;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class stores the steps of a trace in chunks of a fixed number of 
+ * steps. Only the chunk being recorded is kept on the heap. Each full chunk
+ * is sealed: encoded compactly into a buffer off the heap, where it does not
+ * burden the garbage collector. Sealed chunks are decoded again when they 
+ * are read, and the few most recently read are kept decoded, as reading a 
+ * trace, for example stepping backward, tends to stay in one place.
+ * 
+ * Steps are numbered from zero in the order they were recorded, so the chunk
+ * holding any step is found by division.
+ * 
+ * Sealed chunks may instead be written to segment files, which bounds the 
+ * memory a long recording takes. If the segments delete old steps to stay
+ * within their limits, the trace then starts at a later step.
+ * 
+ * With a sealer, full chunks are sealed in the background rather than by 
+ * the thread recording, and are read from the heap until they are.
+ * 
+ * @author Andreas Stefik
+ */
+public class TraceBuffer implements TraceSource {
+    /**
+     * The number of steps in each chunk.
+     */
+    public static final int STEPS_PER_CHUNK = 4096;
+    
+    private static final int DECODED_CHUNKS = 8;
+    
+    private final ArrayList<ByteBuffer> sealed = new ArrayList<>();
+    private final HashMap<Integer, TraceChunk> pending = new HashMap<>();
+    private TraceChunk open = new TraceChunk(0, STEPS_PER_CHUNK);
+    private TraceChunk snapshot = null;
+    private long size = 0;
+    private long sealedBytes = 0;
+    private TraceSegments segments = null;
+    private TraceSealer sealer = null;
+    private int firstChunk = 0;
+    
+    private final LinkedHashMap<Integer, TraceChunk> decoded = new LinkedHashMap<Integer, TraceChunk>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, TraceChunk> eldest) {
+            return size() > DECODED_CHUNKS;
+        }
+    };
+    
+    /**
+     * This method adds a step to the end of the trace.
+     * 
+     * @param thread the number of the thread that took the step.
+     * @param location the number of the location of the step.
+     * @param depth the number of frames on the thread's stack.
+     * @param count the number of variables the step changed.
+     * @param slots the slots of the variables changed.
+     * @param tags the tags of the new values.
+     * @param values the new values.
+     * @return the number of the step.
+     */
+    public synchronized long append(int thread, int location, int depth, int count, 
+            int[] slots, byte[] tags, long[] values) {
+        if(!open.append(thread, location, depth, count, slots, tags, values)) {
+            seal();
+            open.append(thread, location, depth, count, slots, tags, values);
+        }
+        snapshot = null;
+        size++;
+        return size - 1;
+    }
+    
+    /**
+     * This method encodes the open chunk off the heap, or hands it to the
+     * sealer to be, and starts a new one.
+     */
+    private void seal() {
+        int index = sealed.size();
+        sealed.add(null);
+        if(sealer == null) {
+            install(index, open.encode());
+        } else {
+            pending.put(index, open);
+            sealer.submit(index, open);
+        }
+        open = new TraceChunk(size, STEPS_PER_CHUNK);
+    }
+    
+    /**
+     * This method stores an encoded chunk in place of the chunk recorded, 
+     * writing it to the segments if there are any. Chunks must be installed
+     * in order.
+     * 
+     * @param index the position of the chunk in the trace.
+     * @param buffer the encoded chunk.
+     */
+    synchronized void install(int index, ByteBuffer buffer) {
+        if(index >= sealed.size() || sealed.get(index) != null) {
+            return; //the trace was cleared
+        }
+        if(segments != null) {
+            ByteBuffer stored = segments.write((long) index * STEPS_PER_CHUNK, buffer);
+            if(stored != null) {
+                buffer = stored;
+            }
+        }
+        sealed.set(index, buffer);
+        sealedBytes += buffer.capacity();
+        pending.remove(index);
+        if(segments != null) {
+            //chunks in deleted segments are dropped
+            int first = (int) (segments.getFirstStep() / STEPS_PER_CHUNK);
+            while(firstChunk < first) {
+                sealedBytes -= sealed.get(firstChunk).capacity();
+                sealed.set(firstChunk, null);
+                decoded.remove(firstChunk);
+                firstChunk++;
+            }
+        }
+    }
+    
+    /**
+     * This method writes the chunk being recorded to the segments, if there
+     * are any, so that they hold the whole trace once recording stops. Any
+     * chunks waiting to be sealed must be sealed first.
+     */
+    synchronized void writeTail() {
+        if(segments != null && open.getSize() > 0) {
+            segments.writeTail(open.getFirstStep(), open.encode());
+        }
+    }
+    
+    /**
+     * This method returns the chunk holding a step.
+     * 
+     * @param step
+     * @return 
+     */
+    @Override
+    public synchronized TraceChunk getChunk(long step) {
+        if(step < getFirstStep() || step >= size) {
+            throw new IndexOutOfBoundsException("Step " + step + " of " + size);
+        }
+        return getChunkAt((int) (step / STEPS_PER_CHUNK));
+    }
+    
+    /**
+     * This method returns a chunk by its position in the trace. The chunk
+     * being recorded is returned as a copy, which does not change as more
+     * steps are recorded.
+     * 
+     * @param index
+     * @return 
+     */
+    public synchronized TraceChunk getChunkAt(int index) {
+        if(index == sealed.size()) {
+            if(snapshot == null) {
+                snapshot = open.snapshot();
+            }
+            return snapshot;
+        }
+        if(index < firstChunk) {
+            throw new IndexOutOfBoundsException("Chunk " + index + " was deleted.");
+        }
+        TraceChunk chunk = pending.get(index);
+        if(chunk != null) {
+            return chunk;
+        }
+        chunk = decoded.get(index);
+        if(chunk == null) {
+            chunk = TraceChunk.decode((long) index * STEPS_PER_CHUNK, sealed.get(index));
+            decoded.put(index, chunk);
+        }
+        return chunk;
+    }
+    
+    /**
+     * @return the first step still in the trace
+     */
+    @Override
+    public synchronized long getFirstStep() {
+        return (long) firstChunk * STEPS_PER_CHUNK;
+    }
+    
+    /**
+     * This method stores sealed chunks in segment files from now on, or 
+     * off the heap if the segments are null. Chunks already sealed are 
+     * written to the segments first, so that recording to segments can 
+     * begin part way through a trace without losing its start. Any chunks 
+     * waiting to be sealed must be sealed first.
+     * 
+     * @param segments 
+     */
+    public synchronized void setSegments(TraceSegments segments) {
+        this.segments = segments;
+        if(segments == null) {
+            return;
+        }
+        for(int i = firstChunk; i < sealed.size(); i++) {
+            ByteBuffer buffer = sealed.get(i);
+            if(buffer == null) {
+                break; //the rest are written as they are installed
+            }
+            ByteBuffer stored = segments.write((long) i * STEPS_PER_CHUNK, buffer);
+            if(stored != null) {
+                sealedBytes += stored.capacity() - buffer.capacity();
+                sealed.set(i, stored);
+            }
+        }
+    }
+    
+    /**
+     * @return the segment files sealed chunks are stored in, or null
+     */
+    public synchronized TraceSegments getSegments() {
+        return segments;
+    }
+    
+    /**
+     * This method seals full chunks with a sealer from now on, or on the 
+     * thread recording if the sealer is null.
+     * 
+     * @param sealer 
+     */
+    public synchronized void setSealer(TraceSealer sealer) {
+        this.sealer = sealer;
+    }
+    
+    /**
+     * @return the sealer sealing full chunks, or null
+     */
+    public synchronized TraceSealer getSealer() {
+        return sealer;
+    }
+    
+    /**
+     * @return the number of chunks, including the one being recorded
+     */
+    public synchronized int getChunkCount() {
+        return sealed.size() + 1;
+    }
+    
+    /**
+     * @return the number of steps in the trace
+     */
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+    
+    /**
+     * @return the number of bytes used by sealed chunks, off the heap or in
+     * segment files
+     */
+    public synchronized long getSealedBytes() {
+        return sealedBytes;
+    }
+    
+    /**
+     * This method removes every step from the trace.
+     */
+    public synchronized void clear() {
+        sealed.clear();
+        pending.clear();
+        decoded.clear();
+        firstChunk = 0;
+        if(segments != null) {
+            segments.clear();
+        }
+        open = new TraceChunk(0, STEPS_PER_CHUNK);
+        snapshot = null;
+        size = 0;
+        sealedBytes = 0;
+    }
+}
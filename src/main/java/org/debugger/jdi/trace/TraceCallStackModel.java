@@ -0,0 +1,178 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.trace;
+
+import org.debugger.CallStackModel;
+import org.debugger.StackFrame;
+import org.debugger.VariableColumns;
+import org.debugger.filters.LanguageFilter;
+import org.debugger.jdi.JDIClassInformation;
+import org.debugger.jdi.JDIStackFrame;
+
+/**
+ * This class shows the call stack of a recorded trace at a step, rather than
+ * that of the running program. Like the TraceVariablesModel, the debugger
+ * positions it at the step it is showing when it browses the past, and the
+ * frames come from the trace's checkpoints.
+ * 
+ * A frame the trace has not seen since its last checkpoint, because it was
+ * entered before recording began, is left out of the stack.
+ * 
+ * @author Andreas Stefik
+ */
+public class TraceCallStackModel implements CallStackModel {
+    private final TraceRecorder recorder;
+    private LanguageFilter filter = null;
+    private long step = -1;
+    
+    /**
+     * This constructor shows the call stacks of a recorder's trace.
+     * 
+     * @param recorder 
+     */
+    public TraceCallStackModel(TraceRecorder recorder) {
+        this.recorder = recorder;
+    }
+    
+    /**
+     * This method returns the frames of the step being shown, the innermost
+     * first, as the JDICallStackModel does.
+     * 
+     * @return 
+     */
+    private JDIStackFrame[] getFrames() {
+        long current = getStep();
+        TraceBuffer buffer = recorder.getBuffer();
+        if(current < buffer.getFirstStep() || current >= buffer.size()) {
+            return new JDIStackFrame[0];
+        }
+        TraceDictionary dictionary = recorder.getDictionary();
+        TraceFrame[] frames = recorder.getCheckpoints().getFrames(current);
+        JDIStackFrame[] result = new JDIStackFrame[frames.length];
+        LanguageFilter languageFilter = getFilter();
+        int count = 0;
+        for(int i = frames.length - 1; i >= 0; i--) {
+            TraceFrame traceFrame = frames[i];
+            if(traceFrame == null) {
+                continue;
+            }
+            int location = traceFrame.getLocation();
+            JDIStackFrame frame = new JDIStackFrame();
+            frame.setMethodName(dictionary.getMethodName(traceFrame.getMethod()));
+            JDIClassInformation info = new JDIClassInformation();
+            info.setClassName(dictionary.getMethodClassName(traceFrame.getMethod()).replace('.', '/'));
+            frame.setClassInformation(info);
+            frame.setLine(location < 0 ? -1 : dictionary.getLine(location));
+            if(languageFilter == null || languageFilter.isValidStackFrame(frame)) {
+                result[count] = frame;
+                count++;
+            }
+        }
+        if(count > 0) {
+            result[0].setCurrent(true);
+        }
+        JDIStackFrame[] filtered = new JDIStackFrame[count];
+        System.arraycopy(result, 0, filtered, 0, count);
+        return filtered;
+    }
+    
+    @Override
+    public Object[] getChildren(StackFrame node, int from, int to) {
+        if(node != null) {
+            return new JDIStackFrame[0];
+        }
+        return getFrames();
+    }
+    
+    @Override
+    public boolean isLeaf(StackFrame node) {
+        return node != null || getFrames().length == 0;
+    }
+    
+    @Override
+    public int getChildrenCount(StackFrame node) {
+        return node != null ? 0 : getFrames().length;
+    }
+    
+    @Override
+    public String getDisplayName(StackFrame node) {
+        if(node == null) {
+            return "";
+        } else {
+            return node.getMethodName() + ":" + node.getLine();
+        }
+    }
+    
+    @Override
+    public String getShortDescription(StackFrame node) {
+        return "";
+    }
+    
+    @Override
+    public boolean isReadOnly(StackFrame node, VariableColumns column) {
+        return true;
+    }
+    
+    @Override
+    public Object getValueAt(StackFrame node, VariableColumns column) {
+        if(node == null) {
+            return "";
+        } else {
+            return node.getMethodName() + ":" + node.getLine();
+        }
+    }
+    
+    /**
+     * @return the step whose call stack is shown
+     */
+    public synchronized long getStep() {
+        return step;
+    }
+    
+    /**
+     * @param step the step whose call stack is shown
+     */
+    public synchronized void setStep(long step) {
+        this.step = step;
+    }
+    
+    /**
+     * @return the filter hiding the frames of the language's runtime
+     */
+    public synchronized LanguageFilter getFilter() {
+        return filter;
+    }
+    
+    /**
+     * @param filter the filter hiding the frames of the language's runtime
+     */
+    public synchronized void setFilter(LanguageFilter filter) {
+        this.filter = filter;
+    }
+}
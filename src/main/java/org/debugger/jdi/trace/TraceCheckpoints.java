@@ -0,0 +1,344 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.trace;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class answers what the frames of a thread held at any step of a 
+ * trace. The trace records only changes, so the state at a step is found by
+ * replaying the changes before it. To keep that fast, the full state of 
+ * every thread is copied into a checkpoint from time to time as the trace 
+ * is indexed, and a query replays only from the nearest checkpoint before 
+ * its step. While recording, the sealer indexes each chunk as it commits 
+ * it, in the background, so a query indexes at most the chunks not yet 
+ * committed, rather than the whole trace the first time it is asked.
+ * 
+ * Where checkpoints go is decided by their cost. Replaying a step costs one
+ * plus the number of variables it changed, and a checkpoint costs the 
+ * number of frames and values it copies. A checkpoint is placed once the 
+ * replay cost since the last one is both at least MINIMUM_DISTANCE and at 
+ * least SPACE_FACTOR times the size of the state, so a large state is 
+ * copied less often, but never later than MAXIMUM_DISTANCE. Any step is 
+ * then reached by replaying no more than MAXIMUM_DISTANCE. The last state
+ * computed is also kept, so moving forward a step at a time replays one 
+ * step.
+ * 
+ * When the oldest steps of the trace are deleted to keep it within its
+ * retention, the checkpoints before them can no longer be replayed from, 
+ * and are dropped.
+ * 
+ * Frames are told apart as the recorder tells them apart: by depth, and by
+ * method at that depth. A step drops the frames deeper than it.
+ * 
+ * @author Andreas Stefik
+ */
+public class TraceCheckpoints {
+    public static final int MINIMUM_DISTANCE = 256;
+    public static final int MAXIMUM_DISTANCE = 8192;
+    public static final int SPACE_FACTOR = 4;
+    
+    private final TraceSource buffer;
+    private final TraceDictionary dictionary;
+    
+    /**
+     * The state of every thread after the last step indexed.
+     */
+    private final ArrayList<ArrayList<TraceFrame>> threads = new ArrayList<>();
+    private long indexed = -1;
+    private long cost = 0;
+    
+    private long[] steps = new long[64];
+    private TraceFrame[][][] states = new TraceFrame[64][][];
+    private int count = 0;
+    
+    private long cachedStep = -1;
+    private int cachedThread = -1;
+    private ArrayList<TraceFrame> cached = null;
+    
+    /**
+     * This constructor indexes a trace, which may be the one being recorded
+     * or one read from segment files.
+     * 
+     * @param buffer
+     * @param dictionary 
+     */
+    public TraceCheckpoints(TraceSource buffer, TraceDictionary dictionary) {
+        this.buffer = buffer;
+        this.dictionary = dictionary;
+    }
+    
+    /**
+     * This method returns the frames of the thread that took a step, as they
+     * were after it, from the outermost frame to the innermost. The frames 
+     * are copies, which do not change with later queries. A frame is 
+     * null if the thread's stack held a frame at that depth that was never 
+     * recorded, for example a library method.
+     * 
+     * @param step
+     * @return 
+     */
+    public synchronized TraceFrame[] getFrames(long step) {
+        if(buffer.size() < indexed + 1) {
+            clear(); //the trace was cleared
+        }
+        prune();
+        TraceChunk chunk = buffer.getChunk(step);
+        int thread = chunk.getThread((int) (step - chunk.getFirstStep()));
+        index(step);
+        
+        int checkpoint = findCheckpoint(step);
+        if(cached == null || cachedThread != thread || cachedStep > step 
+                || cachedStep < buffer.getFirstStep() - 1
+                || (checkpoint >= 0 && steps[checkpoint] > cachedStep)) {
+            cached = new ArrayList<>();
+            cachedStep = buffer.getFirstStep() - 1;
+            if(checkpoint >= 0) {
+                TraceFrame[][] state = states[checkpoint];
+                if(thread < state.length && state[thread] != null) {
+                    for(int i = 0; i < state[thread].length; i++) {
+                        TraceFrame frame = state[thread][i];
+                        cached.add(frame == null ? null : frame.copy());
+                    }
+                }
+                cachedStep = steps[checkpoint];
+            }
+            cachedThread = thread;
+        }
+        replay(cachedStep + 1, step, thread, cached);
+        cachedStep = step;
+        TraceFrame[] frames = new TraceFrame[cached.size()];
+        for(int i = 0; i < frames.length; i++) {
+            frames[i] = cached.get(i) == null ? null : cached.get(i).copy();
+        }
+        return frames;
+    }
+    
+    /**
+     * This method returns the innermost frame of the thread that took a 
+     * step, the frame the step was in.
+     * 
+     * @param step
+     * @return 
+     */
+    public TraceFrame getFrame(long step) {
+        TraceFrame[] frames = getFrames(step);
+        return frames.length == 0 ? null : frames[frames.length - 1];
+    }
+    
+    /**
+     * This method returns the position of the last checkpoint at or before 
+     * a step, or -1 if there is none. A checkpoint before the first step 
+     * still in the trace is never returned, as the steps after it that 
+     * would be replayed are gone.
+     */
+    private int findCheckpoint(long step) {
+        int index = Arrays.binarySearch(steps, 0, count, step);
+        if(index < 0) {
+            index = -index - 2;
+        }
+        if(index >= 0 && steps[index] < buffer.getFirstStep() - 1) {
+            return -1;
+        }
+        return index;
+    }
+    
+    /**
+     * This method drops the checkpoints before the first step still in the
+     * trace.
+     */
+    private void prune() {
+        long first = buffer.getFirstStep() - 1;
+        int dropped = 0;
+        while(dropped < count && steps[dropped] < first) {
+            dropped++;
+        }
+        if(dropped == 0) {
+            return;
+        }
+        System.arraycopy(steps, dropped, steps, 0, count - dropped);
+        System.arraycopy(states, dropped, states, 0, count - dropped);
+        Arrays.fill(states, count - dropped, count, null);
+        count -= dropped;
+    }
+    
+    /**
+     * This method indexes a chunk the sealer has committed. Chunks must be
+     * added in order, and steps already indexed by a query are skipped.
+     * 
+     * @param chunk 
+     */
+    synchronized void add(TraceChunk chunk) {
+        if(chunk.getFirstStep() + chunk.getSize() - 1 <= indexed) {
+            return;
+        }
+        if(chunk.getFirstStep() > indexed + 1) {
+            //steps were deleted before they were indexed
+            threads.clear();
+            indexed = chunk.getFirstStep() - 1;
+        }
+        index(chunk, Long.MAX_VALUE);
+        prune();
+    }
+    
+    /**
+     * This method indexes the trace up to a step, placing checkpoints.
+     */
+    private void index(long through) {
+        if(indexed < buffer.getFirstStep() - 1) {
+            //steps were deleted before they were indexed
+            threads.clear();
+            indexed = buffer.getFirstStep() - 1;
+        }
+        while(indexed < through) {
+            index(buffer.getChunk(indexed + 1), through);
+        }
+    }
+    
+    /**
+     * This method indexes the steps of a chunk after the last step indexed,
+     * up to a step.
+     */
+    private void index(TraceChunk chunk, long through) {
+        long step = indexed + 1;
+        int i = (int) (step - chunk.getFirstStep());
+        while(i < chunk.getSize() && step <= through) {
+            int thread = chunk.getThread(i);
+            while(threads.size() <= thread) {
+                threads.add(new ArrayList<TraceFrame>());
+            }
+            apply(chunk, i, threads.get(thread));
+            cost += 1 + chunk.getChangeStart(i + 1) - chunk.getChangeStart(i);
+            indexed = step;
+            if(cost >= MINIMUM_DISTANCE) {
+                checkpoint();
+            }
+            i++;
+            step++;
+        }
+    }
+    
+    /**
+     * This method places a checkpoint after the last step indexed, if the 
+     * cost model allows it.
+     */
+    private void checkpoint() {
+        int size = 0;
+        for(int i = 0; i < threads.size(); i++) {
+            ArrayList<TraceFrame> frames = threads.get(i);
+            for(int j = 0; j < frames.size(); j++) {
+                size += frames.get(j) == null ? 1 : frames.get(j).getWeight();
+            }
+        }
+        if(cost < MAXIMUM_DISTANCE && cost < (long) SPACE_FACTOR * size) {
+            return;
+        }
+        TraceFrame[][] state = new TraceFrame[threads.size()][];
+        for(int i = 0; i < threads.size(); i++) {
+            ArrayList<TraceFrame> frames = threads.get(i);
+            state[i] = new TraceFrame[frames.size()];
+            for(int j = 0; j < frames.size(); j++) {
+                state[i][j] = frames.get(j) == null ? null : frames.get(j).copy();
+            }
+        }
+        if(count == steps.length) {
+            steps = Arrays.copyOf(steps, count * 2);
+            states = Arrays.copyOf(states, count * 2);
+        }
+        steps[count] = indexed;
+        states[count] = state;
+        count++;
+        cost = 0;
+    }
+    
+    /**
+     * This method applies the steps of one thread in a range to its frames.
+     */
+    private void replay(long from, long to, int thread, ArrayList<TraceFrame> frames) {
+        long step = from;
+        while(step <= to) {
+            TraceChunk chunk = buffer.getChunk(step);
+            int i = (int) (step - chunk.getFirstStep());
+            while(i < chunk.getSize() && step <= to) {
+                if(chunk.getThread(i) == thread) {
+                    apply(chunk, i, frames);
+                }
+                i++;
+                step++;
+            }
+        }
+    }
+    
+    /**
+     * This method applies a step to the frames of its thread.
+     */
+    private void apply(TraceChunk chunk, int i, ArrayList<TraceFrame> frames) {
+        int depth = chunk.getDepth(i);
+        int location = chunk.getLocation(i);
+        int method = dictionary.getMethod(location);
+        while(frames.size() > depth) {
+            frames.remove(frames.size() - 1);
+        }
+        while(frames.size() < depth) {
+            frames.add(null);
+        }
+        TraceFrame frame = frames.get(depth - 1);
+        if(frame == null || frame.getMethod() != method) {
+            frame = new TraceFrame(method);
+            frames.set(depth - 1, frame);
+        }
+        frame.setLocation(location);
+        for(int c = chunk.getChangeStart(i); c < chunk.getChangeStart(i + 1); c++) {
+            frame.set(chunk.getSlot(c), chunk.getTag(c), chunk.getValue(c));
+        }
+    }
+    
+    /**
+     * @return the number of checkpoints placed
+     */
+    public synchronized int getCheckpointCount() {
+        return count;
+    }
+    
+    /**
+     * This method forgets every checkpoint, for example when the trace is 
+     * cleared.
+     */
+    public synchronized void clear() {
+        threads.clear();
+        indexed = -1;
+        cost = 0;
+        Arrays.fill(states, 0, count, null);
+        count = 0;
+        cached = null;
+        cachedStep = -1;
+        cachedThread = -1;
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.trace;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class holds a run of consecutive steps of a trace as columns: one 
+ * array for the threads of the steps, one for their locations, one for the
+ * depth of the stack, and, for the variables each step changed, arrays of 
+ * slots, tags and values. The changes of step i are those from 
+ * getChangeStart(i) up to getChangeStart(i + 1).
+ * 
+ * A chunk is filled while recording, then sealed by encoding it off the 
+ * heap, with each column written as variable length integers. Depths are 
+ * stored as the difference from the step before, and each value as the 
+ * difference from the last value of its slot in the chunk, so that counters 
+ * and small changes take a byte or two. Locations and slots are stored as 
+ * positions in a table of those the chunk uses, as a chunk visits few of 
+ * the program's locations. A chunk depends on no other, so any chunk can be
+ * decoded on its own.
+ * 
+ * @author Andreas Stefik
+ */
+public class TraceChunk {
+    private final long firstStep;
+    private int size = 0;
+    private int[] threads;
+    private int[] locations;
+    private int[] depths;
+    private int[] changeStarts;
+    private int changeCount = 0;
+    private int[] slots;
+    private byte[] tags;
+    private long[] values;
+    
+    /**
+     * This constructor creates an empty chunk.
+     * 
+     * @param firstStep the number of the first step in the chunk.
+     * @param capacity the number of steps the chunk can hold.
+     */
+    TraceChunk(long firstStep, int capacity) {
+        this(firstStep, new int[capacity], new int[capacity], new int[capacity], 
+                new int[capacity + 1], new int[capacity], new byte[capacity], new long[capacity]);
+    }
+    
+    private TraceChunk(long firstStep, int[] threads, int[] locations, int[] depths, 
+            int[] changeStarts, int[] slots, byte[] tags, long[] values) {
+        this.firstStep = firstStep;
+        this.threads = threads;
+        this.locations = locations;
+        this.depths = depths;
+        this.changeStarts = changeStarts;
+        this.slots = slots;
+        this.tags = tags;
+        this.values = values;
+    }
+    
+    /**
+     * This method adds a step to the chunk.
+     * 
+     * @return false if the chunk is full.
+     */
+    boolean append(int thread, int location, int depth, int count, 
+            int[] changedSlots, byte[] changedTags, long[] changedValues) {
+        if(size == threads.length) {
+            return false;
+        }
+        threads[size] = thread;
+        locations[size] = location;
+        depths[size] = depth;
+        if(changeCount + count > slots.length) {
+            int capacity = Math.max(slots.length * 2, changeCount + count);
+            slots = Arrays.copyOf(slots, capacity);
+            tags = Arrays.copyOf(tags, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        System.arraycopy(changedSlots, 0, slots, changeCount, count);
+        System.arraycopy(changedTags, 0, tags, changeCount, count);
+        System.arraycopy(changedValues, 0, values, changeCount, count);
+        changeStarts[size] = changeCount;
+        changeCount += count;
+        size++;
+        changeStarts[size] = changeCount;
+        return true;
+    }
+    
+    /**
+     * This method returns a copy of the chunk as it is now, which does not
+     * change as more steps are added.
+     * 
+     * @return 
+     */
+    TraceChunk snapshot() {
+        return new TraceChunk(firstStep, Arrays.copyOf(threads, size), 
+                Arrays.copyOf(locations, size), Arrays.copyOf(depths, size), 
+                Arrays.copyOf(changeStarts, size + 1), Arrays.copyOf(slots, changeCount), 
+                Arrays.copyOf(tags, changeCount), Arrays.copyOf(values, changeCount)).sized(size, changeCount);
+    }
+    
+    private TraceChunk sized(int size, int changeCount) {
+        this.size = size;
+        this.changeCount = changeCount;
+        return this;
+    }
+    
+    /**
+     * This method encodes the chunk into a buffer off the heap.
+     * 
+     * @return 
+     */
+    ByteBuffer encode() {
+        Bytes out = new Bytes(size * 4 + changeCount * 4 + 16);
+        out.writeInt(size);
+        out.writeInt(changeCount);
+        for(int i = 0; i < size; i++) {
+            out.writeInt(threads[i]);
+        }
+        writeCoded(out, locations, size);
+        int previous = 0;
+        for(int i = 0; i < size; i++) {
+            out.writeLong(zigzag(depths[i] - previous));
+            previous = depths[i];
+        }
+        for(int i = 0; i < size; i++) {
+            out.writeInt(changeStarts[i + 1] - changeStarts[i]);
+        }
+        writeCoded(out, slots, changeCount);
+        for(int i = 0; i < changeCount; i++) {
+            out.write(tags[i]);
+        }
+        HashMap<Integer, Long> last = new HashMap<>();
+        for(int i = 0; i < changeCount; i++) {
+            Long before = last.put(slots[i], values[i]);
+            out.writeLong(zigzag(values[i] - (before == null ? 0 : before)));
+        }
+        
+        ByteBuffer buffer = ByteBuffer.allocateDirect(out.size);
+        buffer.put(out.bytes, 0, out.size);
+        buffer.flip();
+        return buffer;
+    }
+    
+    /**
+     * This method decodes a chunk encoded by encode.
+     * 
+     * @param firstStep the number of the first step in the chunk.
+     * @param encoded
+     * @return 
+     */
+    static TraceChunk decode(long firstStep, ByteBuffer encoded) {
+        ByteBuffer in = encoded.duplicate();
+        in.rewind();
+        int size = readInt(in);
+        int changeCount = readInt(in);
+        TraceChunk chunk = new TraceChunk(firstStep, new int[size], new int[size], new int[size], 
+                new int[size + 1], new int[changeCount], new byte[changeCount], new long[changeCount]);
+        for(int i = 0; i < size; i++) {
+            chunk.threads[i] = readInt(in);
+        }
+        readCoded(in, chunk.locations, size);
+        int previous = 0;
+        for(int i = 0; i < size; i++) {
+            previous += (int) unzigzag(readLong(in));
+            chunk.depths[i] = previous;
+        }
+        for(int i = 0; i < size; i++) {
+            chunk.changeStarts[i + 1] = chunk.changeStarts[i] + readInt(in);
+        }
+        readCoded(in, chunk.slots, changeCount);
+        in.get(chunk.tags);
+        HashMap<Integer, Long> last = new HashMap<>();
+        for(int i = 0; i < changeCount; i++) {
+            Long before = last.get(chunk.slots[i]);
+            long value = unzigzag(readLong(in)) + (before == null ? 0 : before);
+            chunk.values[i] = value;
+            last.put(chunk.slots[i], value);
+        }
+        return chunk.sized(size, changeCount);
+    }
+    
+    /**
+     * This method writes a column of numbers that repeat, like locations, as
+     * a table of the distinct numbers followed by the position of each 
+     * number in the table.
+     */
+    private static void writeCoded(Bytes out, int[] column, int count) {
+        HashMap<Integer, Integer> codes = new HashMap<>();
+        int[] table = new int[16];
+        int[] coded = new int[count];
+        for(int i = 0; i < count; i++) {
+            Integer code = codes.get(column[i]);
+            if(code == null) {
+                code = codes.size();
+                if(code == table.length) {
+                    table = Arrays.copyOf(table, code * 2);
+                }
+                table[code] = column[i];
+                codes.put(column[i], code);
+            }
+            coded[i] = code;
+        }
+        out.writeInt(codes.size());
+        for(int i = 0; i < codes.size(); i++) {
+            out.writeInt(table[i]);
+        }
+        for(int i = 0; i < count; i++) {
+            out.writeInt(coded[i]);
+        }
+    }
+    
+    private static void readCoded(ByteBuffer in, int[] column, int count) {
+        int[] table = new int[readInt(in)];
+        for(int i = 0; i < table.length; i++) {
+            table[i] = readInt(in);
+        }
+        for(int i = 0; i < count; i++) {
+            column[i] = table[readInt(in)];
+        }
+    }
+    
+    /**
+     * @return the number of bytes the columns of the chunk take on the heap
+     */
+    long getColumnBytes() {
+        return size * 12L + changeCount * 13L;
+    }
+    
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+    
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+    
+    static int readInt(ByteBuffer in) {
+        return (int) readLong(in);
+    }
+    
+    static long readLong(ByteBuffer in) {
+        long result = 0;
+        int shift = 0;
+        while(true) {
+            byte next = in.get();
+            result |= (long) (next & 0x7F) << shift;
+            if(next >= 0) {
+                return result;
+            }
+            shift += 7;
+        }
+    }
+    
+    /**
+     * @return the number of the first step in the chunk
+     */
+    public long getFirstStep() {
+        return firstStep;
+    }
+    
+    /**
+     * @return the number of steps in the chunk
+     */
+    public int getSize() {
+        return size;
+    }
+    
+    /**
+     * @param step the position of a step in the chunk
+     * @return the number of the thread that took the step
+     */
+    public int getThread(int step) {
+        return threads[step];
+    }
+    
+    /**
+     * @param step the position of a step in the chunk
+     * @return the number of the location of the step
+     */
+    public int getLocation(int step) {
+        return locations[step];
+    }
+    
+    /**
+     * @param step the position of a step in the chunk
+     * @return the number of frames on the stack of the thread at the step
+     */
+    public int getDepth(int step) {
+        return depths[step];
+    }
+    
+    /**
+     * @param step the position of a step in the chunk, or the size of the 
+     * chunk
+     * @return the position of the first change of the step
+     */
+    public int getChangeStart(int step) {
+        return changeStarts[step];
+    }
+    
+    /**
+     * @param change the position of a change in the chunk
+     * @return the slot the change wrote
+     */
+    public int getSlot(int change) {
+        return slots[change];
+    }
+    
+    /**
+     * @param change the position of a change in the chunk
+     * @return the tag of the value written
+     */
+    public byte getTag(int change) {
+        return tags[change];
+    }
+    
+    /**
+     * @param change the position of a change in the chunk
+     * @return the value written
+     */
+    public long getValue(int change) {
+        return values[change];
+    }
+    
+    /**
+     * This class is a growable array of bytes that variable length integers 
+     * are written to.
+     */
+    static class Bytes {
+        byte[] bytes;
+        int size = 0;
+        
+        Bytes(int capacity) {
+            bytes = new byte[Math.max(16, capacity)];
+        }
+        
+        void write(int value) {
+            if(size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, size * 2);
+            }
+            bytes[size] = (byte) value;
+            size++;
+        }
+        
+        void writeInt(int value) {
+            writeLong(value & 0xFFFFFFFFL);
+        }
+        
+        void writeLong(long value) {
+            while((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+    }
+}
@@ -0,0 +1,466 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.trace;
+
+import com.sun.jdi.Location;
+import com.sun.jdi.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class interns everything a trace refers to by number: locations, 
+ * methods, variable slots, threads and strings. A step in the trace is then 
+ * a handful of small integers, which encode in a few bytes, and the names 
+ * are stored only once.
+ * 
+ * A slot is a variable of a method, named by the method and the variable's
+ * name, so that every frame of the method uses the same slot for the same 
+ * variable.
+ * 
+ * @author Andreas Stefik
+ */
+public class TraceDictionary {
+    private final HashMap<Location, Integer> locationIndices = new HashMap<>();
+    private int[] locationMethods = new int[256];
+    private int[] locationLines = new int[256];
+    private int locationCount = 0;
+    
+    private final HashMap<Method, Integer> methodIndices = new HashMap<>();
+    private final HashMap<String, Integer> methodNameIndices = new HashMap<>();
+    private final HashMap<String, Integer> lineIndices = new HashMap<>();
+    private final HashMap<String, int[]> classLines = new HashMap<>();
+    private String[] methodClasses = new String[64];
+    private String[] methodNames = new String[64];
+    private int methodCount = 0;
+    
+    private final HashMap<String, Integer> slotIndices = new HashMap<>();
+    private int[] slotMethods = new int[64];
+    private String[] slotNames = new String[64];
+    private int slotCount = 0;
+    
+    private final HashMap<Long, Integer> threadIndices = new HashMap<>();
+    private String[] threadNames = new String[8];
+    private int threadCount = 0;
+    
+    private final HashMap<String, Integer> stringIndices = new HashMap<>();
+    private String[] strings = new String[64];
+    private int stringCount = 0;
+    
+    /**
+     * This method returns the number of a location, adding it if it is new.
+     * 
+     * @param location
+     * @return 
+     */
+    public synchronized int intern(Location location) {
+        Integer index = locationIndices.get(location);
+        if(index == null) {
+            index = locationCount;
+            if(locationCount == locationLines.length) {
+                locationMethods = Arrays.copyOf(locationMethods, locationCount * 2);
+                locationLines = Arrays.copyOf(locationLines, locationCount * 2);
+            }
+            locationMethods[locationCount] = intern(location.method());
+            locationLines[locationCount] = location.lineNumber();
+            locationCount++;
+            addClassLine(index);
+            locationIndices.put(location, index);
+        }
+        return index;
+    }
+    
+    /**
+     * This method returns the number of a method, adding it if it is new.
+     * 
+     * @param method
+     * @return 
+     */
+    public synchronized int intern(Method method) {
+        Integer index = methodIndices.get(method);
+        if(index == null) {
+            index = addMethod(method.declaringType().name(), method.name());
+            methodIndices.put(method, index);
+        }
+        return index;
+    }
+    
+    /**
+     * This method returns the number of a method known only by its name, as
+     * it is when recorded by the trace agent, adding it if it is new. 
+     * Methods sharing a name in a class share a number.
+     * 
+     * @param className the fully qualified name of the class.
+     * @param name the name of the method.
+     * @return 
+     */
+    public synchronized int internMethod(String className, String name) {
+        String key = className + "." + name;
+        Integer index = methodNameIndices.get(key);
+        if(index == null) {
+            index = addMethod(className, name);
+            methodNameIndices.put(key, index);
+        }
+        return index;
+    }
+    
+    /**
+     * This method returns the number of a location known only by its method
+     * and line, adding it if it is new.
+     * 
+     * @param method the number of the method.
+     * @param line the line number.
+     * @return 
+     */
+    public synchronized int internLocation(int method, int line) {
+        String key = method + " " + line;
+        Integer index = lineIndices.get(key);
+        if(index == null) {
+            index = locationCount;
+            if(locationCount == locationLines.length) {
+                locationMethods = Arrays.copyOf(locationMethods, locationCount * 2);
+                locationLines = Arrays.copyOf(locationLines, locationCount * 2);
+            }
+            locationMethods[locationCount] = method;
+            locationLines[locationCount] = line;
+            locationCount++;
+            addClassLine(index);
+            lineIndices.put(key, index);
+        }
+        return index;
+    }
+    
+    /**
+     * This method returns the number of a variable slot, adding it if it is
+     * new.
+     * 
+     * @param method the number of the method the variable belongs to.
+     * @param name the name of the variable.
+     * @return 
+     */
+    public synchronized int internSlot(int method, String name) {
+        String key = method + " " + name;
+        Integer index = slotIndices.get(key);
+        if(index == null) {
+            index = slotCount;
+            if(slotCount == slotNames.length) {
+                slotMethods = Arrays.copyOf(slotMethods, slotCount * 2);
+                slotNames = Arrays.copyOf(slotNames, slotCount * 2);
+            }
+            slotMethods[slotCount] = method;
+            slotNames[slotCount] = name;
+            slotCount++;
+            slotIndices.put(key, index);
+        }
+        return index;
+    }
+    
+    /**
+     * This method returns the number of a thread, adding it if it is new.
+     * 
+     * @param uniqueID the unique identifier of the thread in the virtual 
+     * machine, or its id in the program when recorded by the trace agent.
+     * @param name the name of the thread.
+     * @return 
+     */
+    public synchronized int internThread(long uniqueID, String name) {
+        Integer index = threadIndices.get(uniqueID);
+        if(index == null) {
+            index = threadCount;
+            if(threadCount == threadNames.length) {
+                threadNames = Arrays.copyOf(threadNames, threadCount * 2);
+            }
+            threadNames[threadCount] = name;
+            threadCount++;
+            threadIndices.put(uniqueID, index);
+        }
+        return index;
+    }
+    
+    /**
+     * This method returns the number of a thread, or -1 if the thread has
+     * never been recorded.
+     * 
+     * @param uniqueID
+     * @return 
+     */
+    public synchronized int getThread(long uniqueID) {
+        Integer index = threadIndices.get(uniqueID);
+        return index == null ? -1 : index;
+    }
+    
+    /**
+     * This method returns the number of a string value, adding it if it is 
+     * new.
+     * 
+     * @param value
+     * @return 
+     */
+    public synchronized int internString(String value) {
+        Integer index = stringIndices.get(value);
+        if(index == null) {
+            index = stringCount;
+            if(stringCount == strings.length) {
+                strings = Arrays.copyOf(strings, stringCount * 2);
+            }
+            strings[stringCount] = value;
+            stringCount++;
+            stringIndices.put(value, index);
+        }
+        return index;
+    }
+    
+    /**
+     * This method places a method at a number, as read back from a stored
+     * trace. The entries below it that are not known are left empty.
+     * 
+     * @param index
+     * @param className
+     * @param name 
+     */
+    synchronized void putMethod(int index, String className, String name) {
+        if(index >= methodNames.length) {
+            methodClasses = Arrays.copyOf(methodClasses, Math.max(methodNames.length * 2, index + 1));
+            methodNames = Arrays.copyOf(methodNames, methodClasses.length);
+        }
+        methodClasses[index] = className;
+        methodNames[index] = name;
+        methodCount = Math.max(methodCount, index + 1);
+    }
+    
+    synchronized void putLocation(int index, int method, int line) {
+        if(index >= locationLines.length) {
+            locationMethods = Arrays.copyOf(locationMethods, Math.max(locationLines.length * 2, index + 1));
+            locationLines = Arrays.copyOf(locationLines, locationMethods.length);
+        }
+        locationMethods[index] = method;
+        locationLines[index] = line;
+        locationCount = Math.max(locationCount, index + 1);
+        addClassLine(index);
+    }
+    
+    /**
+     * This method files a location under its class and line, so the 
+     * locations of a line can be found without a scan. A line compiles to
+     * several locations when it is in several methods, or when the agent 
+     * and the debugger both recorded it.
+     * 
+     * @param location 
+     */
+    private void addClassLine(int location) {
+        String key = methodClasses[locationMethods[location]] + ":" + locationLines[location];
+        int[] current = classLines.get(key);
+        if(current == null) {
+            classLines.put(key, new int[] {location});
+        } else {
+            for(int i = 0; i < current.length; i++) {
+                if(current[i] == location) {
+                    return;
+                }
+            }
+            int[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = location;
+            classLines.put(key, grown);
+        }
+    }
+    
+    /**
+     * This method returns the numbers of the locations on a line of a class.
+     * 
+     * @param className the fully qualified name of the class.
+     * @param line the line number.
+     * @return the locations, which is empty if the line was never recorded.
+     */
+    public synchronized int[] getLocations(String className, int line) {
+        int[] current = classLines.get(className + ":" + line);
+        return current == null ? new int[0] : current;
+    }
+    
+    synchronized void putSlot(int index, int method, String name) {
+        if(index >= slotNames.length) {
+            slotMethods = Arrays.copyOf(slotMethods, Math.max(slotNames.length * 2, index + 1));
+            slotNames = Arrays.copyOf(slotNames, slotMethods.length);
+        }
+        slotMethods[index] = method;
+        slotNames[index] = name;
+        slotCount = Math.max(slotCount, index + 1);
+    }
+    
+    synchronized void putString(int index, String value) {
+        if(index >= strings.length) {
+            strings = Arrays.copyOf(strings, Math.max(strings.length * 2, index + 1));
+        }
+        strings[index] = value;
+        stringCount = Math.max(stringCount, index + 1);
+    }
+    
+    synchronized void putThread(int index, String name) {
+        if(index >= threadNames.length) {
+            threadNames = Arrays.copyOf(threadNames, Math.max(threadNames.length * 2, index + 1));
+        }
+        threadNames[index] = name;
+        threadCount = Math.max(threadCount, index + 1);
+    }
+    
+    private int addMethod(String className, String name) {
+        if(methodCount == methodNames.length) {
+            methodClasses = Arrays.copyOf(methodClasses, methodCount * 2);
+            methodNames = Arrays.copyOf(methodNames, methodCount * 2);
+        }
+        methodClasses[methodCount] = className;
+        methodNames[methodCount] = name;
+        methodCount++;
+        return methodCount - 1;
+    }
+    
+    /**
+     * @param location the number of a location
+     * @return the number of the method the location is in
+     */
+    public synchronized int getMethod(int location) {
+        return locationMethods[location];
+    }
+    
+    /**
+     * @param location the number of a location
+     * @return the line number of the location
+     */
+    public synchronized int getLine(int location) {
+        return locationLines[location];
+    }
+    
+    /**
+     * @param location the number of a location
+     * @return the fully qualified name of the class the location is in
+     */
+    public synchronized String getClassName(int location) {
+        return methodClasses[locationMethods[location]];
+    }
+    
+    /**
+     * @param method the number of a method
+     * @return the fully qualified name of the class declaring the method
+     */
+    public synchronized String getMethodClassName(int method) {
+        return methodClasses[method];
+    }
+    
+    /**
+     * @param method the number of a method
+     * @return the name of the method
+     */
+    public synchronized String getMethodName(int method) {
+        return methodNames[method];
+    }
+    
+    /**
+     * @param slot the number of a slot
+     * @return the number of the method the slot belongs to
+     */
+    public synchronized int getSlotMethod(int slot) {
+        return slotMethods[slot];
+    }
+    
+    /**
+     * @param slot the number of a slot
+     * @return the name of the variable
+     */
+    public synchronized String getSlotName(int slot) {
+        return slotNames[slot];
+    }
+    
+    /**
+     * @param thread the number of a thread
+     * @return the name of the thread when it was first recorded
+     */
+    public synchronized String getThreadName(int thread) {
+        return threadNames[thread];
+    }
+    
+    /**
+     * @param string the number of a string
+     * @return the string
+     */
+    public synchronized String getString(int string) {
+        return strings[string];
+    }
+    
+    /**
+     * @return the number of locations
+     */
+    public synchronized int getLocationCount() {
+        return locationCount;
+    }
+    
+    /**
+     * @return the number of methods
+     */
+    public synchronized int getMethodCount() {
+        return methodCount;
+    }
+    
+    /**
+     * @return the number of slots
+     */
+    public synchronized int getSlotCount() {
+        return slotCount;
+    }
+    
+    /**
+     * @return the number of threads
+     */
+    public synchronized int getThreadCount() {
+        return threadCount;
+    }
+    
+    /**
+     * @return the number of strings
+     */
+    public synchronized int getStringCount() {
+        return stringCount;
+    }
+    
+    /**
+     * This method removes everything from the dictionary.
+     */
+    public synchronized void clear() {
+        locationIndices.clear();
+        locationCount = 0;
+        methodIndices.clear();
+        methodNameIndices.clear();
+        lineIndices.clear();
+        classLines.clear();
+        methodCount = 0;
+        slotIndices.clear();
+        slotCount = 0;
+        threadIndices.clear();
+        threadCount = 0;
+        stringIndices.clear();
+        stringCount = 0;
+    }
+}
@@ -0,0 +1,488 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.trace;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class compares two recorded runs of a program, say a student's 
+ * program and a reference solution, or a program before and after a change,
+ * and finds the first step where they differ: where control flow goes 
+ * somewhere else, or a watched variable is given a different value.
+ * 
+ * Each run is followed in one thread, by default the one named main, and 
+ * the two are compared step by step as they are read, a chunk at a time, so
+ * runs of any length are compared without holding them in memory. Numbers
+ * in a trace refer to its own dictionary, so locations and variables are 
+ * compared by name: by class, method and line, and by variable name. Depths
+ * are compared relative to the first step of each run, so that calls and 
+ * returns must match, but the runs may start at different depths. Objects 
+ * differ in identity from run to run, so only whether they are null is 
+ * compared, while strings are compared by their text.
+ * 
+ * When both runs reach the start of a chunk together, each chunk is hashed,
+ * without looking anything up in the dictionaries, and if the hashes match
+ * the chunks are skipped rather than compared step by step, so long 
+ * identical stretches of two runs cost little. A match of hashes is taken 
+ * as a match of steps.
+ * 
+ * @author Andreas Stefik
+ */
+public class TraceDiff {
+    private final Run expected;
+    private final Run actual;
+    private final HashMap<String, Integer> locationCodes = new HashMap<>();
+    private final HashMap<String, Integer> watches = new HashMap<>();
+    private String threadName = "main";
+    private long comparedSteps = 0;
+    private long skippedChunks = 0;
+    
+    /**
+     * This constructor compares two runs recorded to segment files.
+     * 
+     * @param expected
+     * @param actual 
+     */
+    public TraceDiff(TraceSegmentReader expected, TraceSegmentReader actual) {
+        this(expected, expected.getDictionary(), actual, actual.getDictionary());
+    }
+    
+    /**
+     * This constructor compares two runs, each a trace and its dictionary.
+     * 
+     * @param expected
+     * @param expectedDictionary
+     * @param actual
+     * @param actualDictionary 
+     */
+    public TraceDiff(TraceSource expected, TraceDictionary expectedDictionary, 
+            TraceSource actual, TraceDictionary actualDictionary) {
+        this.expected = new Run(expected, expectedDictionary);
+        this.actual = new Run(actual, actualDictionary);
+    }
+    
+    /**
+     * This method adds a variable whose values are compared. Control flow is
+     * always compared.
+     * 
+     * @param name the name of a local variable.
+     */
+    public void addWatch(String name) {
+        if(!watches.containsKey(name)) {
+            watches.put(name, watches.size());
+        }
+    }
+    
+    /**
+     * This method finds the first step where the runs differ.
+     * 
+     * @return the divergence, or null if the runs are the same.
+     */
+    public TraceDivergence compare() {
+        expected.reset();
+        actual.reset();
+        comparedSteps = 0;
+        skippedChunks = 0;
+        while(true) {
+            boolean expectedNext = expected.next();
+            boolean actualNext = actual.next();
+            if(!expectedNext || !actualNext) {
+                if(expectedNext == actualNext) {
+                    return null;
+                }
+                return describe(new TraceDivergence(TraceDivergence.Kind.LENGTH, 
+                        expected.step, actual.step, comparedSteps));
+            }
+            if(expected.first && actual.first && skip()) {
+                continue;
+            }
+            if(expected.getLocation() != actual.getLocation() 
+                    || expected.getDepth() != actual.getDepth()) {
+                return describe(new TraceDivergence(TraceDivergence.Kind.CONTROL_FLOW, 
+                        expected.step, actual.step, comparedSteps));
+            }
+            String variable = compareWrites();
+            if(variable != null) {
+                TraceDivergence divergence = new TraceDivergence(TraceDivergence.Kind.VALUE, 
+                        expected.step, actual.step, comparedSteps);
+                divergence.variable = variable;
+                divergence.expectedValue = expected.getValue(variable);
+                divergence.actualValue = actual.getValue(variable);
+                return describe(divergence);
+            }
+            comparedSteps++;
+        }
+    }
+    
+    /**
+     * This method skips the chunks both runs are at the start of, if their
+     * hashes match.
+     * 
+     * @return whether they were skipped.
+     */
+    private boolean skip() {
+        int expectedCount = expected.countRemaining();
+        if(expectedCount != actual.countRemaining() || expected.hashRemaining() != actual.hashRemaining()) {
+            return false;
+        }
+        expected.skipChunk();
+        actual.skipChunk();
+        comparedSteps += expectedCount;
+        skippedChunks++;
+        return true;
+    }
+    
+    /**
+     * This method compares the writes to watched variables of the current
+     * steps of the runs.
+     * 
+     * @return the name of the first variable that differs, or null.
+     */
+    private String compareWrites() {
+        TraceChunk expectedChunk = expected.chunk;
+        TraceChunk actualChunk = actual.chunk;
+        int e = expectedChunk.getChangeStart(expected.index);
+        int a = actualChunk.getChangeStart(actual.index);
+        int expectedEnd = expectedChunk.getChangeStart(expected.index + 1);
+        int actualEnd = actualChunk.getChangeStart(actual.index + 1);
+        while(true) {
+            while(e < expectedEnd && expected.getWatch(expectedChunk.getSlot(e)) < 0) {
+                e++;
+            }
+            while(a < actualEnd && actual.getWatch(actualChunk.getSlot(a)) < 0) {
+                a++;
+            }
+            if(e == expectedEnd && a == actualEnd) {
+                return null;
+            }
+            if(e == expectedEnd || a == actualEnd) {
+                //one run wrote a watched variable the other did not
+                return e < expectedEnd ? expected.getSlotName(expectedChunk.getSlot(e)) 
+                        : actual.getSlotName(actualChunk.getSlot(a));
+            }
+            int expectedSlot = expectedChunk.getSlot(e);
+            if(expected.getWatch(expectedSlot) != actual.getWatch(actualChunk.getSlot(a))
+                    || !expected.isSameValue(expectedChunk.getTag(e), expectedChunk.getValue(e), 
+                            actual, actualChunk.getTag(a), actualChunk.getValue(a))) {
+                return expected.getSlotName(expectedSlot);
+            }
+            e++;
+            a++;
+        }
+    }
+    
+    /**
+     * This method adds the frames of each run to a divergence.
+     */
+    private TraceDivergence describe(TraceDivergence divergence) {
+        divergence.expectedFrames = expected.getFrames();
+        divergence.actualFrames = actual.getFrames();
+        return divergence;
+    }
+    
+    /**
+     * @return the name of the thread followed in each run
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+    
+    /**
+     * @param threadName the name of the thread followed in each run. If a 
+     * run has no thread by that name, the thread of its first step is 
+     * followed.
+     */
+    public void setThreadName(String threadName) {
+        this.threadName = threadName;
+    }
+    
+    /**
+     * @return the number of steps of each run found the same by the last 
+     * comparison
+     */
+    public long getComparedSteps() {
+        return comparedSteps;
+    }
+    
+    /**
+     * @return the number of chunks the last comparison skipped by their 
+     * hashes
+     */
+    public long getSkippedChunks() {
+        return skippedChunks;
+    }
+    
+    private static long mix(long hash, long value) {
+        hash = (hash ^ value) * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+    
+    /**
+     * This class reads the steps of the thread followed in one run, in 
+     * order, translating its numbers into codes shared by both runs.
+     */
+    private class Run {
+        private final TraceSource source;
+        private final TraceDictionary dictionary;
+        private int[] locations = new int[0];
+        private int[] slots = new int[0];
+        private int thread = -1;
+        private int baseDepth = 0;
+        private TraceChunk chunk = null;
+        private int index = -1;
+        private long step = -1;
+        private boolean first = false;
+        
+        private Run(TraceSource source, TraceDictionary dictionary) {
+            this.source = source;
+            this.dictionary = dictionary;
+        }
+        
+        private void reset() {
+            chunk = null;
+            index = -1;
+            step = -1;
+            thread = -1;
+            for(int i = 0; i < dictionary.getThreadCount(); i++) {
+                if(threadName != null && threadName.equals(dictionary.getThreadName(i))) {
+                    thread = i;
+                    break;
+                }
+            }
+        }
+        
+        /**
+         * This method moves to the next step of the thread.
+         * 
+         * @return false if there is none.
+         */
+        private boolean next() {
+            first = false;
+            while(true) {
+                if(chunk == null || index + 1 >= chunk.getSize()) {
+                    long next = chunk == null ? source.getFirstStep() : chunk.getFirstStep() + chunk.getSize();
+                    if(next >= source.size()) {
+                        return false;
+                    }
+                    chunk = source.getChunk(next);
+                    index = (int) (next - chunk.getFirstStep()) - 1;
+                    first = true;
+                }
+                index++;
+                if(thread < 0) {
+                    thread = chunk.getThread(index);
+                    baseDepth = chunk.getDepth(index);
+                } else if(step < 0 && chunk.getThread(index) == thread) {
+                    baseDepth = chunk.getDepth(index);
+                }
+                if(chunk.getThread(index) == thread) {
+                    step = chunk.getFirstStep() + index;
+                    return true;
+                }
+            }
+        }
+        
+        /**
+         * @return the number of the thread's steps from the current one to
+         * the end of the chunk
+         */
+        private int countRemaining() {
+            int count = 0;
+            for(int i = index; i < chunk.getSize(); i++) {
+                if(chunk.getThread(i) == thread) {
+                    count++;
+                }
+            }
+            return count;
+        }
+        
+        /**
+         * This method hashes the thread's steps from the current one to the
+         * end of the chunk, by their locations, depths and watched writes.
+         */
+        private long hashRemaining() {
+            long hash = 0;
+            for(int i = index; i < chunk.getSize(); i++) {
+                if(chunk.getThread(i) != thread) {
+                    continue;
+                }
+                hash = mix(hash, getCode(chunk.getLocation(i)));
+                hash = mix(hash, chunk.getDepth(i) - baseDepth);
+                for(int change = chunk.getChangeStart(i); change < chunk.getChangeStart(i + 1); change++) {
+                    int watch = getWatch(chunk.getSlot(change));
+                    if(watch >= 0) {
+                        byte tag = chunk.getTag(change);
+                        hash = mix(hash, watch);
+                        hash = mix(hash, tag);
+                        hash = mix(hash, getComparable(tag, chunk.getValue(change)));
+                    }
+                }
+            }
+            return hash;
+        }
+        
+        /**
+         * This method moves to the thread's last step in the chunk.
+         */
+        private void skipChunk() {
+            for(int i = chunk.getSize() - 1; i >= index; i--) {
+                if(chunk.getThread(i) == thread) {
+                    index = i;
+                    step = chunk.getFirstStep() + i;
+                    return;
+                }
+            }
+        }
+        
+        private int getLocation() {
+            return getCode(chunk.getLocation(index));
+        }
+        
+        private int getDepth() {
+            return chunk.getDepth(index) - baseDepth;
+        }
+        
+        /**
+         * This method returns the code of a location, shared by both runs.
+         */
+        private int getCode(int location) {
+            if(location >= locations.length) {
+                int length = locations.length;
+                locations = Arrays.copyOf(locations, Math.max(length * 2, location + 1));
+                Arrays.fill(locations, length, locations.length, -1);
+            }
+            if(locations[location] < 0) {
+                String key = dictionary.getClassName(location) + "." 
+                        + dictionary.getMethodName(dictionary.getMethod(location)) 
+                        + ":" + dictionary.getLine(location);
+                Integer code = locationCodes.get(key);
+                if(code == null) {
+                    code = locationCodes.size();
+                    locationCodes.put(key, code);
+                }
+                locations[location] = code;
+            }
+            return locations[location];
+        }
+        
+        /**
+         * This method returns the number of the watch on a slot, or -1 if 
+         * the slot is not watched.
+         */
+        private int getWatch(int slot) {
+            if(slot >= slots.length) {
+                int length = slots.length;
+                slots = Arrays.copyOf(slots, Math.max(length * 2, slot + 1));
+                Arrays.fill(slots, length, slots.length, -2);
+            }
+            if(slots[slot] == -2) {
+                Integer watch = watches.get(getSlotName(slot));
+                slots[slot] = watch == null ? -1 : watch;
+            }
+            return slots[slot];
+        }
+        
+        private String getSlotName(int slot) {
+            String name = dictionary.getSlotName(slot);
+            return name == null ? "" : name;
+        }
+        
+        /**
+         * This method returns a value in a form that is the same in both 
+         * runs when the values are: strings by their text and objects not 
+         * at all.
+         */
+        private long getComparable(byte tag, long value) {
+            if(tag == TraceValues.STRING) {
+                String text = dictionary.getString((int) value);
+                return text == null ? 0 : text.hashCode();
+            } else if(tag == TraceValues.OBJECT) {
+                return 0;
+            }
+            return value;
+        }
+        
+        private boolean isSameValue(byte tag, long value, Run other, byte otherTag, long otherValue) {
+            if(tag != otherTag) {
+                return false;
+            } else if(tag == TraceValues.STRING) {
+                String text = dictionary.getString((int) value);
+                String otherText = other.dictionary.getString((int) otherValue);
+                return text == null ? otherText == null : text.equals(otherText);
+            }
+            return getComparable(tag, value) == other.getComparable(otherTag, otherValue);
+        }
+        
+        /**
+         * This method returns the value of a variable in the innermost frame
+         * after the current step, as text, or null if it has none.
+         */
+        private String getValue(String name) {
+            TraceFrame frame = new TraceCheckpoints(source, dictionary).getFrame(step);
+            int variable = frame == null ? -1 : frame.indexOf(name, dictionary);
+            if(variable < 0) {
+                return null;
+            }
+            return TraceValues.toString(frame.getTag(variable), frame.getValue(variable), dictionary);
+        }
+        
+        /**
+         * This method describes the thread's frames after the current step,
+         * the innermost first.
+         */
+        private String[] getFrames() {
+            if(step < 0) {
+                return new String[0];
+            }
+            TraceFrame[] frames = new TraceCheckpoints(source, dictionary).getFrames(step);
+            String[] result = new String[frames.length];
+            for(int i = 0; i < frames.length; i++) {
+                TraceFrame frame = frames[frames.length - 1 - i];
+                if(frame == null) {
+                    result[i] = "(not recorded)";
+                    continue;
+                }
+                StringBuilder builder = new StringBuilder();
+                builder.append(dictionary.getMethodClassName(frame.getMethod())).append(".")
+                        .append(dictionary.getMethodName(frame.getMethod()));
+                if(frame.getLocation() >= 0) {
+                    builder.append(":").append(dictionary.getLine(frame.getLocation()));
+                }
+                for(int variable = 0; variable < frame.getVariableCount(); variable++) {
+                    builder.append(variable == 0 ? " " : ", ")
+                            .append(dictionary.getSlotName(frame.getSlot(variable))).append(" = ")
+                            .append(TraceValues.toString(frame.getTag(variable), frame.getValue(variable), dictionary));
+                }
+                result[i] = builder.toString();
+            }
+            return result;
+        }
+    }
+}
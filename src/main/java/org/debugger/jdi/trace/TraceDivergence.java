@@ -0,0 +1,177 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.trace;
+
+/**
+ * This class is the first point at which two recorded runs of a program 
+ * differ, as found by a TraceDiff: the step in each run, what differed, and
+ * the frames of each run's thread at that step, so the difference can be 
+ * seen in context.
+ * 
+ * @author Andreas Stefik
+ */
+public class TraceDivergence {
+    /**
+     * The ways two runs can differ.
+     */
+    public enum Kind {
+        /**
+         * The runs were at different lines, or at different depths of their
+         * call stacks.
+         */
+        CONTROL_FLOW,
+        
+        /**
+         * The runs were at the same line, but gave a watched variable 
+         * different values.
+         */
+        VALUE,
+        
+        /**
+         * One run ended while the other went on.
+         */
+        LENGTH
+    }
+    
+    private final Kind kind;
+    private final long expectedStep;
+    private final long actualStep;
+    private final long comparedSteps;
+    String variable = null;
+    String expectedValue = null;
+    String actualValue = null;
+    String[] expectedFrames = new String[0];
+    String[] actualFrames = new String[0];
+    
+    TraceDivergence(Kind kind, long expectedStep, long actualStep, long comparedSteps) {
+        this.kind = kind;
+        this.expectedStep = expectedStep;
+        this.actualStep = actualStep;
+        this.comparedSteps = comparedSteps;
+    }
+    
+    /**
+     * @return what differed
+     */
+    public Kind getKind() {
+        return kind;
+    }
+    
+    /**
+     * @return the step of the expected run where it differs, or its last 
+     * step if it ended first
+     */
+    public long getExpectedStep() {
+        return expectedStep;
+    }
+    
+    /**
+     * @return the step of the actual run where it differs, or its last step
+     * if it ended first
+     */
+    public long getActualStep() {
+        return actualStep;
+    }
+    
+    /**
+     * @return the number of steps of each run that were the same before 
+     * they differed
+     */
+    public long getComparedSteps() {
+        return comparedSteps;
+    }
+    
+    /**
+     * @return the name of the watched variable that differed, or null if 
+     * the control flow differed
+     */
+    public String getVariable() {
+        return variable;
+    }
+    
+    /**
+     * @return the value of the variable in the expected run, or null
+     */
+    public String getExpectedValue() {
+        return expectedValue;
+    }
+    
+    /**
+     * @return the value of the variable in the actual run, or null
+     */
+    public String getActualValue() {
+        return actualValue;
+    }
+    
+    /**
+     * @return the frames of the expected run at its step, the innermost 
+     * first, each as its method, line and variables
+     */
+    public String[] getExpectedFrames() {
+        return expectedFrames;
+    }
+    
+    /**
+     * @return the frames of the actual run at its step, the innermost 
+     * first, each as its method, line and variables
+     */
+    public String[] getActualFrames() {
+        return actualFrames;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("The runs differ in ");
+        switch(kind) {
+            case CONTROL_FLOW:
+                builder.append("control flow");
+                break;
+            case VALUE:
+                builder.append("the value of ").append(variable).append(": expected ")
+                        .append(expectedValue).append(", actual ").append(actualValue);
+                break;
+            default:
+                builder.append("length");
+                break;
+        }
+        builder.append(" after ").append(comparedSteps).append(" matching steps.\n");
+        builder.append("Expected, at step ").append(expectedStep).append(":\n");
+        append(builder, expectedFrames);
+        builder.append("Actual, at step ").append(actualStep).append(":\n");
+        append(builder, actualFrames);
+        return builder.toString();
+    }
+    
+    private static void append(StringBuilder builder, String[] frames) {
+        for(int i = 0; i < frames.length; i++) {
+            builder.append("    ").append(frames[i]).append("\n");
+        }
+    }
+}
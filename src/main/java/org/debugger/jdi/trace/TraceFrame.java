@@ -0,0 +1,168 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.trace;
+
+import java.util.Arrays;
+
+/**
+ * This class holds the state of a frame as it was at some step of a trace:
+ * its method, the location it had reached, and the last value recorded for
+ * each of its variables, in the order they were first recorded.
+ *
+ * @author Andreas Stefik
+ */
+public class TraceFrame {
+    private final int method;
+    private int location;
+    private int count = 0;
+    private int[] slots;
+    private byte[] tags;
+    private long[] values;
+    
+    TraceFrame(int method) {
+        this.method = method;
+        this.location = -1;
+        this.slots = new int[4];
+        this.tags = new byte[4];
+        this.values = new long[4];
+    }
+    
+    private TraceFrame(TraceFrame other) {
+        this.method = other.method;
+        this.location = other.location;
+        this.count = other.count;
+        this.slots = Arrays.copyOf(other.slots, Math.max(4, other.count));
+        this.tags = Arrays.copyOf(other.tags, slots.length);
+        this.values = Arrays.copyOf(other.values, slots.length);
+    }
+    
+    /**
+     * @return a copy of this frame, which does not change with it
+     */
+    TraceFrame copy() {
+        return new TraceFrame(this);
+    }
+    
+    void setLocation(int location) {
+        this.location = location;
+    }
+    
+    /**
+     * This method records a new value for a variable.
+     */
+    void set(int slot, byte tag, long value) {
+        for(int i = 0; i < count; i++) {
+            if(slots[i] == slot) {
+                tags[i] = tag;
+                values[i] = value;
+                return;
+            }
+        }
+        if(count == slots.length) {
+            slots = Arrays.copyOf(slots, count * 2);
+            tags = Arrays.copyOf(tags, count * 2);
+            values = Arrays.copyOf(values, count * 2);
+        }
+        slots[count] = slot;
+        tags[count] = tag;
+        values[count] = value;
+        count++;
+    }
+    
+    /**
+     * @return the number of the frame's method in the dictionary
+     */
+    public int getMethod() {
+        return method;
+    }
+    
+    /**
+     * @return the number of the location the frame had reached, or -1 if
+     * it has taken no step
+     */
+    public int getLocation() {
+        return location;
+    }
+    
+    /**
+     * @return the number of variables recorded in the frame
+     */
+    public int getVariableCount() {
+        return count;
+    }
+    
+    /**
+     * @param variable the position of a variable in the frame
+     * @return the number of its slot in the dictionary
+     */
+    public int getSlot(int variable) {
+        return slots[variable];
+    }
+    
+    /**
+     * @param variable the position of a variable in the frame
+     * @return the tag of its value
+     */
+    public byte getTag(int variable) {
+        return tags[variable];
+    }
+    
+    /**
+     * @param variable the position of a variable in the frame
+     * @return its value, as stored in the trace
+     */
+    public long getValue(int variable) {
+        return values[variable];
+    }
+    
+    /**
+     * This method returns the position of a variable by name, or -1 if it
+     * has not been recorded in the frame.
+     *
+     * @param name
+     * @param dictionary
+     * @return
+     */
+    public int indexOf(String name, TraceDictionary dictionary) {
+        for(int i = 0; i < count; i++) {
+            if(name.equals(dictionary.getSlotName(slots[i]))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * @return the number of values the frame holds, used to weigh the cost
+     * of copying it
+     */
+    int getWeight() {
+        return 1 + count;
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.trace;
+
+import java.util.function.IntPredicate;
+
+/**
+ * This class is a position in the past of a recorded program, from which 
+ * the debugger can step backward and forward in time. The position follows
+ * one thread, the one the debugger was stopped in when it went back, and 
+ * can move forward only as far as that thread's present, the step it was
+ * stopped at. Reaching the present ends the history, and the debugger 
+ * controls the live program again.
+ * 
+ * Each step is a scan of the trace, which holds the depth of every step, so 
+ * stepping over and out backward is a comparison of depths rather than 
+ * running anything. Moves to a location, like running back to a line or to
+ * the last hit of a breakpoint, search the recorder's location index 
+ * instead, so they take the same time however long the trace is.
+ * 
+ * @author Andreas Stefik
+ */
+public class TraceHistory {
+    private final TraceRecorder recorder;
+    private int thread = -1;
+    private long step = -1;
+    private long present = -1;
+    
+    public TraceHistory(TraceRecorder recorder) {
+        this.recorder = recorder;
+    }
+    
+    /**
+     * This method begins browsing the past of a thread.
+     * 
+     * @param thread the number of the thread in the trace.
+     * @param present the step the thread is stopped at.
+     */
+    public synchronized void begin(int thread, long present) {
+        this.thread = thread;
+        this.present = present;
+        this.step = present;
+    }
+    
+    /**
+     * This method stops browsing the past.
+     */
+    public synchronized void end() {
+        thread = -1;
+        step = -1;
+        present = -1;
+    }
+    
+    /**
+     * @return whether the debugger is showing the live program rather than
+     * its past
+     */
+    public synchronized boolean isLive() {
+        return step < 0;
+    }
+    
+    /**
+     * This method moves to the thread's previous step.
+     * 
+     * @return false if there is no earlier step.
+     */
+    public synchronized boolean stepBackInto() {
+        return move(find(step - 1, -1, Integer.MAX_VALUE, null));
+    }
+    
+    /**
+     * This method moves to the thread's previous step in the same frame, or
+     * in the frame that called it, skipping any calls in between.
+     * 
+     * @return false if there is no earlier step.
+     */
+    public synchronized boolean stepBackOver() {
+        return move(find(step - 1, -1, getDepth(step), null));
+    }
+    
+    /**
+     * This method moves to the thread's next step. 
+     * 
+     * @return false if the move reached the present, ending the history.
+     */
+    public synchronized boolean stepInto() {
+        return moveForward(find(step + 1, 1, Integer.MAX_VALUE, null));
+    }
+    
+    /**
+     * This method moves to the thread's next step in the same frame, or in
+     * the frame that called it.
+     * 
+     * @return false if the move reached the present, ending the history.
+     */
+    public synchronized boolean stepOver() {
+        return moveForward(find(step + 1, 1, getDepth(step), null));
+    }
+    
+    /**
+     * This method moves to the thread's next step in the frame that called
+     * the current one.
+     * 
+     * @return false if the move reached the present, ending the history.
+     */
+    public synchronized boolean stepOut() {
+        return moveForward(find(step + 1, 1, getDepth(step) - 1, null));
+    }
+    
+    /**
+     * This method moves back to the thread's last step at a location 
+     * accepted by the filter, or to its first step if there is none.
+     * 
+     * @param locations accepts the numbers of the locations to stop at.
+     * @return false if the thread was already at its first step.
+     */
+    public synchronized boolean backward(IntPredicate locations) {
+        long found = find(step - 1, -1, Integer.MAX_VALUE, locations);
+        if(found < 0) {
+            found = find(recorder.getBuffer().getFirstStep(), 1, Integer.MAX_VALUE, null);
+        }
+        return found != step && move(found);
+    }
+    
+    /**
+     * This method moves forward to the thread's next step at a location 
+     * accepted by the filter, or to the present if there is none.
+     * 
+     * @param locations accepts the numbers of the locations to stop at.
+     * @return false if the move reached the present, ending the history.
+     */
+    public synchronized boolean forward(IntPredicate locations) {
+        return moveForward(find(step + 1, 1, Integer.MAX_VALUE, locations));
+    }
+    
+    /**
+     * This method moves back to the thread's last step at any of several 
+     * locations, or to its first step if there is none. It searches the 
+     * location index rather than the trace.
+     * 
+     * @param locations the numbers of the locations to stop at.
+     * @return false if the thread was already at its first step.
+     */
+    public synchronized boolean backward(int[] locations) {
+        long found = findBefore(locations);
+        if(found < 0) {
+            found = recorder.getFirstStep(thread);
+            if(found < recorder.getBuffer().getFirstStep()) {
+                found = find(recorder.getBuffer().getFirstStep(), 1, Integer.MAX_VALUE, null);
+            }
+        }
+        return found != step && move(found);
+    }
+    
+    /**
+     * This method moves forward to the thread's next step at any of several
+     * locations, or to the present if there is none. It searches the 
+     * location index rather than the trace.
+     * 
+     * @param locations the numbers of the locations to stop at.
+     * @return false if the move reached the present, ending the history.
+     */
+    public synchronized boolean forward(int[] locations) {
+        TraceLocationIndex index = recorder.getLocationIndex();
+        long indexed = index.getIndexedSteps();
+        long found = index.firstAfter(locations, thread, step + 1);
+        if(found < 0) {
+            //the steps not yet indexed are scanned
+            found = find(Math.max(step + 1, indexed), 1, Integer.MAX_VALUE, accepting(locations));
+        }
+        return moveForward(found);
+    }
+    
+    /**
+     * This method moves back to the thread's last step at any of several 
+     * locations, such as those of a line. Unlike backward, it does not move
+     * if there is none.
+     * 
+     * @param locations the numbers of the locations to stop at.
+     * @return false if the thread was not at any of the locations before.
+     */
+    public synchronized boolean runBackTo(int[] locations) {
+        return move(findBefore(locations));
+    }
+    
+    /**
+     * This method returns the thread's last step before the current one at
+     * any of several locations, or -1 if there is none or it has been 
+     * dropped from the buffer.
+     */
+    private long findBefore(int[] locations) {
+        TraceLocationIndex index = recorder.getLocationIndex();
+        long indexed = index.getIndexedSteps();
+        long found = -1;
+        if(step - 1 >= indexed) {
+            //the steps not yet indexed are scanned
+            found = find(step - 1, -1, Integer.MAX_VALUE, accepting(locations), 
+                    Math.max(indexed, recorder.getBuffer().getFirstStep()));
+        }
+        if(found < 0) {
+            found = index.lastBefore(locations, thread, Math.min(step - 1, indexed - 1));
+        }
+        return found < recorder.getBuffer().getFirstStep() ? -1 : found;
+    }
+    
+    private static IntPredicate accepting(final int[] locations) {
+        return new IntPredicate() {
+            @Override
+            public boolean test(int location) {
+                for(int i = 0; i < locations.length; i++) {
+                    if(locations[i] == location) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        };
+    }
+    
+    private boolean move(long found) {
+        if(found < 0) {
+            return false;
+        }
+        step = found;
+        return true;
+    }
+    
+    private boolean moveForward(long found) {
+        if(found < 0 || found >= present) {
+            step = present;
+            return false;
+        }
+        step = found;
+        return true;
+    }
+    
+    /**
+     * This method scans the trace for a step of the thread.
+     * 
+     * @param from the step to start at.
+     * @param direction 1 to scan forward, -1 to scan backward.
+     * @param maximumDepth the deepest stack the step may have.
+     * @param locations accepts the locations the step may be at, or null to
+     * accept any.
+     * @return the step found, or -1 if there is none. Scanning forward stops
+     * at the present.
+     */
+    private long find(long from, int direction, int maximumDepth, IntPredicate locations) {
+        TraceBuffer buffer = recorder.getBuffer();
+        long end = direction > 0 ? Math.min(present, buffer.size() - 1) : buffer.getFirstStep();
+        return find(from, direction, maximumDepth, locations, end);
+    }
+    
+    /**
+     * This method scans the trace for a step of the thread, as far as a 
+     * step.
+     * 
+     * @param end the last step to look at.
+     */
+    private long find(long from, int direction, int maximumDepth, IntPredicate locations, long end) {
+        TraceBuffer buffer = recorder.getBuffer();
+        long current = from;
+        while(direction > 0 ? current <= end : current >= end) {
+            TraceChunk chunk = buffer.getChunk(current);
+            int i = (int) (current - chunk.getFirstStep());
+            while(i >= 0 && i < chunk.getSize()) {
+                if(chunk.getThread(i) == thread && chunk.getDepth(i) <= maximumDepth
+                        && (locations == null || locations.test(chunk.getLocation(i)))) {
+                    return chunk.getFirstStep() + i;
+                }
+                i += direction;
+            }
+            current = chunk.getFirstStep() + i;
+        }
+        return -1;
+    }
+    
+    private int getDepth(long at) {
+        TraceChunk chunk = recorder.getBuffer().getChunk(at);
+        return chunk.getDepth((int) (at - chunk.getFirstStep()));
+    }
+    
+    /**
+     * @return whether the step being shown is the thread's present
+     */
+    public synchronized boolean isAtPresent() {
+        return step >= 0 && step == present;
+    }
+    
+    /**
+     * @return the number of the step being shown, or -1 if the history is
+     * live
+     */
+    public synchronized long getStep() {
+        return step;
+    }
+    
+    /**
+     * @return the number of the thread being followed
+     */
+    public synchronized int getThread() {
+        return thread;
+    }
+    
+    /**
+     * @return the number of the location of the step being shown
+     */
+    public synchronized int getLocation() {
+        TraceChunk chunk = recorder.getBuffer().getChunk(step);
+        return chunk.getLocation((int) (step - chunk.getFirstStep()));
+    }
+    
+    /**
+     * @return the recorder whose trace is being browsed
+     */
+    public TraceRecorder getRecorder() {
+        return recorder;
+    }
+}
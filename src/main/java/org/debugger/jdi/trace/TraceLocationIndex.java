@@ -0,0 +1,405 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.trace;
+
+import java.util.Arrays;
+
+/**
+ * This class indexes the steps of a trace by their location, so that 
+ * running back to a line, or to the last hit of a breakpoint, is a binary
+ * search rather than a scan of the trace. For each location, it keeps the 
+ * steps of each thread that were at it, which are in ascending order as 
+ * steps are only ever added at the end.
+ * 
+ * A line may have several locations, in which case the searches taking an 
+ * array of locations look at each of them and keep the closest step, so
+ * their cost grows with the number of locations, not the length of the 
+ * trace.
+ * 
+ * While recording, chunks are indexed as they are sealed, in the background,
+ * so the index may not yet hold the most recent steps. The steps it holds 
+ * are those before getIndexedSteps, and the rest are found in the buffer.
+ * Steps the buffer has deleted, as old segments are, are trimmed from the 
+ * index too, so it takes memory in proportion to the trace that is kept, 
+ * not to everything recorded.
+ * 
+ * @author Andreas Stefik
+ */
+public class TraceLocationIndex {
+    private Hits[] locations = new Hits[256];
+    private long hitCount = 0;
+    private long indexedSteps = 0;
+    private long firstStep = 0;
+    
+    /**
+     * This method adds a step.
+     * 
+     * @param step
+     * @param thread
+     * @param location 
+     */
+    public synchronized void add(long step, int thread, int location) {
+        if(location >= locations.length) {
+            locations = Arrays.copyOf(locations, Math.max(locations.length * 2, location + 1));
+        }
+        Hits hits = locations[location];
+        if(hits == null) {
+            hits = new Hits();
+            locations[location] = hits;
+        }
+        hits.get(thread, true).add(step);
+        hitCount++;
+        indexedSteps = Math.max(indexedSteps, step + 1);
+    }
+    
+    /**
+     * This method groups the steps of a chunk by location and thread, apart
+     * from the index, so that chunks can be grouped in parallel and then 
+     * added in order. 
+     * 
+     * @param chunk
+     * @return the groups, or null if the chunk has too many threads to be 
+     * grouped, in which case its steps are added one at a time.
+     */
+    static Group group(TraceChunk chunk) {
+        int size = chunk.getSize();
+        long[] keys = new long[size];
+        for(int i = 0; i < size; i++) {
+            int thread = chunk.getThread(i);
+            if(thread >= 1 << 20 || i >= 1 << 12) {
+                return null;
+            }
+            keys[i] = ((long) chunk.getLocation(i) << 32) | ((long) thread << 12) | i;
+        }
+        Arrays.sort(keys);
+        Group group = new Group(size, chunk.getFirstStep() + size);
+        long previous = -1;
+        for(int i = 0; i < size; i++) {
+            long key = keys[i] >>> 12;
+            if(key != previous) {
+                group.locations[group.runs] = (int) (key >>> 20);
+                group.threads[group.runs] = (int) (key & 0xFFFFF);
+                group.starts[group.runs] = i;
+                group.runs++;
+                previous = key;
+            }
+            group.steps[i] = chunk.getFirstStep() + (keys[i] & 0xFFF);
+        }
+        group.starts[group.runs] = size;
+        return group;
+    }
+    
+    /**
+     * This method adds the steps of a chunk, grouped by group. Chunks must
+     * be added in order.
+     * 
+     * @param group 
+     */
+    synchronized void add(Group group) {
+        for(int run = 0; run < group.runs; run++) {
+            int location = group.locations[run];
+            if(location >= locations.length) {
+                locations = Arrays.copyOf(locations, Math.max(locations.length * 2, location + 1));
+            }
+            Hits hits = locations[location];
+            if(hits == null) {
+                hits = new Hits();
+                locations[location] = hits;
+            }
+            int start = group.starts[run];
+            hits.get(group.threads[run], true).addAll(group.steps, start, group.starts[run + 1] - start);
+        }
+        hitCount += group.steps.length;
+        indexedSteps = Math.max(indexedSteps, group.end);
+    }
+    
+    private Steps get(int location, int thread) {
+        if(location < 0 || location >= locations.length || locations[location] == null) {
+            return null;
+        }
+        return locations[location].get(thread, false);
+    }
+    
+    /**
+     * This method returns the last step of a thread at or before a step that
+     * was at a location, or -1 if there is none.
+     * 
+     * @param location
+     * @param thread
+     * @param step
+     * @return 
+     */
+    public synchronized long lastBefore(int location, int thread, long step) {
+        Steps steps = get(location, thread);
+        if(steps == null) {
+            return -1;
+        }
+        int index = steps.indexAtOrBefore(step);
+        return index < 0 ? -1 : steps.steps[index];
+    }
+    
+    /**
+     * This method returns the first step of a thread at or after a step that
+     * was at a location, or -1 if there is none.
+     * 
+     * @param location
+     * @param thread
+     * @param step
+     * @return 
+     */
+    public synchronized long firstAfter(int location, int thread, long step) {
+        Steps steps = get(location, thread);
+        if(steps == null) {
+            return -1;
+        }
+        int index = steps.indexAtOrBefore(step - 1) + 1;
+        return index < steps.count ? steps.steps[index] : -1;
+    }
+    
+    /**
+     * This method returns the last step of a thread at or before a step that
+     * was at any of several locations, or -1 if there is none.
+     * 
+     * @param locations
+     * @param thread
+     * @param step
+     * @return 
+     */
+    public synchronized long lastBefore(int[] locations, int thread, long step) {
+        long found = -1;
+        for(int i = 0; i < locations.length; i++) {
+            found = Math.max(found, lastBefore(locations[i], thread, step));
+        }
+        return found;
+    }
+    
+    /**
+     * This method returns the first step of a thread at or after a step that
+     * was at any of several locations, or -1 if there is none.
+     * 
+     * @param locations
+     * @param thread
+     * @param step
+     * @return 
+     */
+    public synchronized long firstAfter(int[] locations, int thread, long step) {
+        long found = -1;
+        for(int i = 0; i < locations.length; i++) {
+            long next = firstAfter(locations[i], thread, step);
+            if(next >= 0 && (found < 0 || next < found)) {
+                found = next;
+            }
+        }
+        return found;
+    }
+    
+    /**
+     * @param location
+     * @param thread
+     * @return the number of steps of a thread at a location
+     */
+    public synchronized int getHitCount(int location, int thread) {
+        Steps steps = get(location, thread);
+        return steps == null ? 0 : steps.count;
+    }
+    
+    /**
+     * This method removes the steps before a step, once the buffer has 
+     * deleted them.
+     * 
+     * @param first the first step to keep.
+     */
+    synchronized void trim(long first) {
+        if(first <= firstStep) {
+            return;
+        }
+        for(int i = 0; i < locations.length; i++) {
+            Hits hits = locations[i];
+            if(hits != null) {
+                hitCount -= hits.trim(first);
+                if(hits.isEmpty()) {
+                    locations[i] = null;
+                }
+            }
+        }
+        firstStep = first;
+    }
+    
+    /**
+     * @return the number of steps indexed, and not yet trimmed
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+    
+    /**
+     * @return the number of the first step not yet indexed
+     */
+    public synchronized long getIndexedSteps() {
+        return indexedSteps;
+    }
+    
+    /**
+     * @return the first step that has not been trimmed
+     */
+    public synchronized long getFirstStep() {
+        return firstStep;
+    }
+    
+    /**
+     * This method removes every step from the index.
+     */
+    public synchronized void clear() {
+        locations = new Hits[256];
+        hitCount = 0;
+        indexedSteps = 0;
+        firstStep = 0;
+    }
+    
+    /**
+     * This class holds the steps of a chunk, sorted into runs with the same
+     * location and thread.
+     */
+    static class Group {
+        private final int[] locations;
+        private final int[] threads;
+        private final int[] starts;
+        private final long[] steps;
+        private final long end;
+        private int runs = 0;
+        
+        private Group(int size, long end) {
+            locations = new int[size];
+            threads = new int[size];
+            starts = new int[size + 1];
+            steps = new long[size];
+            this.end = end;
+        }
+    }
+    
+    /**
+     * This class holds the steps at one location, by thread.
+     */
+    private static class Hits {
+        private Steps[] threads = new Steps[4];
+        
+        private Steps get(int thread, boolean create) {
+            if(thread < 0) {
+                return null;
+            }
+            if(thread >= threads.length) {
+                if(!create) {
+                    return null;
+                }
+                threads = Arrays.copyOf(threads, Math.max(threads.length * 2, thread + 1));
+            }
+            Steps steps = threads[thread];
+            if(steps == null && create) {
+                steps = new Steps();
+                threads[thread] = steps;
+            }
+            return steps;
+        }
+        
+        private int trim(long first) {
+            int removed = 0;
+            for(int i = 0; i < threads.length; i++) {
+                if(threads[i] != null) {
+                    removed += threads[i].trim(first);
+                    if(threads[i].count == 0) {
+                        threads[i] = null;
+                    }
+                }
+            }
+            return removed;
+        }
+        
+        private boolean isEmpty() {
+            for(int i = 0; i < threads.length; i++) {
+                if(threads[i] != null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+    
+    /**
+     * This class holds the steps of one thread at one location, in order.
+     */
+    private static class Steps {
+        private long[] steps = new long[8];
+        private int count = 0;
+        
+        private void add(long step) {
+            if(count == steps.length) {
+                steps = Arrays.copyOf(steps, count * 2);
+            }
+            steps[count] = step;
+            count++;
+        }
+        
+        private void addAll(long[] added, int from, int length) {
+            if(count + length > steps.length) {
+                steps = Arrays.copyOf(steps, Math.max(steps.length * 2, count + length));
+            }
+            System.arraycopy(added, from, steps, count, length);
+            count += length;
+        }
+        
+        /**
+         * This method removes the steps before a step, giving back the 
+         * memory once most of it is unused.
+         */
+        private int trim(long first) {
+            int removed = indexAtOrBefore(first - 1) + 1;
+            if(removed == 0) {
+                return 0;
+            }
+            count -= removed;
+            if(count < steps.length / 4) {
+                long[] kept = new long[Math.max(8, count * 2)];
+                System.arraycopy(steps, removed, kept, 0, count);
+                steps = kept;
+            } else {
+                System.arraycopy(steps, removed, steps, 0, count);
+            }
+            return removed;
+        }
+        
+        /**
+         * This method returns the position of the last step at or before a
+         * step, or -1 if there is none.
+         */
+        private int indexAtOrBefore(long step) {
+            int index = Arrays.binarySearch(steps, 0, count, step);
+            return index >= 0 ? index : -index - 2;
+        }
+    }
+}
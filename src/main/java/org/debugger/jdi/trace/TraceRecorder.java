@@ -0,0 +1,693 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.trace;
+
+import com.sun.jdi.AbsentInformationException;
+import com.sun.jdi.IncompatibleThreadStateException;
+import com.sun.jdi.InvalidStackFrameException;
+import com.sun.jdi.Field;
+import com.sun.jdi.LocalVariable;
+import com.sun.jdi.Location;
+import com.sun.jdi.LongValue;
+import com.sun.jdi.ObjectCollectedException;
+import com.sun.jdi.ReferenceType;
+import com.sun.jdi.StackFrame;
+import com.sun.jdi.ThreadReference;
+import com.sun.jdi.VMDisconnectedException;
+import com.sun.jdi.Value;
+import com.sun.jdi.VirtualMachine;
+import com.sun.jdi.event.BreakpointEvent;
+import com.sun.jdi.event.ClassPrepareEvent;
+import com.sun.jdi.request.BreakpointRequest;
+import com.sun.jdi.request.ClassPrepareRequest;
+import com.sun.jdi.request.EventRequest;
+import com.sun.jdi.request.EventRequestManager;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.debugger.agent.TraceProbe;
+import org.debugger.agent.TraceRing;
+import org.debugger.jdi.LineTable;
+import org.debugger.jdi.LineTableCache;
+
+/**
+ * This class records the execution of a program, line by line, so that it 
+ * can be browsed backward in time. When recording is enabled, every class
+ * that is prepared has a breakpoint placed on each of its line locations. 
+ * Each time one is hit, a step is added to the trace: the thread, the 
+ * location, the depth of the stack, and the local variables whose values 
+ * changed since the thread's last step in the same frame. A variable that 
+ * keeps its value is not recorded again, so the value of any variable at 
+ * any step is its last change at or before that step.
+ * 
+ * Frames are told apart by their depth and method. A thread's frames deeper
+ * than a step are dropped at that step, as they have returned. Everything 
+ * in the trace is interned in a dictionary and stored in a compact buffer, 
+ * so reading the past is a lookup rather than running the program again.
+ * Full chunks of the buffer are sealed and indexed in the background by a
+ * TraceSealer, which the recorder waits for only if it falls behind.
+ * 
+ * Recording stops every thread at every line, briefly, so programs run 
+ * much slower while recorded. It is off by default.
+ * 
+ * The recorder can instead use the trace agent, which adds probes to the 
+ * program's classes as they load, so that the program records itself into
+ * a ring buffer shared with the debugger without ever stopping. The agent 
+ * must be given to the virtual machine when it is launched, with the option
+ * returned by getAgentOption. The agent sees objects only by their identity
+ * hash codes and records a variable each time it is stored, while 
+ * breakpoints see unique identifiers and record only changed values.
+ * 
+ * @author Andreas Stefik
+ */
+public class TraceRecorder {
+    /**
+     * This is the key under which each trace BreakpointRequest stores the
+     * number of its location.
+     */
+    private static final String TRACE_PROPERTY = "trace";
+    
+    /**
+     * The size of the ring the trace agent writes into.
+     */
+    private static final int RING_CAPACITY = 16 * 1024 * 1024;
+    
+    private boolean enabled = false;
+    private boolean usingAgent = false;
+    private TraceRing ring = null;
+    private AgentTraceReader reader = null;
+    private final ArrayList<String> classFilters = new ArrayList<>();
+    private final HashSet<String> prepared = new HashSet<>();
+    private final ArrayList<BreakpointRequest> requests = new ArrayList<>();
+    private VirtualMachine virtualMachine = null;
+    private final ArrayList<ClassPrepareRequest> prepareRequests = new ArrayList<>();
+    private LineTableCache lineTables = new LineTableCache();
+    
+    private final TraceDictionary dictionary = new TraceDictionary();
+    private final TraceBuffer buffer = new TraceBuffer();
+    private final TraceCheckpoints checkpoints = new TraceCheckpoints(buffer, dictionary);
+    private final TraceWriteIndex writes = new TraceWriteIndex();
+    private final TraceLocationIndex hits = new TraceLocationIndex();
+    private final TraceSealer sealer = new TraceSealer(buffer, writes, hits);
+    private final HashMap<ThreadReference, ThreadState> threads = new HashMap<>();
+    private final HashMap<LocalVariable, Integer> slots = new HashMap<>();
+    private long[] firstSteps = new long[0];
+    private long[] lastSteps = new long[0];
+    
+    private int[] changedSlots = new int[16];
+    private byte[] changedTags = new byte[16];
+    private long[] changedValues = new long[16];
+    
+    public TraceRecorder() {
+        buffer.setSealer(sealer);
+        sealer.setCheckpoints(checkpoints);
+    }
+    
+    /**
+     * This method begins recording a virtual machine. Only classes prepared
+     * from now on are recorded. The classes excluded are typically those of 
+     * the Java libraries.
+     * 
+     * @param virtualMachine
+     * @param lineTables
+     * @param exclusions class patterns, like java.*, that are not recorded.
+     */
+    public synchronized void start(VirtualMachine virtualMachine, LineTableCache lineTables, 
+            Collection<String> exclusions) {
+        this.virtualMachine = virtualMachine;
+        this.lineTables = lineTables;
+        if(ring != null) {
+            reader = new AgentTraceReader(ring, this);
+            reader.start();
+            return;
+        }
+        EventRequestManager manager = virtualMachine.eventRequestManager();
+        prepareRequests.clear();
+        if(classFilters.isEmpty()) {
+            createPrepareRequest(manager, null, exclusions);
+        }
+        Iterator<String> iterator = classFilters.iterator();
+        while(iterator.hasNext()) {
+            createPrepareRequest(manager, iterator.next(), exclusions);
+        }
+    }
+    
+    /**
+     * This method asks to hear of the classes matching one filter as they
+     * are prepared. As the virtual machine requires a class to match every
+     * filter of a request, each filter has a request of its own.
+     * 
+     * @param manager
+     * @param filter the classes to record, or null for every class.
+     * @param exclusions 
+     */
+    private void createPrepareRequest(EventRequestManager manager, String filter, 
+            Collection<String> exclusions) {
+        ClassPrepareRequest request = manager.createClassPrepareRequest();
+        if(filter != null) {
+            request.addClassFilter(filter);
+        }
+        Iterator<String> iterator = exclusions.iterator();
+        while(iterator.hasNext()) {
+            request.addClassExclusionFilter(iterator.next());
+        }
+        //the loading thread is held until the class is instrumented
+        request.setSuspendPolicy(EventRequest.SUSPEND_EVENT_THREAD);
+        request.enable();
+        prepareRequests.add(request);
+    }
+    
+    /**
+     * This method prepares the trace agent and returns the option that 
+     * loads it into the virtual machine, or null if the agent is not used.
+     * The agent is in the same jar as the debugger, so it cannot be used 
+     * when the debugger is not run from a jar.
+     * 
+     * @param exclusions class patterns, like java.*, that are not recorded.
+     * @return 
+     */
+    public synchronized String getAgentOption(Collection<String> exclusions) {
+        ring = null;
+        if(!enabled || !usingAgent) {
+            return null;
+        }
+        File jar;
+        try {
+            jar = new File(TraceProbe.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException | SecurityException ex) {
+            Logger.getLogger(TraceRecorder.class.getName()).log(Level.WARNING, null, ex);
+            return null;
+        }
+        if(!jar.isFile()) {
+            Logger.getLogger(TraceRecorder.class.getName()).log(Level.WARNING, 
+                    "The trace agent is not in a jar, so breakpoints are used instead.");
+            return null;
+        }
+        
+        String arguments;
+        try {
+            File file = File.createTempFile("trace", ".ring");
+            file.deleteOnExit();
+            ring = TraceRing.create(file, RING_CAPACITY);
+            arguments = "ring=" + file.getAbsolutePath();
+        } catch (IOException ex) {
+            Logger.getLogger(TraceRecorder.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+        Iterator<String> iterator = classFilters.iterator();
+        while(iterator.hasNext()) {
+            arguments += ",include=" + toPrefix(iterator.next());
+        }
+        iterator = exclusions.iterator();
+        while(iterator.hasNext()) {
+            arguments += ",exclude=" + toPrefix(iterator.next());
+        }
+        return "-javaagent:\"" + jar.getAbsolutePath() + "=" + arguments + "\"";
+    }
+    
+    /**
+     * This method converts a class pattern, like quorum.*, to the prefix of
+     * internal class names the agent matches, like quorum/.
+     * 
+     * @param pattern
+     * @return 
+     */
+    private static String toPrefix(String pattern) {
+        if(pattern.endsWith("*")) {
+            pattern = pattern.substring(0, pattern.length() - 1);
+        }
+        return pattern.replace('.', '/');
+    }
+    
+    /**
+     * This method stops recording. The trace recorded so far is kept.
+     */
+    public synchronized void stop() {
+        if(reader != null) {
+            reader.stop();
+            reader = null;
+            ring = null;
+        }
+        if(virtualMachine != null && !prepareRequests.isEmpty()) {
+            try {
+                EventRequestManager manager = virtualMachine.eventRequestManager();
+                manager.deleteEventRequests(requests);
+                manager.deleteEventRequests(prepareRequests);
+            } catch(VMDisconnectedException exception) {
+                //the requests died with the virtual machine
+            }
+        }
+        requests.clear();
+        prepared.clear();
+        threads.clear();
+        virtualMachine = null;
+        prepareRequests.clear();
+        sealer.flush();
+        buffer.writeTail();
+    }
+    
+    /**
+     * This method is called when a class is prepared. If the recorder asked
+     * for the event, a breakpoint is placed on every line location of the 
+     * class.
+     * 
+     * @param event 
+     */
+    public synchronized void action(ClassPrepareEvent event) {
+        if(!prepareRequests.contains(event.request())) {
+            return;
+        }
+        ReferenceType type = event.referenceType();
+        if(!prepared.add(type.name())) {
+            return;
+        }
+        LineTable table = lineTables.get(type);
+        EventRequestManager manager = virtualMachine.eventRequestManager();
+        for(int i = 0; i < table.getLineCount(); i++) {
+            Location[] locations = table.getLocationsAt(i);
+            for(int j = 0; j < locations.length; j++) {
+                BreakpointRequest request = manager.createBreakpointRequest(locations[j]);
+                request.setSuspendPolicy(EventRequest.SUSPEND_EVENT_THREAD);
+                request.putProperty(TRACE_PROPERTY, dictionary.intern(locations[j]));
+                request.enable();
+                requests.add(request);
+            }
+        }
+    }
+    
+    /**
+     * This method is called when a breakpoint is hit. If the breakpoint 
+     * belongs to the recorder, a step is added to the trace. The thread is
+     * left suspended, for the caller to resume.
+     * 
+     * @param event
+     * @return true if the breakpoint belonged to the recorder.
+     */
+    public synchronized boolean record(BreakpointEvent event) {
+        Object property = event.request().getProperty(TRACE_PROPERTY);
+        if(!(property instanceof Integer)) {
+            return false;
+        }
+        int location = (Integer) property;
+        ThreadReference thread = event.thread();
+        try {
+            ThreadState state = threads.get(thread);
+            if(state == null) {
+                state = new ThreadState(dictionary.internThread(thread.uniqueID(), thread.name()));
+                threads.put(thread, state);
+            }
+            int depth = thread.frameCount();
+            int method = dictionary.getMethod(location);
+            FrameState frame = state.enter(depth, method);
+            int count = readChanges(thread.frame(0), method, frame);
+            append(state.index, location, depth, count, changedSlots, changedTags, changedValues);
+        } catch(IncompatibleThreadStateException | InvalidStackFrameException | ObjectCollectedException exception) {
+            //the thread is not where the event left it, so there is no step
+        }
+        return true;
+    }
+    
+    /**
+     * This method adds a step to the trace.
+     * 
+     * @return the number of the step.
+     */
+    synchronized long append(int thread, int location, int depth, int count, 
+            int[] slots, byte[] tags, long[] values) {
+        long step = buffer.append(thread, location, depth, count, slots, tags, values);
+        sealer.await();
+        if(thread >= lastSteps.length) {
+            int length = lastSteps.length;
+            lastSteps = Arrays.copyOf(lastSteps, Math.max(length * 2, thread + 1));
+            firstSteps = Arrays.copyOf(firstSteps, lastSteps.length);
+            Arrays.fill(lastSteps, length, lastSteps.length, -1);
+            Arrays.fill(firstSteps, length, firstSteps.length, -1);
+        }
+        if(firstSteps[thread] < 0) {
+            firstSteps[thread] = step;
+        }
+        lastSteps[thread] = step;
+        return step;
+    }
+    
+    /**
+     * This method reads the local variables of a frame into the scratch 
+     * arrays, keeping only those that changed.
+     * 
+     * @param jdiFrame
+     * @param method
+     * @param frame
+     * @return the number of variables that changed.
+     */
+    private int readChanges(StackFrame jdiFrame, int method, FrameState frame) {
+        List<LocalVariable> visible;
+        try {
+            visible = jdiFrame.visibleVariables();
+        } catch (AbsentInformationException ex) {
+            return 0;
+        }
+        if(visible.isEmpty()) {
+            return 0;
+        }
+        Map<LocalVariable, Value> values = jdiFrame.getValues(visible);
+        int count = 0;
+        Iterator<Map.Entry<LocalVariable, Value>> iterator = values.entrySet().iterator();
+        while(iterator.hasNext()) {
+            Map.Entry<LocalVariable, Value> next = iterator.next();
+            Integer slot = slots.get(next.getKey());
+            if(slot == null) {
+                slot = dictionary.internSlot(method, next.getKey().name());
+                slots.put(next.getKey(), slot);
+            }
+            Value value = next.getValue();
+            byte tag = TraceValues.tag(value);
+            long identity = TraceValues.identity(value);
+            if(frame.update(slot, tag, identity)) {
+                if(count == changedSlots.length) {
+                    changedSlots = Arrays.copyOf(changedSlots, count * 2);
+                    changedTags = Arrays.copyOf(changedTags, count * 2);
+                    changedValues = Arrays.copyOf(changedValues, count * 2);
+                }
+                changedSlots[count] = slot;
+                changedTags[count] = tag;
+                changedValues[count] = tag == TraceValues.STRING ? TraceValues.encode(value, dictionary) : identity;
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * This method forgets a thread that has died. Its steps stay in the 
+     * trace.
+     * 
+     * @param thread 
+     */
+    public synchronized void removed(ThreadReference thread) {
+        threads.remove(thread);
+    }
+    
+    /**
+     * This method returns the number of a thread in the trace, or -1 if it
+     * has not been recorded. The trace agent knows a thread by its id in the 
+     * program, rather than by the identifier the debugger uses.
+     * 
+     * @param thread
+     * @return 
+     */
+    public int getThread(ThreadReference thread) {
+        boolean agent;
+        synchronized(this) {
+            agent = reader != null;
+        }
+        if(!agent) {
+            return dictionary.getThread(thread.uniqueID());
+        }
+        Field id = thread.referenceType().fieldByName("tid");
+        if(id == null) {
+            return -1;
+        }
+        Value value = thread.getValue(id);
+        if(!(value instanceof LongValue)) {
+            return -1;
+        }
+        return dictionary.getThread(((LongValue) value).value());
+    }
+    
+    /**
+     * This method returns the number of the last step a thread took, or -1
+     * if it has not been recorded.
+     * 
+     * @param thread the number of the thread in the trace.
+     * @return 
+     */
+    public synchronized long getLastStep(int thread) {
+        if(thread < 0 || thread >= lastSteps.length) {
+            return -1;
+        }
+        return lastSteps[thread];
+    }
+    
+    /**
+     * This method returns the first step recorded for a thread, or -1 if 
+     * it has none. The step may since have been dropped from the buffer.
+     * 
+     * @param thread the number of the thread in the trace.
+     * @return 
+     */
+    public synchronized long getFirstStep(int thread) {
+        if(thread < 0 || thread >= firstSteps.length) {
+            return -1;
+        }
+        return firstSteps[thread];
+    }
+    
+    /**
+     * This method reads any records the trace agent has written but the
+     * recorder has not yet read. It is called when the program is 
+     * suspended, so that the trace reaches the present.
+     */
+    public void sync() {
+        AgentTraceReader current;
+        synchronized(this) {
+            current = reader;
+        }
+        if(current != null) {
+            current.drain();
+        }
+    }
+    
+    /**
+     * @return the dictionary of names the trace refers to
+     */
+    public TraceDictionary getDictionary() {
+        return dictionary;
+    }
+    
+    /**
+     * @return the steps recorded
+     */
+    public TraceBuffer getBuffer() {
+        return buffer;
+    }
+    
+    /**
+     * @return the index answering what variables held at each step
+     */
+    public TraceCheckpoints getCheckpoints() {
+        return checkpoints;
+    }
+    
+    /**
+     * @return the index of the steps that wrote each variable, which holds
+     * the steps of the chunks sealed so far
+     */
+    public TraceWriteIndex getWriteIndex() {
+        return writes;
+    }
+    
+    /**
+     * @return the sealer sealing and indexing the trace's full chunks
+     */
+    public TraceSealer getSealer() {
+        return sealer;
+    }
+    
+    /**
+     * @return the index of the steps at each location, which holds the 
+     * steps of the chunks sealed so far
+     */
+    public TraceLocationIndex getLocationIndex() {
+        return hits;
+    }
+    
+    /**
+     * This method removes the trace recorded so far.
+     */
+    public synchronized void clear() {
+        sealer.flush();
+        buffer.clear();
+        checkpoints.clear();
+        writes.clear();
+        hits.clear();
+        dictionary.clear();
+        slots.clear();
+        threads.clear();
+        Arrays.fill(firstSteps, -1);
+        Arrays.fill(lastSteps, -1);
+        Iterator<BreakpointRequest> iterator = requests.iterator();
+        while(iterator.hasNext()) {
+            BreakpointRequest next = iterator.next();
+            next.putProperty(TRACE_PROPERTY, dictionary.intern(next.location()));
+        }
+    }
+    
+    /**
+     * This method limits recording to classes matching a pattern, like 
+     * quorum.*. Classes matching any of the filters added are recorded, and
+     * if no filters are added, every class that is not excluded is 
+     * recorded. Filters take effect the next time recording starts.
+     * 
+     * @param filter 
+     */
+    public synchronized void addClassFilter(String filter) {
+        classFilters.add(filter);
+    }
+    
+    /**
+     * @return whether the program is being recorded
+     */
+    public synchronized boolean isRecording() {
+        return virtualMachine != null;
+    }
+    
+    /**
+     * @return whether the program is recorded when it is launched
+     */
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * @param enabled whether the program is recorded when it is launched
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+    
+    /**
+     * This method stores the trace in segment files in a directory, rather
+     * than in memory, from now on. The size of the segments and how long 
+     * they are kept can be set on the segments returned.
+     * 
+     * @param directory the directory, or null to store the trace in memory.
+     * @return the segments, or null.
+     */
+    public synchronized TraceSegments setSegmentDirectory(File directory) {
+        TraceSegments segments = directory == null ? null : new TraceSegments(directory, dictionary);
+        sealer.flush();
+        buffer.setSegments(segments);
+        return segments;
+    }
+    
+    /**
+     * @return whether the trace agent records the program, rather than 
+     * breakpoints
+     */
+    public synchronized boolean isUsingAgent() {
+        return usingAgent;
+    }
+    
+    /**
+     * @param usingAgent whether the trace agent records the program, rather
+     * than breakpoints. This takes effect the next time the program is 
+     * launched.
+     */
+    public synchronized void setUsingAgent(boolean usingAgent) {
+        this.usingAgent = usingAgent;
+    }
+    
+    /**
+     * This class holds what the recorder knows of a thread: its number and 
+     * the values last recorded in each of its frames.
+     */
+    private static class ThreadState {
+        private final int index;
+        private final ArrayList<FrameState> frames = new ArrayList<>();
+        
+        private ThreadState(int index) {
+            this.index = index;
+        }
+        
+        /**
+         * This method returns the frame at a depth, dropping any deeper 
+         * frames, which have returned, and starting a new frame if the
+         * method has changed.
+         * 
+         * @param depth
+         * @param method
+         * @return 
+         */
+        private FrameState enter(int depth, int method) {
+            while(frames.size() > depth) {
+                frames.remove(frames.size() - 1);
+            }
+            while(frames.size() < depth) {
+                frames.add(null);
+            }
+            FrameState frame = frames.get(depth - 1);
+            if(frame == null || frame.method != method) {
+                frame = new FrameState(method);
+                frames.set(depth - 1, frame);
+            }
+            return frame;
+        }
+    }
+    
+    /**
+     * This class holds the tag and identity last recorded for each variable
+     * of a frame.
+     */
+    private static class FrameState {
+        private final int method;
+        private final HashMap<Integer, long[]> values = new HashMap<>();
+        
+        private FrameState(int method) {
+            this.method = method;
+        }
+        
+        /**
+         * This method stores the value of a variable.
+         * 
+         * @return true if the value differs from the one stored before.
+         */
+        private boolean update(int slot, byte tag, long identity) {
+            long[] last = values.get(slot);
+            if(last == null) {
+                values.put(slot, new long[] {tag, identity});
+                return true;
+            } else if(last[0] == tag && last[1] == identity) {
+                return false;
+            }
+            last[0] = tag;
+            last[1] = identity;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.trace;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class seals the full chunks of a trace in the background, so that 
+ * recording, which happens on the thread handling events from the virtual
+ * machine, only hands a chunk over and moves on. Sealing a chunk encodes it
+ * compactly, and groups its steps and writes for the location and write 
+ * indexes. Chunks are sealed in parallel on a fork/join pool with a thread
+ * for each processor, each chunk forking its grouping from its encoding.
+ * 
+ * Sealed chunks are then committed one at a time, in the order they were
+ * recorded: written to the buffer, and to its segment files if it has any,
+ * and added to the indexes and the checkpoints, which need their steps in 
+ * order. Until then, the buffer reads a chunk from the heap as it was 
+ * recorded.
+ * 
+ * If recording gets ahead of the pool by more than a few chunks, the 
+ * recorder waits for it, which keeps the chunks waiting on the heap 
+ * bounded. The sealer counts how much it has sealed, and how fast, for 
+ * those tuning a recording.
+ * 
+ * @author Andreas Stefik
+ */
+public class TraceSealer {
+    private final TraceBuffer buffer;
+    private final TraceWriteIndex writes;
+    private final TraceLocationIndex locations;
+    private TraceCheckpoints checkpoints = null;
+    private final ForkJoinPool pool;
+    private final ArrayDeque<Job> jobs = new ArrayDeque<>();
+    private final Object committing = new Object();
+    private int maximumPending;
+    
+    private long chunkCount = 0;
+    private long bytesIndexed = 0;
+    private long bytesSealed = 0;
+    private long busySince = 0;
+    private long busyTime = 0;
+    private long waitCount = 0;
+    private long waitTime = 0;
+    
+    /**
+     * This constructor seals the chunks of a buffer into it, feeding the 
+     * indexes, on a pool with a thread for each processor.
+     * 
+     * @param buffer
+     * @param writes
+     * @param locations 
+     */
+    public TraceSealer(TraceBuffer buffer, TraceWriteIndex writes, TraceLocationIndex locations) {
+        this(buffer, writes, locations, Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * This constructor seals the chunks of a buffer into it, feeding the 
+     * indexes, on a pool of the given size.
+     * 
+     * @param buffer
+     * @param writes
+     * @param locations 
+     * @param parallelism the number of threads sealing chunks.
+     */
+    public TraceSealer(TraceBuffer buffer, TraceWriteIndex writes, TraceLocationIndex locations, 
+            int parallelism) {
+        this.buffer = buffer;
+        this.writes = writes;
+        this.locations = locations;
+        pool = new ForkJoinPool(parallelism);
+        maximumPending = parallelism * 2;
+    }
+    
+    /**
+     * This method hands a full chunk over to be sealed. It does not wait.
+     * 
+     * @param index the position of the chunk in the buffer.
+     * @param chunk 
+     */
+    void submit(int index, TraceChunk chunk) {
+        Job job = new Job(index, chunk);
+        synchronized(this) {
+            if(jobs.isEmpty()) {
+                busySince = System.nanoTime();
+            }
+            jobs.add(job);
+        }
+        pool.execute(job);
+    }
+    
+    /**
+     * This method makes the recorder wait while the maximum number of 
+     * chunks are waiting to be sealed.
+     */
+    public synchronized void await() {
+        if(jobs.size() < maximumPending) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            while(jobs.size() >= maximumPending) {
+                wait();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        waitCount++;
+        waitTime += System.nanoTime() - start;
+    }
+    
+    /**
+     * This method waits until every chunk handed over has been sealed.
+     */
+    public synchronized void flush() {
+        try {
+            while(!jobs.isEmpty()) {
+                wait();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * This method commits the sealed chunks at the front of the queue. Any
+     * thread finishing a chunk calls it, and the first to arrive commits 
+     * every chunk that is ready, so chunks are committed in order however 
+     * they finish.
+     */
+    private void commit() {
+        synchronized(committing) {
+            while(true) {
+                Job head;
+                synchronized(this) {
+                    head = jobs.peek();
+                    if(head == null || !head.done) {
+                        return;
+                    }
+                }
+                if(head.encoded != null) {
+                    buffer.install(head.index, head.encoded);
+                }
+                if(head.hits != null) {
+                    locations.add(head.hits);
+                } else {
+                    TraceChunk chunk = head.chunk;
+                    for(int i = 0; i < chunk.getSize(); i++) {
+                        locations.add(chunk.getFirstStep() + i, chunk.getThread(i), chunk.getLocation(i));
+                    }
+                }
+                if(head.writes != null) {
+                    writes.add(head.writes);
+                }
+                TraceCheckpoints checkpoints = getCheckpoints();
+                if(checkpoints != null) {
+                    checkpoints.add(head.chunk);
+                }
+                //steps in segments that retention deleted are dropped
+                long first = buffer.getFirstStep();
+                locations.trim(first);
+                writes.trim(first);
+                synchronized(this) {
+                    jobs.poll();
+                    chunkCount++;
+                    bytesIndexed += head.chunk.getColumnBytes();
+                    if(head.encoded != null) {
+                        bytesSealed += head.encoded.capacity();
+                    }
+                    if(jobs.isEmpty()) {
+                        busyTime += System.nanoTime() - busySince;
+                    }
+                    notifyAll();
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return the checkpoints fed each chunk as it is committed
+     */
+    public synchronized TraceCheckpoints getCheckpoints() {
+        return checkpoints;
+    }
+    
+    /**
+     * @param checkpoints the checkpoints fed each chunk as it is committed,
+     * or null for none.
+     */
+    public synchronized void setCheckpoints(TraceCheckpoints checkpoints) {
+        this.checkpoints = checkpoints;
+    }
+    
+    /**
+     * @return the number of chunks sealed
+     */
+    public synchronized long getChunkCount() {
+        return chunkCount;
+    }
+    
+    /**
+     * @return the number of bytes the sealed chunks took on the heap, before
+     * they were encoded
+     */
+    public synchronized long getBytesIndexed() {
+        return bytesIndexed;
+    }
+    
+    /**
+     * @return the number of bytes the sealed chunks take once encoded
+     */
+    public synchronized long getBytesSealed() {
+        return bytesSealed;
+    }
+    
+    /**
+     * @return how many times smaller chunks are once encoded, or 0 if none
+     * have been
+     */
+    public synchronized double getCompressionRatio() {
+        return bytesSealed == 0 ? 0 : (double) bytesIndexed / bytesSealed;
+    }
+    
+    /**
+     * @return the number of megabytes of chunks, before they were encoded, 
+     * sealed and indexed for each second the sealer was busy
+     */
+    public synchronized double getMegabytesPerSecond() {
+        long time = busyTime;
+        if(!jobs.isEmpty()) {
+            time += System.nanoTime() - busySince;
+        }
+        return time == 0 ? 0 : bytesIndexed / (1024.0 * 1024.0) / (time / 1000000000.0);
+    }
+    
+    /**
+     * @return the number of times the recorder waited for the sealer
+     */
+    public synchronized long getWaitCount() {
+        return waitCount;
+    }
+    
+    /**
+     * @return the number of nanoseconds the recorder waited for the sealer
+     */
+    public synchronized long getWaitTime() {
+        return waitTime;
+    }
+    
+    /**
+     * @return the number of chunks waiting to be sealed or committed
+     */
+    public synchronized int getPendingCount() {
+        return jobs.size();
+    }
+    
+    /**
+     * @return the number of threads sealing chunks
+     */
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+    
+    /**
+     * @return the number of chunks that may wait to be sealed before the
+     * recorder waits for them
+     */
+    public synchronized int getMaximumPending() {
+        return maximumPending;
+    }
+    
+    /**
+     * @param maximumPending the number of chunks that may wait to be sealed
+     * before the recorder waits for them
+     */
+    public synchronized void setMaximumPending(int maximumPending) {
+        this.maximumPending = Math.max(1, maximumPending);
+        notifyAll();
+    }
+    
+    /**
+     * This class seals one chunk. Its encoding and its grouping for the 
+     * indexes are independent, so the grouping is forked.
+     */
+    private class Job extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int index;
+        private final TraceChunk chunk;
+        private ByteBuffer encoded = null;
+        private TraceLocationIndex.Group hits = null;
+        private TraceWriteIndex.Group writes = null;
+        private boolean done = false;
+        
+        private Job(int index, TraceChunk chunk) {
+            this.index = index;
+            this.chunk = chunk;
+        }
+        
+        @Override
+        protected void compute() {
+            try {
+                RecursiveAction grouping = new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        hits = TraceLocationIndex.group(chunk);
+                        writes = TraceWriteIndex.group(chunk);
+                    }
+                };
+                grouping.fork();
+                encoded = chunk.encode();
+                grouping.join();
+            } catch (RuntimeException ex) {
+                Logger.getLogger(TraceSealer.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            synchronized(TraceSealer.this) {
+                done = true;
+            }
+            commit();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.trace;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class reads a trace from the segment files written by TraceSegments,
+ * for example to browse a recording after the program has ended. The files
+ * are mapped into memory read only, and each chunk is decoded straight from
+ * its file when it is asked for, so opening even a very long recording 
+ * reads little more than the dictionary.
+ * 
+ * If the oldest segments were deleted, the trace starts at the first step 
+ * of the oldest segment left. Every segment begins with the whole 
+ * dictionary as it was when the segment was started, so no names are lost
+ * with the segments deleted.
+ * 
+ * @author Andreas Stefik
+ */
+public class TraceSegmentReader implements TraceSource {
+    private final TraceDictionary dictionary = new TraceDictionary();
+    private final ArrayList<ByteBuffer> chunks = new ArrayList<>();
+    private long[] firstSteps = new long[64];
+    private long size = 0;
+    private ByteBuffer tail = null;
+    private long tailStep = 0;
+    
+    private TraceSegmentReader() {
+    }
+    
+    /**
+     * This method opens the segments in a directory.
+     * 
+     * @param directory
+     * @return
+     * @throws IOException if a segment is not a trace segment.
+     */
+    public static TraceSegmentReader open(File directory) throws IOException {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().startsWith("trace-") && file.getName().endsWith(".seg");
+            }
+        });
+        TraceSegmentReader reader = new TraceSegmentReader();
+        if(files == null) {
+            return reader;
+        }
+        Arrays.sort(files);
+        for(int i = 0; i < files.length; i++) {
+            reader.read(files[i]);
+        }
+        //the chunk being recorded when recording stopped, if there was one
+        if(reader.tail != null) {
+            reader.add(reader.tailStep, reader.tail);
+        }
+        return reader;
+    }
+    
+    private void add(long firstStep, ByteBuffer chunk) {
+        if(chunks.size() == firstSteps.length) {
+            firstSteps = Arrays.copyOf(firstSteps, chunks.size() * 2);
+        }
+        firstSteps[chunks.size()] = firstStep;
+        chunks.add(chunk);
+    }
+    
+    private void read(File file) throws IOException {
+        ByteBuffer segment;
+        try (RandomAccessFile access = new RandomAccessFile(file, "r")) {
+            segment = access.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, access.length());
+        }
+        if(segment.capacity() < TraceSegments.HEADER || segment.getInt(0) != TraceSegments.MAGIC) {
+            throw new IOException(file + " is not a trace segment.");
+        }
+        if(segment.getInt(4) != TraceSegments.VERSION) {
+            throw new IOException(file + " was written by another version of the debugger.");
+        }
+        int end = segment.getInt(12);
+        long step = segment.getLong(24);
+        int position = TraceSegments.HEADER;
+        while(position < end) {
+            byte type = segment.get(position);
+            int length = segment.getInt(position + 1);
+            ByteBuffer record = segment.duplicate();
+            record.position(position + 5);
+            record.limit(position + 5 + length);
+            record = record.slice();
+            if(type == TraceSegments.THREADS) {
+                int count = TraceChunk.readInt(record);
+                for(int i = 0; i < count; i++) {
+                    dictionary.putThread(i, TraceSegments.readString(record));
+                }
+            } else if(type == TraceSegments.DICTIONARY) {
+                readDictionary(record);
+            } else if(type == TraceSegments.TAIL) {
+                tail = record;
+                tailStep = step;
+                size = step + TraceChunk.readInt(record.duplicate());
+            } else if(type == TraceSegments.CHUNK) {
+                tail = null;
+                add(step, record);
+                step += TraceChunk.readInt(record.duplicate());
+                size = step;
+            }
+            position += 5 + length;
+        }
+    }
+    
+    private void readDictionary(ByteBuffer in) {
+        int first = TraceChunk.readInt(in);
+        int count = TraceChunk.readInt(in);
+        for(int i = 0; i < count; i++) {
+            String className = TraceSegments.readString(in);
+            dictionary.putMethod(first + i, className, TraceSegments.readString(in));
+        }
+        first = TraceChunk.readInt(in);
+        count = TraceChunk.readInt(in);
+        for(int i = 0; i < count; i++) {
+            int method = TraceChunk.readInt(in);
+            dictionary.putLocation(first + i, method, TraceChunk.readInt(in));
+        }
+        first = TraceChunk.readInt(in);
+        count = TraceChunk.readInt(in);
+        for(int i = 0; i < count; i++) {
+            int method = TraceChunk.readInt(in);
+            dictionary.putSlot(first + i, method, TraceSegments.readString(in));
+        }
+        first = TraceChunk.readInt(in);
+        count = TraceChunk.readInt(in);
+        for(int i = 0; i < count; i++) {
+            dictionary.putString(first + i, TraceSegments.readString(in));
+        }
+        first = TraceChunk.readInt(in);
+        count = TraceChunk.readInt(in);
+        for(int i = 0; i < count; i++) {
+            dictionary.putThread(first + i, TraceSegments.readString(in));
+        }
+    }
+    
+    /**
+     * This method returns the chunk holding a step.
+     * 
+     * @param step
+     * @return 
+     */
+    @Override
+    public TraceChunk getChunk(long step) {
+        int index = Arrays.binarySearch(firstSteps, 0, chunks.size(), step);
+        if(index < 0) {
+            index = -index - 2;
+        }
+        if(index < 0 || step >= size) {
+            throw new IndexOutOfBoundsException("Step " + step + " is not in the trace.");
+        }
+        return TraceChunk.decode(firstSteps[index], chunks.get(index));
+    }
+    
+    /**
+     * @return the dictionary of names the trace refers to
+     */
+    public TraceDictionary getDictionary() {
+        return dictionary;
+    }
+    
+    /**
+     * @return the first step in the segments
+     */
+    @Override
+    public long getFirstStep() {
+        return chunks.isEmpty() ? 0 : firstSteps[0];
+    }
+    
+    /**
+     * @return the number of steps recorded, including any deleted
+     */
+    @Override
+    public long size() {
+        return size;
+    }
+    
+    /**
+     * @return the number of chunks in the segments
+     */
+    public int getChunkCount() {
+        return chunks.size();
+    }
+}
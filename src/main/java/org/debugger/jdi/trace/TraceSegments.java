@@ -0,0 +1,421 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class writes the sealed chunks of a trace into segment files of a 
+ * fixed size, mapped into memory, so that a long recording is bounded by 
+ * the disk rather than by the heap. A segment is only ever appended to, and
+ * a chunk, once written, is read straight from the mapped file, without 
+ * copying it. The operating system keeps in memory only the parts of the 
+ * files being read.
+ * 
+ * Each segment starts with a header: a magic number, the segment's number,
+ * the number of bytes written to it, the time it was started, and the 
+ * first step it holds, followed by the thread table and the whole 
+ * dictionary so far. The rest of the segment is a series of records, each
+ * a type, a length and its bytes. A chunk is preceded by any dictionary 
+ * entries it may refer to that have not already been written, so each 
+ * segment, with those after it, describes its steps even once the segments
+ * before it are deleted.
+ * When recording stops, the chunk still being recorded is written as a 
+ * tail, which a later chunk replaces if recording goes on.
+ * 
+ * When a segment is full, a new one is started, and old segments are 
+ * deleted once the segments together are larger than the maximum size or 
+ * are older than the maximum age. The steps in a deleted segment are gone.
+ * 
+ * @author Andreas Stefik
+ */
+public class TraceSegments {
+    static final int MAGIC = 0x51545243;
+    static final int VERSION = 2;
+    static final int HEADER = 32;
+    static final byte THREADS = 1;
+    static final byte DICTIONARY = 2;
+    static final byte CHUNK = 3;
+    static final byte TAIL = 4;
+    
+    private static final int END = 12;
+    
+    private final File directory;
+    private final TraceDictionary dictionary;
+    private int segmentSize = 64 * 1024 * 1024;
+    private long maximumBytes = Long.MAX_VALUE;
+    private long maximumAge = Long.MAX_VALUE;
+    
+    private final ArrayList<Segment> segments = new ArrayList<>();
+    private int nextNumber = 0;
+    private int threadsWritten = 0;
+    private int methodsWritten = 0;
+    private int locationsWritten = 0;
+    private int slotsWritten = 0;
+    private int stringsWritten = 0;
+    private long bytes = 0;
+    
+    /**
+     * This constructor stores segments in a directory, which is created if
+     * it does not exist.
+     * 
+     * @param directory
+     * @param dictionary the dictionary of the trace being stored.
+     */
+    public TraceSegments(File directory, TraceDictionary dictionary) {
+        this.directory = directory;
+        this.dictionary = dictionary;
+        directory.mkdirs();
+    }
+    
+    /**
+     * This method writes an encoded chunk at the end of the last segment, 
+     * starting a new segment if it does not fit.
+     * 
+     * @param firstStep the first step of the chunk.
+     * @param chunk the encoded chunk.
+     * @return the chunk as it is stored in the segment, or null if it could
+     * not be written.
+     */
+    synchronized ByteBuffer write(long firstStep, ByteBuffer chunk) {
+        return write(firstStep, chunk, CHUNK);
+    }
+    
+    /**
+     * This method writes the encoded chunk still being recorded at the end
+     * of the last segment, so that the segments hold every step so far.
+     * 
+     * @param firstStep the first step of the chunk.
+     * @param chunk the encoded chunk.
+     */
+    synchronized void writeTail(long firstStep, ByteBuffer chunk) {
+        write(firstStep, chunk, TAIL);
+    }
+    
+    private ByteBuffer write(long firstStep, ByteBuffer chunk, byte type) {
+        try {
+            byte[] delta = encodeDictionary(false);
+            int needed = delta.length + chunk.remaining() + 32;
+            Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if(last == null || last.end + needed > last.buffer.capacity()) {
+                last = startSegment(firstStep, chunk.remaining() + 32);
+            } else if(delta.length > 0) {
+                last.append(DICTIONARY, ByteBuffer.wrap(delta));
+            }
+            int start = last.append(type, chunk.duplicate());
+            ByteBuffer stored = last.buffer.duplicate();
+            stored.position(start);
+            stored.limit(start + chunk.remaining());
+            return stored.slice().asReadOnlyBuffer();
+        } catch (IOException ex) {
+            Logger.getLogger(TraceSegments.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+    }
+    
+    /**
+     * This method starts a new segment, writing its header and the whole
+     * dictionary, then deletes any old segments the limits no longer allow.
+     * 
+     * @param firstStep the first step of the segment.
+     * @param needed the number of bytes about to be written to it, after 
+     * the dictionary.
+     */
+    private Segment startSegment(long firstStep, int needed) throws IOException {
+        byte[] dictionary = encodeDictionary(true);
+        int size = Math.max(segmentSize, dictionary.length + needed + HEADER + 1024);
+        File file = new File(directory, String.format("trace-%06d.seg", nextNumber));
+        MappedByteBuffer buffer;
+        try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+            access.setLength(size);
+            buffer = access.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        Segment segment = new Segment(file, buffer, firstStep);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, nextNumber);
+        buffer.putLong(16, segment.created);
+        buffer.putLong(24, firstStep);
+        segment.end = HEADER;
+        buffer.putInt(END, segment.end);
+        nextNumber++;
+        
+        //a new segment starts with the thread table and the whole 
+        //dictionary, so it can be read without the segments before it
+        segment.append(THREADS, ByteBuffer.wrap(encodeThreads()));
+        if(dictionary.length > 0) {
+            segment.append(DICTIONARY, ByteBuffer.wrap(dictionary));
+        }
+        segments.add(segment);
+        bytes += size;
+        retain(segment);
+        return segment;
+    }
+    
+    /**
+     * This method deletes the oldest segments, other than the one being 
+     * written, while the segments break the limits.
+     */
+    private void retain(Segment current) {
+        long now = System.currentTimeMillis();
+        while(segments.size() > 1 && segments.get(0) != current 
+                && (bytes > maximumBytes || now - segments.get(0).created > maximumAge)) {
+            Segment oldest = segments.remove(0);
+            bytes -= oldest.buffer.capacity();
+            if(!oldest.file.delete()) {
+                oldest.file.deleteOnExit();
+            }
+        }
+    }
+    
+    private byte[] encodeThreads() {
+        TraceChunk.Bytes out = new TraceChunk.Bytes(64);
+        out.writeInt(threadsWritten);
+        for(int i = 0; i < threadsWritten; i++) {
+            writeString(out, dictionary.getThreadName(i));
+        }
+        return Arrays.copyOf(out.bytes, out.size);
+    }
+    
+    /**
+     * This method encodes the entries added to the dictionary since it was
+     * last written, or the whole dictionary: for each of methods, 
+     * locations, slots, strings and threads, the number of the first entry,
+     * the number of entries, and the entries.
+     * 
+     * @param whole whether to encode every entry, rather than only those 
+     * not yet written.
+     * @return the entries, or nothing if there are none.
+     */
+    private byte[] encodeDictionary(boolean whole) {
+        int methods = dictionary.getMethodCount();
+        int locations = dictionary.getLocationCount();
+        int slots = dictionary.getSlotCount();
+        int strings = dictionary.getStringCount();
+        int threads = dictionary.getThreadCount();
+        int methodsFrom = whole ? 0 : methodsWritten;
+        int locationsFrom = whole ? 0 : locationsWritten;
+        int slotsFrom = whole ? 0 : slotsWritten;
+        int stringsFrom = whole ? 0 : stringsWritten;
+        int threadsFrom = whole ? 0 : threadsWritten;
+        if(methods == methodsFrom && locations == locationsFrom && slots == slotsFrom 
+                && strings == stringsFrom && threads == threadsFrom) {
+            return new byte[0];
+        }
+        TraceChunk.Bytes out = new TraceChunk.Bytes(256);
+        out.writeInt(methodsFrom);
+        out.writeInt(methods - methodsFrom);
+        for(int i = methodsFrom; i < methods; i++) {
+            writeString(out, dictionary.getMethodClassName(i));
+            writeString(out, dictionary.getMethodName(i));
+        }
+        out.writeInt(locationsFrom);
+        out.writeInt(locations - locationsFrom);
+        for(int i = locationsFrom; i < locations; i++) {
+            out.writeInt(dictionary.getMethod(i));
+            out.writeInt(dictionary.getLine(i));
+        }
+        out.writeInt(slotsFrom);
+        out.writeInt(slots - slotsFrom);
+        for(int i = slotsFrom; i < slots; i++) {
+            out.writeInt(dictionary.getSlotMethod(i));
+            writeString(out, dictionary.getSlotName(i));
+        }
+        out.writeInt(stringsFrom);
+        out.writeInt(strings - stringsFrom);
+        for(int i = stringsFrom; i < strings; i++) {
+            writeString(out, dictionary.getString(i));
+        }
+        out.writeInt(threadsFrom);
+        out.writeInt(threads - threadsFrom);
+        for(int i = threadsFrom; i < threads; i++) {
+            writeString(out, dictionary.getThreadName(i));
+        }
+        methodsWritten = methods;
+        locationsWritten = locations;
+        slotsWritten = slots;
+        stringsWritten = strings;
+        threadsWritten = threads;
+        return Arrays.copyOf(out.bytes, out.size);
+    }
+    
+    private static void writeString(TraceChunk.Bytes out, String value) {
+        byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(encoded.length);
+        for(int i = 0; i < encoded.length; i++) {
+            out.write(encoded[i]);
+        }
+    }
+    
+    static String readString(ByteBuffer in) {
+        byte[] encoded = new byte[TraceChunk.readInt(in)];
+        in.get(encoded);
+        return new String(encoded, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * This method returns the first step still stored, as older steps may
+     * have been deleted.
+     * 
+     * @return 
+     */
+    public synchronized long getFirstStep() {
+        return segments.isEmpty() ? 0 : segments.get(0).firstStep;
+    }
+    
+    /**
+     * @return the number of segment files
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+    
+    /**
+     * @return the number of bytes the segment files take on disk
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+    
+    /**
+     * @return the directory the segments are stored in
+     */
+    public File getDirectory() {
+        return directory;
+    }
+    
+    /**
+     * This method deletes every segment, so that a new trace can be written.
+     */
+    public synchronized void clear() {
+        while(!segments.isEmpty()) {
+            Segment oldest = segments.remove(0);
+            if(!oldest.file.delete()) {
+                oldest.file.deleteOnExit();
+            }
+        }
+        bytes = 0;
+        threadsWritten = 0;
+        methodsWritten = 0;
+        locationsWritten = 0;
+        slotsWritten = 0;
+        stringsWritten = 0;
+    }
+    
+    /**
+     * @return the size of each new segment, in bytes
+     */
+    public synchronized int getSegmentSize() {
+        return segmentSize;
+    }
+    
+    /**
+     * @param segmentSize the size of each new segment, in bytes
+     */
+    public synchronized void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+    
+    /**
+     * @return the most bytes the segments may take before the oldest are 
+     * deleted
+     */
+    public synchronized long getMaximumBytes() {
+        return maximumBytes;
+    }
+    
+    /**
+     * @param maximumBytes the most bytes the segments may take before the
+     * oldest are deleted
+     */
+    public synchronized void setMaximumBytes(long maximumBytes) {
+        this.maximumBytes = maximumBytes;
+    }
+    
+    /**
+     * @return the age, in milliseconds, after which a segment is deleted
+     */
+    public synchronized long getMaximumAge() {
+        return maximumAge;
+    }
+    
+    /**
+     * @param maximumAge the age, in milliseconds, after which a segment is
+     * deleted
+     */
+    public synchronized void setMaximumAge(long maximumAge) {
+        this.maximumAge = maximumAge;
+    }
+    
+    /**
+     * This class is a segment file being written.
+     */
+    private static class Segment {
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private final long firstStep;
+        private final long created = System.currentTimeMillis();
+        private int end;
+        
+        private Segment(File file, MappedByteBuffer buffer, long firstStep) {
+            this.file = file;
+            this.buffer = buffer;
+            this.firstStep = firstStep;
+        }
+        
+        /**
+         * This method appends a record and then publishes the new end of 
+         * the segment, so a reader never sees a record half written.
+         * 
+         * @return the position of the record's bytes.
+         */
+        private int append(byte type, ByteBuffer record) {
+            int length = record.remaining();
+            buffer.put(end, type);
+            buffer.putInt(end + 1, length);
+            ByteBuffer target = buffer.duplicate();
+            target.position(end + 5);
+            target.put(record);
+            int start = end + 5;
+            end = start + length;
+            buffer.putInt(END, end);
+            return start;
+        }
+    }
+}
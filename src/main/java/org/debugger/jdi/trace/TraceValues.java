@@ -0,0 +1,177 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.trace;
+
+import com.sun.jdi.BooleanValue;
+import com.sun.jdi.ByteValue;
+import com.sun.jdi.CharValue;
+import com.sun.jdi.DoubleValue;
+import com.sun.jdi.FloatValue;
+import com.sun.jdi.IntegerValue;
+import com.sun.jdi.LongValue;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.ShortValue;
+import com.sun.jdi.StringReference;
+import com.sun.jdi.Value;
+
+/**
+ * This class converts values from the virtual machine to the form they take
+ * in a trace: a tag, saying what kind of value it is, and 64 bits. Primitive
+ * values keep their bits, strings are interned in the dictionary, and other 
+ * objects are kept by their unique identifier.
+ * 
+ * @author Andreas Stefik
+ */
+public final class TraceValues {
+    public static final byte NULL = 0;
+    public static final byte BOOLEAN = 1;
+    public static final byte BYTE = 2;
+    public static final byte CHAR = 3;
+    public static final byte SHORT = 4;
+    public static final byte INTEGER = 5;
+    public static final byte LONG = 6;
+    public static final byte FLOAT = 7;
+    public static final byte DOUBLE = 8;
+    public static final byte OBJECT = 9;
+    public static final byte STRING = 10;
+    
+    private TraceValues() {
+    }
+    
+    /**
+     * This method returns the tag for a value.
+     * 
+     * @param value
+     * @return 
+     */
+    public static byte tag(Value value) {
+        if(value == null) {
+            return NULL;
+        } else if(value instanceof StringReference) {
+            return STRING;
+        } else if(value instanceof ObjectReference) {
+            return OBJECT;
+        } else if(value instanceof IntegerValue) {
+            return INTEGER;
+        } else if(value instanceof BooleanValue) {
+            return BOOLEAN;
+        } else if(value instanceof DoubleValue) {
+            return DOUBLE;
+        } else if(value instanceof LongValue) {
+            return LONG;
+        } else if(value instanceof CharValue) {
+            return CHAR;
+        } else if(value instanceof ByteValue) {
+            return BYTE;
+        } else if(value instanceof ShortValue) {
+            return SHORT;
+        } else if(value instanceof FloatValue) {
+            return FLOAT;
+        }
+        return NULL;
+    }
+    
+    /**
+     * This method returns the identity of a value: the bits of a primitive, 
+     * or the unique identifier of an object. Two values with the same tag 
+     * and identity are the same value.
+     * 
+     * @param value
+     * @return 
+     */
+    public static long identity(Value value) {
+        if(value == null) {
+            return 0;
+        } else if(value instanceof ObjectReference) {
+            return ((ObjectReference) value).uniqueID();
+        } else if(value instanceof IntegerValue) {
+            return ((IntegerValue) value).value();
+        } else if(value instanceof BooleanValue) {
+            return ((BooleanValue) value).value() ? 1 : 0;
+        } else if(value instanceof DoubleValue) {
+            return Double.doubleToRawLongBits(((DoubleValue) value).value());
+        } else if(value instanceof LongValue) {
+            return ((LongValue) value).value();
+        } else if(value instanceof CharValue) {
+            return ((CharValue) value).value();
+        } else if(value instanceof ByteValue) {
+            return ((ByteValue) value).value();
+        } else if(value instanceof ShortValue) {
+            return ((ShortValue) value).value();
+        } else if(value instanceof FloatValue) {
+            return Float.floatToRawIntBits(((FloatValue) value).value());
+        }
+        return 0;
+    }
+    
+    /**
+     * This method returns the bits a value is stored as in a trace. This is
+     * its identity, except for strings, which are stored as the number of 
+     * their text in the dictionary.
+     * 
+     * @param value
+     * @param dictionary
+     * @return 
+     */
+    public static long encode(Value value, TraceDictionary dictionary) {
+        if(value instanceof StringReference) {
+            return dictionary.internString(((StringReference) value).value());
+        }
+        return identity(value);
+    }
+    
+    /**
+     * This method returns a stored value as text.
+     * 
+     * @param tag
+     * @param value
+     * @param dictionary
+     * @return 
+     */
+    public static String toString(byte tag, long value, TraceDictionary dictionary) {
+        switch(tag) {
+            case BOOLEAN:
+                return value != 0 ? "true" : "false";
+            case CHAR:
+                return String.valueOf((char) value);
+            case FLOAT:
+                return String.valueOf(Float.intBitsToFloat((int) value));
+            case DOUBLE:
+                return String.valueOf(Double.longBitsToDouble(value));
+            case OBJECT:
+                return "#" + value;
+            case STRING:
+                return dictionary.getString((int) value);
+            case NULL:
+                return "null";
+            default:
+                return String.valueOf(value);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.trace;
+
+import org.debugger.Variable;
+import org.debugger.VariableColumns;
+import org.debugger.VariablesModel;
+import org.debugger.Watch;
+import org.debugger.jdi.JDIVariable;
+import org.debugger.jdi.views.JDIVariableView;
+
+/**
+ * This class shows the variables of a recorded trace at a step, rather than
+ * those of the running program. The debugger positions it at the step it is
+ * showing when it browses the past, and the values come from the trace's 
+ * checkpoints, so moving to any step is quick.
+ * 
+ * The trace records the values of local variables, not the fields of 
+ * objects, so every variable is a leaf, and objects are shown by their
+ * identity. Values in the past cannot be changed.
+ * 
+ * @author Andreas Stefik
+ */
+public class TraceVariablesModel implements VariablesModel {
+    private final TraceRecorder recorder;
+    private JDIVariableView view = null;
+    private long step = -1;
+    
+    /**
+     * This constructor shows the variables of a recorder's trace.
+     * 
+     * @param recorder 
+     */
+    public TraceVariablesModel(TraceRecorder recorder) {
+        this.recorder = recorder;
+    }
+    
+    /**
+     * This method returns the frame of the step being shown, or null if 
+     * there is none.
+     * 
+     * @return 
+     */
+    private TraceFrame getFrame() {
+        long current = getStep();
+        TraceBuffer buffer = recorder.getBuffer();
+        if(current < buffer.getFirstStep() || current >= buffer.size()) {
+            return null;
+        }
+        return recorder.getCheckpoints().getFrame(current);
+    }
+    
+    @Override
+    public Variable[] getChildren(Variable parent, int from, int to) {
+        if(parent != null) {
+            return new Variable[0];
+        }
+        TraceFrame frame = getFrame();
+        if(frame == null) {
+            return new Variable[0];
+        }
+        Variable[] variables = new Variable[frame.getVariableCount()];
+        for(int i = 0; i < variables.length; i++) {
+            variables[i] = convert(frame, i);
+        }
+        return variables;
+    }
+    
+    /**
+     * This method converts a variable of a recorded frame to a JDIVariable.
+     * 
+     * @param frame
+     * @param variable the position of the variable in the frame.
+     * @return 
+     */
+    private JDIVariable convert(TraceFrame frame, int variable) {
+        TraceDictionary dictionary = recorder.getDictionary();
+        byte tag = frame.getTag(variable);
+        JDIVariable var = new JDIVariable();
+        var.setName(dictionary.getSlotName(frame.getSlot(variable)));
+        var.setTypeName(getTypeName(tag));
+        if(tag == TraceValues.NULL && view != null) {
+            var.setValue(view.getNull());
+        } else {
+            var.setValue(TraceValues.toString(tag, frame.getValue(variable), dictionary));
+        }
+        if(view != null) {
+            view.convertTypeName(var);
+        }
+        var.setPrimitive(true); //the trace holds no fields to expand
+        return var;
+    }
+    
+    /**
+     * This method returns the Java name of the type of a value with a tag.
+     * 
+     * @param tag
+     * @return 
+     */
+    private static String getTypeName(byte tag) {
+        switch(tag) {
+            case TraceValues.BOOLEAN:
+                return "boolean";
+            case TraceValues.BYTE:
+                return "byte";
+            case TraceValues.CHAR:
+                return "char";
+            case TraceValues.SHORT:
+                return "short";
+            case TraceValues.INTEGER:
+                return "int";
+            case TraceValues.LONG:
+                return "long";
+            case TraceValues.FLOAT:
+                return "float";
+            case TraceValues.DOUBLE:
+                return "double";
+            case TraceValues.STRING:
+                return "java.lang.String";
+            default:
+                return "java.lang.Object";
+        }
+    }
+    
+    @Override
+    public boolean isLeaf(Variable node) {
+        return true;
+    }
+    
+    @Override
+    public int getChildrenCount(Variable node) {
+        if(node != null) {
+            return 0;
+        }
+        TraceFrame frame = getFrame();
+        return frame == null ? 0 : frame.getVariableCount();
+    }
+    
+    @Override
+    public String getDisplayName(Variable node) {
+        return node == null ? "" : node.getName();
+    }
+    
+    @Override
+    public String getShortDescription(Variable node) {
+        return "";
+    }
+    
+    @Override
+    public Object getValueAt(Variable node, VariableColumns column) {
+        if (node == null) {
+            return "";
+        }
+        switch (column) {
+            case NAME:
+                return node.getName();
+            case TYPE:
+                return node.getTypeName();
+            case VALUE:
+                return node.getValue();
+        }
+        return "";
+    }
+    
+    @Override
+    public boolean isReadOnly(Variable node, VariableColumns column) {
+        return true;
+    }
+    
+    @Override
+    public void setValueAt(Variable node, VariableColumns column, Object value) {
+        //the past cannot be changed
+    }
+    
+    @Override
+    public Variable getWatchResult(Watch watch) {
+        String expression = watch.getExpression();
+        TraceFrame frame = getFrame();
+        if(expression.isEmpty() || frame == null) {
+            return null;
+        }
+        int variable = frame.indexOf(expression, recorder.getDictionary());
+        if(variable < 0) {
+            return null;
+        }
+        JDIVariable var = convert(frame, variable);
+        var.setWatchExpression(true);
+        return var;
+    }
+
+    @Override
+    public Variable[] getWatchResults(Watch[] watches) {
+        Variable[] results = new Variable[watches.length];
+        for(int i = 0; i < watches.length; i++) {
+            results[i] = getWatchResult(watches[i]);
+        }
+        return results;
+    }
+    
+    /**
+     * @return the step whose variables are shown
+     */
+    public synchronized long getStep() {
+        return step;
+    }
+    
+    /**
+     * @param step the step whose variables are shown
+     */
+    public synchronized void setStep(long step) {
+        this.step = step;
+    }
+    
+    /**
+     * @return the view naming types and values for the language
+     */
+    public synchronized JDIVariableView getView() {
+        return view;
+    }
+    
+    /**
+     * @param view the view naming types and values for the language
+     */
+    public synchronized void setView(JDIVariableView view) {
+        this.view = view;
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ Copyright (c) 2013, Andreas Stefik and Matt Pedersen
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met: 
+
+ 1. Redistributions of source code must retain the above copyright notice, this
+ list of conditions and the following disclaimer. 
+ 2. Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation
+ and/or other materials provided with the distribution. 
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ The views and conclusions contained in the software and documentation are those
+ of the authors and should not be interpreted as representing official policies, 
+ either expressed or implied, of the FreeBSD Project.
+ */
+package org.debugger.jdi.trace;
+
+import java.util.Arrays;
+
+/**
+ * This class indexes the writes to each variable slot of a trace, so that
+ * questions like "who last assigned this variable" and "when did it become 
+ * 3" are answered without scanning the trace. It is built as the trace is
+ * recorded: for each slot, it keeps the steps that wrote it, which are in 
+ * ascending order as steps are only ever added at the end, alongside the 
+ * thread and the value of each write, all in arrays of primitives.
+ * 
+ * Finding the last write before a step is a binary search. Finding the 
+ * first write matching a condition looks only at the writes to the slot,
+ * rather than at every step of the trace. When recording uses breakpoints, 
+ * a write is a change of value, while the trace agent records every store.
+ * 
+ * While recording, chunks are indexed as they are sealed, in the background,
+ * so the index may not yet hold the writes of the most recent steps. The 
+ * steps it holds are those before getIndexedSteps. Writes of steps the 
+ * buffer has deleted, as old segments are, are trimmed from the index too, 
+ * so it takes memory in proportion to the trace that is kept.
+ * 
+ * @author Andreas Stefik
+ */
+public class TraceWriteIndex {
+    private Writes[] slots = new Writes[64];
+    private long writeCount = 0;
+    private long indexedSteps = 0;
+    private long firstStep = 0;
+    
+    /**
+     * This interface tests the value of a write.
+     */
+    public interface ValuePredicate {
+        /**
+         * @param tag the tag of the value, from TraceValues.
+         * @param value the value as it is stored in the trace.
+         * @return whether the value is accepted
+         */
+        public boolean test(byte tag, long value);
+    }
+    
+    /**
+     * This method adds the writes of a step.
+     * 
+     * @param step
+     * @param thread
+     * @param count the number of variables written.
+     * @param written the slots written.
+     * @param tags the tags of the values.
+     * @param values the values.
+     */
+    public synchronized void add(long step, int thread, int count, int[] written, 
+            byte[] tags, long[] values) {
+        for(int i = 0; i < count; i++) {
+            int slot = written[i];
+            if(slot >= slots.length) {
+                slots = Arrays.copyOf(slots, Math.max(slots.length * 2, slot + 1));
+            }
+            Writes writes = slots[slot];
+            if(writes == null) {
+                writes = new Writes();
+                slots[slot] = writes;
+            }
+            writes.add(step, thread, tags[i], values[i]);
+        }
+        writeCount += count;
+        indexedSteps = Math.max(indexedSteps, step + 1);
+    }
+    
+    /**
+     * This method groups the writes of a chunk by slot, apart from the 
+     * index, so that chunks can be grouped in parallel and then added in 
+     * order.
+     * 
+     * @param chunk
+     * @return 
+     */
+    static Group group(TraceChunk chunk) {
+        int size = chunk.getSize();
+        int changes = chunk.getChangeStart(size);
+        long[] keys = new long[changes];
+        int[] steps = new int[changes];
+        for(int i = 0; i < size; i++) {
+            for(int change = chunk.getChangeStart(i); change < chunk.getChangeStart(i + 1); change++) {
+                keys[change] = ((long) chunk.getSlot(change) << 32) | change;
+                steps[change] = i;
+            }
+        }
+        Arrays.sort(keys);
+        Group group = new Group(changes, chunk.getFirstStep() + size);
+        int previous = -1;
+        for(int i = 0; i < changes; i++) {
+            int slot = (int) (keys[i] >>> 32);
+            int change = (int) keys[i];
+            if(slot != previous) {
+                group.slots[group.runs] = slot;
+                group.starts[group.runs] = i;
+                group.runs++;
+                previous = slot;
+            }
+            group.steps[i] = chunk.getFirstStep() + steps[change];
+            group.threads[i] = chunk.getThread(steps[change]);
+            group.tags[i] = chunk.getTag(change);
+            group.values[i] = chunk.getValue(change);
+        }
+        group.starts[group.runs] = changes;
+        return group;
+    }
+    
+    /**
+     * This method adds the writes of a chunk, grouped by group. Chunks must
+     * be added in order.
+     * 
+     * @param group 
+     */
+    synchronized void add(Group group) {
+        for(int run = 0; run < group.runs; run++) {
+            int slot = group.slots[run];
+            if(slot >= slots.length) {
+                slots = Arrays.copyOf(slots, Math.max(slots.length * 2, slot + 1));
+            }
+            Writes writes = slots[slot];
+            if(writes == null) {
+                writes = new Writes();
+                slots[slot] = writes;
+            }
+            writes.addAll(group, group.starts[run], group.starts[run + 1]);
+        }
+        writeCount += group.steps.length;
+        indexedSteps = Math.max(indexedSteps, group.end);
+    }
+    
+    private Writes get(int slot) {
+        return slot >= 0 && slot < slots.length ? slots[slot] : null;
+    }
+    
+    /**
+     * This method returns the last step at or before a step that wrote a 
+     * slot, or -1 if there is none.
+     * 
+     * @param slot
+     * @param step
+     * @return 
+     */
+    public synchronized long lastWriteBefore(int slot, long step) {
+        Writes writes = get(slot);
+        if(writes == null) {
+            return -1;
+        }
+        int index = writes.indexAtOrBefore(step);
+        return index < 0 ? -1 : writes.steps[index];
+    }
+    
+    /**
+     * This method returns the last step at or before a step that wrote a 
+     * slot in a particular thread, or -1 if there is none.
+     * 
+     * @param slot
+     * @param thread
+     * @param step
+     * @return 
+     */
+    public synchronized long lastWriteBefore(int slot, int thread, long step) {
+        Writes writes = get(slot);
+        if(writes == null) {
+            return -1;
+        }
+        for(int index = writes.indexAtOrBefore(step); index >= 0; index--) {
+            if(writes.threads[index] == thread) {
+                return writes.steps[index];
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * This method returns the first step at or after a step that wrote a 
+     * slot, or -1 if there is none.
+     * 
+     * @param slot
+     * @param step
+     * @return 
+     */
+    public synchronized long firstWriteAfter(int slot, long step) {
+        Writes writes = get(slot);
+        if(writes == null) {
+            return -1;
+        }
+        int index = writes.indexAtOrBefore(step - 1) + 1;
+        return index < writes.count ? writes.steps[index] : -1;
+    }
+    
+    /**
+     * This method returns the first step at or after a step that wrote a 
+     * value to a slot accepted by a predicate, or -1 if there is none.
+     * 
+     * @param slot
+     * @param from the first step to consider.
+     * @param predicate
+     * @return 
+     */
+    public synchronized long findFirst(int slot, long from, ValuePredicate predicate) {
+        Writes writes = get(slot);
+        if(writes == null) {
+            return -1;
+        }
+        for(int index = writes.indexAtOrBefore(from - 1) + 1; index < writes.count; index++) {
+            if(predicate.test(writes.tags[index], writes.values[index])) {
+                return writes.steps[index];
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * This method returns the first step that wrote a value to a slot 
+     * accepted by a predicate, or -1 if there is none.
+     * 
+     * @param slot
+     * @param predicate
+     * @return 
+     */
+    public long findFirst(int slot, ValuePredicate predicate) {
+        return findFirst(slot, 0, predicate);
+    }
+    
+    /**
+     * This method returns the last step at or before a step that wrote a 
+     * value to a slot accepted by a predicate, or -1 if there is none.
+     * 
+     * @param slot
+     * @param step
+     * @param predicate
+     * @return 
+     */
+    public synchronized long findLast(int slot, long step, ValuePredicate predicate) {
+        Writes writes = get(slot);
+        if(writes == null) {
+            return -1;
+        }
+        for(int index = writes.indexAtOrBefore(step); index >= 0; index--) {
+            if(predicate.test(writes.tags[index], writes.values[index])) {
+                return writes.steps[index];
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * This method returns the value a slot was given by the write at a 
+     * step, with its tag, or null if the step did not write the slot.
+     * 
+     * @param slot
+     * @param step
+     * @return the tag and value, in that order.
+     */
+    public synchronized long[] getWrite(int slot, long step) {
+        Writes writes = get(slot);
+        if(writes == null) {
+            return null;
+        }
+        int index = writes.indexAtOrBefore(step);
+        if(index < 0 || writes.steps[index] != step) {
+            return null;
+        }
+        return new long[] {writes.tags[index], writes.values[index]};
+    }
+    
+    /**
+     * @param slot
+     * @return the number of writes to a slot
+     */
+    public synchronized int getWriteCount(int slot) {
+        Writes writes = get(slot);
+        return writes == null ? 0 : writes.count;
+    }
+    
+    /**
+     * This method removes the writes of the steps before a step, once the 
+     * buffer has deleted them.
+     * 
+     * @param first the first step to keep.
+     */
+    synchronized void trim(long first) {
+        if(first <= firstStep) {
+            return;
+        }
+        for(int i = 0; i < slots.length; i++) {
+            Writes writes = slots[i];
+            if(writes != null) {
+                writeCount -= writes.trim(first);
+                if(writes.count == 0) {
+                    slots[i] = null;
+                }
+            }
+        }
+        firstStep = first;
+    }
+    
+    /**
+     * @return the number of writes indexed, and not yet trimmed
+     */
+    public synchronized long getWriteCount() {
+        return writeCount;
+    }
+    
+    /**
+     * @return the number of the first step whose writes are not yet indexed
+     */
+    public synchronized long getIndexedSteps() {
+        return indexedSteps;
+    }
+    
+    /**
+     * @return the first step whose writes have not been trimmed
+     */
+    public synchronized long getFirstStep() {
+        return firstStep;
+    }
+    
+    /**
+     * This method removes every write from the index.
+     */
+    public synchronized void clear() {
+        slots = new Writes[64];
+        writeCount = 0;
+        indexedSteps = 0;
+        firstStep = 0;
+    }
+    
+    /**
+     * This class holds the writes of a chunk, sorted into runs to the same
+     * slot.
+     */
+    static class Group {
+        private final int[] slots;
+        private final int[] starts;
+        private final long[] steps;
+        private final int[] threads;
+        private final byte[] tags;
+        private final long[] values;
+        private final long end;
+        private int runs = 0;
+        
+        private Group(int changes, long end) {
+            slots = new int[changes];
+            starts = new int[changes + 1];
+            steps = new long[changes];
+            threads = new int[changes];
+            tags = new byte[changes];
+            values = new long[changes];
+            this.end = end;
+        }
+    }
+    
+    /**
+     * This class holds the writes to one slot, in the order of their steps.
+     */
+    private static class Writes {
+        private long[] steps = new long[8];
+        private int[] threads = new int[8];
+        private byte[] tags = new byte[8];
+        private long[] values = new long[8];
+        private int count = 0;
+        
+        private void add(long step, int thread, byte tag, long value) {
+            if(count == steps.length) {
+                int length = count * 2;
+                steps = Arrays.copyOf(steps, length);
+                threads = Arrays.copyOf(threads, length);
+                tags = Arrays.copyOf(tags, length);
+                values = Arrays.copyOf(values, length);
+            }
+            steps[count] = step;
+            threads[count] = thread;
+            tags[count] = tag;
+            values[count] = value;
+            count++;
+        }
+        
+        private void addAll(Group group, int from, int to) {
+            int length = to - from;
+            if(count + length > steps.length) {
+                int capacity = Math.max(steps.length * 2, count + length);
+                steps = Arrays.copyOf(steps, capacity);
+                threads = Arrays.copyOf(threads, capacity);
+                tags = Arrays.copyOf(tags, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            System.arraycopy(group.steps, from, steps, count, length);
+            System.arraycopy(group.threads, from, threads, count, length);
+            System.arraycopy(group.tags, from, tags, count, length);
+            System.arraycopy(group.values, from, values, count, length);
+            count += length;
+        }
+        
+        /**
+         * This method removes the writes before a step, giving back the 
+         * memory once most of it is unused.
+         */
+        private int trim(long first) {
+            int removed = indexAtOrBefore(first - 1) + 1;
+            if(removed == 0) {
+                return 0;
+            }
+            count -= removed;
+            int capacity = count < steps.length / 4 ? Math.max(8, count * 2) : steps.length;
+            steps = shift(steps, removed, capacity);
+            threads = shift(threads, removed, capacity);
+            tags = shift(tags, removed, capacity);
+            values = shift(values, removed, capacity);
+            return removed;
+        }
+        
+        private long[] shift(long[] array, int removed, int capacity) {
+            long[] kept = capacity == array.length ? array : new long[capacity];
+            System.arraycopy(array, removed, kept, 0, count);
+            return kept;
+        }
+        
+        private int[] shift(int[] array, int removed, int capacity) {
+            int[] kept = capacity == array.length ? array : new int[capacity];
+            System.arraycopy(array, removed, kept, 0, count);
+            return kept;
+        }
+        
+        private byte[] shift(byte[] array, int removed, int capacity) {
+            byte[] kept = capacity == array.length ? array : new byte[capacity];
+            System.arraycopy(array, removed, kept, 0, count);
+            return kept;
+        }
+        
+        /**
+         * This method returns the position of the last write at or before a
+         * step, or -1 if there is none.
+         */
+        private int indexAtOrBefore(long step) {
+            int index = Arrays.binarySearch(steps, 0, count, step);
+            return index >= 0 ? index : -index - 2;
+        }
+    }
+}
@@ -28,8 +28,11 @@
  */
 package org.debugger.jdi.views;
 
+import com.sun.jdi.ObjectCollectedException;
 import com.sun.jdi.ObjectReference;
+import com.sun.jdi.StringReference;
 import com.sun.jdi.ThreadReference;
+import com.sun.jdi.Value;
 import com.sun.jdi.VirtualMachine;
 import org.debugger.Variable;
 import org.debugger.VariableView;
@@ -66,6 +69,32 @@ public abstract class JDIVariableView implements VariableView {
      */
     public abstract Variable[] getSpecialVariableChildren(ObjectReference reference);
     
+    /**
+     * This method returns a short description of a value that never runs 
+     * code in the program: primitives and text as they are, and any other 
+     * object as its type and unique ID. Unlike getValue, it does not use 
+     * the view's thread, so it can be called from threads that were not 
+     * stopped by an event, and from more than one thread at a time.
+     * 
+     * @param value
+     * @return 
+     */
+    public String getSummary(Value value) {
+        if(value == null) {
+            return getNull();
+        } else if(value instanceof StringReference) {
+            return value.toString();
+        } else if(value instanceof ObjectReference) {
+            ObjectReference reference = (ObjectReference) value;
+            try {
+                return getObjectName(reference.referenceType().name()) + " #" + reference.uniqueID();
+            } catch(ObjectCollectedException exception) {
+                return "#" + reference.uniqueID();
+            }
+        }
+        return value.toString();
+    }
+    
     /**
      * This method converts the type name to a view appropriate name.
      * 
@@ -28,6 +28,7 @@
  */
 package org.debugger.jdi.views;
 
+import com.sun.jdi.ObjectCollectedException;
 import com.sun.jdi.ObjectReference;
 import com.sun.jdi.ReferenceType;
 import com.sun.jdi.Value;
@@ -49,6 +50,7 @@ import org.debugger.jdi.views.quorum.ListView;
 import org.debugger.jdi.views.quorum.Number32BitArrayView;
 import org.debugger.jdi.views.quorum.Number64BitArrayView;
 import org.debugger.jdi.views.quorum.NumberView;
+import org.debugger.jdi.views.quorum.PrimitiveView;
 import org.debugger.jdi.views.quorum.QuorumVariableView;
 import org.debugger.jdi.views.quorum.StackView;
 import org.debugger.jdi.views.quorum.TextObjectView;
@@ -221,6 +223,29 @@ public class QuorumView extends JDIVariableView {
         }
     }
 
+    /**
+     * This method returns a short description of a value that never runs 
+     * code in the program. Quorum's boxed integers, numbers, booleans and 
+     * text are shown by their value, which is read from a field.
+     *
+     * @param value
+     * @return
+     */
+    @Override
+    public String getSummary(Value value) {
+        if (value instanceof ObjectReference) {
+            try {
+                QuorumVariableView view = views.get(((ObjectReference) value).referenceType().name());
+                if (view instanceof PrimitiveView) {
+                    return view.getValue(value);
+                }
+            } catch (ObjectCollectedException exception) {
+                //the object is described by its unique ID below
+            }
+        }
+        return super.getSummary(value);
+    }
+
     @Override
     public boolean isSpecialVariable(ObjectReference reference) {
         ReferenceType type = reference.referenceType();
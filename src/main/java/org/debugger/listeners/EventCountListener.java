@@ -32,6 +32,7 @@ import org.debugger.events.DebuggerEvent;
 import org.debugger.DebuggerListener;
 import org.debugger.events.DebuggerBreakpointEvent;
 import org.debugger.events.DebuggerExceptionEvent;
+import org.debugger.events.DebuggerLoopEvent;
 import org.debugger.events.DebuggerStartEvent;
 import org.debugger.events.DebuggerStepEvent;
 import org.debugger.events.DebuggerStopEvent;
@@ -91,4 +92,9 @@ public class EventCountListener implements DebuggerListener {
     public void accept(DebuggerExceptionEvent event) {
         count++;
     }
+
+    @Override
+    public void accept(DebuggerLoopEvent event) {
+        count++;
+    }
 }
@@ -31,6 +31,7 @@ package org.debugger.listeners;
 import org.debugger.DebuggerListener;
 import org.debugger.events.DebuggerBreakpointEvent;
 import org.debugger.events.DebuggerExceptionEvent;
+import org.debugger.events.DebuggerLoopEvent;
 import org.debugger.events.DebuggerStartEvent;
 import org.debugger.events.DebuggerStepEvent;
 import org.debugger.events.DebuggerStopEvent;
@@ -74,4 +75,8 @@ public class TimingListener implements DebuggerListener {
     @Override
     public void accept(DebuggerExceptionEvent event) {
     }
+
+    @Override
+    public void accept(DebuggerLoopEvent event) {
+    }
 }